@@ -24,6 +24,7 @@ package org.picketlink.idm.api;
 
 import org.picketlink.idm.common.exception.IdentityException;
 
+import java.util.Collection;
 import java.util.Set;
 import java.util.Map;
 
@@ -99,6 +100,18 @@ public interface AttributesManager
     */
    Map<String, Attribute> getAttributes(IdentityType identity) throws IdentityException;
 
+   /**
+    * Get attributes for many IdentityType objects at once. Much cheaper than calling getAttributes(IdentityType)
+    * in a loop as stores can load them with a few queries.
+    *
+    * @param identities
+    * @param attributeNames names of attributes to return or null to return all attributes
+    * @return attributes keyed by given IdentityType objects
+    * @throws org.picketlink.idm.common.exception.IdentityException
+    */
+   Map<IdentityType, Map<String, Attribute>> getAttributes(Collection<? extends IdentityType> identities,
+                                                           String[] attributeNames) throws IdentityException;
+
    /**
     * Get attributes for the given IdentityType id
     *
@@ -59,6 +59,31 @@ public interface IdentitySearchCriteria
     */
    IdentitySearchCriteria page(int firstResult, int maxResults) throws UnsupportedCriterium;
 
+   /**
+    * Return only specified page from results sorted by name. Page starts right after the object with the given
+    * name - usually the last one from the previous page. Unlike page(firstResult, maxResults) cost doesn't grow
+    * with the page position.
+    *
+    * @param name
+    * @param maxResults
+    * @return
+    * @throws UnsupportedCriterium
+    */
+   IdentitySearchCriteria pageAfter(String name, int maxResults) throws UnsupportedCriterium;
+
+   /**
+    * Return only specified page from results sorted by name and group type. Page starts right after the object with
+    * the given name and group type. Needs to be used when results can contain groups of different types with the same
+    * name - otherwise objects with the same name as the last one from the previous page would be skipped.
+    *
+    * @param name
+    * @param groupType group type of the object with the given name or null for users
+    * @param maxResults
+    * @return
+    * @throws UnsupportedCriterium
+    */
+   IdentitySearchCriteria pageAfter(String name, String groupType, int maxResults) throws UnsupportedCriterium;
+
    /**
     * Filter results by attribute values. All values must be present
     *
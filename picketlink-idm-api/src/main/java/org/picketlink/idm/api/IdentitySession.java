@@ -76,6 +76,19 @@ public interface IdentitySession
     */
    boolean isOpen();
 
+   /**
+    * Declare that this session will be used only to read identity data. Stores can then skip tracking of changes.
+    * Changes made while session is read-only are not guaranteed to be saved
+    * @param readOnly
+    */
+   void setReadOnly(boolean readOnly);
+
+   /**
+    * Check if this session is read-only
+    * @return
+    */
+   boolean isReadOnly();
+
    /**
     * @return
     * @throws IdentityException
@@ -25,6 +25,7 @@ package org.picketlink.idm.api;
 import org.picketlink.idm.common.exception.IdentityException;
 
 import java.util.Collection;
+import java.util.Iterator;
 
 /**
  * Exposes all management operations on Group and User objects.
@@ -210,4 +211,17 @@ public interface PersistenceManager
     */
    Collection<Group> findGroup(String groupType) throws IdentityException;
 
+   /**
+    * Create users together with their attributes, credentials and group memberships. Users are read from the
+    * iterator lazily and written to the store in batches. Users that already exist are skipped. Per user events
+    * are not fired during import.
+    *
+    * @param users
+    * @param batchSize number of users written at once
+    * @param listener notified after each batch - may be null
+    * @return number of created users
+    * @throws IdentityException
+    */
+   int importUsers(Iterator<UserImport> users, int batchSize, ImportProgressListener listener) throws IdentityException;
+
 }
@@ -31,6 +31,7 @@ import org.picketlink.idm.api.User;
 import org.picketlink.idm.api.Group;
 import org.picketlink.idm.api.IdentitySession;
 import org.picketlink.idm.spi.search.IdentityObjectSearchCriteria;
+import org.picketlink.idm.impl.helper.ResultsPage;
 import org.picketlink.idm.impl.helper.Tools;
 
 import java.util.Map;
@@ -42,7 +43,6 @@ import java.util.HashSet;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.LinkedList;
 import java.io.Serializable;
 
 /**
@@ -64,6 +64,10 @@ public class IdentitySearchCriteriaImpl implements IdentitySearchCriteria, Ident
 
    private int maxResults;
 
+   private String pageAfterName;
+
+   private String pageAfterType;
+
    private boolean filtered = false;
 
    private final Map<String, String[]> attributes = new HashMap<String, String[]>();
@@ -86,6 +90,8 @@ public class IdentitySearchCriteriaImpl implements IdentitySearchCriteria, Ident
       paged = criteria.isPaged();
       firstResult = criteria.getFirstResult();
       maxResults = criteria.getMaxResults();
+      pageAfterName = criteria.getPageAfterName();
+      pageAfterType = criteria.getPageAfterType();
    }
 
 
@@ -118,7 +124,34 @@ public class IdentitySearchCriteriaImpl implements IdentitySearchCriteria, Ident
 
       this.firstResult = firstResult;
       this.maxResults = maxResults;
+      this.pageAfterName = null;
+      this.pageAfterType = null;
+
+
+      return this;
+   }
+
+   public IdentitySearchCriteria pageAfter(String name, int maxResults) throws UnsupportedCriterium
+   {
+      return pageAfter(name, null, maxResults);
+   }
+
+   public IdentitySearchCriteria pageAfter(String name, String groupType, int maxResults) throws UnsupportedCriterium
+   {
+      if (name == null)
+      {
+         throw new IllegalArgumentException("Name is null");
+      }
+
+      // Keyset page is defined by the name and type order
+      sorted = true;
+      sortByName = null;
+      paged = true;
 
+      this.firstResult = 0;
+      this.maxResults = maxResults;
+      this.pageAfterName = name;
+      this.pageAfterType = groupType;
 
       return this;
    }
@@ -190,6 +223,21 @@ public class IdentitySearchCriteriaImpl implements IdentitySearchCriteria, Ident
       return maxResults;
    }
 
+   public String getPageAfterName()
+   {
+      return pageAfterName;
+   }
+
+   public String getPageAfterType()
+   {
+      return pageAfterType;
+   }
+
+   public void setPageAfterType(String pageAfterType)
+   {
+      this.pageAfterType = pageAfterType;
+   }
+
    public boolean isFiltered()
    {
       return filtered;
@@ -205,6 +253,16 @@ public class IdentitySearchCriteriaImpl implements IdentitySearchCriteria, Ident
       this.paged = paged;
    }
 
+   public void setFirstResult(int firstResult)
+   {
+      this.firstResult = firstResult;
+   }
+
+   public void setMaxResults(int maxResults)
+   {
+      this.maxResults = maxResults;
+   }
+
 
    // Static helper methods:
 
@@ -252,7 +310,7 @@ public class IdentitySearchCriteriaImpl implements IdentitySearchCriteria, Ident
 
       if (criteria.isPaged())
       {
-         results = cutPageFromResults(results, criteria);
+         results = ResultsPage.cut(results, criteria, ResultsPage.IDENTITY_TYPE_NAMES).getObjects();
       }
 
       return results;
@@ -265,10 +323,18 @@ public class IdentitySearchCriteriaImpl implements IdentitySearchCriteria, Ident
    {
       Set<IdentityType> toRemove = new HashSet<IdentityType>();
 
+      // Load only filtered attributes of all identities at once
+      Map<IdentityType, Map<String, Attribute>> allAttrs = identitySession.getAttributesManager()
+         .getAttributes(types, attrs.keySet().toArray(new String[attrs.size()]));
+
       for (IdentityType type : types)
       {
-         //TODO: AttributeManager should have .getAttributes(type, names) to improve and not obtain everything
-         Map<String, Attribute> presentAttrs = identitySession.getAttributesManager().getAttributes(type);
+         Map<String, Attribute> presentAttrs = allAttrs.get(type);
+
+         if (presentAttrs == null)
+         {
+            presentAttrs = Collections.emptyMap();
+         }
 
          for (Map.Entry<String, String[]> entry : attrs.entrySet())
          {
@@ -374,13 +440,14 @@ public class IdentitySearchCriteriaImpl implements IdentitySearchCriteria, Ident
                Group g1 = (Group)o1;
                Group g2 = (Group)o2;
 
+               // Same named groups are ordered by type - same as keyset pages
                if (ascending)
                {
-                  return g1.getName().compareTo(g2.getName());
+                  return ResultsPage.compareKeys(g1.getName(), g1.getGroupType(), g2.getName(), g2.getGroupType());
                }
                else
                {
-                  return g2.getName().compareTo(g1.getName());
+                  return ResultsPage.compareKeys(g2.getName(), g2.getGroupType(), g1.getName(), g1.getGroupType());
                }
 
             }
@@ -396,12 +463,16 @@ public class IdentitySearchCriteriaImpl implements IdentitySearchCriteria, Ident
 
       //TODO: Check if attribute has "text" type and delegate to name sort if not
 
-      // Pre fetch attributes
+      // Pre fetch attributes of all objects with one call
+      Map<IdentityType, Map<String, Attribute>> fetched =
+         identitySession.getAttributesManager().getAttributes(objects, new String[]{attributeName});
+
       final Map<T, String> attributes = new HashMap<T, String>();
 
       for (T object : objects)
       {
-         Attribute attr = identitySession.getAttributesManager().getAttribute(object, attributeName);
+         Map<String, Attribute> objectAttributes = fetched.get(object);
+         Attribute attr = objectAttributes != null ? objectAttributes.get(attributeName) : null;
 
          if (attr != null && attr.getValue() != null)
          {
@@ -433,35 +504,6 @@ public class IdentitySearchCriteriaImpl implements IdentitySearchCriteria, Ident
       });
    }
 
-   //TODO: dummy and inefficient...
-   private static <T extends IdentityType> List<T> cutPageFromResults(List<T> objects,
-                                                                      IdentityObjectSearchCriteria criteria)
-   {
-      List<T> results = new LinkedList<T>();
-
-      if (criteria.getMaxResults() == 0)
-      {
-         for (int i = criteria.getFirstResult(); i < objects.size(); i++)
-         {
-            if (i < objects.size())
-            {
-               results.add(objects.get(i));
-            }
-         }
-      }
-      else
-      {
-         for (int i = criteria.getFirstResult(); i < criteria.getFirstResult() + criteria.getMaxResults(); i++)
-         {
-            if (i < objects.size())
-            {
-               results.add(objects.get(i));
-            }
-         }
-      }
-      return results;
-   }
-
    @Override
    public boolean equals(Object o)
    {
@@ -512,6 +554,14 @@ public class IdentitySearchCriteriaImpl implements IdentitySearchCriteria, Ident
       {
          return false;
       }
+      if (pageAfterName != null ? !pageAfterName.equals(that.pageAfterName) : that.pageAfterName != null)
+      {
+         return false;
+      }
+      if (pageAfterType != null ? !pageAfterType.equals(that.pageAfterType) : that.pageAfterType != null)
+      {
+         return false;
+      }
 
       return true;
    }
@@ -528,6 +578,8 @@ public class IdentitySearchCriteriaImpl implements IdentitySearchCriteria, Ident
       result = 31 * result + (filtered ? 1 : 0);
       result = 31 * result + (attributes != null ? attributes.hashCode() : 0);
       result = 31 * result + (filter != null ? filter.hashCode() : 0);
+      result = 31 * result + (pageAfterName != null ? pageAfterName.hashCode() : 0);
+      result = 31 * result + (pageAfterType != null ? pageAfterType.hashCode() : 0);
       return result;
    }
 
@@ -22,9 +22,16 @@
 
 package org.picketlink.idm.impl.api;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.picketlink.idm.impl.helper.Tools;
 import org.picketlink.idm.api.IdentitySession;
@@ -32,6 +39,10 @@ import org.picketlink.idm.api.IdentitySessionFactory;
 import org.picketlink.idm.common.exception.IdentityException;
 import org.picketlink.idm.impl.api.session.IdentitySessionImpl;
 import org.picketlink.idm.impl.configuration.IdentitySessionConfigurationContext;
+import org.picketlink.idm.impl.store.IdentityStoreChangeListener;
+import org.picketlink.idm.impl.store.IdentityStoreChangeSource;
+import org.picketlink.idm.spi.model.IdentityObject;
+import org.picketlink.idm.spi.repository.IdentityStoreRepository;
 import org.picketlink.idm.spi.configuration.metadata.IdentityConfigurationMetaData;
 
 /**
@@ -44,27 +55,111 @@ public class IdentitySessionFactoryImpl implements IdentitySessionFactory, Seria
 
    private static final long serialVersionUID = 3806145082462607359L;
 
-   private final Map<String, IdentitySession> realmMap = new HashMap<String, IdentitySession>();
+   private static Logger log = Logger.getLogger(IdentitySessionFactoryImpl.class.getName());
+
+   // Read by store change listeners
+   private final Map<String, IdentitySession> realmMap = new ConcurrentHashMap<String, IdentitySession>();
 
    private final Map<String, IdentitySessionConfigurationContext> sessionContextMap;
 
    private final IdentityConfigurationMetaData configMD;
 
+   private volatile boolean closed = false;
+
    public IdentitySessionFactoryImpl(IdentityConfigurationMetaData configMD, Map<String, IdentitySessionConfigurationContext> sessionContextMap)
    {
       this.sessionContextMap = sessionContextMap;
       this.configMD = configMD;
+
+      registerChangeListeners();
+   }
+
+   /**
+    * Invalidates API cache of sessions using a repository in which changes were made bypassing PicketLink IDM
+    */
+   private void registerChangeListeners()
+   {
+      Set<IdentityStoreRepository> repositories = new HashSet<IdentityStoreRepository>();
+
+      for (IdentitySessionConfigurationContext sessionConfigCtx : sessionContextMap.values())
+      {
+         if (sessionConfigCtx.getApiCacheProvider() != null)
+         {
+            repositories.add(sessionConfigCtx.getRepository());
+         }
+      }
+
+      for (final IdentityStoreRepository repository : repositories)
+      {
+         if (repository instanceof IdentityStoreChangeSource)
+         {
+            ((IdentityStoreChangeSource)repository).addChangeListener(new IdentityStoreChangeListener()
+            {
+               public void identityObjectsChanged(String storeId, Collection<IdentityObject> identityObjects)
+               {
+                  invalidateApiCache(repository);
+               }
+            });
+         }
+      }
+   }
+
+   private void invalidateApiCache(IdentityStoreRepository repository)
+   {
+      for (IdentitySession session : realmMap.values())
+      {
+         IdentitySessionImpl sessionImpl = (IdentitySessionImpl)session;
+
+         if (sessionImpl.getApiCacheProvider() != null &&
+            sessionImpl.getSessionContext().getIdentityStoreRepository() == repository)
+         {
+            // API cache keeps users, groups, relationships and attributes together
+            sessionImpl.getApiCacheProvider().invalidate(sessionImpl.getCacheNS());
+         }
+      }
    }
 
    public void close()
    {
-      //TODO: close all sessions and put closed state?
-      //TODO: should keep map of all bootstrapped stores/repos and cleanup
+      //TODO: close all sessions?
+
+      if (closed)
+      {
+         return;
+      }
+
+      closed = true;
+
+      // Realms can share a repository
+      Set<IdentityStoreRepository> repositories = new HashSet<IdentityStoreRepository>();
+
+      for (IdentitySessionConfigurationContext sessionConfigCtx : sessionContextMap.values())
+      {
+         repositories.add(sessionConfigCtx.getRepository());
+      }
+
+      for (IdentityStoreRepository repository : repositories)
+      {
+         if (repository instanceof Closeable)
+         {
+            try
+            {
+               ((Closeable)repository).close();
+            }
+            catch (IOException e)
+            {
+               if (log.isLoggable(Level.FINER))
+               {
+                  log.log(Level.FINER, "Exception occurred: ", e);
+               }
+            }
+         }
+      }
    }
 
    public boolean isClosed()
    {
-      return false;
+      return closed;
    }
 
    public IdentitySession createIdentitySession(String realmName) throws IdentityException
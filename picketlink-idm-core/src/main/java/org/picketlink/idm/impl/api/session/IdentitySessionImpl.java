@@ -205,6 +205,16 @@ public class IdentitySessionImpl implements IdentitySession, Serializable
       return sessionContext.resolveStoreInvocationContext().getIdentityStoreSession().isOpen();
    }
 
+   public void setReadOnly(boolean readOnly)
+   {
+      sessionContext.resolveStoreInvocationContext().getIdentityStoreSession().setReadOnly(readOnly);
+   }
+
+   public boolean isReadOnly()
+   {
+      return sessionContext.resolveStoreInvocationContext().getIdentityStoreSession().isReadOnly();
+   }
+
    public Transaction beginTransaction()
    {
       Transaction transaction = new SimpleTransactionImpl(sessionContext.resolveStoreInvocationContext().getIdentityStoreSession());
@@ -200,7 +200,23 @@ public abstract class
 
       if (criteria instanceof IdentityObjectSearchCriteria)
       {
-         return (IdentityObjectSearchCriteria)criteria;
+         IdentityObjectSearchCriteria ioCriteria = (IdentityObjectSearchCriteria)criteria;
+
+         // Stores compare identity object type names so group type of the keyset page needs to be mapped
+
+         if (ioCriteria.getPageAfterType() != null)
+         {
+            IdentityObjectType type = getIdentityObjectType(ioCriteria.getPageAfterType());
+
+            if (type != null && !type.getName().equals(ioCriteria.getPageAfterType()))
+            {
+               IdentitySearchCriteriaImpl storeCriteria = new IdentitySearchCriteriaImpl(ioCriteria);
+               storeCriteria.setPageAfterType(type.getName());
+               return storeCriteria;
+            }
+         }
+
+         return ioCriteria;
       }
       else
       {
@@ -41,6 +41,10 @@ import org.picketlink.idm.impl.api.PasswordCredential;
 import org.picketlink.idm.impl.api.SimpleCredentialType;
 import org.picketlink.idm.impl.api.session.IdentitySessionImpl;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.Set;
 import java.util.Map;
 import java.util.HashMap;
@@ -216,6 +220,99 @@ public class AttributesManagerImpl extends AbstractManager implements Attributes
       }
    }
 
+   public Map<IdentityType, Map<String, Attribute>> getAttributes(Collection<? extends IdentityType> identities,
+                                                                  String[] attributeNames) throws IdentityException
+   {
+      try
+      {
+         checkNotNullArgument(identities, "IdentityType collection");
+
+         Map<IdentityType, Map<String, Attribute>> results = new HashMap<IdentityType, Map<String, Attribute>>();
+
+         Map<IdentityType, IdentityObject> missing = new HashMap<IdentityType, IdentityObject>();
+
+         for (IdentityType identityType : identities)
+         {
+            checkNotNullArgument(identityType, "IdentityType");
+
+            if (cache != null)
+            {
+               Map<String, Attribute> attributes = cache.getAttributes(cacheNS, identityType.getKey());
+               if (attributes != null)
+               {
+                  results.put(identityType, filterAttributes(attributes, attributeNames));
+                  continue;
+               }
+            }
+
+            missing.put(identityType, createIdentityObject(identityType));
+         }
+
+         if (missing.isEmpty())
+         {
+            return results;
+         }
+
+         Map<IdentityObject, Map<String, IdentityObjectAttribute>> loaded =
+            getRepository().getAttributes(getInvocationContext(), new LinkedList<IdentityObject>(missing.values()), attributeNames);
+
+         for (Map.Entry<IdentityType, IdentityObject> entry : missing.entrySet())
+         {
+            Map<String, Attribute> newMap = new HashMap<String, Attribute>();
+
+            Map<String, IdentityObjectAttribute> map = loaded.get(entry.getValue());
+
+            if (map != null)
+            {
+               for (Map.Entry<String, IdentityObjectAttribute> attributeEntry : map.entrySet())
+               {
+                  newMap.put(attributeEntry.getKey(), convertAttribute(attributeEntry.getValue()));
+               }
+            }
+
+            // Only complete attribute sets can be cached
+            if (cache != null && attributeNames == null)
+            {
+               cache.putAttributes(cacheNS, entry.getKey().getKey(), newMap);
+            }
+
+            results.put(entry.getKey(), newMap);
+         }
+
+         return results;
+      }
+      catch (IdentityException e)
+      {
+         if (log.isLoggable(Level.FINER))
+         {
+            log.log(Level.FINER, "Exception occurred: ", e);
+         }
+         throw e;
+      }
+   }
+
+   private static Map<String, Attribute> filterAttributes(Map<String, Attribute> attributes, String[] attributeNames)
+   {
+      if (attributeNames == null)
+      {
+         return attributes;
+      }
+
+      Set<String> names = new HashSet<String>(Arrays.asList(attributeNames));
+
+      Map<String, Attribute> result = new HashMap<String, Attribute>();
+
+      for (Map.Entry<String, Attribute> entry : attributes.entrySet())
+      {
+         if (names.contains(entry.getKey()))
+         {
+            result.put(entry.getKey(), entry.getValue());
+         }
+      }
+
+      return result;
+   }
+
    public Map<String, Attribute> getAttributes(String id) throws IdentityException
    {
       try
@@ -29,9 +29,13 @@ import org.picketlink.idm.impl.api.model.SimpleGroup;
 import org.picketlink.idm.impl.api.model.SimpleUser;
 import org.picketlink.idm.impl.api.session.IdentitySessionImpl;
 import org.picketlink.idm.impl.cache.GroupSearchImpl;
+import org.picketlink.idm.impl.types.SimpleIdentityObjectImport;
 import org.picketlink.idm.impl.types.SimpleIdentityObjectType;
 import org.picketlink.idm.spi.model.IdentityObject;
+import org.picketlink.idm.spi.model.IdentityObjectCredential;
+import org.picketlink.idm.spi.model.IdentityObjectImport;
 import org.picketlink.idm.spi.model.IdentityObjectType;
+import org.picketlink.idm.spi.store.IdentityObjectImportListener;
 import org.picketlink.idm.spi.store.IdentityObjectSearchCriteriaType;
 import org.picketlink.idm.spi.store.IdentityStore;
 
@@ -645,5 +649,128 @@ public class PersistenceManagerImpl extends AbstractManager implements Persisten
         return findGroup(groupType, (IdentitySearchCriteria) null);
     }
 
+    public int importUsers(final Iterator<UserImport> users, int batchSize, final ImportProgressListener listener) throws IdentityException
+    {
+        checkNotNullArgument(users, "Users");
+
+        try
+        {
+            final IdentityObjectType iot = getUserObjectType();
+
+            // Users are converted lazily so the whole import is never kept in memory
+            Iterator<IdentityObjectImport> objects = new Iterator<IdentityObjectImport>()
+            {
+                public boolean hasNext()
+                {
+                    return users.hasNext();
+                }
+
+                public IdentityObjectImport next()
+                {
+                    return convertUserImport(users.next(), iot);
+                }
+
+                public void remove()
+                {
+                    throw new UnsupportedOperationException();
+                }
+            };
+
+            IdentityObjectImportListener objectsListener = null;
+
+            if (listener != null)
+            {
+                objectsListener = new IdentityObjectImportListener()
+                {
+                    public void importProgress(int processed, int imported)
+                    {
+                        listener.importProgress(processed, imported);
+                    }
+                };
+            }
+
+            try
+            {
+                return getRepository().importIdentityObjects(getInvocationContext(), objects, batchSize, objectsListener);
+            }
+            finally
+            {
+                //Cache
+                if (cache != null)
+                {
+                    cache.invalidate(cacheNS);
+                }
+            }
+        }
+        catch (IdentityException e)
+        {
+            if (log.isLoggable(Level.FINER))
+            {
+                log.log(Level.FINER, "Exception occurred: ", e);
+            }
+            throw e;
+        }
+    }
+
+    private IdentityObjectImport convertUserImport(UserImport user, IdentityObjectType iot)
+    {
+        checkNotNullArgument(user, "User");
+        checkNotNullArgument(user.getId(), "Identity name");
+        checkObjectName(user.getId());
+
+        Map<String, String[]> attributes = null;
+
+        if (user.getAttributes() != null)
+        {
+            attributes = new HashMap<String, String[]>();
+
+            for (Attribute attribute : user.getAttributes())
+            {
+                List<String> values = new LinkedList<String>();
+
+                if (attribute.getValues() != null)
+                {
+                    for (Object value : attribute.getValues())
+                    {
+                        values.add(value.toString());
+                    }
+                }
+
+                attributes.put(attribute.getName(), values.toArray(new String[values.size()]));
+            }
+        }
+
+        List<IdentityObjectCredential> credentials = null;
+
+        if (user.getCredentials() != null)
+        {
+            credentials = new LinkedList<IdentityObjectCredential>();
+
+            for (Credential credential : user.getCredentials())
+            {
+                if (!(credential instanceof IdentityObjectCredential))
+                {
+                    throw new IllegalArgumentException("Unsupported Credential implementation: " + credential.getClass());
+                }
+                credentials.add((IdentityObjectCredential)credential);
+            }
+        }
+
+        List<IdentityObject> parents = null;
+
+        if (user.getGroups() != null)
+        {
+            parents = new LinkedList<IdentityObject>();
+
+            for (Group group : user.getGroups())
+            {
+                parents.add(createIdentityObject(group));
+            }
+        }
+
+        return new SimpleIdentityObjectImport(user.getId(), iot, attributes, credentials, parents,
+            RelationshipManagerImpl.MEMBER);
+    }
+
 
 }
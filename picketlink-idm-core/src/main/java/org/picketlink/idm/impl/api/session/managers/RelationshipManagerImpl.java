@@ -854,28 +854,6 @@ public class RelationshipManagerImpl extends AbstractManager implements Relation
       }
    }
 
-   private Collection<Group> findAssociatedGroupsCascaded(Collection<Group> previous, Group group, String groupType, boolean parent, IdentitySearchCriteria criteria) throws IdentityException
-   {
-      Collection<Group> results = findAssociatedGroups(group, groupType, parent, false, criteria);
-
-      List<Group> newResults = new LinkedList<Group>();
-
-
-      // For each result make recursive call unless it is already in previous results
-      for (Group result : results)
-      {
-         if (!previous.contains(result))
-         {
-            newResults.add(result);
-            previous.add(result);
-            newResults.addAll(findAssociatedGroupsCascaded(previous, result, groupType, parent, criteria));
-         }
-      }
-
-      return newResults;
-
-   }
-
    public Collection<Group> findAssociatedGroups(Group group, String groupType, boolean parent, boolean cascade, IdentitySearchCriteria criteria) throws IdentityException
    {
 
@@ -906,9 +884,19 @@ public class RelationshipManagerImpl extends AbstractManager implements Relation
 
          if (cascade)
          {
-            Set<Group> prev = new HashSet<Group>();
-            prev.add(group);
-            identities = (List<Group>)findAssociatedGroupsCascaded(prev, group, groupType, parent, criteria);
+            // Whole hierarchy is resolved by the repository - criteria are applied to the complete result
+            Collection<IdentityObject> ios = getRepository().findIdentityObjectCascaded(getInvocationContext(),
+               createIdentityObject(group), MEMBER, iot, parent);
+
+            String userTypeName = getUserObjectType().getName();
+
+            for (IdentityObject io : ios)
+            {
+               if (!io.getIdentityType().getName().equals(userTypeName))
+               {
+                  identities.add(createGroup(io));
+               }
+            }
 
             try
             {
@@ -1156,17 +1144,18 @@ public class RelationshipManagerImpl extends AbstractManager implements Relation
 
          if (cascade)
          {
-            // Do non cascaded call
-
-            identities.addAll(findAssociatedUsers(group, false, criteria));
-
-            // Find all associated groups (cascaded)
-            Collection<Group> groups = findAssociatedGroups(group, null, true, true, criteria);
+            // Users of the group and all its subgroups are resolved with one repository call
+            Collection<IdentityObject> ios = getRepository().findIdentityObjectCascaded(getInvocationContext(),
+               createIdentityObject(group), MEMBER, null, true);
 
+            String userTypeName = getUserObjectType().getName();
 
-            for (Group asociatedGroup : groups)
+            for (IdentityObject io : ios)
             {
-               identities.addAll(findAssociatedUsers(asociatedGroup, false, criteria));
+               if (io.getIdentityType().getName().equals(userTypeName))
+               {
+                  identities.add(createUser(io));
+               }
             }
 
             try
@@ -41,6 +41,10 @@ public class IdentityObjectSearchImpl extends AbstractSPISearchImpl implements I
 
    private boolean parent;
 
+   private boolean cascaded;
+
+   private String cascadedType;
+
    public String getId()
    {
       return id;
@@ -101,6 +105,26 @@ public class IdentityObjectSearchImpl extends AbstractSPISearchImpl implements I
       this.parent = parent;
    }
 
+   public boolean isCascaded()
+   {
+      return cascaded;
+   }
+
+   public void setCascaded(boolean cascaded)
+   {
+      this.cascaded = cascaded;
+   }
+
+   public String getCascadedType()
+   {
+      return cascadedType;
+   }
+
+   public void setCascadedType(String cascadedType)
+   {
+      this.cascadedType = cascadedType;
+   }
+
    public String getRelationshipType()
    {
       return relationshipType;
@@ -129,6 +153,14 @@ public class IdentityObjectSearchImpl extends AbstractSPISearchImpl implements I
       {
          return false;
       }
+      if (cascaded != that.cascaded)
+      {
+         return false;
+      }
+      if (cascadedType != null ? !cascadedType.equals(that.cascadedType) : that.cascadedType != null)
+      {
+         return false;
+      }
       if (id != null ? !id.equals(that.id) : that.id != null)
       {
          return false;
@@ -167,6 +199,8 @@ public class IdentityObjectSearchImpl extends AbstractSPISearchImpl implements I
       result = 31 * result + (relatedIOName != null ? relatedIOName.hashCode() : 0);
       result = 31 * result + (relatedIOType != null ? relatedIOType.hashCode() : 0);
       result = 31 * result + (parent ? 1 : 0);
+      result = 31 * result + (cascaded ? 1 : 0);
+      result = 31 * result + (cascadedType != null ? cascadedType.hashCode() : 0);
       return result;
    }
 }
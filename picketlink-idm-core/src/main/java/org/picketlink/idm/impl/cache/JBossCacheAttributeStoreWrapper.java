@@ -31,10 +31,16 @@ import org.picketlink.idm.spi.model.IdentityObject;
 import org.picketlink.idm.spi.configuration.metadata.IdentityObjectAttributeMetaData;
 import org.picketlink.idm.spi.cache.IdentityStoreCacheProvider;
 import org.picketlink.idm.common.exception.IdentityException;
+import org.picketlink.idm.impl.helper.IdentityObjectAttributes;
 
 import java.util.logging.Logger;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
@@ -51,6 +57,9 @@ public class JBossCacheAttributeStoreWrapper implements AttributeStore
 
    protected final String cacheScope;
 
+   // Namespaces used so far - realm and session scoped data can be invalidated without invocation context
+   protected final Map<String, Boolean> usedNamespaces = new ConcurrentHashMap<String, Boolean>();
+
    public JBossCacheAttributeStoreWrapper(AttributeStore attributeStore, IdentityStoreCacheProvider cacheSupport, String cacheScope)
    {
       this.cacheSupport = cacheSupport;
@@ -60,18 +69,27 @@ public class JBossCacheAttributeStoreWrapper implements AttributeStore
 
    protected String getCacheNS(IdentityStoreInvocationContext ctx)
    {
+      String ns;
 
       if (cacheScope != null && cacheScope.equals("realm"))
       {
-         return cacheSupport.getNamespace(attributeStore.getId(), ctx.getRealmId());
+         ns = cacheSupport.getNamespace(attributeStore.getId(), ctx.getRealmId());
+      }
+      else if (cacheScope != null && cacheScope.equals("session"))
+      {
+         ns = cacheSupport.getNamespace(attributeStore.getId(), ctx.getRealmId(), ctx.getSessionId());
       }
-      if (cacheScope != null && cacheScope.equals("session"))
+      else
       {
-         return cacheSupport.getNamespace(attributeStore.getId(), ctx.getRealmId(), ctx.getSessionId());
+         ns = cacheSupport.getNamespace(attributeStore.getId());
       }
 
-      return cacheSupport.getNamespace(attributeStore.getId());
+      if (ns != null)
+      {
+         usedNamespaces.put(ns, Boolean.TRUE);
+      }
 
+      return ns;
    }
 
    public String getId()
@@ -116,6 +134,52 @@ public class JBossCacheAttributeStoreWrapper implements AttributeStore
       return results;
    }
 
+   public Map<IdentityObject, Map<String, IdentityObjectAttribute>> getAttributes(IdentityStoreInvocationContext invocationContext,
+                                                                                  Collection<IdentityObject> identities,
+                                                                                  String[] attributeNames) throws IdentityException
+   {
+      Map<IdentityObject, Map<String, IdentityObjectAttribute>> results =
+         new HashMap<IdentityObject, Map<String, IdentityObjectAttribute>>();
+
+      List<IdentityObject> missing = new LinkedList<IdentityObject>();
+
+      for (IdentityObject identity : identities)
+      {
+         Map<String, IdentityObjectAttribute> attributes =
+            cacheSupport.getIdentityObjectAttributes(getCacheNS(invocationContext), identity);
+
+         if (attributes != null)
+         {
+            results.put(identity, IdentityObjectAttributes.filterAttributes(attributes, attributeNames));
+         }
+         else
+         {
+            missing.add(identity);
+         }
+      }
+
+      if (missing.isEmpty())
+      {
+         return results;
+      }
+
+      Map<IdentityObject, Map<String, IdentityObjectAttribute>> loaded =
+         attributeStore.getAttributes(invocationContext, missing, attributeNames);
+
+      // Only complete attribute sets can be cached
+      if (attributeNames == null)
+      {
+         for (Map.Entry<IdentityObject, Map<String, IdentityObjectAttribute>> entry : loaded.entrySet())
+         {
+            cacheSupport.putIdentityObjectAttributes(getCacheNS(invocationContext), entry.getKey(), entry.getValue());
+         }
+      }
+
+      results.putAll(loaded);
+
+      return results;
+   }
+
    public IdentityObjectAttribute getAttribute(IdentityStoreInvocationContext invocationContext,
                                                IdentityObject identity,
                                                String name) throws IdentityException
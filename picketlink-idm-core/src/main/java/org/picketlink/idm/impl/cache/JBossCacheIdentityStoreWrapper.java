@@ -23,6 +23,7 @@
 package org.picketlink.idm.impl.cache;
 
 import org.picketlink.idm.spi.store.IdentityStore;
+import org.picketlink.idm.spi.store.IdentityObjectImportListener;
 import org.picketlink.idm.spi.store.FeaturesMetaData;
 import org.picketlink.idm.spi.store.IdentityStoreInvocationContext;
 import org.picketlink.idm.spi.model.IdentityObject;
@@ -30,17 +31,22 @@ import org.picketlink.idm.spi.model.IdentityObjectType;
 import org.picketlink.idm.spi.model.IdentityObjectRelationshipType;
 import org.picketlink.idm.spi.model.IdentityObjectRelationship;
 import org.picketlink.idm.spi.model.IdentityObjectCredential;
+import org.picketlink.idm.spi.model.IdentityObjectImport;
 import org.picketlink.idm.spi.exception.OperationNotSupportedException;
 import org.picketlink.idm.spi.configuration.IdentityStoreConfigurationContext;
 import org.picketlink.idm.spi.search.IdentityObjectSearchCriteria;
 import org.picketlink.idm.spi.cache.IdentityStoreCacheProvider;
 import org.picketlink.idm.common.exception.IdentityException;
 import org.picketlink.idm.impl.types.SimpleIdentityObjectRelationship;
+import org.picketlink.idm.impl.store.IdentityStoreChangeListener;
+import org.picketlink.idm.impl.store.IdentityStoreChangeSource;
 
 import java.util.Map;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -65,6 +71,18 @@ public class JBossCacheIdentityStoreWrapper extends JBossCacheAttributeStoreWrap
 
       this.identityStore = identityStore;
 
+      // Changes made bypassing this wrapper make cached searches, counts and attributes stale
+      if (identityStore instanceof IdentityStoreChangeSource)
+      {
+         ((IdentityStoreChangeSource)identityStore).addChangeListener(new IdentityStoreChangeListener()
+         {
+            public void identityObjectsChanged(String storeId, Collection<IdentityObject> identityObjects)
+            {
+               invalidateChanged(identityObjects);
+            }
+         });
+      }
+
       log.fine("------------------------------------------------------");
       log.fine("JBossCacheIdentityStoreWrapper created ....." +
          "(IdentityStore: " + identityStore.getId() + "; cache scope: " + cacheScope + ")");
@@ -188,6 +206,24 @@ public class JBossCacheIdentityStoreWrapper extends JBossCacheAttributeStoreWrap
       return io;
    }
 
+   public boolean isIdentityObjectPresent(IdentityStoreInvocationContext invocationContext,
+                                          IdentityObject identity) throws IdentityException
+   {
+      IdentityObjectSearchImpl search = new IdentityObjectSearchImpl();
+      search.setName(identity.getName());
+      search.setType(identity.getIdentityType().getName());
+
+      Collection<IdentityObject> results = cacheSupport.getIdentityObjectSearch(getCacheNS(invocationContext), search);
+
+      if (results != null && results.size() == 1)
+      {
+         return true;
+      }
+
+      // Absence is not cached as identity can be created in another store and synced later
+      return identityStore.isIdentityObjectPresent(invocationContext, identity);
+   }
+
    public IdentityObject findIdentityObject(IdentityStoreInvocationContext invocationContext,
                                             String id) throws IdentityException
    {
@@ -282,6 +318,43 @@ public class JBossCacheIdentityStoreWrapper extends JBossCacheAttributeStoreWrap
       return results;
    }
 
+   public Collection<IdentityObject> findIdentityObjectCascaded(IdentityStoreInvocationContext invocationCxt,
+                                                                IdentityObject identity,
+                                                                IdentityObjectRelationshipType relationshipType,
+                                                                IdentityObjectType identityType,
+                                                                boolean parent) throws IdentityException
+   {
+      IdentityObjectSearchImpl search = new IdentityObjectSearchImpl();
+      search.setParent(parent);
+      search.setCascaded(true);
+      if (relationshipType != null)
+      {
+         search.setRelationshipType(relationshipType.getName());
+      }
+      if (identityType != null)
+      {
+         search.setCascadedType(identityType.getName());
+      }
+      if (identity != null)
+      {
+         search.setName(identity.getName());
+         search.setType(identity.getIdentityType().getName());
+      }
+
+      Collection<IdentityObject> results = cacheSupport.getIdentityObjectSearch(getCacheNS(invocationCxt), search);
+
+      if (results != null)
+      {
+         return results;
+      }
+
+      results = identityStore.findIdentityObjectCascaded(invocationCxt, identity, relationshipType, identityType, parent);
+
+      cacheSupport.putIdentityObjectSearch(getCacheNS(invocationCxt), search, results);
+
+      return results;
+   }
+
 
 
 
@@ -567,6 +640,57 @@ public class JBossCacheIdentityStoreWrapper extends JBossCacheAttributeStoreWrap
       identityStore.updateCredential(ctx, identityObject, credential);
    }
 
+   public int importIdentityObjects(IdentityStoreInvocationContext ctx,
+                                    Iterator<IdentityObjectImport> objects,
+                                    int batchSize,
+                                    IdentityObjectImportListener listener) throws IdentityException
+   {
+      try
+      {
+         return identityStore.importIdentityObjects(ctx, objects, batchSize, listener);
+      }
+      finally
+      {
+         // Even partially completed import changes searches, counts and relationships
+         cacheSupport.invalidate(getCacheNS(ctx));
+      }
+   }
+
+   /**
+    * Invalidates data that can contain changed identity objects in all namespaces used by this wrapper. Searches are
+    * cached by search hash so all of them are invalidated.
+    *
+    * @param identityObjects changed objects or null if any object could change
+    */
+   void invalidateChanged(Collection<IdentityObject> identityObjects)
+   {
+      for (String ns : usedNamespaces.keySet())
+      {
+         if (identityObjects == null)
+         {
+            cacheSupport.invalidate(ns);
+            continue;
+         }
+
+         cacheSupport.invalidateIdentityObjectRelationshipNameSearches(ns);
+         cacheSupport.invalidateIdentityObjectRelationshipSearches(ns);
+         cacheSupport.invalidateIdentityObjectSearches(ns);
+         cacheSupport.invalidateRelationshipProperties(ns);
+
+         for (IdentityObject identityObject : identityObjects)
+         {
+            cacheSupport.invalidateIdentityObjectAttriubtes(ns, identityObject);
+            cacheSupport.invalidateIdentityObjectCount(ns, identityObject.getIdentityType().getName());
+         }
+      }
+
+      if (log.isLoggable(Level.FINER))
+      {
+         log.finer(this.toString() + " invalidated after changes made in the store: " +
+            (identityObjects != null ? identityObjects : "all objects"));
+      }
+   }
+
    @Override
    public String toString()
    {
@@ -0,0 +1,108 @@
+/*
+* JBoss, a division of Red Hat
+* Copyright 2006, Red Hat Middleware, LLC, and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.picketlink.idm.impl.helper;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.picketlink.idm.common.exception.IdentityException;
+import org.picketlink.idm.spi.model.IdentityObject;
+import org.picketlink.idm.spi.model.IdentityObjectAttribute;
+import org.picketlink.idm.spi.store.AttributeStore;
+import org.picketlink.idm.spi.store.IdentityStoreInvocationContext;
+
+/**
+ * Loads attributes of many identity objects using regular per identity AttributeStore calls. Used by stores that
+ * cannot fetch attributes of several identities with a single query.
+ *
+ * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
+ * @version : 0.1 $
+ */
+public class IdentityObjectAttributes
+{
+   private IdentityObjectAttributes()
+   {
+   }
+
+   public static Map<IdentityObject, Map<String, IdentityObjectAttribute>> getAttributes(AttributeStore store,
+                                                                                         IdentityStoreInvocationContext ctx,
+                                                                                         Collection<IdentityObject> identities,
+                                                                                         String[] attributeNames) throws IdentityException
+   {
+      if (identities == null)
+      {
+         throw new IllegalArgumentException("identities are null");
+      }
+
+      Map<IdentityObject, Map<String, IdentityObjectAttribute>> results =
+         new HashMap<IdentityObject, Map<String, IdentityObjectAttribute>>();
+
+      for (IdentityObject identity : identities)
+      {
+         if (!results.containsKey(identity))
+         {
+            results.put(identity, filterAttributes(store.getAttributes(ctx, identity), attributeNames));
+         }
+      }
+
+      return results;
+   }
+
+   /**
+    * @param attributes
+    * @param attributeNames names of attributes to keep or null to keep all of them
+    * @return new map containing only requested attributes
+    */
+   public static Map<String, IdentityObjectAttribute> filterAttributes(Map<String, IdentityObjectAttribute> attributes,
+                                                                      String[] attributeNames)
+   {
+      Map<String, IdentityObjectAttribute> result = new HashMap<String, IdentityObjectAttribute>();
+
+      if (attributes == null)
+      {
+         return result;
+      }
+
+      if (attributeNames == null)
+      {
+         result.putAll(attributes);
+         return result;
+      }
+
+      Set<String> names = new HashSet<String>(Arrays.asList(attributeNames));
+
+      for (Map.Entry<String, IdentityObjectAttribute> entry : attributes.entrySet())
+      {
+         if (names.contains(entry.getKey()))
+         {
+            result.put(entry.getKey(), entry.getValue());
+         }
+      }
+
+      return result;
+   }
+}
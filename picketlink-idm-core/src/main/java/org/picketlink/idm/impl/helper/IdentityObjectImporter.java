@@ -0,0 +1,141 @@
+/*
+* JBoss, a division of Red Hat
+* Copyright 2006, Red Hat Middleware, LLC, and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.picketlink.idm.impl.helper;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.picketlink.idm.common.exception.IdentityException;
+import org.picketlink.idm.impl.api.SimpleAttribute;
+import org.picketlink.idm.spi.model.IdentityObject;
+import org.picketlink.idm.spi.model.IdentityObjectAttribute;
+import org.picketlink.idm.spi.model.IdentityObjectCredential;
+import org.picketlink.idm.spi.model.IdentityObjectImport;
+import org.picketlink.idm.spi.store.IdentityObjectImportListener;
+import org.picketlink.idm.spi.store.IdentityStore;
+import org.picketlink.idm.spi.store.IdentityStoreInvocationContext;
+
+/**
+ * Imports identity objects one by one using regular IdentityStore operations. Used by stores that don't provide
+ * more efficient way of bulk import.
+ *
+ * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
+ * @version : 0.1 $
+ */
+public class IdentityObjectImporter
+{
+   private IdentityObjectImporter()
+   {
+   }
+
+   public static int importIdentityObjects(IdentityStore store,
+                                           IdentityStoreInvocationContext ctx,
+                                           Iterator<IdentityObjectImport> objects,
+                                           int batchSize,
+                                           IdentityObjectImportListener listener) throws IdentityException
+   {
+      if (objects == null)
+      {
+         throw new IllegalArgumentException("objects are null");
+      }
+      if (batchSize <= 0)
+      {
+         throw new IllegalArgumentException("Batch size must be greater than 0: " + batchSize);
+      }
+
+      int processed = 0;
+      int imported = 0;
+
+      while (objects.hasNext())
+      {
+         IdentityObjectImport entry = objects.next();
+         processed++;
+
+         if (store.findIdentityObject(ctx, entry.getName(), entry.getIdentityType()) == null)
+         {
+            importIdentityObject(store, ctx, entry);
+            imported++;
+         }
+
+         if (listener != null && processed % batchSize == 0)
+         {
+            listener.importProgress(processed, imported);
+         }
+      }
+
+      if (listener != null && processed % batchSize != 0)
+      {
+         listener.importProgress(processed, imported);
+      }
+
+      return imported;
+   }
+
+   /**
+    * Creates identity object with all its attributes, credentials and relationships.
+    *
+    * @param store
+    * @param ctx
+    * @param entry
+    * @return
+    * @throws IdentityException
+    */
+   public static IdentityObject importIdentityObject(IdentityStore store,
+                                                     IdentityStoreInvocationContext ctx,
+                                                     IdentityObjectImport entry) throws IdentityException
+   {
+      IdentityObject io = store.createIdentityObject(ctx, entry.getName(), entry.getIdentityType());
+
+      if (entry.getAttributes() != null && entry.getAttributes().size() > 0)
+      {
+         List<IdentityObjectAttribute> attributes = new ArrayList<IdentityObjectAttribute>();
+
+         for (Map.Entry<String, String[]> attribute : entry.getAttributes().entrySet())
+         {
+            attributes.add(new SimpleAttribute(attribute.getKey(), attribute.getValue()));
+         }
+
+         store.addAttributes(ctx, io, attributes.toArray(new IdentityObjectAttribute[attributes.size()]));
+      }
+
+      if (entry.getCredentials() != null)
+      {
+         for (IdentityObjectCredential credential : entry.getCredentials())
+         {
+            store.updateCredential(ctx, io, credential);
+         }
+      }
+
+      if (entry.getParents() != null)
+      {
+         for (IdentityObject parent : entry.getParents())
+         {
+            store.createRelationship(ctx, parent, io, entry.getRelationshipType(), null, false);
+         }
+      }
+
+      return io;
+   }
+}
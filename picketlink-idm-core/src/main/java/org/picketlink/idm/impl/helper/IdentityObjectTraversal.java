@@ -0,0 +1,98 @@
+/*
+* JBoss, a division of Red Hat
+* Copyright 2006, Red Hat Middleware, LLC, and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.picketlink.idm.impl.helper;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.picketlink.idm.common.exception.IdentityException;
+import org.picketlink.idm.spi.model.IdentityObject;
+import org.picketlink.idm.spi.model.IdentityObjectRelationshipType;
+import org.picketlink.idm.spi.model.IdentityObjectType;
+import org.picketlink.idm.spi.store.IdentityStore;
+import org.picketlink.idm.spi.store.IdentityStoreInvocationContext;
+
+/**
+ * Resolves transitive relationships by walking them level by level using regular IdentityStore searches. Used by
+ * stores that cannot resolve the whole hierarchy with a single query.
+ *
+ * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
+ * @version : 0.1 $
+ */
+public class IdentityObjectTraversal
+{
+   private IdentityObjectTraversal()
+   {
+   }
+
+   public static Collection<IdentityObject> findIdentityObjectCascaded(IdentityStore store,
+                                                                       IdentityStoreInvocationContext ctx,
+                                                                       IdentityObject identity,
+                                                                       IdentityObjectRelationshipType relationshipType,
+                                                                       IdentityObjectType identityType,
+                                                                       boolean parent) throws IdentityException
+   {
+      if (identity == null)
+      {
+         throw new IllegalArgumentException("identity is null");
+      }
+
+      List<IdentityObject> results = new LinkedList<IdentityObject>();
+
+      // Visited objects - protects from cycles in relationships
+      Set<IdentityObject> visited = new HashSet<IdentityObject>();
+      visited.add(identity);
+
+      List<IdentityObject> level = new LinkedList<IdentityObject>();
+      level.add(identity);
+
+      while (!level.isEmpty())
+      {
+         List<IdentityObject> nextLevel = new LinkedList<IdentityObject>();
+
+         for (IdentityObject io : level)
+         {
+            for (IdentityObject related : store.findIdentityObject(ctx, io, relationshipType, parent, null))
+            {
+               if (identityType != null && !identityType.getName().equals(related.getIdentityType().getName()))
+               {
+                  continue;
+               }
+
+               if (visited.add(related))
+               {
+                  results.add(related);
+                  nextLevel.add(related);
+               }
+            }
+         }
+
+         level = nextLevel;
+      }
+
+      return results;
+   }
+}
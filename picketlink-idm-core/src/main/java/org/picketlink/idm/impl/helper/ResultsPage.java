@@ -0,0 +1,174 @@
+/*
+* JBoss, a division of Red Hat
+* Copyright 2006, Red Hat Middleware, LLC, and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.picketlink.idm.impl.helper;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.picketlink.idm.api.Group;
+import org.picketlink.idm.api.IdentityType;
+import org.picketlink.idm.spi.model.IdentityObject;
+import org.picketlink.idm.spi.search.IdentityObjectSearchCriteria;
+
+/**
+ * Page cut from search results that couldn't be paged by the store itself. Supports both offset and keyset
+ * (pageAfterName and pageAfterType) pages. Random access lists are cut without iterating, other collections are read
+ * once.
+ *
+ * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
+ * @version : 0.1 $
+ */
+public class ResultsPage<T>
+{
+   /**
+    * Provides names and type names used to compare objects with pageAfterName and pageAfterType
+    */
+   public interface NameResolver<T>
+   {
+      String getName(T object);
+
+      String getTypeName(T object);
+   }
+
+   public static final NameResolver<IdentityObject> IDENTITY_OBJECT_NAMES = new NameResolver<IdentityObject>()
+   {
+      public String getName(IdentityObject object)
+      {
+         return object.getName();
+      }
+
+      public String getTypeName(IdentityObject object)
+      {
+         return object.getIdentityType().getName();
+      }
+   };
+
+   public static final NameResolver<IdentityType> IDENTITY_TYPE_NAMES = new NameResolver<IdentityType>()
+   {
+      public String getName(IdentityType object)
+      {
+         return object instanceof Group ? ((Group)object).getName() : object.getKey();
+      }
+
+      public String getTypeName(IdentityType object)
+      {
+         return object instanceof Group ? ((Group)object).getGroupType() : null;
+      }
+   };
+
+   private final List<T> objects;
+
+   private ResultsPage(List<T> objects)
+   {
+      this.objects = objects;
+   }
+
+   /**
+    * @return objects in the page
+    */
+   public List<T> getObjects()
+   {
+      return objects;
+   }
+
+   /**
+    * Compares keyset page keys. Objects are ordered by name and same named objects by type name. If otherType is
+    * null only names are compared.
+    */
+   public static int compareKeys(String name, String type, String otherName, String otherType)
+   {
+      int result = name.compareTo(otherName);
+
+      if (result != 0 || otherType == null)
+      {
+         return result;
+      }
+      if (type == null)
+      {
+         return -1;
+      }
+
+      return type.compareTo(otherType);
+   }
+
+   public static <T> ResultsPage<T> cut(Collection<T> results,
+                                        IdentityObjectSearchCriteria criteria,
+                                        NameResolver<? super T> nameResolver)
+   {
+      if (criteria.getPageAfterName() == null && results instanceof List && results instanceof RandomAccess)
+      {
+         List<T> list = (List<T>)results;
+
+         int from = Math.min(criteria.getFirstResult(), list.size());
+         int to = criteria.getMaxResults() == 0 ? list.size() : (int)Math.min((long)from + criteria.getMaxResults(), list.size());
+
+         return new ResultsPage<T>(new ArrayList<T>(list.subList(from, to)));
+      }
+
+      return cut(results.iterator(), criteria, nameResolver);
+   }
+
+   public static <T> ResultsPage<T> cut(Iterator<T> results,
+                                        IdentityObjectSearchCriteria criteria,
+                                        NameResolver<? super T> nameResolver)
+   {
+      List<T> page = new ArrayList<T>();
+
+      String pageAfterName = criteria.getPageAfterName();
+
+      long first = criteria.getFirstResult();
+      long last = criteria.getMaxResults() == 0 ? Long.MAX_VALUE : first + criteria.getMaxResults();
+
+      int index = 0;
+
+      // Results after the page are not read
+      while (index < last && results.hasNext())
+      {
+         T object = results.next();
+
+         // Keyset page - results are sorted by name
+         if (pageAfterName != null)
+         {
+            int comparison = compareKeys(nameResolver.getName(object), nameResolver.getTypeName(object),
+               pageAfterName, criteria.getPageAfterType());
+
+            if (criteria.isAscending() ? comparison <= 0 : comparison >= 0)
+            {
+               continue;
+            }
+         }
+
+         if (index >= first && index < last)
+         {
+            page.add(object);
+         }
+
+         index++;
+      }
+
+      return new ResultsPage<T>(page);
+   }
+}
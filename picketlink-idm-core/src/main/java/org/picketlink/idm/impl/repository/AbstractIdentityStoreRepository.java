@@ -35,12 +35,16 @@ import org.picketlink.idm.spi.cache.IdentityStoreCacheProvider;
 import org.picketlink.idm.common.exception.IdentityException;
 import org.picketlink.idm.impl.helper.SecurityActions;
 import org.picketlink.idm.impl.cache.JBossCacheIdentityStoreWrapper;
+import org.picketlink.idm.impl.store.IdentityStoreChangeListener;
+import org.picketlink.idm.impl.store.IdentityStoreChangeSource;
 
 import java.util.Set;
 import java.util.Map;
 import java.util.HashSet;
 import java.util.List;
 import java.util.HashMap;
+import java.io.Closeable;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
 import java.lang.reflect.Constructor;
@@ -51,7 +55,7 @@ import java.util.logging.Logger;
  * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
  * @version : 0.1 $
  */
-public abstract class AbstractIdentityStoreRepository implements IdentityStoreRepository, Serializable
+public abstract class AbstractIdentityStoreRepository implements IdentityStoreRepository, Serializable, Closeable, IdentityStoreChangeSource
 {
 
    private static Logger log = Logger.getLogger(AbstractIdentityStoreRepository.class.getName());
@@ -80,6 +84,9 @@ public abstract class AbstractIdentityStoreRepository implements IdentityStoreRe
 
    private boolean allowNotDefinedIdentityObjectTypes = false;
 
+   // Stores used by this repository before any cache wrapping - closed together with the repository
+   private final Set<Object> bootstrappedStores = new HashSet<Object>();
+
 
    public void bootstrap(IdentityRepositoryConfigurationContext configurationContext,
                          Map<String, IdentityStore> bootstrappedIdentityStores,
@@ -95,6 +102,7 @@ public abstract class AbstractIdentityStoreRepository implements IdentityStoreRe
       if (asId != null && bootstrappedAttributeStores.keySet().contains(asId))
       {
          defaultAttributeStore = bootstrappedAttributeStores.get(asId);
+         bootstrappedStores.add(defaultAttributeStore);
 
          //TODO: cache wrap support
       }
@@ -109,6 +117,7 @@ public abstract class AbstractIdentityStoreRepository implements IdentityStoreRe
       if (isId != null && bootstrappedIdentityStores.keySet().contains(isId))
       {
          defaultIdentityStore = bootstrappedIdentityStores.get(isId);
+         bootstrappedStores.add(defaultIdentityStore);
 
          String cacheOption = configurationMD.getOptionSingleValue(CACHE_OPTION);
 
@@ -196,6 +205,11 @@ public abstract class AbstractIdentityStoreRepository implements IdentityStoreRe
 
          IdentityStore store = bootstrappedIdentityStores.get(storeId);
 
+         if (store != null)
+         {
+            bootstrappedStores.add(store);
+         }
+
          String cacheOption = identityStoreMappingMetaData.getOptionSingleValue(CACHE_OPTION);
 
 
@@ -290,6 +304,56 @@ public abstract class AbstractIdentityStoreRepository implements IdentityStoreRe
 
    }
 
+   /**
+    * Closes all stores used by this repository that hold resources (connection pools, executors). Stores can be
+    * shared between repositories so they must tolerate being closed more than once.
+    */
+   public void close() throws IOException
+   {
+      for (Object store : bootstrappedStores)
+      {
+         if (store instanceof Closeable)
+         {
+            try
+            {
+               ((Closeable)store).close();
+            }
+            catch (IOException e)
+            {
+               if (log.isLoggable(Level.FINER))
+               {
+                  log.log(Level.FINER, "Exception occurred: ", e);
+               }
+            }
+         }
+      }
+   }
+
+   /**
+    * Registers listener in all stores used by this repository that detect changes made bypassing PicketLink IDM
+    */
+   public void addChangeListener(IdentityStoreChangeListener listener)
+   {
+      for (Object store : bootstrappedStores)
+      {
+         if (store instanceof IdentityStoreChangeSource)
+         {
+            ((IdentityStoreChangeSource)store).addChangeListener(listener);
+         }
+      }
+   }
+
+   public void removeChangeListener(IdentityStoreChangeListener listener)
+   {
+      for (Object store : bootstrappedStores)
+      {
+         if (store instanceof IdentityStoreChangeSource)
+         {
+            ((IdentityStoreChangeSource)store).removeChangeListener(listener);
+         }
+      }
+   }
+
    public Set<IdentityStore> getConfiguredIdentityStores()
    {
       return new HashSet<IdentityStore>(identityStoreMappings.values());
@@ -356,20 +420,50 @@ public abstract class AbstractIdentityStoreRepository implements IdentityStoreRe
    {
       try
       {
-         if (is.findIdentityObject(ctx, io.getName(), io.getIdentityType()) != null)
-         {
-            return true;
-         }
+         return is.isIdentityObjectPresent(ctx, io);
       }
       catch (IdentityException e)
       {
          //store may throw exception if there is no identity so do nothing
-         //TODO: should have isIdentityPresent method
          
       }
       return false;
    }
 
+   /**
+    * Remembers results of presence checks made during a single repository method invocation. Routing decisions often
+    * check the same identity in the same store several times. Must not be kept longer than the invocation.
+    */
+   protected class IdentityObjectPresence
+   {
+      private final Map<String, Boolean> present = new HashMap<String, Boolean>();
+
+      public boolean hasIdentityObject(IdentityStoreInvocationContext ctx, IdentityStore is, IdentityObject io) throws IdentityException
+      {
+         String key = key(is, io);
+
+         Boolean result = present.get(key);
+
+         if (result == null)
+         {
+            result = AbstractIdentityStoreRepository.this.hasIdentityObject(ctx, is, io);
+            present.put(key, result);
+         }
+
+         return result;
+      }
+
+      public void identityObjectCreated(IdentityStore is, IdentityObject io)
+      {
+         present.put(key(is, io), Boolean.TRUE);
+      }
+
+      private String key(IdentityStore is, IdentityObject io)
+      {
+         return is.getId() + "|" + io.getIdentityType().getName() + "|" + io.getName();
+      }
+   }
+
 
    public boolean isAllowNotDefinedIdentityObjectTypes()
    {
@@ -25,6 +25,10 @@ package org.picketlink.idm.impl.repository;
 import org.picketlink.idm.common.exception.IdentityException;
 import org.picketlink.idm.impl.api.IdentitySearchCriteriaImpl;
 import org.picketlink.idm.impl.api.session.managers.RoleManagerImpl;
+import org.picketlink.idm.impl.helper.IdentityObjectAttributes;
+import org.picketlink.idm.impl.helper.IdentityObjectImporter;
+import org.picketlink.idm.impl.helper.ResultsPage;
+import org.picketlink.idm.impl.helper.IdentityObjectTraversal;
 import org.picketlink.idm.impl.store.SimpleIdentityStoreInvocationContext;
 import org.picketlink.idm.impl.types.SimpleIdentityObject;
 import org.picketlink.idm.impl.types.SimpleIdentityObjectType;
@@ -38,7 +42,17 @@ import org.picketlink.idm.spi.model.*;
 import org.picketlink.idm.spi.search.IdentityObjectSearchCriteria;
 import org.picketlink.idm.spi.store.*;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -63,6 +77,8 @@ public class FallbackIdentityStoreRepository extends AbstractIdentityStoreReposi
 
     public static final String OPTION_READ_ONLY = "readOnly";
 
+    public static final String OPTION_FAN_OUT_TIME_LIMIT = "fanOutTimeLimit";
+
     private final String id;
 
     //TODO: rewrite this to other config object?
@@ -75,6 +91,38 @@ public class FallbackIdentityStoreRepository extends AbstractIdentityStoreReposi
 
     private boolean allowNotDefinedAttributes = false;
 
+    public static final String STORE_FAN_OUT = "storeFanOut";
+
+    public static final String STORE_FAN_OUT_THREADS = "storeFanOutThreads";
+
+    public static final int STORE_FAN_OUT_THREADS_DEFAULT = 5;
+
+    public static final String STORE_FAN_OUT_TIME_LIMIT = "storeFanOutTimeLimit";
+
+    public static final String STORE_FAN_OUT_PARTIAL_RESULTS = "storeFanOutPartialResults";
+
+    public static final String STORE_NAME_ORDER = "storeNameOrder";
+
+    public static final String STORE_NAME_ORDER_CASE_SENSITIVE = "caseSensitive";
+
+    public static final String STORE_NAME_ORDER_CASE_INSENSITIVE = "caseInsensitive";
+
+    // Threads used to call mapped stores concurrently with the default one
+    private ExecutorService storeExecutor;
+
+    private long storeFanOutTimeLimit = 0;
+
+    private final Map<String, Long> storeFanOutTimeLimits = new HashMap<String, Long>();
+
+    private boolean storeFanOutPartialResults = false;
+
+    // Order in which all stores sort by name. Null if not known - results of several stores cannot be windowed then
+    private String storeNameOrder;
+
+    // Returned from the fan-out executor when identity is not present in its mapped store
+    private static final Map<String, IdentityObjectAttribute> IDENTITY_NOT_PRESENT =
+            Collections.unmodifiableMap(new HashMap<String, IdentityObjectAttribute>());
+
     private final Set<IdentityStore> configuredIdentityStores = new HashSet<IdentityStore>();
 
     public FallbackIdentityStoreRepository(String id)
@@ -82,6 +130,17 @@ public class FallbackIdentityStoreRepository extends AbstractIdentityStoreReposi
         this.id = id;
     }
 
+    @Override
+    public void close() throws IOException
+    {
+        if (storeExecutor != null)
+        {
+            storeExecutor.shutdown();
+        }
+
+        super.close();
+    }
+
     @Override
     public void bootstrap(IdentityRepositoryConfigurationContext configurationContext,
                           Map<String, IdentityStore> bootstrappedIdentityStores,
@@ -117,6 +176,60 @@ public class FallbackIdentityStoreRepository extends AbstractIdentityStoreReposi
             this.allowNotDefinedAttributes = true;
         }
 
+        String storeFanOut = configurationMD.getOptionSingleValue(STORE_FAN_OUT);
+
+        if (storeFanOut != null && storeFanOut.equalsIgnoreCase("true"))
+        {
+            String fanOutThreads = configurationMD.getOptionSingleValue(STORE_FAN_OUT_THREADS);
+            int threads = fanOutThreads != null ? Integer.valueOf(fanOutThreads) : STORE_FAN_OUT_THREADS_DEFAULT;
+
+            storeExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory()
+            {
+                private final AtomicInteger threadNumber = new AtomicInteger();
+
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, "Store fan-out [" + id + "] " + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+            String fanOutTL = configurationMD.getOptionSingleValue(STORE_FAN_OUT_TIME_LIMIT);
+            if (fanOutTL != null)
+            {
+                storeFanOutTimeLimit = Long.valueOf(fanOutTL);
+            }
+
+            // Mapped stores can override the time limit
+            for (IdentityStoreMappingMetaData mappingMD : configurationMD.getIdentityStoreToIdentityObjectTypeMappings())
+            {
+                String storeTL = mappingMD.getOptionSingleValue(OPTION_FAN_OUT_TIME_LIMIT);
+                if (storeTL != null)
+                {
+                    storeFanOutTimeLimits.put(mappingMD.getIdentityStoreId(), Long.valueOf(storeTL));
+                }
+            }
+
+            String partialResults = configurationMD.getOptionSingleValue(STORE_FAN_OUT_PARTIAL_RESULTS);
+            if (partialResults != null && partialResults.equalsIgnoreCase("true"))
+            {
+                storeFanOutPartialResults = true;
+            }
+        }
+
+        String nameOrder = configurationMD.getOptionSingleValue(STORE_NAME_ORDER);
+
+        if (nameOrder != null)
+        {
+            if (!nameOrder.equals(STORE_NAME_ORDER_CASE_SENSITIVE) && !nameOrder.equals(STORE_NAME_ORDER_CASE_INSENSITIVE))
+            {
+                throw new IdentityException("Unsupported " + STORE_NAME_ORDER + " option value: " + nameOrder);
+            }
+
+            storeNameOrder = nameOrder;
+        }
+
         // A wrapper around all stores features meta data
         featuresMetaData = new FeaturesMetaData()
         {
@@ -580,6 +693,19 @@ public class FallbackIdentityStoreRepository extends AbstractIdentityStoreReposi
         return defaultIdentityStore.findIdentityObject(invocationContext, id);
     }
 
+    public boolean isIdentityObjectPresent(IdentityStoreInvocationContext invocationContext, IdentityObject identity) throws IdentityException
+    {
+        IdentityStore targetStore = resolveIdentityStore(identity);
+
+        if (hasIdentityObject(resolveInvocationContext(targetStore, invocationContext), targetStore, identity))
+        {
+            return true;
+        }
+
+        return targetStore != defaultIdentityStore &&
+            hasIdentityObject(resolveInvocationContext(defaultIdentityStore, invocationContext), defaultIdentityStore, identity);
+    }
+
     public Collection<IdentityObject> findIdentityObject(IdentityStoreInvocationContext invocationCtx, IdentityObjectType identityType, IdentityObjectSearchCriteria criteria) throws IdentityException
     {
         IdentityStore targetStore = resolveIdentityStore(identityType);
@@ -608,14 +734,14 @@ public class FallbackIdentityStoreRepository extends AbstractIdentityStoreReposi
         }
         else
         {
-            IdentitySearchCriteriaImpl c = null;
-            if (criteria != null)
+            IdentitySearchCriteriaImpl c = createStoreSearchCriteria(criteria);
+
+            if (storeExecutor != null)
             {
-                c = new IdentitySearchCriteriaImpl(criteria);
-                c.setPaged(false);
+                return findIdentityObjectConcurrently(invocationCtx, identityType, criteria, c, targetStore);
             }
 
-            // Get results from default store with not paged criteria
+            // Get results from default store with not paged or windowed criteria
             defaultIOs = defaultIdentityStore.
                     findIdentityObject(resolveInvocationContext(defaultIdentityStore, invocationCtx), identityType, c);
 
@@ -657,6 +783,224 @@ public class FallbackIdentityStoreRepository extends AbstractIdentityStoreReposi
 
         }
 
+        return mergeSearchResults(invocationCtx, results, defaultIOs, criteria);
+
+
+    }
+
+    /**
+     * Searches mapped store in the fan-out executor while the default store is searched in the calling thread. Both
+     * stores are searched once with the merge criteria. When the default store has no results the page is cut from
+     * results of the mapped store, which are already sorted by the store.
+     */
+    private Collection<IdentityObject> findIdentityObjectConcurrently(IdentityStoreInvocationContext invocationCtx,
+                                                                      final IdentityObjectType identityType,
+                                                                      IdentityObjectSearchCriteria criteria,
+                                                                      final IdentityObjectSearchCriteria storeCriteria,
+                                                                      final IdentityStore targetStore) throws IdentityException
+    {
+        long startTime = System.currentTimeMillis();
+
+        Future<Collection<IdentityObject>> future = submitStoreCall(invocationCtx, targetStore, new StoreCall<Collection<IdentityObject>>()
+        {
+            public Collection<IdentityObject> call(IdentityStoreInvocationContext taskCtx) throws IdentityException
+            {
+                try
+                {
+                    return targetStore.findIdentityObject(taskCtx, identityType, storeCriteria);
+                }
+                catch (IdentityException e)
+                {
+                    if (log.isLoggable(Level.FINER))
+                    {
+                        log.log(Level.FINER, "Exception occurred: ", e);
+                    }
+
+                    return new LinkedList<IdentityObject>();
+                }
+            }
+        });
+
+        Collection<IdentityObject> defaultIOs = defaultIdentityStore.
+                findIdentityObject(resolveInvocationContext(defaultIdentityStore, invocationCtx), identityType, storeCriteria);
+
+        Collection<IdentityObject> results = getStoreResult(future, targetStore, startTime);
+
+        if (results == null)
+        {
+            results = new LinkedList<IdentityObject>();
+        }
+
+        if (defaultIOs.size() == 0)
+        {
+            if (criteria != null && criteria.isPaged())
+            {
+                return ResultsPage.cut(results, criteria, ResultsPage.IDENTITY_OBJECT_NAMES).getObjects();
+            }
+
+            return results;
+        }
+
+        return mergeSearchResults(invocationCtx, results, defaultIOs, criteria);
+    }
+
+    /**
+     * Call made in the fan-out executor
+     */
+    private interface StoreCall<T>
+    {
+        T call(IdentityStoreInvocationContext taskCtx) throws IdentityException;
+    }
+
+    /**
+     * Submits a call to the fan-out executor. Call gets its own store session so it never shares the session used by
+     * the calling thread and can be left running when it doesn't complete within the time limit. Stores need to limit
+     * their own reads (for example with LDAP read timeout) as threads blocked in I/O cannot be interrupted.
+     */
+    private <T> Future<T> submitStoreCall(IdentityStoreInvocationContext invocationCtx,
+                                          final IdentityStore store,
+                                          final StoreCall<T> call)
+    {
+        // Realm and session ids are read in the calling thread
+        final String realmId = invocationCtx.getRealmId();
+        final String sessionId = String.valueOf(this.hashCode());
+
+        return storeExecutor.submit(new Callable<T>()
+        {
+            public T call() throws Exception
+            {
+                IdentityStoreInvocationContext taskCtx =
+                        new SimpleIdentityStoreInvocationContext(store.createIdentityStoreSession(), realmId, sessionId);
+
+                try
+                {
+                    return call.call(taskCtx);
+                }
+                finally
+                {
+                    taskCtx.getIdentityStoreSession().close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for the result of a call submitted to the fan-out executor.
+     *
+     * @return result or null if store didn't complete within its time limit and partial results are allowed
+     */
+    private <T> T getStoreResult(Future<T> future, IdentityStore store, long startTime) throws IdentityException
+    {
+        Long timeLimit = storeFanOutTimeLimits.get(store.getId());
+
+        if (timeLimit == null)
+        {
+            timeLimit = storeFanOutTimeLimit;
+        }
+
+        try
+        {
+            if (timeLimit > 0)
+            {
+                return future.get(Math.max(startTime + timeLimit - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+            }
+
+            return future.get();
+        }
+        catch (TimeoutException e)
+        {
+            // Call is left to complete on its own - it uses separate store session
+
+            if (storeFanOutPartialResults)
+            {
+                if (log.isLoggable(Level.INFO))
+                {
+                    log.log(Level.INFO, "IdentityStore " + store.getId() + " didn't complete within " + timeLimit +
+                        "ms. Continuing without its results");
+                }
+
+                return null;
+            }
+
+            throw new IdentityException("IdentityStore " + store.getId() + " didn't complete within " + timeLimit + "ms");
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+
+            throw new IdentityException("Interrupted while waiting for IdentityStore " + store.getId(), e);
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof IdentityException)
+            {
+                throw (IdentityException)cause;
+            }
+            if (cause instanceof RuntimeException)
+            {
+                throw (RuntimeException)cause;
+            }
+
+            throw new IdentityException("IdentityStore " + store.getId() + " invocation failed", cause);
+        }
+    }
+
+    /**
+     * Page of a search sorted by name can be taken from the first firstResult + maxResults objects of each store.
+     * Only when all stores are known to sort names the same way - otherwise a window of one store can miss objects
+     * that belong to the page.
+     */
+    boolean isWindowedSearch(IdentityObjectSearchCriteria criteria)
+    {
+        return storeNameOrder != null && criteria != null && criteria.isPaged() && criteria.getMaxResults() > 0
+                && criteria.isSorted() && criteria.getSortAttributeName() == null && criteria.getPageAfterName() == null;
+    }
+
+    /**
+     * @return criteria used to search each store when results from several stores need to be merged
+     */
+    private IdentitySearchCriteriaImpl createStoreSearchCriteria(IdentityObjectSearchCriteria criteria)
+    {
+        if (criteria == null)
+        {
+            return null;
+        }
+
+        IdentitySearchCriteriaImpl c = new IdentitySearchCriteriaImpl(criteria);
+
+        if (isWindowedSearch(criteria))
+        {
+            c.setFirstResult(0);
+            c.setMaxResults(criteria.getFirstResult() + criteria.getMaxResults());
+        }
+        else
+        {
+            c.setPaged(false);
+        }
+
+        return c;
+    }
+
+    private Collection<IdentityObject> mergeSearchResults(IdentityStoreInvocationContext invocationCtx,
+                                                          Collection<IdentityObject> results,
+                                                          Collection<IdentityObject> defaultIOs,
+                                                          IdentityObjectSearchCriteria criteria) throws IdentityException
+    {
+        if (isWindowedSearch(criteria))
+        {
+            List<Collection<IdentityObject>> sortedResults = new ArrayList<Collection<IdentityObject>>(2);
+            sortedResults.add(results);
+            sortedResults.add(defaultIOs);
+
+            List<IdentityObject> merged = mergeSortedResults(sortedResults,
+                nameComparator(STORE_NAME_ORDER_CASE_INSENSITIVE.equals(storeNameOrder), criteria.isAscending()),
+                criteria.getFirstResult() + criteria.getMaxResults());
+
+            return ResultsPage.cut(merged, criteria, ResultsPage.IDENTITY_OBJECT_NAMES).getObjects();
+        }
+
         // Filter out duplicates
         HashSet<IdentityObject> merged = new HashSet<IdentityObject>();
         merged.addAll(results);
@@ -669,9 +1013,13 @@ public class FallbackIdentityStoreRepository extends AbstractIdentityStoreReposi
             LinkedList<IdentityObject> processed = new LinkedList<IdentityObject>(merged);
 
             //TODO: hardcoded - expects List
-            if (criteria.isSorted())
+            if (criteria.isSorted() && criteria.getSortAttributeName() != null)
+            {
+                sortByAttribute(invocationCtx, processed, criteria.getSortAttributeName(), criteria.isAscending());
+            }
+            else if (criteria.isSorted())
             {
-                sortByName(processed, criteria.isAscending());
+                sortByName(processed, criteria);
             }
 
             results = processed;
@@ -679,7 +1027,7 @@ public class FallbackIdentityStoreRepository extends AbstractIdentityStoreReposi
             //TODO: hardcoded - expects List
             if (criteria.isPaged())
             {
-                results = cutPageFromResults(processed, criteria);
+                results = ResultsPage.cut(processed, criteria, ResultsPage.IDENTITY_OBJECT_NAMES).getObjects();
 
             }
 
@@ -716,13 +1064,7 @@ public class FallbackIdentityStoreRepository extends AbstractIdentityStoreReposi
                 return defaultIdentityStore.findIdentityObject(defaultCtx, identity, relationshipType, parent, criteria);
             }
 
-            IdentitySearchCriteriaImpl c = null;
-
-            if (criteria != null)
-            {
-                c = new IdentitySearchCriteriaImpl(criteria);
-                c.setPaged(false);
-            }
+            IdentitySearchCriteriaImpl c = createStoreSearchCriteria(criteria);
 
             Collection<IdentityObject> results = new LinkedList<IdentityObject>();
 
@@ -751,42 +1093,65 @@ public class FallbackIdentityStoreRepository extends AbstractIdentityStoreReposi
             // If default store contain related relationships merge and sort/page once more
             if (objects != null && objects.size() != 0)
             {
+                return mergeSearchResults(invocationCxt, results, objects, criteria);
+            }
 
-                // Filter out duplicates
-                HashSet<IdentityObject> merged = new HashSet<IdentityObject>();
-                merged.addAll(results);
-                merged.addAll(objects);
-
+            // Mapped store was searched without the page
+            if (criteria != null && criteria.isPaged())
+            {
+                results = ResultsPage.cut(results, criteria, ResultsPage.IDENTITY_OBJECT_NAMES).getObjects();
+            }
 
-                if (criteria != null)
-                {
+            return results;
+        }
+        catch (IdentityException e)
+        {
+            if (log.isLoggable(Level.FINER))
+            {
+                log.log(Level.FINER, "Exception occurred: ", e);
+            }
 
-                    LinkedList<IdentityObject> processed = new LinkedList<IdentityObject>(merged);
+            throw e;
+        }
 
+    }
 
-                    //TODO: hardcoded - expects List
-                    if (criteria.isSorted())
-                    {
-                        sortByName(processed, criteria.isAscending());
-                    }
+    public Collection<IdentityObject> findIdentityObjectCascaded(IdentityStoreInvocationContext invocationCxt,
+                                                                 IdentityObject identity,
+                                                                 IdentityObjectRelationshipType relationshipType,
+                                                                 IdentityObjectType identityType,
+                                                                 boolean parent) throws IdentityException
+    {
+        try
+        {
+            // Whole hierarchy can be resolved by the default store only if all followed objects are kept there
 
-                    results = processed;
+            boolean defaultStoreOnly = resolveIdentityStore(identity) == defaultIdentityStore;
 
-                    //TODO: hardcoded - expects List
-                    if (criteria.isPaged())
+            if (identityType != null)
+            {
+                defaultStoreOnly = defaultStoreOnly && resolveIdentityStore(identityType) == defaultIdentityStore;
+            }
+            else
+            {
+                for (IdentityStore store : identityStoreMappings.values())
+                {
+                    if (store != defaultIdentityStore)
                     {
-                        results = cutPageFromResults(processed, criteria);
+                        defaultStoreOnly = false;
+                        break;
                     }
-
-
-                }
-                else
-                {
-                    results = merged;
                 }
             }
 
-            return results;
+            if (defaultStoreOnly)
+            {
+                return defaultIdentityStore.findIdentityObjectCascaded(resolveInvocationContext(defaultIdentityStore, invocationCxt),
+                        identity, relationshipType, identityType, parent);
+            }
+
+            return IdentityObjectTraversal.findIdentityObjectCascaded(this, invocationCxt, identity, relationshipType,
+                    identityType, parent);
         }
         catch (IdentityException e)
         {
@@ -797,7 +1162,6 @@ public class FallbackIdentityStoreRepository extends AbstractIdentityStoreReposi
 
             throw e;
         }
-
     }
 
     public IdentityObjectRelationship createRelationship(IdentityStoreInvocationContext invocationCxt, IdentityObject fromIdentity, IdentityObject toIdentity, IdentityObjectRelationshipType relationshipType, String relationshipName, boolean createNames) throws IdentityException
@@ -812,9 +1176,11 @@ public class FallbackIdentityStoreRepository extends AbstractIdentityStoreReposi
 
             IdentityStoreInvocationContext defaultTargetCtx = resolveInvocationContext(defaultIdentityStore, invocationCxt);
 
+            IdentityObjectPresence presence = new IdentityObjectPresence();
+
             if (fromStore == toStore && !isIdentityStoreReadOnly(fromStore)
-                    && hasIdentityObject(toTargetCtx, fromStore, fromIdentity)
-                    && hasIdentityObject(toTargetCtx, fromStore, toIdentity))
+                    && presence.hasIdentityObject(toTargetCtx, fromStore, fromIdentity)
+                    && presence.hasIdentityObject(toTargetCtx, fromStore, toIdentity))
             {
                 // If relationship is named and target store doesn't support named relationships it need to be put in default store anyway
                 if (relationshipName == null ||
@@ -824,14 +1190,16 @@ public class FallbackIdentityStoreRepository extends AbstractIdentityStoreReposi
                 }
             }
 
-            if (!hasIdentityObject(defaultTargetCtx, defaultIdentityStore, fromIdentity))
+            if (!presence.hasIdentityObject(defaultTargetCtx, defaultIdentityStore, fromIdentity))
             {
                 defaultIdentityStore.createIdentityObject(defaultTargetCtx, fromIdentity.getName(), fromIdentity.getIdentityType());
+                presence.identityObjectCreated(defaultIdentityStore, fromIdentity);
             }
 
-            if (!hasIdentityObject(defaultTargetCtx, defaultIdentityStore, toIdentity))
+            if (!presence.hasIdentityObject(defaultTargetCtx, defaultIdentityStore, toIdentity))
             {
                 defaultIdentityStore.createIdentityObject(defaultTargetCtx, toIdentity.getName(), toIdentity.getIdentityType());
+                presence.identityObjectCreated(defaultIdentityStore, toIdentity);
             }
 
             return defaultIdentityStore.createRelationship(defaultTargetCtx, fromIdentity, toIdentity, relationshipType, relationshipName, createNames);
@@ -858,9 +1226,11 @@ public class FallbackIdentityStoreRepository extends AbstractIdentityStoreReposi
 
             IdentityStoreInvocationContext defaultTargetCtx = resolveInvocationContext(defaultIdentityStore, invocationCxt);
 
+            IdentityObjectPresence presence = new IdentityObjectPresence();
+
             if (fromStore == toStore && !isIdentityStoreReadOnly(fromStore)
-                    && hasIdentityObject(toTargetCtx, toStore, fromIdentity)
-                    && hasIdentityObject(toTargetCtx, toStore, toIdentity))
+                    && presence.hasIdentityObject(toTargetCtx, toStore, fromIdentity)
+                    && presence.hasIdentityObject(toTargetCtx, toStore, toIdentity))
             {
                 if (relationshipName == null ||
                         (relationshipName != null && fromStore.getSupportedFeatures().isNamedRelationshipsSupported()))
@@ -870,14 +1240,16 @@ public class FallbackIdentityStoreRepository extends AbstractIdentityStoreReposi
                 }
             }
 
-            if (!hasIdentityObject(defaultTargetCtx, defaultIdentityStore, fromIdentity))
+            if (!presence.hasIdentityObject(defaultTargetCtx, defaultIdentityStore, fromIdentity))
             {
                 defaultIdentityStore.createIdentityObject(defaultTargetCtx, fromIdentity.getName(), fromIdentity.getIdentityType());
+                presence.identityObjectCreated(defaultIdentityStore, fromIdentity);
             }
 
-            if (!hasIdentityObject(defaultTargetCtx, defaultIdentityStore, toIdentity))
+            if (!presence.hasIdentityObject(defaultTargetCtx, defaultIdentityStore, toIdentity))
             {
                 defaultIdentityStore.createIdentityObject(defaultTargetCtx, toIdentity.getName(), toIdentity.getIdentityType());
+                presence.identityObjectCreated(defaultIdentityStore, toIdentity);
             }
 
             defaultIdentityStore.removeRelationship(defaultTargetCtx, fromIdentity, toIdentity, relationshipType, relationshipName);
@@ -905,23 +1277,27 @@ public class FallbackIdentityStoreRepository extends AbstractIdentityStoreReposi
 
             IdentityStoreInvocationContext defaultTargetCtx = resolveInvocationContext(defaultIdentityStore, invocationCtx);
 
+            IdentityObjectPresence presence = new IdentityObjectPresence();
+
 
             if (fromStore == toStore && !isIdentityStoreReadOnly(fromStore)
-                    && hasIdentityObject(toTargetCtx, toStore, identity1)
-                    && hasIdentityObject(toTargetCtx, toStore, identity2))
+                    && presence.hasIdentityObject(toTargetCtx, toStore, identity1)
+                    && presence.hasIdentityObject(toTargetCtx, toStore, identity2))
             {
                 fromStore.removeRelationships(toTargetCtx, identity1, identity2, named);
                 return;
             }
 
-            if (!hasIdentityObject(defaultTargetCtx, defaultIdentityStore, identity1))
+            if (!presence.hasIdentityObject(defaultTargetCtx, defaultIdentityStore, identity1))
             {
                 defaultIdentityStore.createIdentityObject(defaultTargetCtx, identity1.getName(), identity1.getIdentityType());
+                presence.identityObjectCreated(defaultIdentityStore, identity1);
             }
 
-            if (!hasIdentityObject(defaultTargetCtx, defaultIdentityStore, identity2))
+            if (!presence.hasIdentityObject(defaultTargetCtx, defaultIdentityStore, identity2))
             {
                 defaultIdentityStore.createIdentityObject(defaultTargetCtx, identity2.getName(), identity2.getIdentityType());
+                presence.identityObjectCreated(defaultIdentityStore, identity2);
             }
 
             defaultIdentityStore.removeRelationships(defaultTargetCtx, identity1, identity2, named);
@@ -952,24 +1328,28 @@ public class FallbackIdentityStoreRepository extends AbstractIdentityStoreReposi
 
             IdentityStoreInvocationContext defaultTargetCtx = resolveInvocationContext(defaultIdentityStore, invocationCxt);
 
+            IdentityObjectPresence presence = new IdentityObjectPresence();
+
             if (fromStore == toStore &&
                     (!RoleManagerImpl.ROLE.getName().equals(relationshipType.getName()) ||
                             fromStore.getSupportedFeatures().isNamedRelationshipsSupported())
-                    && hasIdentityObject(toTargetCtx, toStore, fromIdentity)
-                    && hasIdentityObject(toTargetCtx, toStore, toIdentity))
+                    && presence.hasIdentityObject(toTargetCtx, toStore, fromIdentity)
+                    && presence.hasIdentityObject(toTargetCtx, toStore, toIdentity))
             {
                 return fromStore.resolveRelationships(toTargetCtx, fromIdentity, toIdentity, relationshipType);
 
             }
 
-            if (!hasIdentityObject(defaultTargetCtx, defaultIdentityStore, fromIdentity))
+            if (!presence.hasIdentityObject(defaultTargetCtx, defaultIdentityStore, fromIdentity))
             {
                 defaultIdentityStore.createIdentityObject(defaultTargetCtx, fromIdentity.getName(), fromIdentity.getIdentityType());
+                presence.identityObjectCreated(defaultIdentityStore, fromIdentity);
             }
 
-            if (!hasIdentityObject(defaultTargetCtx, defaultIdentityStore, toIdentity))
+            if (!presence.hasIdentityObject(defaultTargetCtx, defaultIdentityStore, toIdentity))
             {
                 defaultIdentityStore.createIdentityObject(defaultTargetCtx, toIdentity.getName(), toIdentity.getIdentityType());
+                presence.identityObjectCreated(defaultIdentityStore, toIdentity);
             }
 
             return defaultIdentityStore.resolveRelationships(defaultTargetCtx, fromIdentity, toIdentity, relationshipType);
@@ -1358,6 +1738,115 @@ public class FallbackIdentityStoreRepository extends AbstractIdentityStoreReposi
         }
     }
 
+    public int importIdentityObjects(IdentityStoreInvocationContext invocationCtx,
+                                     Iterator<IdentityObjectImport> objects,
+                                     int batchSize,
+                                     IdentityObjectImportListener listener) throws IdentityException
+    {
+        if (objects == null)
+        {
+            throw new IllegalArgumentException("objects are null");
+        }
+        if (batchSize <= 0)
+        {
+            throw new IllegalArgumentException("Batch size must be greater than 0: " + batchSize);
+        }
+
+        try
+        {
+            int processed = 0;
+            int imported = 0;
+
+            while (objects.hasNext())
+            {
+                // Objects that can be written directly to their store are passed to it together. Others are created
+                // one by one so attributes and relationships are routed the same way as in other operations
+
+                Map<IdentityStore, List<IdentityObjectImport>> direct = new LinkedHashMap<IdentityStore, List<IdentityObjectImport>>();
+                List<IdentityObjectImport> routed = new LinkedList<IdentityObjectImport>();
+
+                for (int i = 0; i < batchSize && objects.hasNext(); i++)
+                {
+                    IdentityObjectImport entry = objects.next();
+                    processed++;
+
+                    IdentityStore toStore = resolveIdentityStore(entry.getIdentityType());
+
+                    if (isDirectImportSupported(toStore, entry))
+                    {
+                        if (!direct.containsKey(toStore))
+                        {
+                            direct.put(toStore, new LinkedList<IdentityObjectImport>());
+                        }
+                        direct.get(toStore).add(entry);
+                    }
+                    else
+                    {
+                        routed.add(entry);
+                    }
+                }
+
+                for (Map.Entry<IdentityStore, List<IdentityObjectImport>> entry : direct.entrySet())
+                {
+                    IdentityStoreInvocationContext targetCtx = resolveInvocationContext(entry.getKey(), invocationCtx);
+
+                    imported += entry.getKey().importIdentityObjects(targetCtx, entry.getValue().iterator(), batchSize, null);
+                }
+
+                for (IdentityObjectImport entry : routed)
+                {
+                    if (findIdentityObject(invocationCtx, entry.getName(), entry.getIdentityType()) == null)
+                    {
+                        IdentityObjectImporter.importIdentityObject(this, invocationCtx, entry);
+                        imported++;
+                    }
+                }
+
+                if (listener != null)
+                {
+                    listener.importProgress(processed, imported);
+                }
+            }
+
+            return imported;
+        }
+        catch (IdentityException e)
+        {
+            if (log.isLoggable(Level.FINER))
+            {
+                log.log(Level.FINER, "Exception occurred: ", e);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @param store
+     * @param entry
+     * @return true if imported object with all its attributes and relationships can be written to a given store
+     * directly
+     */
+    private boolean isDirectImportSupported(IdentityStore store, IdentityObjectImport entry)
+    {
+        if (store != defaultAttributeStore || isIdentityStoreReadOnly(store))
+        {
+            return false;
+        }
+
+        if (entry.getParents() != null)
+        {
+            for (IdentityObject parent : entry.getParents())
+            {
+                if (resolveIdentityStore(parent.getIdentityType()) != store)
+                {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
 
     public Set<String> getSupportedAttributeNames(IdentityStoreInvocationContext invocationContext, IdentityObjectType identityType) throws IdentityException
     {
@@ -1466,63 +1955,168 @@ public class FallbackIdentityStoreRepository extends AbstractIdentityStoreReposi
         }
     }
 
-    public Map<String, IdentityObjectAttribute> getAttributes(IdentityStoreInvocationContext invocationContext, IdentityObject identity) throws IdentityException
+    public Map<String, IdentityObjectAttribute> getAttributes(final IdentityStoreInvocationContext invocationContext, final IdentityObject identity) throws IdentityException
     {
         try
         {
-            Map<String, IdentityObjectAttribute> results = new HashMap<String, IdentityObjectAttribute>();
+            Map<String, IdentityObjectAttribute> results = null;
 
-            IdentityStore toStore = resolveIdentityStore(identity);
-            IdentityStoreInvocationContext targetCtx = resolveInvocationContext(toStore, invocationContext);
+            final IdentityStore toStore = resolveIdentityStore(identity);
 
-
-            // expect user in first ldap store
-            if (hasIdentityObject(targetCtx, toStore, identity))
+            if (toStore == defaultAttributeStore)
             {
-                results = toStore.getAttributes(targetCtx, identity);
+                return getMappedStoreAttributes(invocationContext, toStore, identity);
             }
-            else
+
+            IdentityStoreInvocationContext defaultCtx = resolveInvocationContext(defaultAttributeStore, invocationContext);
+
+            Map<String, IdentityObjectAttribute> defaultAttrs = null;
+
+            if (storeExecutor != null)
             {
-                // check that the identity we are looking is configured in the attributeStoreMappings
-                if (toStore != defaultAttributeStore && attributeStoreMappings.keySet().contains(identity.getIdentityType().getName()))
-                {
+                // Mapped stores are probed in the fan-out executor while the default store is read in the calling thread
+                long startTime = System.currentTimeMillis();
 
-                    // check attributes for all ldap stores
-                    for (String storeName : attributeStoreMappings.keySet())
-                    {
+                // Only the mapped store itself is read there - other stores are checked in the calling thread
 
-                        IdentityStore userIdentityStore = resolveIdentityStore(new SimpleIdentityObjectType(storeName));
-                        // check that it is not the ldap, we already checked a few lines ago
-                        if (userIdentityStore != toStore)
+                Future<Map<String, IdentityObjectAttribute>> future = submitStoreCall(invocationContext, toStore, new StoreCall<Map<String, IdentityObjectAttribute>>()
+                {
+                    public Map<String, IdentityObjectAttribute> call(IdentityStoreInvocationContext taskCtx) throws IdentityException
+                    {
+                        if (hasIdentityObject(taskCtx, toStore, identity))
                         {
-                            IdentityStoreInvocationContext otherLdapCtx = resolveInvocationContext(userIdentityStore, invocationContext);
-                            SimpleIdentityObject userFrIdentity = new SimpleIdentityObject(identity.getName(), identity.getId(), new SimpleIdentityObjectType(storeName));
-                            if (hasIdentityObject(otherLdapCtx, userIdentityStore, userFrIdentity))
-                            {
-                                results = userIdentityStore.getAttributes(otherLdapCtx, userFrIdentity);
-                            }
-
+                            return toStore.getAttributes(taskCtx, identity);
                         }
+
+                        return IDENTITY_NOT_PRESENT;
                     }
+                });
+
+                defaultAttrs = defaultAttributeStore.getAttributes(defaultCtx, identity);
+
+                results = getStoreResult(future, toStore, startTime);
+
+                if (results == null)
+                {
+                    results = new HashMap<String, IdentityObjectAttribute>();
+                }
+                else if (results == IDENTITY_NOT_PRESENT)
+                {
+                    results = getOtherStoresAttributes(invocationContext, toStore, identity);
                 }
             }
+            else
+            {
+                results = getMappedStoreAttributes(invocationContext, toStore, identity);
 
-            if (toStore != defaultAttributeStore)
+                defaultAttrs = defaultAttributeStore.getAttributes(defaultCtx, identity);
+            }
+
+            // Add only those attributes which are missing - don't overwrite or merge existing values
+            for (Map.Entry<String, IdentityObjectAttribute> entry : defaultAttrs.entrySet())
             {
-                IdentityStoreInvocationContext defaultCtx = resolveInvocationContext(defaultAttributeStore, invocationContext);
+                if (!results.keySet().contains(entry.getKey()))
+                {
+                    results.put(entry.getKey(), entry.getValue());
+                }
+            }
+
+            return results;
+        }
+        catch (IdentityException e)
+        {
+            if (log.isLoggable(Level.FINER))
+            {
+                log.log(Level.FINER, "Exception occurred: ", e);
+            }
+            throw e;
+        }
+    }
+
+    private Map<String, IdentityObjectAttribute> getMappedStoreAttributes(IdentityStoreInvocationContext invocationContext,
+                                                                          IdentityStore toStore,
+                                                                          IdentityObject identity) throws IdentityException
+    {
+        IdentityStoreInvocationContext targetCtx = resolveInvocationContext(toStore, invocationContext);
+
+        // expect user in first ldap store
+        if (hasIdentityObject(targetCtx, toStore, identity))
+        {
+            return toStore.getAttributes(targetCtx, identity);
+        }
+
+        return getOtherStoresAttributes(invocationContext, toStore, identity);
+    }
+
+    /**
+     * Reads attributes of an identity that is not present in its mapped store from other stores configured in
+     * attributeStoreMappings.
+     */
+    private Map<String, IdentityObjectAttribute> getOtherStoresAttributes(IdentityStoreInvocationContext invocationContext,
+                                                                          IdentityStore toStore,
+                                                                          IdentityObject identity) throws IdentityException
+    {
+        Map<String, IdentityObjectAttribute> results = new HashMap<String, IdentityObjectAttribute>();
 
-                Map<String, IdentityObjectAttribute> defaultAttrs = defaultAttributeStore.getAttributes(defaultCtx, identity);
+        // check that the identity we are looking is configured in the attributeStoreMappings
+        if (toStore != defaultAttributeStore && attributeStoreMappings.keySet().contains(identity.getIdentityType().getName()))
+        {
 
-                // Add only those attributes which are missing - don't overwrite or merge existing values
-                for (Map.Entry<String, IdentityObjectAttribute> entry : defaultAttrs.entrySet())
+            // check attributes for all ldap stores
+            for (String storeName : attributeStoreMappings.keySet())
+            {
+
+                IdentityStore userIdentityStore = resolveIdentityStore(new SimpleIdentityObjectType(storeName));
+                // check that it is not the ldap, we already checked a few lines ago
+                if (userIdentityStore != toStore)
                 {
-                    if (!results.keySet().contains(entry.getKey()))
+                    IdentityStoreInvocationContext otherLdapCtx = resolveInvocationContext(userIdentityStore, invocationContext);
+                    SimpleIdentityObject userFrIdentity = new SimpleIdentityObject(identity.getName(), identity.getId(), new SimpleIdentityObjectType(storeName));
+                    if (hasIdentityObject(otherLdapCtx, userIdentityStore, userFrIdentity))
                     {
-                        results.put(entry.getKey(), entry.getValue());
+                        results = userIdentityStore.getAttributes(otherLdapCtx, userFrIdentity);
                     }
+
+                }
+            }
+        }
+
+        return results;
+    }
+
+    public Map<IdentityObject, Map<String, IdentityObjectAttribute>> getAttributes(IdentityStoreInvocationContext invocationContext,
+                                                                                   Collection<IdentityObject> identities,
+                                                                                   String[] attributeNames) throws IdentityException
+    {
+        try
+        {
+            Map<IdentityObject, Map<String, IdentityObjectAttribute>> results =
+                new HashMap<IdentityObject, Map<String, IdentityObjectAttribute>>();
+
+            // Identities living in the default attribute store are loaded with a single bulk call. Others need
+            // attributes merged from several stores
+            List<IdentityObject> defaultStoreIdentities = new LinkedList<IdentityObject>();
+
+            for (IdentityObject identity : identities)
+            {
+                if (resolveIdentityStore(identity) == defaultAttributeStore)
+                {
+                    defaultStoreIdentities.add(identity);
+                }
+                else if (!results.containsKey(identity))
+                {
+                    results.put(identity,
+                        IdentityObjectAttributes.filterAttributes(getAttributes(invocationContext, identity), attributeNames));
                 }
             }
 
+            if (!defaultStoreIdentities.isEmpty())
+            {
+                IdentityStoreInvocationContext defaultCtx = resolveInvocationContext(defaultAttributeStore, invocationContext);
+
+                results.putAll(defaultAttributeStore.getAttributes(defaultCtx, defaultStoreIdentities, attributeNames));
+            }
+
             return results;
         }
         catch (IdentityException e)
@@ -1824,51 +2418,154 @@ public class FallbackIdentityStoreRepository extends AbstractIdentityStoreReposi
         }
     }
 
-    private void sortByName(List<IdentityObject> objects, final boolean ascending)
+    private void sortByName(List<IdentityObject> objects, IdentityObjectSearchCriteria criteria)
     {
+        // Keyset pages are cut in the same order in which stores compare page keys
+        boolean ignoreCase = STORE_NAME_ORDER_CASE_INSENSITIVE.equals(storeNameOrder) && criteria.getPageAfterName() == null;
+
+        Collections.sort(objects, nameComparator(ignoreCase, criteria.isAscending()));
+    }
+
+    /**
+     * Sorts objects from several stores by attribute value. Attribute values of all objects are read with one call.
+     */
+    private void sortByAttribute(IdentityStoreInvocationContext invocationCtx,
+                                 List<IdentityObject> objects,
+                                 String attributeName,
+                                 final boolean ascending) throws IdentityException
+    {
+        Map<IdentityObject, Map<String, IdentityObjectAttribute>> attributes =
+                getAttributes(invocationCtx, objects, new String[]{attributeName});
+
+        final Map<IdentityObject, String> values = new HashMap<IdentityObject, String>();
+
+        for (IdentityObject object : objects)
+        {
+            Map<String, IdentityObjectAttribute> objectAttributes = attributes.get(object);
+            IdentityObjectAttribute attribute = objectAttributes != null ? objectAttributes.get(attributeName) : null;
+
+            if (attribute != null && attribute.getValue() != null)
+            {
+                values.put(object, attribute.getValue().toString());
+            }
+            else
+            {
+                values.put(object, "");
+            }
+        }
+
+        final Comparator<IdentityObject> comparator = nameComparator(false, ascending);
+
         Collections.sort(objects, new Comparator<IdentityObject>()
         {
             public int compare(IdentityObject o1, IdentityObject o2)
             {
+                int result = ascending ? values.get(o1).compareTo(values.get(o2)) : values.get(o2).compareTo(values.get(o1));
+
+                return result != 0 ? result : comparator.compare(o1, o2);
+            }
+        });
+    }
+
+    static Comparator<IdentityObject> nameComparator(final boolean ignoreCase, final boolean ascending)
+    {
+        return new Comparator<IdentityObject>()
+        {
+            public int compare(IdentityObject o1, IdentityObject o2)
+            {
+                if (ignoreCase)
+                {
+                    int result = String.CASE_INSENSITIVE_ORDER.compare(o1.getName(), o2.getName());
+
+                    if (result != 0)
+                    {
+                        return ascending ? result : -result;
+                    }
+                }
+
+                // Same named objects are ordered by type - same as keyset pages
                 if (ascending)
                 {
-                    return o1.getName().compareTo(o2.getName());
+                    return ResultsPage.compareKeys(o1.getName(), o1.getIdentityType().getName(),
+                            o2.getName(), o2.getIdentityType().getName());
                 }
                 else
                 {
-                    return o2.getName().compareTo(o1.getName());
+                    return ResultsPage.compareKeys(o2.getName(), o2.getIdentityType().getName(),
+                            o1.getName(), o1.getIdentityType().getName());
                 }
             }
-        });
+        };
     }
 
-    //TODO: other way
-    private List<IdentityObject> cutPageFromResults(List<IdentityObject> objects, IdentityObjectSearchCriteria criteria)
+    /**
+     * k-way merge of results that are already sorted with the given comparator. Objects present in several results
+     * are returned once. Results are read only until limit objects are merged.
+     */
+    static List<IdentityObject> mergeSortedResults(List<Collection<IdentityObject>> sortedResults,
+                                                   final Comparator<IdentityObject> comparator,
+                                                   int limit)
     {
+        PriorityQueue<MergeHead> heads = new PriorityQueue<MergeHead>(Math.max(sortedResults.size(), 1), new Comparator<MergeHead>()
+        {
+            public int compare(MergeHead h1, MergeHead h2)
+            {
+                return comparator.compare(h1.current, h2.current);
+            }
+        });
 
-        List<IdentityObject> results = new LinkedList<IdentityObject>();
+        for (Collection<IdentityObject> results : sortedResults)
+        {
+            Iterator<IdentityObject> iterator = results.iterator();
 
-        if (criteria.getMaxResults() == 0)
+            if (iterator.hasNext())
+            {
+                heads.add(new MergeHead(iterator));
+            }
+        }
+
+        List<IdentityObject> merged = new ArrayList<IdentityObject>();
+        Set<IdentityObject> present = new HashSet<IdentityObject>();
+
+        while (!heads.isEmpty() && merged.size() < limit)
         {
-            for (int i = criteria.getFirstResult(); i < objects.size(); i++)
+            MergeHead head = heads.poll();
+
+            if (present.add(head.current))
             {
-                if (i < objects.size())
-                {
-                    results.add(objects.get(i));
-                }
+                merged.add(head.current);
+            }
+
+            if (head.advance())
+            {
+                heads.add(head);
             }
         }
-        else
+
+        return merged;
+    }
+
+    private static class MergeHead
+    {
+        private final Iterator<IdentityObject> iterator;
+
+        private IdentityObject current;
+
+        MergeHead(Iterator<IdentityObject> iterator)
         {
-            for (int i = criteria.getFirstResult(); i < criteria.getFirstResult() + criteria.getMaxResults(); i++)
+            this.iterator = iterator;
+            this.current = iterator.next();
+        }
+
+        boolean advance()
+        {
+            if (iterator.hasNext())
             {
-                if (i < objects.size())
-                {
-                    results.add(objects.get(i));
-                }
+                current = iterator.next();
+                return true;
             }
+            return false;
         }
-        return results;
     }
 
     public boolean isAllowNotDefinedAttributes()
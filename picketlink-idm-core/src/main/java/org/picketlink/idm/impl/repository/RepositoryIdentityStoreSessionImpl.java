@@ -98,6 +98,26 @@ public class RepositoryIdentityStoreSessionImpl implements IdentityStoreSession
       return false;
    }
 
+   public void setReadOnly(boolean readOnly)
+   {
+      for (IdentityStoreSession identityStoreSession : identityStoreSessionMappings.values())
+      {
+         identityStoreSession.setReadOnly(readOnly);
+      }
+   }
+
+   public boolean isReadOnly()
+   {
+      for (IdentityStoreSession identityStoreSession : identityStoreSessionMappings.values())
+      {
+         if (!identityStoreSession.isReadOnly())
+         {
+            return false;
+         }
+      }
+      return true;
+   }
+
    public boolean isTransactionSupported()
    {
       for (IdentityStoreSession identityStoreSession : identityStoreSessionMappings.values())
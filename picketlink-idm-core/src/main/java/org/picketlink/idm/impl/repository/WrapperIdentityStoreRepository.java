@@ -23,6 +23,7 @@
 package org.picketlink.idm.impl.repository;
 
 import org.picketlink.idm.spi.store.IdentityStore;
+import org.picketlink.idm.spi.store.IdentityObjectImportListener;
 import org.picketlink.idm.spi.store.AttributeStore;
 import org.picketlink.idm.spi.store.IdentityStoreSession;
 import org.picketlink.idm.spi.store.FeaturesMetaData;
@@ -35,14 +36,17 @@ import org.picketlink.idm.spi.model.IdentityObjectType;
 import org.picketlink.idm.spi.model.IdentityObjectRelationshipType;
 import org.picketlink.idm.spi.model.IdentityObjectRelationship;
 import org.picketlink.idm.spi.model.IdentityObjectCredential;
+import org.picketlink.idm.spi.model.IdentityObjectImport;
 import org.picketlink.idm.spi.model.IdentityObjectAttribute;
 import org.picketlink.idm.spi.exception.OperationNotSupportedException;
 import org.picketlink.idm.spi.search.IdentityObjectSearchCriteria;
 import org.picketlink.idm.common.exception.IdentityException;
 import org.picketlink.idm.impl.store.SimpleIdentityStoreInvocationContext;
+import org.picketlink.idm.impl.helper.IdentityObjectImporter;
 
 import java.util.Map;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.Set;
 import java.util.HashMap;
 
@@ -161,6 +165,12 @@ public class WrapperIdentityStoreRepository extends AbstractIdentityStoreReposit
       return defaultIdentityStore.findIdentityObject(resolveIdentityStoreInvocationContext(invocationContext), id);
    }
 
+   public boolean isIdentityObjectPresent(IdentityStoreInvocationContext invocationContext,
+                                          IdentityObject identity) throws IdentityException
+   {
+      return defaultIdentityStore.isIdentityObjectPresent(resolveIdentityStoreInvocationContext(invocationContext), identity);
+   }
+
    public Collection<IdentityObject> findIdentityObject(IdentityStoreInvocationContext invocationCtx,
                                                         IdentityObjectType identityType,
                                                         IdentityObjectSearchCriteria criteria) throws IdentityException
@@ -177,6 +187,16 @@ public class WrapperIdentityStoreRepository extends AbstractIdentityStoreReposit
       return defaultIdentityStore.findIdentityObject(resolveIdentityStoreInvocationContext(invocationCtx), identity, relationshipType, parent, criteria);
    }
 
+   public Collection<IdentityObject> findIdentityObjectCascaded(IdentityStoreInvocationContext invocationCxt,
+                                                                IdentityObject identity,
+                                                                IdentityObjectRelationshipType relationshipType,
+                                                                IdentityObjectType identityType,
+                                                                boolean parent) throws IdentityException
+   {
+      return defaultIdentityStore.findIdentityObjectCascaded(resolveIdentityStoreInvocationContext(invocationCxt),
+         identity, relationshipType, identityType, parent);
+   }
+
    public IdentityObjectRelationship createRelationship(IdentityStoreInvocationContext invocationCxt,
                                                         IdentityObject fromIdentity,
                                                         IdentityObject toIdentity,
@@ -294,6 +314,20 @@ public class WrapperIdentityStoreRepository extends AbstractIdentityStoreReposit
       defaultIdentityStore.updateCredential(resolveIdentityStoreInvocationContext(ctx), identityObject, credential);
    }
 
+   public int importIdentityObjects(IdentityStoreInvocationContext ctx,
+                                    Iterator<IdentityObjectImport> objects,
+                                    int batchSize,
+                                    IdentityObjectImportListener listener) throws IdentityException
+   {
+      if (defaultAttributeStore == defaultIdentityStore)
+      {
+         return defaultIdentityStore.importIdentityObjects(resolveIdentityStoreInvocationContext(ctx), objects, batchSize, listener);
+      }
+
+      // Attributes need to be routed to the attribute store
+      return IdentityObjectImporter.importIdentityObjects(this, ctx, objects, batchSize, listener);
+   }
+
    public Set<String> getSupportedAttributeNames(IdentityStoreInvocationContext invocationContext,
                                                  IdentityObjectType identityType) throws IdentityException
    {
@@ -312,6 +346,13 @@ public class WrapperIdentityStoreRepository extends AbstractIdentityStoreReposit
       return defaultAttributeStore.getAttributes(resolveAttributeStoreInvocationContext(invocationContext), identity);
    }
 
+   public Map<IdentityObject, Map<String, IdentityObjectAttribute>> getAttributes(IdentityStoreInvocationContext invocationContext,
+                                                                                  Collection<IdentityObject> identities,
+                                                                                  String[] attributeNames) throws IdentityException
+   {
+      return defaultAttributeStore.getAttributes(resolveAttributeStoreInvocationContext(invocationContext), identities, attributeNames);
+   }
+
    public IdentityObjectAttribute getAttribute(IdentityStoreInvocationContext invocationContext,
                                                IdentityObject identity,
                                                String name) throws IdentityException
@@ -0,0 +1,115 @@
+/*
+* JBoss, a division of Red Hat
+* Copyright 2006, Red Hat Middleware, LLC, and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.picketlink.idm.impl.types;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.picketlink.idm.spi.model.IdentityObject;
+import org.picketlink.idm.spi.model.IdentityObjectCredential;
+import org.picketlink.idm.spi.model.IdentityObjectImport;
+import org.picketlink.idm.spi.model.IdentityObjectRelationshipType;
+import org.picketlink.idm.spi.model.IdentityObjectType;
+
+/**
+ * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
+ * @version : 0.1 $
+ */
+public class SimpleIdentityObjectImport implements IdentityObjectImport
+{
+   private final String name;
+
+   private final IdentityObjectType identityType;
+
+   private final Map<String, String[]> attributes;
+
+   private final Collection<IdentityObjectCredential> credentials;
+
+   private final Collection<IdentityObject> parents;
+
+   private final IdentityObjectRelationshipType relationshipType;
+
+   public SimpleIdentityObjectImport(String name,
+                                     IdentityObjectType identityType,
+                                     Map<String, String[]> attributes,
+                                     Collection<IdentityObjectCredential> credentials,
+                                     Collection<IdentityObject> parents,
+                                     IdentityObjectRelationshipType relationshipType)
+   {
+      if (name == null)
+      {
+         throw new IllegalArgumentException("name is null");
+      }
+      if (identityType == null)
+      {
+         throw new IllegalArgumentException("type is null");
+      }
+      if (parents != null && parents.size() > 0 && relationshipType == null)
+      {
+         throw new IllegalArgumentException("relationship type is null");
+      }
+
+      this.name = name;
+      this.identityType = identityType;
+      this.attributes = attributes;
+      this.credentials = credentials;
+      this.parents = parents;
+      this.relationshipType = relationshipType;
+   }
+
+   public String getName()
+   {
+      return name;
+   }
+
+   public IdentityObjectType getIdentityType()
+   {
+      return identityType;
+   }
+
+   public Map<String, String[]> getAttributes()
+   {
+      return attributes;
+   }
+
+   public Collection<IdentityObjectCredential> getCredentials()
+   {
+      return credentials;
+   }
+
+   public Collection<IdentityObject> getParents()
+   {
+      return parents;
+   }
+
+   public IdentityObjectRelationshipType getRelationshipType()
+   {
+      return relationshipType;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "IdentityObjectImport[name="  + getName() + "; type=" + getIdentityType().getName() + "]";
+   }
+}
@@ -0,0 +1,219 @@
+/*
+* JBoss, a division of Red Hat
+* Copyright 2006, Red Hat Middleware, LLC, and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.picketlink.idm.impl.cache;
+
+import junit.framework.TestCase;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.picketlink.idm.impl.store.IdentityStoreChangeListener;
+import org.picketlink.idm.impl.store.IdentityStoreChangeSource;
+import org.picketlink.idm.impl.store.SimpleIdentityStoreInvocationContext;
+import org.picketlink.idm.impl.types.SimpleIdentityObject;
+import org.picketlink.idm.impl.types.SimpleIdentityObjectType;
+import org.picketlink.idm.spi.cache.IdentityStoreCacheProvider;
+import org.picketlink.idm.spi.model.IdentityObject;
+import org.picketlink.idm.spi.store.IdentityStore;
+import org.picketlink.idm.spi.store.IdentityStoreInvocationContext;
+import org.picketlink.idm.spi.store.IdentityStoreSession;
+
+/**
+ * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
+ * @version : 0.1 $
+ */
+public class JBossCacheIdentityStoreWrapperTestCase extends TestCase
+{
+   private final List<IdentityStoreChangeListener> changeListeners = new ArrayList<IdentityStoreChangeListener>();
+
+   // Invalidation calls made on the cache provider - method name followed by arguments
+   private final List<String> invalidations = new ArrayList<String>();
+
+   private JBossCacheIdentityStoreWrapper wrapper;
+
+   private IdentityObject jdoe;
+
+   public void setUp() throws Exception
+   {
+      jdoe = new SimpleIdentityObject("jdoe", new SimpleIdentityObjectType("USER"));
+
+      wrapper = new JBossCacheIdentityStoreWrapper(createStore(), createCacheProvider(), "realm");
+
+      // Populate cache in two realms
+      wrapper.getAttributes(createContext("realm1"), jdoe);
+      wrapper.getAttributes(createContext("realm2"), jdoe);
+
+      invalidations.clear();
+   }
+
+   public void testWrapperRegistersChangeListener()
+   {
+      assertEquals(1, changeListeners.size());
+   }
+
+   public void testChangedObjectsInvalidatedInAllNamespaces()
+   {
+      changeListeners.get(0).identityObjectsChanged("store", Collections.singletonList(jdoe));
+
+      for (String ns : new String[]{"store/realm1", "store/realm2"})
+      {
+         assertTrue(invalidations.contains("invalidateIdentityObjectRelationshipSearches " + ns));
+         assertTrue(invalidations.contains("invalidateIdentityObjectRelationshipNameSearches " + ns));
+         assertTrue(invalidations.contains("invalidateIdentityObjectSearches " + ns));
+         assertTrue(invalidations.contains("invalidateIdentityObjectCount " + ns + " USER"));
+         assertTrue(invalidations.contains("invalidateIdentityObjectAttriubtes " + ns + " " + jdoe));
+      }
+
+      // Data not related to the change is kept
+      assertFalse(invalidations.contains("invalidate store/realm1"));
+   }
+
+   public void testWholeNamespaceInvalidatedWhenAnyObjectCouldChange()
+   {
+      changeListeners.get(0).identityObjectsChanged("store", null);
+
+      assertEquals(2, invalidations.size());
+      assertTrue(invalidations.contains("invalidate store/realm1"));
+      assertTrue(invalidations.contains("invalidate store/realm2"));
+   }
+
+   private IdentityStoreInvocationContext createContext(String realmId)
+   {
+      IdentityStoreSession session = (IdentityStoreSession)Proxy.newProxyInstance(getClass().getClassLoader(),
+         new Class[]{IdentityStoreSession.class},
+         new InvocationHandler()
+         {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+            {
+               return defaultValue(method);
+            }
+         });
+
+      return new SimpleIdentityStoreInvocationContext(session, realmId, "session");
+   }
+
+   /**
+    * Store that detects changes made bypassing the wrapper
+    */
+   private IdentityStore createStore()
+   {
+      return (IdentityStore)Proxy.newProxyInstance(getClass().getClassLoader(),
+         new Class[]{IdentityStore.class, IdentityStoreChangeSource.class},
+         new InvocationHandler()
+         {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+            {
+               if (method.getName().equals("addChangeListener"))
+               {
+                  changeListeners.add((IdentityStoreChangeListener)args[0]);
+                  return null;
+               }
+               if (method.getName().equals("getId"))
+               {
+                  return "store";
+               }
+
+               return defaultValue(method);
+            }
+         });
+   }
+
+   private IdentityStoreCacheProvider createCacheProvider()
+   {
+      return (IdentityStoreCacheProvider)Proxy.newProxyInstance(getClass().getClassLoader(),
+         new Class[]{IdentityStoreCacheProvider.class},
+         new InvocationHandler()
+         {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+            {
+               String name = method.getName();
+
+               if (name.equals("getNamespace"))
+               {
+                  StringBuilder ns = new StringBuilder();
+
+                  for (Object arg : args)
+                  {
+                     ns.append(ns.length() > 0 ? "/" : "").append(arg);
+                  }
+
+                  return ns.toString();
+               }
+               if (name.startsWith("invalidate"))
+               {
+                  StringBuilder call = new StringBuilder(name);
+
+                  if (args != null)
+                  {
+                     for (Object arg : args)
+                     {
+                        call.append(" ").append(arg);
+                     }
+                  }
+
+                  invalidations.add(call.toString());
+                  return null;
+               }
+               if (name.startsWith("get"))
+               {
+                  // Nothing cached yet
+                  return null;
+               }
+
+               return defaultValue(method);
+            }
+         });
+   }
+
+   private static Object defaultValue(Method method)
+   {
+      Class type = method.getReturnType();
+
+      if (type == Boolean.TYPE)
+      {
+         return Boolean.FALSE;
+      }
+      if (type == Integer.TYPE)
+      {
+         return 0;
+      }
+      if (type == Map.class)
+      {
+         return new HashMap();
+      }
+      if (type == Collection.class)
+      {
+         return new LinkedList();
+      }
+
+      return null;
+   }
+}
@@ -0,0 +1,174 @@
+/*
+* JBoss, a division of Red Hat
+* Copyright 2006, Red Hat Middleware, LLC, and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.picketlink.idm.impl.helper;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.picketlink.idm.api.SortOrder;
+import org.picketlink.idm.impl.api.IdentitySearchCriteriaImpl;
+import org.picketlink.idm.impl.types.SimpleIdentityObject;
+import org.picketlink.idm.impl.types.SimpleIdentityObjectType;
+import org.picketlink.idm.spi.model.IdentityObject;
+
+/**
+ * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
+ * @version : 0.1 $
+ */
+public class ResultsPageTestCase extends TestCase
+{
+   private static final SimpleIdentityObjectType USER = new SimpleIdentityObjectType("USER");
+
+   private static final SimpleIdentityObjectType GROUP = new SimpleIdentityObjectType("GROUP");
+
+   public void testOffsetPageOfList() throws Exception
+   {
+      IdentitySearchCriteriaImpl criteria = new IdentitySearchCriteriaImpl();
+      criteria.page(1, 2);
+
+      List<IdentityObject> page = ResultsPage.cut(objects("a", "b", "c", "d"), criteria, ResultsPage.IDENTITY_OBJECT_NAMES).getObjects();
+
+      assertEquals(Arrays.asList("b", "c"), names(page));
+   }
+
+   public void testOffsetPageOfLinkedList() throws Exception
+   {
+      IdentitySearchCriteriaImpl criteria = new IdentitySearchCriteriaImpl();
+      criteria.page(1, 2);
+
+      List<IdentityObject> page = ResultsPage.cut(new LinkedList<IdentityObject>(objects("a", "b", "c", "d")), criteria,
+         ResultsPage.IDENTITY_OBJECT_NAMES).getObjects();
+
+      assertEquals(Arrays.asList("b", "c"), names(page));
+   }
+
+   public void testPageBeyondResults() throws Exception
+   {
+      IdentitySearchCriteriaImpl criteria = new IdentitySearchCriteriaImpl();
+      criteria.page(5, 2);
+
+      assertTrue(ResultsPage.cut(objects("a", "b"), criteria, ResultsPage.IDENTITY_OBJECT_NAMES).getObjects().isEmpty());
+      assertTrue(ResultsPage.cut(new LinkedList<IdentityObject>(objects("a", "b")), criteria,
+         ResultsPage.IDENTITY_OBJECT_NAMES).getObjects().isEmpty());
+   }
+
+   public void testZeroMaxResultsReturnsRest() throws Exception
+   {
+      IdentitySearchCriteriaImpl criteria = new IdentitySearchCriteriaImpl();
+      criteria.page(1, 0);
+
+      List<IdentityObject> page = ResultsPage.cut(objects("a", "b", "c"), criteria, ResultsPage.IDENTITY_OBJECT_NAMES).getObjects();
+
+      assertEquals(Arrays.asList("b", "c"), names(page));
+   }
+
+   public void testResultsAfterPageAreNotRead() throws Exception
+   {
+      IdentitySearchCriteriaImpl criteria = new IdentitySearchCriteriaImpl();
+      criteria.page(0, 2);
+
+      Iterator<IdentityObject> iterator = objects("a", "b", "c", "d").iterator();
+
+      List<IdentityObject> page = ResultsPage.cut(iterator, criteria, ResultsPage.IDENTITY_OBJECT_NAMES).getObjects();
+
+      assertEquals(Arrays.asList("a", "b"), names(page));
+      assertEquals("c", iterator.next().getName());
+   }
+
+   public void testKeysetPageAscending() throws Exception
+   {
+      IdentitySearchCriteriaImpl criteria = new IdentitySearchCriteriaImpl();
+      criteria.pageAfter("b", 2);
+
+      List<IdentityObject> page = ResultsPage.cut(objects("a", "b", "c", "d", "e"), criteria, ResultsPage.IDENTITY_OBJECT_NAMES).getObjects();
+
+      assertEquals(Arrays.asList("c", "d"), names(page));
+   }
+
+   public void testKeysetPageDescending() throws Exception
+   {
+      IdentitySearchCriteriaImpl criteria = new IdentitySearchCriteriaImpl();
+      criteria.pageAfter("d", 2);
+      criteria.sort(SortOrder.DESCENDING);
+
+      List<IdentityObject> page = ResultsPage.cut(objects("e", "d", "c", "b", "a"), criteria, ResultsPage.IDENTITY_OBJECT_NAMES).getObjects();
+
+      assertEquals(Arrays.asList("c", "b"), names(page));
+   }
+
+   public void testKeysetPageSameNameOrderedByType() throws Exception
+   {
+      List<IdentityObject> objects = new ArrayList<IdentityObject>();
+      objects.add(new SimpleIdentityObject("a", GROUP));
+      objects.add(new SimpleIdentityObject("b", GROUP));
+      objects.add(new SimpleIdentityObject("b", USER));
+      objects.add(new SimpleIdentityObject("c", GROUP));
+
+      // Page ends between the two objects named "b"
+      IdentitySearchCriteriaImpl criteria = new IdentitySearchCriteriaImpl();
+      criteria.pageAfter("b", "GROUP", 2);
+
+      List<IdentityObject> page = ResultsPage.cut(objects, criteria, ResultsPage.IDENTITY_OBJECT_NAMES).getObjects();
+
+      assertEquals(2, page.size());
+      assertEquals(new SimpleIdentityObject("b", USER), page.get(0));
+      assertEquals(new SimpleIdentityObject("c", GROUP), page.get(1));
+   }
+
+   public void testCompareKeys()
+   {
+      assertTrue(ResultsPage.compareKeys("a", "USER", "b", "USER") < 0);
+      assertTrue(ResultsPage.compareKeys("b", "GROUP", "b", "USER") < 0);
+      assertTrue(ResultsPage.compareKeys("b", null, "b", "USER") < 0);
+      assertEquals(0, ResultsPage.compareKeys("b", "USER", "b", null));
+   }
+
+   private List<IdentityObject> objects(String... names)
+   {
+      List<IdentityObject> objects = new ArrayList<IdentityObject>();
+
+      for (String name : names)
+      {
+         objects.add(new SimpleIdentityObject(name, USER));
+      }
+
+      return objects;
+   }
+
+   private List<String> names(List<IdentityObject> objects)
+   {
+      List<String> names = new ArrayList<String>();
+
+      for (IdentityObject object : objects)
+      {
+         names.add(object.getName());
+      }
+
+      return names;
+   }
+}
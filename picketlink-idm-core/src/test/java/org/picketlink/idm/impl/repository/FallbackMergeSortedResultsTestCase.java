@@ -0,0 +1,156 @@
+/*
+* JBoss, a division of Red Hat
+* Copyright 2006, Red Hat Middleware, LLC, and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.picketlink.idm.impl.repository;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.picketlink.idm.api.SortOrder;
+import org.picketlink.idm.impl.api.IdentitySearchCriteriaImpl;
+import org.picketlink.idm.impl.types.SimpleIdentityObject;
+import org.picketlink.idm.impl.types.SimpleIdentityObjectType;
+import org.picketlink.idm.spi.model.IdentityObject;
+
+/**
+ * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
+ * @version : 0.1 $
+ */
+public class FallbackMergeSortedResultsTestCase extends TestCase
+{
+   private static final SimpleIdentityObjectType USER = new SimpleIdentityObjectType("USER");
+
+   public void testMixedCaseNamesMergedIgnoringCase()
+   {
+      // Both stores sort ignoring case
+      List<Collection<IdentityObject>> results = new ArrayList<Collection<IdentityObject>>();
+      results.add(objects("alice", "carol"));
+      results.add(objects("Bob"));
+
+      List<IdentityObject> merged = FallbackIdentityStoreRepository.mergeSortedResults(results,
+         FallbackIdentityStoreRepository.nameComparator(true, true), 10);
+
+      assertEquals(Arrays.asList("alice", "Bob", "carol"), names(merged));
+   }
+
+   public void testMixedCaseWindowsGiveCompletePage()
+   {
+      // First two objects of each store sorted ignoring case: mapped store has "alice", "Dave", "erin", default
+      // one has "Bob", "carol"
+      List<Collection<IdentityObject>> results = new ArrayList<Collection<IdentityObject>>();
+      results.add(objects("alice", "Dave"));
+      results.add(objects("Bob", "carol"));
+
+      List<IdentityObject> merged = FallbackIdentityStoreRepository.mergeSortedResults(results,
+         FallbackIdentityStoreRepository.nameComparator(true, true), 2);
+
+      assertEquals(Arrays.asList("alice", "Bob"), names(merged));
+   }
+
+   public void testCaseSensitiveMerge()
+   {
+      List<Collection<IdentityObject>> results = new ArrayList<Collection<IdentityObject>>();
+      results.add(objects("alice", "carol"));
+      results.add(objects("Bob"));
+
+      List<IdentityObject> merged = FallbackIdentityStoreRepository.mergeSortedResults(results,
+         FallbackIdentityStoreRepository.nameComparator(false, true), 10);
+
+      assertEquals(Arrays.asList("Bob", "alice", "carol"), names(merged));
+   }
+
+   public void testDescendingMerge()
+   {
+      List<Collection<IdentityObject>> results = new ArrayList<Collection<IdentityObject>>();
+      results.add(objects("carol", "alice"));
+      results.add(objects("Bob"));
+
+      List<IdentityObject> merged = FallbackIdentityStoreRepository.mergeSortedResults(results,
+         FallbackIdentityStoreRepository.nameComparator(true, false), 10);
+
+      assertEquals(Arrays.asList("carol", "Bob", "alice"), names(merged));
+   }
+
+   public void testDuplicatesReturnedOnce()
+   {
+      List<Collection<IdentityObject>> results = new ArrayList<Collection<IdentityObject>>();
+      results.add(objects("alice", "Bob", "carol"));
+      results.add(objects("Bob", "carol", "dave"));
+
+      List<IdentityObject> merged = FallbackIdentityStoreRepository.mergeSortedResults(results,
+         FallbackIdentityStoreRepository.nameComparator(true, true), 10);
+
+      assertEquals(Arrays.asList("alice", "Bob", "carol", "dave"), names(merged));
+   }
+
+   public void testMergeStopsAtLimit()
+   {
+      List<Collection<IdentityObject>> results = new ArrayList<Collection<IdentityObject>>();
+      results.add(objects("alice", "carol", "erin"));
+      results.add(objects("Bob", "Dave"));
+      results.add(objects());
+
+      List<IdentityObject> merged = FallbackIdentityStoreRepository.mergeSortedResults(results,
+         FallbackIdentityStoreRepository.nameComparator(true, true), 3);
+
+      assertEquals(Arrays.asList("alice", "Bob", "carol"), names(merged));
+   }
+
+   public void testNotWindowedWithoutStoreNameOrder() throws Exception
+   {
+      FallbackIdentityStoreRepository repository = new FallbackIdentityStoreRepository("test");
+
+      IdentitySearchCriteriaImpl criteria = new IdentitySearchCriteriaImpl();
+      criteria.sort(SortOrder.ASCENDING);
+      criteria.page(0, 10);
+
+      assertFalse(repository.isWindowedSearch(criteria));
+   }
+
+   private List<IdentityObject> objects(String... names)
+   {
+      List<IdentityObject> objects = new ArrayList<IdentityObject>();
+
+      for (String name : names)
+      {
+         objects.add(new SimpleIdentityObject(name, USER));
+      }
+
+      return objects;
+   }
+
+   private List<String> names(List<IdentityObject> objects)
+   {
+      List<String> names = new ArrayList<String>();
+
+      for (IdentityObject object : objects)
+      {
+         names.add(object.getName());
+      }
+
+      return names;
+   }
+}
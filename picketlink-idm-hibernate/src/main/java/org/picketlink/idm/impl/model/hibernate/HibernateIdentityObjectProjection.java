@@ -0,0 +1,133 @@
+/*
+* JBoss, a division of Red Hat
+* Copyright 2006, Red Hat Middleware, LLC, and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.picketlink.idm.impl.model.hibernate;
+
+import org.picketlink.idm.common.exception.PolicyValidationException;
+import org.picketlink.idm.spi.model.IdentityObject;
+import org.picketlink.idm.spi.model.IdentityObjectType;
+
+import java.io.Serializable;
+
+/**
+ * Lightweight identity object returned by searches. Holds only id, name and type read with a projection query so
+ * that no HibernateIdentityObject entity is loaded into the session or second level cache. The entity is obtained
+ * by id only when an operation needs it.
+ *
+ * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
+ * @version : 0.1 $
+ */
+public class HibernateIdentityObjectProjection implements IdentityObject, Serializable
+{
+   private static final long serialVersionUID = 4396126283357612384L;
+
+   private final Long id;
+
+   private final String name;
+
+   private final IdentityObjectType identityType;
+
+   public HibernateIdentityObjectProjection(Long id, String name, IdentityObjectType identityType)
+   {
+      if (id == null)
+      {
+         throw new IllegalArgumentException("id is null");
+      }
+      if (name == null)
+      {
+         throw new IllegalArgumentException("name is null");
+      }
+      if (identityType == null)
+      {
+         throw new IllegalArgumentException("identityType is null");
+      }
+
+      this.id = id;
+      this.name = name;
+      this.identityType = identityType;
+   }
+
+   public Long getEntityId()
+   {
+      return id;
+   }
+
+   public String getId()
+   {
+      return id.toString();
+   }
+
+   public String getName()
+   {
+      return name;
+   }
+
+   public IdentityObjectType getIdentityType()
+   {
+      return identityType;
+   }
+
+   public void validatePolicy() throws PolicyValidationException
+   {
+
+   }
+
+   @Override
+   public String toString()
+   {
+      return "IdentityObject[id=" + getId() + "; name="  + getName() + "; type=" + getIdentityType().getName() + "]";
+   }
+
+   @Override
+   public boolean equals(Object o)
+   {
+      if (this == o)
+      {
+         return true;
+      }
+      if (!(o instanceof IdentityObject))
+      {
+         return false;
+      }
+
+      IdentityObject that = (IdentityObject)o;
+
+      if (!name.equals(that.getName()))
+      {
+         return false;
+      }
+      if (!identityType.equals(that.getIdentityType()))
+      {
+         return false;
+      }
+
+      return true;
+   }
+
+   @Override
+   public int hashCode()
+   {
+      int result = name.hashCode();
+      result = 31 * result + identityType.hashCode();
+      return result;
+   }
+}
@@ -0,0 +1,123 @@
+/*
+* JBoss, a division of Red Hat
+* Copyright 2006, Red Hat Middleware, LLC, and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.picketlink.idm.impl.model.hibernate;
+
+/**
+ * Row of the relationship closure table. Records that there are <code>pathCount</code> paths of length
+ * <code>depth</code> leading from the ancestor to the descendant identity object through relationships of a given type.
+ * Path count makes it possible to remove a single relationship without recalculating the whole hierarchy.
+ *
+ * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
+ * @version : 0.1 $
+ */
+public class HibernateIdentityObjectRelationshipClosure
+{
+   private Long id;
+
+   private HibernateIdentityObject ancestor;
+
+   private HibernateIdentityObject descendant;
+
+   private HibernateIdentityObjectRelationshipType type;
+
+   private int depth;
+
+   private long pathCount;
+
+   public HibernateIdentityObjectRelationshipClosure()
+   {
+   }
+
+   public HibernateIdentityObjectRelationshipClosure(HibernateIdentityObject ancestor,
+                                                     HibernateIdentityObject descendant,
+                                                     HibernateIdentityObjectRelationshipType type,
+                                                     int depth,
+                                                     long pathCount)
+   {
+      this.ancestor = ancestor;
+      this.descendant = descendant;
+      this.type = type;
+      this.depth = depth;
+      this.pathCount = pathCount;
+   }
+
+   public Long getId()
+   {
+      return id;
+   }
+
+   public void setId(Long id)
+   {
+      this.id = id;
+   }
+
+   public HibernateIdentityObject getAncestor()
+   {
+      return ancestor;
+   }
+
+   public void setAncestor(HibernateIdentityObject ancestor)
+   {
+      this.ancestor = ancestor;
+   }
+
+   public HibernateIdentityObject getDescendant()
+   {
+      return descendant;
+   }
+
+   public void setDescendant(HibernateIdentityObject descendant)
+   {
+      this.descendant = descendant;
+   }
+
+   public HibernateIdentityObjectRelationshipType getType()
+   {
+      return type;
+   }
+
+   public void setType(HibernateIdentityObjectRelationshipType type)
+   {
+      this.type = type;
+   }
+
+   public int getDepth()
+   {
+      return depth;
+   }
+
+   public void setDepth(int depth)
+   {
+      this.depth = depth;
+   }
+
+   public long getPathCount()
+   {
+      return pathCount;
+   }
+
+   public void setPathCount(long pathCount)
+   {
+      this.pathCount = pathCount;
+   }
+}
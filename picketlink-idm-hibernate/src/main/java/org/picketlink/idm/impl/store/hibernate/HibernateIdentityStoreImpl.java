@@ -23,9 +23,10 @@
 package org.picketlink.idm.impl.store.hibernate;
 
 import org.picketlink.idm.common.exception.IdentityException;
-import org.picketlink.idm.impl.helper.Tools;
 import org.picketlink.idm.impl.model.hibernate.*;
+import org.picketlink.idm.impl.api.SimpleAttribute;
 import org.picketlink.idm.impl.store.FeaturesMetaDataImpl;
+import org.picketlink.idm.impl.types.SimpleIdentityObjectType;
 import org.picketlink.idm.spi.configuration.IdentityStoreConfigurationContext;
 import org.picketlink.idm.spi.configuration.metadata.IdentityObjectAttributeMetaData;
 import org.picketlink.idm.spi.configuration.metadata.IdentityObjectTypeMetaData;
@@ -36,17 +37,23 @@ import org.picketlink.idm.spi.model.IdentityObject;
 import org.picketlink.idm.spi.model.IdentityObjectAttribute;
 import org.picketlink.idm.spi.model.IdentityObjectCredential;
 import org.picketlink.idm.spi.model.IdentityObjectCredentialType;
+import org.picketlink.idm.spi.model.IdentityObjectImport;
 import org.picketlink.idm.spi.model.IdentityObjectRelationship;
 import org.picketlink.idm.spi.model.IdentityObjectRelationshipType;
 import org.picketlink.idm.spi.model.IdentityObjectType;
 import org.picketlink.idm.spi.search.IdentityObjectSearchCriteria;
 import org.picketlink.idm.spi.store.FeaturesMetaData;
+import org.picketlink.idm.spi.store.IdentityObjectImportListener;
 import org.picketlink.idm.spi.store.IdentityObjectSearchCriteriaType;
 import org.picketlink.idm.spi.store.IdentityStore;
 import org.picketlink.idm.spi.store.IdentityStoreInvocationContext;
 import org.picketlink.idm.spi.store.IdentityStoreSession;
 
 import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -57,6 +64,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -65,6 +73,8 @@ import javax.naming.NamingException;
 
 import org.hibernate.*;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
 import org.hibernate.criterion.Restrictions;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Projections;
@@ -104,6 +114,26 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
 
    public static final String CREDENTIAL_TYPE_BINARY = "BINARY";
 
+   public static final String RECURSIVE_QUERY_SYNTAX = "recursiveQuerySyntax";
+
+   public static final String RECURSIVE_QUERY_SYNTAX_AUTO = "auto";
+
+   public static final String RECURSIVE_QUERY_SYNTAX_WITH_RECURSIVE = "withRecursive";
+
+   public static final String RECURSIVE_QUERY_SYNTAX_WITH = "with";
+
+   public static final String RECURSIVE_QUERY_SYNTAX_NONE = "none";
+
+   public static final String RELATIONSHIP_CLOSURE_TYPES = "relationshipClosureTypes";
+
+   public static final String VERIFIED_CREDENTIAL_CACHE_TIMEOUT = "verifiedCredentialCacheTimeout";
+
+   public static final int MAX_VERIFIED_CREDENTIALS = 10000;
+
+   public static final int MAX_CASCADE_DEPTH = 64;
+
+   public static final int MAX_IN_LIST_SIZE = 500;
+
    private String id;
 
    private FeaturesMetaData supportedFeatures;
@@ -118,6 +148,19 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
 
    private boolean isManageTransactionDuringBootstrap = true;
 
+   private String recursiveQuerySyntax = RECURSIVE_QUERY_SYNTAX_NONE;
+
+   // Names of relationship types for which closure table is maintained
+   private Set<String> relationshipClosureTypes = new HashSet<String>();
+
+   // Milliseconds for which successfully validated credential is accepted without database check. 0 - disabled
+   private long verifiedCredentialCacheTimeout = 0;
+
+   // <realm:type:name:credential type, salted digest of the validated value>
+   private final Map<String, VerifiedCredential> verifiedCredentials = new ConcurrentHashMap<String, VerifiedCredential>();
+
+   private byte[] verifiedCredentialSalt;
+
    // TODO: rewrite this into some more handy object
    private IdentityStoreConfigurationMetaData configurationMD;
 
@@ -135,6 +178,17 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
    // <IdentityObjectType name, <Attribute store mapping, Attribute name>
    private Map<String, Map<String, String>> reverseAttributeMappings = new HashMap<String, Map<String, String>>();
    
+   // Ids of immutable reference rows (realms and types) resolved by name. Entities are then obtained with
+   // Session.get() so they come from the session or second level cache instead of running a query each time.
+
+   private final Map<String, Long> realmIds = new ConcurrentHashMap<String, Long>();
+
+   private final Map<String, Long> identityObjectTypeIds = new ConcurrentHashMap<String, Long>();
+
+   private final Map<String, Long> relationshipTypeIds = new ConcurrentHashMap<String, Long>();
+
+   private final Map<String, Long> credentialTypeIds = new ConcurrentHashMap<String, Long>();
+
    private static final long serialVersionUID = -130355852189832805L;
 
    static {
@@ -300,6 +354,55 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
          this.isAllowNotDefinedIdentityObjectTypes = true;
       }
 
+      String recursiveSyntax = configurationMD.getOptionSingleValue(RECURSIVE_QUERY_SYNTAX);
+
+      if (recursiveSyntax == null || recursiveSyntax.equalsIgnoreCase(RECURSIVE_QUERY_SYNTAX_AUTO))
+      {
+         this.recursiveQuerySyntax = detectRecursiveQuerySyntax();
+      }
+      else if (recursiveSyntax.equalsIgnoreCase(RECURSIVE_QUERY_SYNTAX_WITH_RECURSIVE))
+      {
+         this.recursiveQuerySyntax = RECURSIVE_QUERY_SYNTAX_WITH_RECURSIVE;
+      }
+      else if (recursiveSyntax.equalsIgnoreCase(RECURSIVE_QUERY_SYNTAX_WITH))
+      {
+         this.recursiveQuerySyntax = RECURSIVE_QUERY_SYNTAX_WITH;
+      }
+      else if (recursiveSyntax.equalsIgnoreCase(RECURSIVE_QUERY_SYNTAX_NONE))
+      {
+         this.recursiveQuerySyntax = RECURSIVE_QUERY_SYNTAX_NONE;
+      }
+      else
+      {
+         throw new IdentityException("Unsupported " + RECURSIVE_QUERY_SYNTAX + " option value: " + recursiveSyntax);
+      }
+
+      List<String> closureTypes = configurationMD.getOption(RELATIONSHIP_CLOSURE_TYPES);
+
+      if (closureTypes != null)
+      {
+         relationshipClosureTypes.addAll(closureTypes);
+      }
+
+      String credentialCacheTimeout = configurationMD.getOptionSingleValue(VERIFIED_CREDENTIAL_CACHE_TIMEOUT);
+
+      if (credentialCacheTimeout != null)
+      {
+         try
+         {
+            verifiedCredentialCacheTimeout = Long.parseLong(credentialCacheTimeout);
+         }
+         catch (NumberFormatException e)
+         {
+            throw new IdentityException("Cannot parse " + VERIFIED_CREDENTIAL_CACHE_TIMEOUT + " option value: "
+               + credentialCacheTimeout, e);
+         }
+
+         // Digests are never stored outside of this instance so salt is random for each bootstrap
+         verifiedCredentialSalt = new byte[16];
+         new SecureRandom().nextBytes(verifiedCredentialSalt);
+      }
+
       // Default realm
 
       HibernateRealm realm = null;
@@ -433,6 +536,7 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
                   .addResource("mappings/HibernateIdentityObjectCredentialType.hbm.xml")
                   .addResource("mappings/HibernateIdentityObjectRelationship.hbm.xml")
                   .addResource("mappings/HibernateIdentityObjectRelationshipName.hbm.xml")
+                  .addResource("mappings/HibernateIdentityObjectRelationshipClosure.hbm.xml")
                   .addResource("mappings/HibernateIdentityObjectRelationshipType.hbm.xml")
                   .addResource("mappings/HibernateIdentityObjectType.hbm.xml")
                   .addResource("mappings/HibernateRealm.hbm.xml")
@@ -511,12 +615,12 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
 
       HibernateRealm realm = getRealm(session, ctx);
 
+      HibernateIdentityObjectType hibernateType = getHibernateIdentityObjectType(ctx, identityObjectType);
+
       Number boxedSize = (Integer)session.createCriteria(HibernateIdentityObject.class)
-         .createAlias("identityType", "type")
-         .createAlias("realm", "rm")
          .add(Restrictions.eq("name", name).ignoreCase())
-         .add(Restrictions.eq("rm.name", realm.getName()))
-         .add(Restrictions.eq("type.name", identityObjectType.getName()))
+         .add(Restrictions.eq("realm", realm))
+         .add(Restrictions.eq("identityType", hibernateType))
          .setProjection(Projections.rowCount())
          .setCacheable(true)
          .list().get(0);
@@ -529,8 +633,6 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
             "name=" + name + "; type=" + identityObjectType.getName() + "; realm=" + realm);
       }
 
-      HibernateIdentityObjectType hibernateType = getHibernateIdentityObjectType(ctx, identityObjectType);
-
       HibernateIdentityObject io = new HibernateIdentityObject(name, hibernateType, realm);
 
       if (attributes != null)
@@ -572,6 +674,7 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
     	  HibernateIdentityObjectRelationship[] from = new HibernateIdentityObjectRelationship[hibernateObject.getFromRelationships().size()];
          for (HibernateIdentityObjectRelationship relationship : hibernateObject.getFromRelationships().toArray(from))
          {
+            removeFromRelationshipClosure(hibernateSession, relationship);
             relationship.getFromIdentityObject().getFromRelationships().remove(relationship);
             relationship.getToIdentityObject().getToRelationships().remove(relationship);
             hibernateSession.delete(relationship);
@@ -581,6 +684,7 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
          HibernateIdentityObjectRelationship[] to =  new HibernateIdentityObjectRelationship[hibernateObject.getToRelationships().size()];      
          for (HibernateIdentityObjectRelationship relationship : hibernateObject.getToRelationships().toArray(to))
          {
+            removeFromRelationshipClosure(hibernateSession, relationship);
             relationship.getFromIdentityObject().getFromRelationships().remove(relationship);
             relationship.getToIdentityObject().getToRelationships().remove(relationship);
 
@@ -589,8 +693,22 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
 
          }
 
+         if (!relationshipClosureTypes.isEmpty())
+         {
+            // Paths through relationships forming a cycle may not be fully subtracted
+            hibernateSession.createQuery("delete from HibernateIdentityObjectRelationshipClosure c " +
+               "where c.ancestor = :io or c.descendant = :io")
+               .setParameter("io", hibernateObject)
+               .executeUpdate();
+         }
+
          hibernateSession.delete(hibernateObject);
          hibernateSession.flush();
+
+         for (String credentialType : supportedCredentialTypes)
+         {
+            verifiedCredentials.remove(getVerifiedCredentialKey(ctx, identity, credentialType));
+         }
          
       }
       catch (Exception e)
@@ -651,13 +769,13 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
 
       try
       {
-         hibernateObject = (HibernateIdentityObject)getHibernateSession(ctx).
+         Session hibernateSession = getHibernateSession(ctx);
+
+         hibernateObject = (HibernateIdentityObject)hibernateSession.
             createCriteria(HibernateIdentityObject.class)
             .add(Restrictions.eq("name", name).ignoreCase())
-            .createAlias("realm", "rm")
-            .add(Restrictions.eq("rm.name", getRealmName(ctx)))
-            .createAlias("identityType", "type")
-            .add(Restrictions.eq("type.name", hibernateType.getName()))
+            .add(Restrictions.eq("realm", getRealm(hibernateSession, ctx)))
+            .add(Restrictions.eq("identityType", hibernateType))
             .setCacheable(true)
             .uniqueResult();
       }
@@ -700,9 +818,42 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
       return hibernateObject;
    }
 
+   public boolean isIdentityObjectPresent(IdentityStoreInvocationContext ctx, IdentityObject identity) throws IdentityException
+   {
+      checkIOInstance(identity);
+
+      HibernateIdentityObjectType hibernateType = getHibernateIdentityObjectType(ctx, identity.getIdentityType());
+
+      try
+      {
+         Session hibernateSession = getHibernateSession(ctx);
+
+         // Only the id is selected so the entity is not loaded
+         List ids = hibernateSession.createQuery("select io.id from HibernateIdentityObject io " +
+            "where io.realm = :realm and io.identityType = :type and lower(io.name) = :name")
+            .setParameter("realm", getRealm(hibernateSession, ctx))
+            .setParameter("type", hibernateType)
+            .setParameter("name", identity.getName().toLowerCase())
+            .setMaxResults(1)
+            .setCacheable(true)
+            .list();
+
+         return !ids.isEmpty();
+      }
+      catch (HibernateException e)
+      {
+         if (log.isLoggable(Level.FINER))
+         {
+            log.log(Level.FINER, "Exception occurred: ", e);
+         }
+
+         throw new IdentityException("Cannot check presence of IdentityObject with name '" + identity.getName() +
+            "' and type '" + identity.getIdentityType().getName() + "'", e);
+      }
+   }
+
 
 
-   @SuppressWarnings("unchecked")
    public Collection<IdentityObject> findIdentityObject(IdentityStoreInvocationContext ctx,
                                                         IdentityObjectType identityType,
                                                         IdentityObjectSearchCriteria criteria) throws IdentityException
@@ -711,56 +862,106 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
 
       HibernateIdentityObjectType hibernateType = getHibernateIdentityObjectType(ctx, identityType);
 
-      List<IdentityObject> results;
+      // Only id and name are selected - results are projections and not entities
 
-      Session hibernateSession = getHibernateSession(ctx);
+      Map<String, Object> parameters = new HashMap<String, Object>();
 
-      try
+      StringBuilder hqlString = new StringBuilder("select io.id, io.name from HibernateIdentityObject io");
+
+      // Sort by attribute value is done by the database when attribute is mapped in this store
+
+      boolean orderByAttribute = criteria != null && criteria.isSorted() && criteria.getPageAfterName() == null &&
+         criteria.getSortAttributeName() != null &&
+         appendSortAttributeJoin(hqlString, "io", Collections.singleton(hibernateType.getName()), false,
+            criteria.getSortAttributeName(), parameters);
+
+      hqlString.append(" where io.realm = :realm and io.identityType = :type and lower(io.name) like :nameFilter");
+
+      // Attribute values are filtered by the database
+
+      if (criteria != null && criteria.isFiltered() &&
+         !appendAttributeFilters(hqlString, "io", Collections.singleton(hibernateType.getName()), false,
+            criteria.getValues(), parameters))
       {
+         return new LinkedList<IdentityObject>();
+      }
 
-         Criteria hc = hibernateSession.createCriteria(HibernateIdentityObject.class)
-            .setCacheable(true)
-            .createAlias("realm", "rm")
-            .add(Restrictions.eq("rm.name", getRealmName(ctx)))
-            .createAlias("identityType", "type")
-            .add(Restrictions.eq("type.name", hibernateType.getName()));
+      // Keyset page - seek past the last name of the previous page instead of skipping rows
 
-         if (criteria != null && criteria.isSorted())
+      if (criteria != null && criteria.getPageAfterName() != null)
+      {
+         // All objects are of one type so the type part of the key only decides if the name itself is included
+
+         boolean includeName = criteria.getPageAfterType() != null &&
+            (criteria.isAscending() ? hibernateType.getName().compareTo(criteria.getPageAfterType()) > 0 :
+               hibernateType.getName().compareTo(criteria.getPageAfterType()) < 0);
+
+         if (criteria.isAscending())
          {
-            if (criteria.isAscending())
-            {
-               hc.addOrder(Order.asc("name"));
-            }
-            else
-            {
-               hc.addOrder(Order.desc("name"));
-            }
+            hqlString.append(includeName ? " and io.name >= :pageAfter" : " and io.name > :pageAfter");
          }
-
-         if (criteria != null && criteria.isPaged() && !criteria.isFiltered())
+         else
          {
-            if (criteria.getMaxResults() > 0)
-            {
-               hc.setMaxResults(criteria.getMaxResults());
-            }
-            hc.setFirstResult(criteria.getFirstResult());
-
+            hqlString.append(includeName ? " and io.name <= :pageAfter" : " and io.name < :pageAfter");
          }
+         parameters.put("pageAfter", criteria.getPageAfterName());
+      }
+
+      if (orderByAttribute)
+      {
+         appendSortAttributeOrder(hqlString, "io.id, io.name", criteria.isAscending());
+      }
+      else if (criteria != null && (criteria.isSorted() || criteria.getPageAfterName() != null))
+      {
+         hqlString.append(" order by io.name");
+         hqlString.append(criteria.isAscending() ? " asc" : " desc");
+      }
+
+      try
+      {
+         Session hibernateSession = getHibernateSession(ctx);
+
+         org.hibernate.Query q = hibernateSession.createQuery(hqlString.toString())
+            .setParameter("realm", getRealm(hibernateSession, ctx))
+            .setParameter("type", hibernateType);
 
          if (criteria != null && criteria.getFilter() != null)
          {
-            hc.add(Restrictions.ilike("name", criteria.getFilter().replaceAll("\\*", "%")));
+            q.setParameter("nameFilter", criteria.getFilter().replaceAll("\\*", "%").toLowerCase());
          }
          else
          {
-            hc.add(Restrictions.like("name", "%"));
+            q.setParameter("nameFilter", "%");
+         }
+
+         for (Map.Entry<String, Object> parameter : parameters.entrySet())
+         {
+            q.setParameter(parameter.getKey(), parameter.getValue());
          }
 
+         if (criteria != null && criteria.isPaged())
+         {
+            q.setFirstResult(criteria.getFirstResult());
+            if (criteria.getMaxResults() > 0)
+            {
+               q.setMaxResults(criteria.getMaxResults());
+            }
+         }
 
+         q.setCacheable(true);
 
-         results = (List<IdentityObject>)hc.list();
-         Hibernate.initialize(results);
+         List<IdentityObject> results = new LinkedList<IdentityObject>();
 
+         // Detached type instance so projections don't reference session state
+         IdentityObjectType type = new HibernateIdentityObjectType(hibernateType.getName());
+
+         for (Object result : q.list())
+         {
+            Object[] row = (Object[])result;
+            results.add(new HibernateIdentityObjectProjection((Long)row[0], (String)row[1], type));
+         }
+
+         return results;
       }
       catch (Exception e)
       {
@@ -771,21 +972,8 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
 
          throw new IdentityException("Cannot find IdentityObjects with type '" + identityType.getName() + "'", e);
       }
-
-      if (criteria != null && criteria.isFiltered())
-      {
-         filterByAttributesValues(results, criteria.getValues());
-         if (criteria.isPaged())
-         {
-            results = (LinkedList)cutPageFromResults(results, criteria);
-         }
-      }
-
-      return results;
    }
 
-
-
    public Collection<IdentityObject> findIdentityObject(IdentityStoreInvocationContext ctx, IdentityObjectType identityType) throws IdentityException
    {
       return findIdentityObject(ctx, identityType, null);
@@ -808,7 +996,7 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
       boolean orderByName = false;
       boolean ascending = true;
 
-      if (criteria != null && criteria.isSorted())
+      if (criteria != null && (criteria.isSorted() || criteria.getPageAfterName() != null))
       {
          orderByName = true;
          ascending = criteria.isAscending();
@@ -823,60 +1011,75 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
 
 
 
-         if (parent)
-         {
+         Map<String, Object> parameters = new HashMap<String, Object>();
 
-            if (relationshipType != null)
-            {
+         // Only id, name and type name are selected - results are projections and not entities
 
-               hqlString.append("select distinct ior.toIdentityObject from HibernateIdentityObjectRelationship ior where " +
-                  "ior.toIdentityObject.name like :nameFilter and ior.type.name = :relType and ior.fromIdentityObject = :identity");
-            }
-            else
-            {
-               hqlString.append("select distinct ior.toIdentityObject from HibernateIdentityObjectRelationship ior where " +
-                  "ior.toIdentityObject.name like :nameFilter and ior.fromIdentityObject = :identity");
-            }
-            if (orderByName)
-            {
-               hqlString.append(" order by ior.toIdentityObject.name");
-               if (ascending)
-               {
-                  hqlString.append(" asc");
-               }
-            }
+         StringBuilder joins = new StringBuilder(parent ? "join ior.toIdentityObject io" : "join ior.fromIdentityObject io");
+         joins.append(" join io.identityType t");
+
+         // Rows are grouped instead of distinct when ordered by attribute value
+         boolean orderByAttribute = orderByName && criteria.getPageAfterName() == null &&
+            criteria.getSortAttributeName() != null &&
+            appendSortAttributeJoin(joins, "io", attributesMetaData.keySet(), true, criteria.getSortAttributeName(),
+               parameters);
+
+         hqlString.append(orderByAttribute ? "select io.id, io.name, t.name" : "select distinct io.id, io.name, t.name")
+            .append(" from HibernateIdentityObjectRelationship ior ").append(joins)
+            .append(" where io.name like :nameFilter and ")
+            .append(parent ? "ior.fromIdentityObject = :identity" : "ior.toIdentityObject = :identity");
+
+         if (relationshipType != null)
+         {
+            hqlString.append(" and ior.type = :relType");
          }
-         else
+
+         if (criteria != null && criteria.isFiltered() &&
+            !appendAttributeFilters(hqlString, "io", attributesMetaData.keySet(), true, criteria.getValues(), parameters))
          {
-            if (relationshipType != null)
+            return new LinkedList<IdentityObject>();
+         }
+
+         // Keyset page - objects of different types can have the same name so the key is name and type name
+
+         if (criteria != null && criteria.getPageAfterName() != null)
+         {
+            String operator = ascending ? " > " : " < ";
+
+            if (criteria.getPageAfterType() != null)
             {
-               hqlString.append("select distinct ior.fromIdentityObject from HibernateIdentityObjectRelationship ior where " +
-                  "ior.fromIdentityObject.name like :nameFilter and ior.type.name = :relType and ior.toIdentityObject = :identity");
+               hqlString.append(" and (io.name").append(operator).append(":pageAfter or (io.name = :pageAfter and t.name")
+                  .append(operator).append(":pageAfterType))");
+               parameters.put("pageAfterType", criteria.getPageAfterType());
             }
             else
             {
-              hqlString.append("select distinct ior.fromIdentityObject from HibernateIdentityObjectRelationship ior where " +
-                  "ior.fromIdentityObject.name like :nameFilter and ior.toIdentityObject = :identity");
-            }
-
-            if (orderByName)
-            {
-               hqlString.append(" order by ior.toIdentityObject.name");
-               if (ascending)
-               {
-                  hqlString.append(" asc");
-               }
+               hqlString.append(" and io.name").append(operator).append(":pageAfter");
             }
+            parameters.put("pageAfter", criteria.getPageAfterName());
          }
 
-
+         if (orderByAttribute)
+         {
+            appendSortAttributeOrder(hqlString, "io.id, io.name, t.name", ascending);
+         }
+         else if (orderByName)
+         {
+            hqlString.append(ascending ? " order by io.name asc, t.name asc" : " order by io.name desc, t.name desc");
+         }
 
          q = getHibernateSession(ctx).createQuery(hqlString.toString())
             .setParameter("identity",hibernateObject).setCacheable(true);
 
+         // Relationships are flushed when written - only attribute changes can be pending
+         if (criteria == null || (!criteria.isFiltered() && !orderByAttribute))
+         {
+            q.setFlushMode(FlushMode.MANUAL);
+         }
+
          if (relationshipType != null)
          {
-            q.setParameter("relType", relationshipType.getName());
+            q.setParameter("relType", getHibernateIdentityObjectRelationshipType(ctx, relationshipType));
          }
 
          if (criteria != null && criteria.getFilter() != null)
@@ -889,7 +1092,12 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
          }
 
 
-         if (criteria != null && criteria.isPaged() && !criteria.isFiltered())
+         for (Map.Entry<String, Object> parameter : parameters.entrySet())
+         {
+            q.setParameter(parameter.getKey(), parameter.getValue());
+         }
+
+         if (criteria != null && criteria.isPaged())
          {
             q.setFirstResult(criteria.getFirstResult());
             if (criteria.getMaxResults() > 0)
@@ -900,8 +1108,24 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
 
 
          q.setCacheable(true);
-         results = q.list();
-         Hibernate.initialize(results);
+
+         results = new LinkedList<IdentityObject>();
+
+         Map<String, IdentityObjectType> types = new HashMap<String, IdentityObjectType>();
+
+         for (Object result : q.list())
+         {
+            Object[] row = (Object[])result;
+
+            IdentityObjectType type = types.get(row[2]);
+            if (type == null)
+            {
+               type = new HibernateIdentityObjectType((String)row[2]);
+               types.put((String)row[2], type);
+            }
+
+            results.add(new HibernateIdentityObjectProjection((Long)row[0], (String)row[1], type));
+         }
 
 
       }
@@ -915,84 +1139,426 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
          throw new IdentityException("Cannot find IdentityObjects", e);
       }
 
-      if (criteria != null && criteria.isFiltered())
-      {
-         filterByAttributesValues(results, criteria.getValues());
-         if (criteria.isPaged())
-         {
-            results = (LinkedList)cutPageFromResults(results, criteria);
-         }
-      }
-
       return results;
    }
 
-   public Collection<IdentityObject> findIdentityObject(IdentityStoreInvocationContext ctx,
-                                                        IdentityObject identity,
-                                                        IdentityObjectRelationshipType relationshipType,
-                                                        boolean parent) throws IdentityException
-   {
-
-      return findIdentityObject(ctx, identity, relationshipType, parent, null);
-   }
-
-   public IdentityObjectRelationship createRelationship(IdentityStoreInvocationContext ctx,
-                                                        IdentityObject fromIdentity,
-                                                        IdentityObject toIdentity,
-                                                        IdentityObjectRelationshipType relationshipType,
-                                                        String name, boolean createNames) throws IdentityException
+   public Collection<IdentityObject> findIdentityObjectCascaded(IdentityStoreInvocationContext ctx,
+                                                                IdentityObject identity,
+                                                                IdentityObjectRelationshipType relationshipType,
+                                                                IdentityObjectType identityType,
+                                                                boolean parent) throws IdentityException
    {
+      HibernateIdentityObject hibernateObject = safeGet(ctx, identity);
 
-      if (relationshipType == null)
+      if (hibernateObject == null)
       {
-         throw new IllegalArgumentException("RelationshipType is null");
+         throw new IdentityException("IdentityObject not present in the store: " + identity);
       }
-      HibernateIdentityObject fromIO = safeGet(ctx, fromIdentity);      
-      HibernateIdentityObject toIO = safeGet(ctx, toIdentity);
-      HibernateIdentityObjectRelationshipType type = getHibernateIdentityObjectRelationshipType(ctx, relationshipType);
 
-      HibernateRealm realm = getRealm(getHibernateSession(ctx), ctx);
-      
-      if (!getSupportedFeatures().isRelationshipTypeSupported(fromIO.getIdentityType(), toIO.getIdentityType(), relationshipType))
+      HibernateIdentityObjectRelationshipType hibernateRelationshipType = null;
+
+      if (relationshipType != null)
       {
-         if (!isAllowNotDefinedIdentityObjectTypes())
+         hibernateRelationshipType = getHibernateIdentityObjectRelationshipType(ctx, relationshipType);
+
+         if (hibernateRelationshipType == null)
          {
-            throw new IdentityException("Relationship not supported. RelationshipType[ " + relationshipType.getName() + " ] " +
-               "beetween: [ " + fromIO.getIdentityType().getName() + " ] and [ " + toIO.getIdentityType().getName() + " ]");
+            return new LinkedList<IdentityObject>();
          }
       }
 
-      HibernateIdentityObjectRelationship relationship = null;
+      HibernateIdentityObjectType hibernateType = identityType != null ?
+         getHibernateIdentityObjectType(ctx, identityType) : null;
 
-      if (name != null)
+      Session hibernateSession = getHibernateSession(ctx);
+
+      try
       {
+         if (isRelationshipClosureMaintained(hibernateRelationshipType))
+         {
+            List<IdentityObject> related = findRelatedFromClosure(hibernateSession, hibernateObject,
+               hibernateRelationshipType, hibernateType, parent);
 
-         HibernateIdentityObjectRelationshipName relationshipName =
-            (HibernateIdentityObjectRelationshipName)getHibernateSession(ctx).
-               createCriteria(HibernateIdentityObjectRelationshipName.class).
-               setCacheable(true).
-               createAlias("realm", "r").
-               add(Restrictions.eq("name", name)).
-               add(Restrictions.eq("r.name", realm.getName())).
-               uniqueResult();
+            if (related != null)
+            {
+               return related;
+            }
+         }
 
-         if (relationshipName == null)
+         if (!recursiveQuerySyntax.equals(RECURSIVE_QUERY_SYNTAX_NONE))
          {
-            throw new IdentityException("Relationship name not present in the store");
+            List<Long> ids = findRelatedIdsRecursive(hibernateSession, hibernateObject, hibernateRelationshipType,
+               hibernateType, parent);
+
+            return findProjectionsByIds(hibernateSession, ids);
          }
 
-         relationship = new HibernateIdentityObjectRelationship(type, fromIO, toIO, relationshipName);
+         return findRelatedLevelByLevel(hibernateSession, hibernateObject, hibernateRelationshipType, hibernateType,
+            parent);
       }
-      else
+      catch (HibernateException e)
       {
-         relationship = new HibernateIdentityObjectRelationship(type, fromIO, toIO);
-      }
+         if (log.isLoggable(Level.FINER))
+         {
+            log.log(Level.FINER, "Exception occurred: ", e);
+         }
+
+         throw new IdentityException("Cannot find cascaded IdentityObjects", e);
+      }
+   }
+
+   /**
+    * Resolve ids of all related identity objects with a single recursive SQL query. Table and column names are
+    * obtained from the Hibernate mappings. With 'WITH RECURSIVE' syntax UNION is used so each object is visited once
+    * and cycles end the recursion. Databases using 'WITH' syntax allow only UNION ALL - there objects reachable by
+    * several paths are visited once per path and depth is limited to MAX_CASCADE_DEPTH so cycles cannot make query
+    * endless. A warning is logged when the limit is reached.
+    */
+   private List<Long> findRelatedIdsRecursive(Session hibernateSession,
+                                              HibernateIdentityObject identity,
+                                              HibernateIdentityObjectRelationshipType relationshipType,
+                                              HibernateIdentityObjectType identityType,
+                                              boolean parent)
+   {
+      AbstractEntityPersister relPersister =
+         (AbstractEntityPersister)sessionFactory.getClassMetadata(HibernateIdentityObjectRelationship.class);
+      AbstractEntityPersister ioPersister =
+         (AbstractEntityPersister)sessionFactory.getClassMetadata(HibernateIdentityObject.class);
+
+      String fromColumn = relPersister.getPropertyColumnNames(parent ? "fromIdentityObject" : "toIdentityObject")[0];
+      String toColumn = relPersister.getPropertyColumnNames(parent ? "toIdentityObject" : "fromIdentityObject")[0];
+
+      StringBuilder conditions = new StringBuilder();
+
+      if (relationshipType != null)
+      {
+         conditions.append(" AND r.").append(relPersister.getPropertyColumnNames("type")[0]).append(" = :relType");
+      }
+
+      String typeJoin = "";
+
+      if (identityType != null)
+      {
+         typeJoin = " JOIN " + ioPersister.getTableName() + " io ON io." + ioPersister.getIdentifierColumnNames()[0] +
+            " = r." + toColumn + " AND io." + ioPersister.getPropertyColumnNames("identityType")[0] + " = :ioType";
+      }
+
+      boolean union = recursiveQuerySyntax.equals(RECURSIVE_QUERY_SYNTAX_WITH_RECURSIVE);
+
+      String sql;
+
+      if (union)
+      {
+         sql = "WITH RECURSIVE related (OBJ_ID) AS (" +
+            "SELECT r." + toColumn + " FROM " + relPersister.getTableName() + " r" + typeJoin +
+            " WHERE r." + fromColumn + " = :identity" + conditions +
+            " UNION " +
+            "SELECT r." + toColumn + " FROM " + relPersister.getTableName() + " r" +
+            " JOIN related p ON r." + fromColumn + " = p.OBJ_ID" + typeJoin +
+            " WHERE 1 = 1" + conditions +
+            ") SELECT OBJ_ID, 0 FROM related";
+      }
+      else
+      {
+         sql = "WITH related (OBJ_ID, DEPTH) AS (" +
+            "SELECT r." + toColumn + ", 1 FROM " + relPersister.getTableName() + " r" + typeJoin +
+            " WHERE r." + fromColumn + " = :identity" + conditions +
+            " UNION ALL " +
+            "SELECT r." + toColumn + ", p.DEPTH + 1 FROM " + relPersister.getTableName() + " r" +
+            " JOIN related p ON r." + fromColumn + " = p.OBJ_ID" + typeJoin +
+            " WHERE p.DEPTH < " + MAX_CASCADE_DEPTH + conditions +
+            ") SELECT OBJ_ID, MAX(DEPTH) FROM related GROUP BY OBJ_ID";
+      }
+
+      org.hibernate.Query q = hibernateSession.createSQLQuery(sql)
+         .setFlushMode(FlushMode.MANUAL)
+         .setParameter("identity", identity.getId() != null ? new Long(identity.getId()) : null);
+
+      if (relationshipType != null)
+      {
+         q.setParameter("relType", relationshipType.getId());
+      }
+      if (identityType != null)
+      {
+         q.setParameter("ioType", identityType.getId());
+      }
+
+      List<Long> ids = new LinkedList<Long>();
+
+      boolean depthLimitReached = false;
+
+      for (Object result : q.list())
+      {
+         Object[] row = (Object[])result;
+
+         Long id = ((Number)row[0]).longValue();
+
+         if (((Number)row[1]).intValue() >= MAX_CASCADE_DEPTH)
+         {
+            depthLimitReached = true;
+         }
+
+         // Identity itself is present in results if relationships contain a cycle
+         if (!id.toString().equals(identity.getId()))
+         {
+            ids.add(id);
+         }
+      }
+
+      if (depthLimitReached)
+      {
+         log.warning("Cascaded search for " + identity.getName() + " reached maximum depth of " + MAX_CASCADE_DEPTH +
+            " - relationships contain a cycle or a deeper hierarchy and results may be incomplete");
+      }
+
+      return ids;
+   }
+
+   /**
+    * Resolve related identity objects with one query per hierarchy level. Ids from the previous level are passed
+    * as IN list split into chunks.
+    */
+   private List<IdentityObject> findRelatedLevelByLevel(Session hibernateSession,
+                                                        HibernateIdentityObject identity,
+                                                        HibernateIdentityObjectRelationshipType relationshipType,
+                                                        HibernateIdentityObjectType identityType,
+                                                        boolean parent)
+   {
+      StringBuilder hqlString = new StringBuilder("select distinct io.id, io.name, t.name from HibernateIdentityObjectRelationship ior ");
+
+      if (parent)
+      {
+         hqlString.append("join ior.toIdentityObject io join io.identityType t where ior.fromIdentityObject.id in (:ids)");
+      }
+      else
+      {
+         hqlString.append("join ior.fromIdentityObject io join io.identityType t where ior.toIdentityObject.id in (:ids)");
+      }
+
+      if (relationshipType != null)
+      {
+         hqlString.append(" and ior.type = :relType");
+      }
+      if (identityType != null)
+      {
+         hqlString.append(" and io.identityType = :ioType");
+      }
+
+      List<IdentityObject> results = new LinkedList<IdentityObject>();
+
+      Map<String, IdentityObjectType> types = new HashMap<String, IdentityObjectType>();
+
+      // Visited ids - protects from cycles in relationships
+      Set<Long> visited = new HashSet<Long>();
+      visited.add(new Long(identity.getId()));
+
+      List<Long> level = new LinkedList<Long>(visited);
+
+      while (!level.isEmpty())
+      {
+         List<Long> nextLevel = new LinkedList<Long>();
+
+         for (List<Long> chunk : splitIds(level))
+         {
+            org.hibernate.Query q = hibernateSession.createQuery(hqlString.toString())
+               .setFlushMode(FlushMode.MANUAL)
+               .setParameterList("ids", chunk);
+
+            if (relationshipType != null)
+            {
+               q.setParameter("relType", relationshipType);
+            }
+            if (identityType != null)
+            {
+               q.setParameter("ioType", identityType);
+            }
+
+            for (Object result : q.list())
+            {
+               Object[] row = (Object[])result;
+
+               if (visited.add((Long)row[0]))
+               {
+                  nextLevel.add((Long)row[0]);
+                  results.add(createProjection(row, types));
+               }
+            }
+         }
+
+         level = nextLevel;
+      }
+
+      return results;
+   }
+
+   /**
+    * Resolve related identity objects with a single query against the relationship closure table. Other modes follow
+    * only paths going through objects of a given identity type. Closure doesn't keep intermediate objects of a path
+    * so its result is used only if all related objects are of that type - otherwise null is returned and the caller
+    * needs to traverse the hierarchy.
+    */
+   private List<IdentityObject> findRelatedFromClosure(Session hibernateSession,
+                                                       HibernateIdentityObject identity,
+                                                       HibernateIdentityObjectRelationshipType relationshipType,
+                                                       HibernateIdentityObjectType identityType,
+                                                       boolean parent)
+   {
+      StringBuilder hqlString = new StringBuilder("select distinct io.id, io.name, t.name from HibernateIdentityObjectRelationshipClosure c ");
+
+      if (parent)
+      {
+         hqlString.append("join c.descendant io join io.identityType t where c.ancestor = :identity");
+      }
+      else
+      {
+         hqlString.append("join c.ancestor io join io.identityType t where c.descendant = :identity");
+      }
+
+      hqlString.append(" and c.type = :relType");
+
+      org.hibernate.Query q = hibernateSession.createQuery(hqlString.toString())
+         .setFlushMode(FlushMode.MANUAL)
+         .setParameter("identity", identity)
+         .setParameter("relType", relationshipType);
+
+      List<IdentityObject> results = new LinkedList<IdentityObject>();
+
+      Map<String, IdentityObjectType> types = new HashMap<String, IdentityObjectType>();
+
+      for (Object result : q.list())
+      {
+         Object[] row = (Object[])result;
+
+         if (identityType != null && !identityType.getName().equals(row[2]))
+         {
+            return null;
+         }
+
+         results.add(createProjection(row, types));
+      }
+
+      return results;
+   }
+
+   private List<IdentityObject> findProjectionsByIds(Session hibernateSession, List<Long> ids)
+   {
+      List<IdentityObject> results = new LinkedList<IdentityObject>();
+
+      Map<String, IdentityObjectType> types = new HashMap<String, IdentityObjectType>();
+
+      for (List<Long> chunk : splitIds(ids))
+      {
+         List rows = hibernateSession.createQuery("select io.id, io.name, t.name from HibernateIdentityObject io " +
+            "join io.identityType t where io.id in (:ids)")
+            .setFlushMode(FlushMode.MANUAL)
+            .setParameterList("ids", chunk)
+            .list();
+
+         for (Object row : rows)
+         {
+            results.add(createProjection((Object[])row, types));
+         }
+      }
+
+      return results;
+   }
+
+   private HibernateIdentityObjectProjection createProjection(Object[] row, Map<String, IdentityObjectType> types)
+   {
+      IdentityObjectType type = types.get(row[2]);
+
+      if (type == null)
+      {
+         type = new HibernateIdentityObjectType((String)row[2]);
+         types.put((String)row[2], type);
+      }
+
+      return new HibernateIdentityObjectProjection((Long)row[0], (String)row[1], type);
+   }
+
+   private <T> List<List<T>> splitIds(List<T> ids)
+   {
+      List<List<T>> chunks = new LinkedList<List<T>>();
+
+      for (int i = 0; i < ids.size(); i += MAX_IN_LIST_SIZE)
+      {
+         chunks.add(ids.subList(i, Math.min(i + MAX_IN_LIST_SIZE, ids.size())));
+      }
+
+      return chunks;
+   }
+
+   public Collection<IdentityObject> findIdentityObject(IdentityStoreInvocationContext ctx,
+                                                        IdentityObject identity,
+                                                        IdentityObjectRelationshipType relationshipType,
+                                                        boolean parent) throws IdentityException
+   {
+
+      return findIdentityObject(ctx, identity, relationshipType, parent, null);
+   }
+
+   public IdentityObjectRelationship createRelationship(IdentityStoreInvocationContext ctx,
+                                                        IdentityObject fromIdentity,
+                                                        IdentityObject toIdentity,
+                                                        IdentityObjectRelationshipType relationshipType,
+                                                        String name, boolean createNames) throws IdentityException
+   {
+
+      if (relationshipType == null)
+      {
+         throw new IllegalArgumentException("RelationshipType is null");
+      }
+      HibernateIdentityObject fromIO = safeGet(ctx, fromIdentity);      
+      HibernateIdentityObject toIO = safeGet(ctx, toIdentity);
+      HibernateIdentityObjectRelationshipType type = getHibernateIdentityObjectRelationshipType(ctx, relationshipType);
+
+      HibernateRealm realm = getRealm(getHibernateSession(ctx), ctx);
+      
+      if (!getSupportedFeatures().isRelationshipTypeSupported(fromIO.getIdentityType(), toIO.getIdentityType(), relationshipType))
+      {
+         if (!isAllowNotDefinedIdentityObjectTypes())
+         {
+            throw new IdentityException("Relationship not supported. RelationshipType[ " + relationshipType.getName() + " ] " +
+               "beetween: [ " + fromIO.getIdentityType().getName() + " ] and [ " + toIO.getIdentityType().getName() + " ]");
+         }
+      }
+
+      HibernateIdentityObjectRelationship relationship = null;
+
+      if (name != null)
+      {
+
+         HibernateIdentityObjectRelationshipName relationshipName =
+            (HibernateIdentityObjectRelationshipName)getHibernateSession(ctx).
+               createCriteria(HibernateIdentityObjectRelationshipName.class).
+               setCacheable(true).
+               add(Restrictions.eq("name", name)).
+               add(Restrictions.eq("realm", realm)).
+               uniqueResult();
+
+         if (relationshipName == null)
+         {
+            throw new IdentityException("Relationship name not present in the store");
+         }
+
+         relationship = new HibernateIdentityObjectRelationship(type, fromIO, toIO, relationshipName);
+      }
+      else
+      {
+         relationship = new HibernateIdentityObjectRelationship(type, fromIO, toIO);
+      }
 
 
       try
       {
          Session session = getHibernateSession(ctx);
          session.persist(relationship);
+
+         if (isRelationshipClosureMaintained(type))
+         {
+            updateRelationshipClosure(session, fromIO, toIO, type, true, null);
+         }
+
          session.flush();
 
       }
@@ -1033,10 +1599,9 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
       {
 
          crit = getHibernateSession(ctx).createCriteria(HibernateIdentityObjectRelationship.class)
-            .createAlias("type", "t")
             .add(Restrictions.eq("fromIdentityObject", fromIO))
             .add(Restrictions.eq("toIdentityObject", toIO))
-            .add(Restrictions.eq("t.name", type.getName()))
+            .add(Restrictions.eq("type", type))
             .setCacheable(true);
 
 
@@ -1048,8 +1613,7 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
             (HibernateIdentityObjectRelationshipName)getHibernateSession(ctx)
                .createCriteria(HibernateIdentityObjectRelationshipName.class)
                .add(Restrictions.eq("name", name))
-               .createAlias("realm", "rm")
-               .add(Restrictions.eq("rm.name", getRealmName(ctx)))
+               .add(Restrictions.eq("realm", realm))
                .uniqueResult();
 
          if (relationshipName == null)
@@ -1059,12 +1623,10 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
 
 
          crit = getHibernateSession(ctx).createCriteria(HibernateIdentityObjectRelationship.class)
-            .createAlias("type", "t")
-            .createAlias("name", "n")
             .add(Restrictions.eq("fromIdentityObject", fromIO))
             .add(Restrictions.eq("toIdentityObject", toIO))
-            .add(Restrictions.eq("t.name", type.getName()))
-            .add(Restrictions.eq("n.name", name))
+            .add(Restrictions.eq("type", type))
+            .add(Restrictions.eq("name", relationshipName))
             .setCacheable(true);
       }
 
@@ -1078,6 +1640,7 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
 
      try
       {
+         removeFromRelationshipClosure(getHibernateSession(ctx), relationship);
          fromIO.getFromRelationships().remove(relationship);
          toIO.getToRelationships().remove(relationship);
          getHibernateSession(ctx).delete(relationship);
@@ -1129,6 +1692,7 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
          {
             try
             {
+               removeFromRelationshipClosure(getHibernateSession(ctx), relationship);
                relationship.getFromIdentityObject().getFromRelationships().remove(relationship);
                relationship.getToIdentityObject().getToRelationships().remove(relationship);
                getHibernateSession(ctx).delete(relationship);
@@ -1147,59 +1711,357 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
       }
    }
 
-   public Set<IdentityObjectRelationship> resolveRelationships(IdentityStoreInvocationContext ctx,
-                                                               IdentityObject fromIdentity,
-                                                               IdentityObject toIdentity,
-                                                               IdentityObjectRelationshipType relationshipType) throws IdentityException
+   /**
+    * Recreate content of the relationship closure table for a given relationship type from existing relationships.
+    * Needs to be run once for data created before the type was listed in the relationshipClosureTypes option, or
+    * after relationships were modified outside of this store.
+    *
+    * @param ctx
+    * @param relationshipType
+    * @return number of closure rows created
+    * @throws IdentityException
+    */
+   public int rebuildRelationshipClosure(IdentityStoreInvocationContext ctx,
+                                         IdentityObjectRelationshipType relationshipType) throws IdentityException
    {
+      if (relationshipType == null)
+      {
+         throw new IllegalArgumentException("RelationshipType is null");
+      }
 
-      HibernateIdentityObject hio1 = safeGet(ctx, fromIdentity);
-      HibernateIdentityObject hio2 = safeGet(ctx, toIdentity);
-
-      Criteria criteria = getHibernateSession(ctx).createCriteria(HibernateIdentityObjectRelationship.class)
-         .setCacheable(true);
+      HibernateIdentityObjectRelationshipType type = getHibernateIdentityObjectRelationshipType(ctx, relationshipType);
 
+      Session hibernateSession = getHibernateSession(ctx);
 
-      if (relationshipType != null)
+      try
       {
-         criteria.createAlias("type", "t").add(Restrictions.eq("t.name", relationshipType.getName()));
-      }
+         hibernateSession.createQuery("delete from HibernateIdentityObjectRelationshipClosure c where c.type = :type")
+            .setParameter("type", type)
+            .executeUpdate();
 
+         // <from id, to ids> - every relationship is an edge so duplicated relationships give separate paths
+         Map<Long, List<Long>> edges = new HashMap<Long, List<Long>>();
 
-      criteria.add(Restrictions.eq("fromIdentityObject", hio1))
-         .add(Restrictions.eq("toIdentityObject", hio2));
+         List rows = hibernateSession.createQuery("select r.fromIdentityObject.id, r.toIdentityObject.id " +
+            "from HibernateIdentityObjectRelationship r where r.type = :type")
+            .setParameter("type", type)
+            .list();
 
-      List<HibernateIdentityObjectRelationship> results = criteria.list();
-      Hibernate.initialize(results);
+         for (Object result : rows)
+         {
+            Object[] row = (Object[])result;
 
-      return new HashSet<IdentityObjectRelationship>(results);
-   }
+            List<Long> targets = edges.get(row[0]);
 
-   public Set<IdentityObjectRelationship> resolveRelationships(IdentityStoreInvocationContext ctx,
-                                                               IdentityObject identity,
-                                                               IdentityObjectRelationshipType type,
-                                                               boolean parent,
-                                                               boolean named,
-                                                               String name) throws IdentityException
-   {
-      HibernateIdentityObject hio = safeGet(ctx, identity);
+            if (targets == null)
+            {
+               targets = new LinkedList<Long>();
+               edges.put((Long)row[0], targets);
+            }
 
+            targets.add((Long)row[1]);
+         }
 
-      Criteria criteria = getHibernateSession(ctx).createCriteria(HibernateIdentityObjectRelationship.class);
-      criteria.setCacheable(true);
+         int created = 0;
 
-      if (type != null)
-      {
-         HibernateIdentityObjectRelationshipType hibernateType = getHibernateIdentityObjectRelationshipType(ctx, type);
+         // Closure rows saved since the last flush - only those are evicted so the session of the caller stays intact
+         List<HibernateIdentityObjectRelationshipClosure> saved = new LinkedList<HibernateIdentityObjectRelationshipClosure>();
 
-         criteria.add(Restrictions.eq("type", hibernateType));
-      }
+         for (Long ancestorId : edges.keySet())
+         {
+            // Number of paths of current length leading from the ancestor to each reached object
+            Map<Long, Long> level = new HashMap<Long, Long>();
+            level.put(ancestorId, 1L);
 
-      if (name != null)
-      {
-         criteria.add(Restrictions.eq("name.name", name));
-      }
-      else if (named)
+            for (int depth = 1; depth <= MAX_CASCADE_DEPTH && !level.isEmpty(); depth++)
+            {
+               Map<Long, Long> nextLevel = new HashMap<Long, Long>();
+
+               for (Map.Entry<Long, Long> entry : level.entrySet())
+               {
+                  List<Long> targets = edges.get(entry.getKey());
+
+                  if (targets != null)
+                  {
+                     for (Long target : targets)
+                     {
+                        Long paths = nextLevel.get(target);
+                        nextLevel.put(target, (paths != null ? paths : 0L) + entry.getValue());
+                     }
+                  }
+               }
+
+               for (Map.Entry<Long, Long> entry : nextLevel.entrySet())
+               {
+                  if (!entry.getKey().equals(ancestorId))
+                  {
+                     HibernateIdentityObjectRelationshipClosure closure = new HibernateIdentityObjectRelationshipClosure(
+                        (HibernateIdentityObject)hibernateSession.load(HibernateIdentityObject.class, ancestorId),
+                        (HibernateIdentityObject)hibernateSession.load(HibernateIdentityObject.class, entry.getKey()),
+                        type, depth, entry.getValue());
+
+                     hibernateSession.save(closure);
+                     saved.add(closure);
+
+                     if (++created % MAX_IN_LIST_SIZE == 0)
+                     {
+                        hibernateSession.flush();
+
+                        for (HibernateIdentityObjectRelationshipClosure savedClosure : saved)
+                        {
+                           hibernateSession.evict(savedClosure);
+                        }
+                        saved.clear();
+                     }
+                  }
+               }
+
+               level = nextLevel;
+            }
+         }
+
+         hibernateSession.flush();
+
+         return created;
+      }
+      catch (HibernateException e)
+      {
+         if (log.isLoggable(Level.FINER))
+         {
+            log.log(Level.FINER, "Exception occurred: ", e);
+         }
+
+         throw new IdentityException("Cannot rebuild relationship closure for type: " + relationshipType.getName(), e);
+      }
+   }
+
+   private boolean isRelationshipClosureMaintained(HibernateIdentityObjectRelationshipType type)
+   {
+      return type != null && relationshipClosureTypes.contains(type.getName());
+   }
+
+   private void removeFromRelationshipClosure(Session hibernateSession, HibernateIdentityObjectRelationship relationship)
+   {
+      HibernateIdentityObjectRelationshipType type = (HibernateIdentityObjectRelationshipType)relationship.getType();
+
+      if (isRelationshipClosureMaintained(type))
+      {
+         updateRelationshipClosure(hibernateSession, relationship.getFromIdentityObject(),
+            relationship.getToIdentityObject(), type, false, null);
+      }
+   }
+
+   /**
+    * Add to the closure table all paths going through a relationship between two identity objects, or subtract them
+    * when the relationship is removed. Each ancestor of fromIO (and fromIO itself) gets paths to each descendant of
+    * toIO (and toIO itself). Path counts are exact for an acyclic hierarchy. If touched list is provided closure
+    * entities that were created or updated are added to it.
+    */
+   private void updateRelationshipClosure(Session hibernateSession,
+                                          HibernateIdentityObject fromIO,
+                                          HibernateIdentityObject toIO,
+                                          HibernateIdentityObjectRelationshipType type,
+                                          boolean add,
+                                          List<Object> touched)
+   {
+      List<Object[]> ancestors = findClosurePaths(hibernateSession, fromIO, type, false);
+      List<Object[]> descendants = findClosurePaths(hibernateSession, toIO, type, true);
+
+      // <"ancestor:descendant:depth", [ancestor id, descendant id, depth, path count]>
+      Map<String, Object[]> paths = new HashMap<String, Object[]>();
+
+      Set<Long> ancestorIds = new HashSet<Long>();
+      Set<Long> descendantIds = new HashSet<Long>();
+
+      for (Object[] ancestor : ancestors)
+      {
+         for (Object[] descendant : descendants)
+         {
+            int depth = (Integer)ancestor[1] + (Integer)descendant[1] + 1;
+
+            if (ancestor[0].equals(descendant[0]) || depth > MAX_CASCADE_DEPTH)
+            {
+               continue;
+            }
+
+            long count = (Long)ancestor[2] * (Long)descendant[2];
+            String key = ancestor[0] + ":" + descendant[0] + ":" + depth;
+
+            Object[] path = paths.get(key);
+
+            if (path == null)
+            {
+               paths.put(key, new Object[]{ancestor[0], descendant[0], depth, count});
+            }
+            else
+            {
+               path[3] = (Long)path[3] + count;
+            }
+
+            ancestorIds.add((Long)ancestor[0]);
+            descendantIds.add((Long)descendant[0]);
+         }
+      }
+
+      if (paths.isEmpty())
+      {
+         return;
+      }
+
+      Map<String, HibernateIdentityObjectRelationshipClosure> existing =
+         new HashMap<String, HibernateIdentityObjectRelationshipClosure>();
+
+      for (List<Long> ancestorChunk : splitIds(new LinkedList<Long>(ancestorIds)))
+      {
+         for (List<Long> descendantChunk : splitIds(new LinkedList<Long>(descendantIds)))
+         {
+            List rows = hibernateSession.createQuery("select c, c.ancestor.id, c.descendant.id " +
+               "from HibernateIdentityObjectRelationshipClosure c " +
+               "where c.type = :type and c.ancestor.id in (:ancestors) and c.descendant.id in (:descendants)")
+               .setParameter("type", type)
+               .setParameterList("ancestors", ancestorChunk)
+               .setParameterList("descendants", descendantChunk)
+               .list();
+
+            for (Object result : rows)
+            {
+               Object[] row = (Object[])result;
+               HibernateIdentityObjectRelationshipClosure closure = (HibernateIdentityObjectRelationshipClosure)row[0];
+
+               existing.put(row[1] + ":" + row[2] + ":" + closure.getDepth(), closure);
+            }
+         }
+      }
+
+      if (touched != null)
+      {
+         touched.addAll(existing.values());
+      }
+
+      for (Map.Entry<String, Object[]> entry : paths.entrySet())
+      {
+         Object[] path = entry.getValue();
+         HibernateIdentityObjectRelationshipClosure closure = existing.get(entry.getKey());
+
+         if (add)
+         {
+            if (closure == null)
+            {
+               closure = new HibernateIdentityObjectRelationshipClosure(
+                  (HibernateIdentityObject)hibernateSession.load(HibernateIdentityObject.class, (Long)path[0]),
+                  (HibernateIdentityObject)hibernateSession.load(HibernateIdentityObject.class, (Long)path[1]),
+                  type, (Integer)path[2], (Long)path[3]);
+
+               hibernateSession.save(closure);
+
+               if (touched != null)
+               {
+                  touched.add(closure);
+               }
+            }
+            else
+            {
+               closure.setPathCount(closure.getPathCount() + (Long)path[3]);
+            }
+         }
+         else if (closure != null)
+         {
+            if (closure.getPathCount() > (Long)path[3])
+            {
+               closure.setPathCount(closure.getPathCount() - (Long)path[3]);
+            }
+            else
+            {
+               hibernateSession.delete(closure);
+            }
+         }
+      }
+   }
+
+   /**
+    * Return [object id, depth, path count] rows for all ancestors (or descendants) of an identity object stored in
+    * the closure table. Zero length path to the object itself is included.
+    */
+   private List<Object[]> findClosurePaths(Session hibernateSession,
+                                           HibernateIdentityObject identity,
+                                           HibernateIdentityObjectRelationshipType type,
+                                           boolean descendants)
+   {
+      String hql = descendants ?
+         "select c.descendant.id, c.depth, c.pathCount from HibernateIdentityObjectRelationshipClosure c " +
+            "where c.ancestor = :identity and c.type = :type" :
+         "select c.ancestor.id, c.depth, c.pathCount from HibernateIdentityObjectRelationshipClosure c " +
+            "where c.descendant = :identity and c.type = :type";
+
+      List<Object[]> paths = new LinkedList<Object[]>();
+      paths.add(new Object[]{new Long(identity.getId()), 0, 1L});
+
+      for (Object row : hibernateSession.createQuery(hql)
+         .setParameter("identity", identity)
+         .setParameter("type", type)
+         .list())
+      {
+         paths.add((Object[])row);
+      }
+
+      return paths;
+   }
+
+   public Set<IdentityObjectRelationship> resolveRelationships(IdentityStoreInvocationContext ctx,
+                                                               IdentityObject fromIdentity,
+                                                               IdentityObject toIdentity,
+                                                               IdentityObjectRelationshipType relationshipType) throws IdentityException
+   {
+
+      HibernateIdentityObject hio1 = safeGet(ctx, fromIdentity);
+      HibernateIdentityObject hio2 = safeGet(ctx, toIdentity);
+
+      Criteria criteria = getHibernateSession(ctx).createCriteria(HibernateIdentityObjectRelationship.class)
+         .setFlushMode(FlushMode.MANUAL)
+         .setCacheable(true);
+
+
+      if (relationshipType != null)
+      {
+         criteria.add(Restrictions.eq("type", getHibernateIdentityObjectRelationshipType(ctx, relationshipType)));
+      }
+
+
+      criteria.add(Restrictions.eq("fromIdentityObject", hio1))
+         .add(Restrictions.eq("toIdentityObject", hio2));
+
+      List<HibernateIdentityObjectRelationship> results = criteria.list();
+      Hibernate.initialize(results);
+
+      return new HashSet<IdentityObjectRelationship>(results);
+   }
+
+   public Set<IdentityObjectRelationship> resolveRelationships(IdentityStoreInvocationContext ctx,
+                                                               IdentityObject identity,
+                                                               IdentityObjectRelationshipType type,
+                                                               boolean parent,
+                                                               boolean named,
+                                                               String name) throws IdentityException
+   {
+      HibernateIdentityObject hio = safeGet(ctx, identity);
+
+
+      Criteria criteria = getHibernateSession(ctx).createCriteria(HibernateIdentityObjectRelationship.class);
+      criteria.setFlushMode(FlushMode.MANUAL);
+      criteria.setCacheable(true);
+
+      if (type != null)
+      {
+         HibernateIdentityObjectRelationshipType hibernateType = getHibernateIdentityObjectRelationshipType(ctx, type);
+
+         criteria.add(Restrictions.eq("type", hibernateType));
+      }
+
+      if (name != null)
+      {
+         criteria.add(Restrictions.eq("name.name", name));
+      }
+      else if (named)
       {
          criteria.add(Restrictions.isNotNull("name"));
       }
@@ -1280,9 +2142,8 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
       {
          HibernateIdentityObjectRelationshipName hiorn = (HibernateIdentityObjectRelationshipName)hibernateSession
             .createCriteria(HibernateIdentityObjectRelationshipName.class)
-            .createAlias("realm", "rm")
             .add(Restrictions.eq("name", name))
-            .add(Restrictions.eq("rm.name", getRealmName(ctx)))
+            .add(Restrictions.eq("realm", getRealm(hibernateSession, ctx)))
             .setCacheable(true)
             .uniqueResult();
 
@@ -1333,8 +2194,8 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
          //Query q = null;
 
          Criteria c = hibernateSession.createCriteria(HibernateIdentityObjectRelationshipName.class)
+            .setFlushMode(FlushMode.MANUAL)
             .setCacheable(true)
-            .createAlias("realm", "r")
             .setProjection(Projections.property("name"));
 
 
@@ -1351,7 +2212,7 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
             }
          }
 
-         c.add(Restrictions.eq("r.name", getRealmName(ctx)));
+         c.add(Restrictions.eq("realm", getRealm(hibernateSession, ctx)));
 
          if (criteria != null && criteria.getFilter() != null)
          {
@@ -1409,6 +2270,7 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
       try
       {
          Criteria c = hibernateSession.createCriteria(HibernateIdentityObjectRelationship.class)
+            .setFlushMode(FlushMode.MANUAL)
             .setCacheable(true)
             .createAlias("name", "n")
             .setProjection(Projections.property("n.name"));
@@ -1480,9 +2342,8 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
          HibernateIdentityObjectRelationshipName hiorn = (HibernateIdentityObjectRelationshipName)hibernateSession.
             createCriteria(HibernateIdentityObjectRelationshipName.class)
             .setCacheable(true)
-            .createAlias("realm", "r")
             .add(Restrictions.eq("name", name))
-            .add(Restrictions.eq("r.name", getRealmName(ctx)))
+            .add(Restrictions.eq("realm", getRealm(hibernateSession, ctx)))
             .uniqueResult();
 
          if (hiorn == null)
@@ -1521,9 +2382,8 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
          HibernateIdentityObjectRelationshipName hiorn = (HibernateIdentityObjectRelationshipName)hibernateSession.
             createCriteria(HibernateIdentityObjectRelationshipName.class)
             .setCacheable(true)
-            .createAlias("realm", "r")
             .add(Restrictions.eq("name", name))
-            .add(Restrictions.eq("r.name", getRealmName(ctx)))
+            .add(Restrictions.eq("realm", getRealm(hibernateSession, ctx)))
             .uniqueResult();
 
          if (hiorn == null)
@@ -1560,9 +2420,8 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
          HibernateIdentityObjectRelationshipName hiorn = (HibernateIdentityObjectRelationshipName)hibernateSession.
             createCriteria(HibernateIdentityObjectRelationshipName.class)
             .setCacheable(true)
-            .createAlias("realm", "r")
             .add(Restrictions.eq("name", name))
-            .add(Restrictions.eq("r.name", getRealmName(ctx)))
+            .add(Restrictions.eq("realm", getRealm(hibernateSession, ctx)))
             .uniqueResult();
 
          if (hiorn == null)
@@ -1599,8 +2458,7 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
       Criteria criteria = getHibernateSession(ctx).
          createCriteria(HibernateIdentityObjectRelationship.class)
          .setCacheable(true)
-         .createAlias("type", "t")
-         .add(Restrictions.eq("t.name", type.getName()))
+         .add(Restrictions.eq("type", type))
          .add(Restrictions.eq("fromIdentityObject", fromIO))
          .add(Restrictions.eq("toIdentityObject", toIO));
 
@@ -1649,8 +2507,7 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
        Criteria criteria = getHibernateSession(ctx).
          createCriteria(HibernateIdentityObjectRelationship.class)
          .setCacheable(true)
-         .createAlias("type", "t")
-         .add(Restrictions.eq("t.name", type.getName()))
+         .add(Restrictions.eq("type", type))
          .add(Restrictions.eq("fromIdentityObject", fromIO))
          .add(Restrictions.eq("toIdentityObject", toIO));
 
@@ -1699,8 +2556,7 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
        Criteria criteria = getHibernateSession(ctx).
          createCriteria(HibernateIdentityObjectRelationship.class)
          .setCacheable(true)
-         .createAlias("type", "t")
-         .add(Restrictions.eq("t.name", type.getName()))
+         .add(Restrictions.eq("type", type))
          .add(Restrictions.eq("fromIdentityObject", fromIO))
          .add(Restrictions.eq("toIdentityObject", toIO));
 
@@ -1813,102 +2669,293 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
 
    }
 
-   public Map<String, IdentityObjectAttributeMetaData> getAttributesMetaData(IdentityStoreInvocationContext invocationContext,
-                                                                            IdentityObjectType identityType)
-   {
-      return attributesMetaData.get(identityType.getName());
-   }
-
-
-
-   public void updateAttributes(IdentityStoreInvocationContext ctx, IdentityObject identity, IdentityObjectAttribute[] attributes) throws IdentityException
+   public Map<IdentityObject, Map<String, IdentityObjectAttribute>> getAttributes(IdentityStoreInvocationContext ctx,
+                                                                                  Collection<IdentityObject> identities,
+                                                                                  String[] attributeNames) throws IdentityException
    {
-
-      if (attributes == null)
+      if (identities == null)
       {
-         throw new IllegalArgumentException("attributes are null");
+         throw new IllegalArgumentException("identities are null");
       }
 
-      Map<String, IdentityObjectAttribute> mappedAttributes = new HashMap<String, IdentityObjectAttribute>();
-
-      Map<String, IdentityObjectAttributeMetaData> mdMap = attributesMetaData.get(identity.getIdentityType().getName());
+      Map<IdentityObject, Map<String, IdentityObjectAttribute>> results =
+         new HashMap<IdentityObject, Map<String, IdentityObjectAttribute>>();
 
-      for (IdentityObjectAttribute attribute : attributes)
-      {
-         String name = resolveAttributeStoreMapping(identity.getIdentityType(), attribute.getName());
-         mappedAttributes.put(name, attribute);
+      Session hibernateSession = getHibernateSession(ctx);
 
+      // Loaded objects and search projections carry their entity ids. Others are resolved by name in bulk per type
+      Map<Long, List<IdentityObject>> identitiesById = new HashMap<Long, List<IdentityObject>>();
+      Map<String, Map<String, List<IdentityObject>>> identitiesByName = new HashMap<String, Map<String, List<IdentityObject>>>();
+      Map<String, IdentityObjectType> types = new HashMap<String, IdentityObjectType>();
 
+      for (IdentityObject identity : identities)
+      {
+         checkIOInstance(identity);
 
-         if (mdMap == null || !mdMap.containsKey(attribute.getName()))
+         if (results.containsKey(identity))
          {
-            if (!isAllowNotDefinedAttributes)
-            {
-               throw new IdentityException("Cannot add not defined attribute. Use '" + ALLOW_NOT_DEFINED_ATTRIBUTES +
-                  "' option if needed. Attribute name: " + attribute.getName());
-            }
+            continue;
          }
 
+         results.put(identity, new HashMap<String, IdentityObjectAttribute>());
+         types.put(identity.getIdentityType().getName(), identity.getIdentityType());
 
-         if (mdMap != null && mdMap.containsKey(attribute.getName()))
+         Long id = null;
+
+         if (identity instanceof HibernateIdentityObjectProjection)
+         {
+            id = ((HibernateIdentityObjectProjection)identity).getEntityId();
+         }
+         else if (identity instanceof HibernateIdentityObject && identity.getId() != null)
          {
+            id = Long.valueOf(identity.getId());
+         }
 
-            IdentityObjectAttributeMetaData amd = mdMap.get(attribute.getName());
+         if (id != null)
+         {
+            addToIndex(identitiesById, id, identity);
+         }
+         else
+         {
+            Map<String, List<IdentityObject>> byName = identitiesByName.get(identity.getIdentityType().getName());
 
-            if (!amd.isMultivalued() && attribute.getSize() > 1)
-            {
-               throw new IdentityException("Cannot assigned multiply values to single valued attribute: " + attribute.getName());
-            }
-            if (amd.isReadonly())
+            if (byName == null)
             {
-               throw new IdentityException("Cannot update readonly attribute: " + attribute.getName());
+               byName = new HashMap<String, List<IdentityObject>>();
+               identitiesByName.put(identity.getIdentityType().getName(), byName);
             }
 
-            if (amd.isUnique())
-            {
-               IdentityObject checkIdentity = findIdentityObjectByUniqueAttribute(ctx,
-                  identity.getIdentityType(),
-                  attribute);
-
-               if (checkIdentity != null && !checkIdentity.getName().equals(identity.getName()))
-               {
-                  throw new IdentityException("Unique attribute '" + attribute.getName() + " value already set for identityObject: " +
-                  checkIdentity);
-               }
-            }
+            addToIndex(byName, identity.getName().toLowerCase(), identity);
+         }
+      }
 
-            String type = amd.getType();
+      // Map requested names to store names for all involved types. Not configured attributes cannot be present
+      Set<String> requestedNames = null;
+      Set<String> storeNames = null;
 
-            // check if all values have proper type
+      if (attributeNames != null)
+      {
+         requestedNames = new HashSet<String>(Arrays.asList(attributeNames));
+         storeNames = new HashSet<String>();
 
-            for (Object value : attribute.getValues())
+         for (String typeName : types.keySet())
+         {
+            for (String name : attributeNames)
             {
-               if (type.equals(IdentityObjectAttributeMetaData.TEXT_TYPE) && !(value instanceof String))
+               try
                {
-                  throw new IdentityException("Cannot update text type attribute with not String type value: "
-                     + attribute.getName() + " / " + value);
+                  storeNames.add(resolveAttributeStoreMapping(typeName, name));
                }
-               if (type.equals(IdentityObjectAttributeMetaData.BINARY_TYPE) && !(value instanceof byte[]))
+               catch (IdentityException e)
                {
-                  throw new IdentityException("Cannot update binary type attribute with not byte[] type value: "
-                     + attribute.getName() + " / " + value);
+                  if (log.isLoggable(Level.FINER))
+                  {
+                     log.log(Level.FINER, "Exception occurred: ", e);
+                  }
                }
             }
-            if (type.equals(IdentityObjectAttributeMetaData.BINARY_TYPE) && attribute.getValues().size() > 1)
-            {
-               throw new IdentityException("Cannot add binary type attribute with more than one value - this implementation" +
-                  "support only single value binary attributes: " + attribute.getName() );
-            }
+         }
+
+         if (storeNames.isEmpty())
+         {
+            return results;
          }
       }
 
+      try
+      {
+         if (!identitiesByName.isEmpty())
+         {
+            HibernateRealm realm = getRealm(hibernateSession, ctx);
 
-      HibernateIdentityObject hibernateObject = safeGet(ctx, identity);
+            for (Map.Entry<String, Map<String, List<IdentityObject>>> entry : identitiesByName.entrySet())
+            {
+               HibernateIdentityObjectType hibernateType = getHibernateIdentityObjectType(ctx, types.get(entry.getKey()));
 
-      Hibernate.initialize(hibernateObject.getAttributes());
+               for (List<String> chunk : splitIds(new LinkedList<String>(entry.getValue().keySet())))
+               {
+                  List rows = hibernateSession.createQuery("select io.id, lower(io.name) from HibernateIdentityObject io " +
+                     "where io.realm = :realm and io.identityType = :type and lower(io.name) in (:names)")
+                     .setParameter("realm", realm)
+                     .setParameter("type", hibernateType)
+                     .setParameterList("names", chunk)
+                     .list();
+
+                  for (Object row : rows)
+                  {
+                     Object[] values = (Object[])row;
+                     List<IdentityObject> named = entry.getValue().get(values[1]);
 
-      for (String name : mappedAttributes.keySet())
-      {
+                     if (named != null)
+                     {
+                        for (IdentityObject identity : named)
+                        {
+                           addToIndex(identitiesById, (Long)values[0], identity);
+                        }
+                     }
+                  }
+               }
+            }
+         }
+
+         StringBuilder hqlString = new StringBuilder("select a, a.identityObject.id from HibernateIdentityObjectAttribute a " +
+            "where a.identityObject.id in (:ids)");
+
+         if (storeNames != null)
+         {
+            hqlString.append(" and a.name in (:names)");
+         }
+
+         for (List<Long> chunk : splitIds(new LinkedList<Long>(identitiesById.keySet())))
+         {
+            org.hibernate.Query q = hibernateSession.createQuery(hqlString.toString())
+               .setParameterList("ids", chunk);
+
+            if (storeNames != null)
+            {
+               q.setParameterList("names", storeNames);
+            }
+
+            for (Object row : q.list())
+            {
+               Object[] values = (Object[])row;
+               HibernateIdentityObjectAttribute attribute = (HibernateIdentityObjectAttribute)values[0];
+
+               // Remap the names
+               for (IdentityObject identity : identitiesById.get((Long)values[1]))
+               {
+                  String name = resolveAttributeNameFromStoreMapping(identity.getIdentityType(), attribute.getName());
+
+                  if (name != null && (requestedNames == null || requestedNames.contains(name)))
+                  {
+                     results.get(identity).put(name, attribute);
+                  }
+               }
+            }
+         }
+      }
+      catch (HibernateException e)
+      {
+         if (log.isLoggable(Level.FINER))
+         {
+            log.log(Level.FINER, "Exception occurred: ", e);
+         }
+
+         throw new IdentityException("Cannot obtain attributes: ", e);
+      }
+
+      return results;
+   }
+
+   private <K> void addToIndex(Map<K, List<IdentityObject>> index, K key, IdentityObject identity)
+   {
+      List<IdentityObject> list = index.get(key);
+
+      if (list == null)
+      {
+         list = new LinkedList<IdentityObject>();
+         index.put(key, list);
+      }
+
+      list.add(identity);
+   }
+
+   public Map<String, IdentityObjectAttributeMetaData> getAttributesMetaData(IdentityStoreInvocationContext invocationContext,
+                                                                            IdentityObjectType identityType)
+   {
+      return attributesMetaData.get(identityType.getName());
+   }
+
+
+
+   public void updateAttributes(IdentityStoreInvocationContext ctx, IdentityObject identity, IdentityObjectAttribute[] attributes) throws IdentityException
+   {
+
+      if (attributes == null)
+      {
+         throw new IllegalArgumentException("attributes are null");
+      }
+
+      Map<String, IdentityObjectAttribute> mappedAttributes = new HashMap<String, IdentityObjectAttribute>();
+
+      Map<String, IdentityObjectAttributeMetaData> mdMap = attributesMetaData.get(identity.getIdentityType().getName());
+
+      for (IdentityObjectAttribute attribute : attributes)
+      {
+         String name = resolveAttributeStoreMapping(identity.getIdentityType(), attribute.getName());
+         mappedAttributes.put(name, attribute);
+
+
+
+         if (mdMap == null || !mdMap.containsKey(attribute.getName()))
+         {
+            if (!isAllowNotDefinedAttributes)
+            {
+               throw new IdentityException("Cannot add not defined attribute. Use '" + ALLOW_NOT_DEFINED_ATTRIBUTES +
+                  "' option if needed. Attribute name: " + attribute.getName());
+            }
+         }
+
+
+         if (mdMap != null && mdMap.containsKey(attribute.getName()))
+         {
+
+            IdentityObjectAttributeMetaData amd = mdMap.get(attribute.getName());
+
+            if (!amd.isMultivalued() && attribute.getSize() > 1)
+            {
+               throw new IdentityException("Cannot assigned multiply values to single valued attribute: " + attribute.getName());
+            }
+            if (amd.isReadonly())
+            {
+               throw new IdentityException("Cannot update readonly attribute: " + attribute.getName());
+            }
+
+            if (amd.isUnique())
+            {
+               IdentityObject checkIdentity = findIdentityObjectByUniqueAttribute(ctx,
+                  identity.getIdentityType(),
+                  attribute);
+
+               if (checkIdentity != null && !checkIdentity.getName().equals(identity.getName()))
+               {
+                  throw new IdentityException("Unique attribute '" + attribute.getName() + " value already set for identityObject: " +
+                  checkIdentity);
+               }
+            }
+
+            String type = amd.getType();
+
+            // check if all values have proper type
+
+            for (Object value : attribute.getValues())
+            {
+               if (type.equals(IdentityObjectAttributeMetaData.TEXT_TYPE) && !(value instanceof String))
+               {
+                  throw new IdentityException("Cannot update text type attribute with not String type value: "
+                     + attribute.getName() + " / " + value);
+               }
+               if (type.equals(IdentityObjectAttributeMetaData.BINARY_TYPE) && !(value instanceof byte[]))
+               {
+                  throw new IdentityException("Cannot update binary type attribute with not byte[] type value: "
+                     + attribute.getName() + " / " + value);
+               }
+            }
+            if (type.equals(IdentityObjectAttributeMetaData.BINARY_TYPE) && attribute.getValues().size() > 1)
+            {
+               throw new IdentityException("Cannot add binary type attribute with more than one value - this implementation" +
+                  "support only single value binary attributes: " + attribute.getName() );
+            }
+         }
+      }
+
+
+      HibernateIdentityObject hibernateObject = safeGet(ctx, identity);
+
+      Hibernate.initialize(hibernateObject.getAttributes());
+
+      for (String name : mappedAttributes.keySet())
+      {
          IdentityObjectAttribute attribute = mappedAttributes.get(name);
 
          IdentityObjectAttributeMetaData amd = null;
@@ -2307,30 +3354,246 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
          throw new IllegalArgumentException();
       }
 
+      checkIOInstance(identityObject);
+
+      if (!supportedFeatures.isCredentialSupported(identityObject.getIdentityType(), credential.getType()))
+      {
+         throw new IdentityException("CredentialType not supported for a given IdentityObjectType");
+      }
+
+      // Handle generic impl
+
+      Object value = null;
+
+      if (credential.getEncodedValue() != null)
+      {
+         value = credential.getEncodedValue();
+      }
+      else
+      {
+         //TODO: support for empty password should be configurable
+         value = credential.getValue();
+      }
+
+      String cacheKey = null;
+      byte[] digest = null;
+
+      if (verifiedCredentialCacheTimeout > 0 && value != null)
+      {
+         cacheKey = getVerifiedCredentialKey(ctx, identityObject, credential.getType().getName());
+         digest = digestCredentialValue(value);
+
+         VerifiedCredential verified = verifiedCredentials.get(cacheKey);
+
+         if (verified != null && verified.expires > System.currentTimeMillis() &&
+            MessageDigest.isEqual(verified.digest, digest))
+         {
+            return true;
+         }
+      }
+
+      HibernateIdentityObjectCredentialType hibernateCredentialType =
+         getHibernateIdentityObjectCredentialType(ctx, credential.getType());
+
+      if (hibernateCredentialType == null)
+      {
+         return false;
+      }
+
+      Object[] storedValue = findStoredCredentialValue(ctx, identityObject, hibernateCredentialType);
+
+      if (storedValue == null)
+      {
+         return false;
+      }
+
+      boolean valid;
+
+      if (value instanceof String && storedValue[0] != null)
+      {
+         valid = value.toString().equals(storedValue[0]);
+      }
+      else if (value instanceof byte[] && storedValue[1] != null)
+      {
+         valid = Arrays.equals((byte[])value, (byte[])storedValue[1]);
+      }
+      else
+      {
+         throw new IdentityException("Not supported credential value: " + value.getClass());
+      }
+
+      if (valid && cacheKey != null)
+      {
+         if (verifiedCredentials.size() >= MAX_VERIFIED_CREDENTIALS)
+         {
+            purgeVerifiedCredentials();
+         }
+
+         verifiedCredentials.put(cacheKey,
+            new VerifiedCredential(digest, System.currentTimeMillis() + verifiedCredentialCacheTimeout));
+      }
+
+      return valid;
+   }
+
+   /**
+    * Read text and binary value of the stored credential. Identity object is matched by realm, type and exact
+    * name in the same query so the unique keys of jbid_io and jbid_io_creden can be used. Entity is loaded only
+    * when this finds nothing, as name is matched ignoring case elsewhere in the store.
+    *
+    * @return [text value, binary value] or null if credential is not present
+    */
+   private Object[] findStoredCredentialValue(IdentityStoreInvocationContext ctx,
+                                              IdentityObject identityObject,
+                                              HibernateIdentityObjectCredentialType credentialType) throws IdentityException
+   {
+      Session hibernateSession = getHibernateSession(ctx);
+
+      try
+      {
+         List rows = null;
+
+         if (!(identityObject instanceof HibernateIdentityObject))
+         {
+            rows = hibernateSession.createQuery("select c.textValue, b.value from HibernateIdentityObjectCredential c " +
+               "join c.identityObject io left join c.binaryValue b " +
+               "where io.realm = :realm and io.identityType = :type and io.name = :name and c.type = :credentialType")
+               .setFlushMode(FlushMode.MANUAL)
+               .setParameter("realm", getRealm(hibernateSession, ctx))
+               .setParameter("type", getHibernateIdentityObjectType(ctx, identityObject.getIdentityType()))
+               .setParameter("name", identityObject.getName())
+               .setParameter("credentialType", credentialType)
+               .setCacheable(true)
+               .list();
+         }
+
+         if (rows == null || rows.isEmpty())
+         {
+            HibernateIdentityObject hibernateObject = safeGet(ctx, identityObject);
+
+            if (hibernateObject == null)
+            {
+               throw new IdentityException("IdentityObject not present in the store: " + identityObject);
+            }
+
+            rows = hibernateSession.createQuery("select c.textValue, b.value from HibernateIdentityObjectCredential c " +
+               "left join c.binaryValue b where c.identityObject = :identity and c.type = :credentialType")
+               .setFlushMode(FlushMode.MANUAL)
+               .setParameter("identity", hibernateObject)
+               .setParameter("credentialType", credentialType)
+               .setCacheable(true)
+               .list();
+         }
+
+         return rows.isEmpty() ? null : (Object[])rows.get(0);
+      }
+      catch (HibernateException e)
+      {
+         if (log.isLoggable(Level.FINER))
+         {
+            log.log(Level.FINER, "Exception occurred: ", e);
+         }
+
+         throw new IdentityException("Cannot read credential of IdentityObject: " + identityObject, e);
+      }
+   }
+
+   private String getVerifiedCredentialKey(IdentityStoreInvocationContext ctx,
+                                           IdentityObject identityObject,
+                                           String credentialType)
+   {
+      // Names are matched ignoring case
+      return getRealmName(ctx) + ":" + identityObject.getIdentityType().getName() + ":" +
+         identityObject.getName().toLowerCase() + ":" + credentialType;
+   }
+
+   private byte[] digestCredentialValue(Object value) throws IdentityException
+   {
+      try
+      {
+         MessageDigest md = MessageDigest.getInstance("SHA-256");
+         md.update(verifiedCredentialSalt);
+
+         if (value instanceof byte[])
+         {
+            md.update((byte)1);
+            md.update((byte[])value);
+         }
+         else
+         {
+            md.update((byte)0);
+            md.update(value.toString().getBytes("UTF-8"));
+         }
+
+         return md.digest();
+      }
+      catch (NoSuchAlgorithmException e)
+      {
+         throw new IdentityException("Cannot digest credential value", e);
+      }
+      catch (UnsupportedEncodingException e)
+      {
+         throw new IdentityException("Cannot digest credential value", e);
+      }
+   }
+
+   private void purgeVerifiedCredentials()
+   {
+      long now = System.currentTimeMillis();
+
+      for (Iterator<VerifiedCredential> iterator = verifiedCredentials.values().iterator(); iterator.hasNext();)
+      {
+         if (iterator.next().expires <= now)
+         {
+            iterator.remove();
+         }
+      }
+
+      if (verifiedCredentials.size() >= MAX_VERIFIED_CREDENTIALS)
+      {
+         verifiedCredentials.clear();
+      }
+   }
+
+
+   public void updateCredential(IdentityStoreInvocationContext ctx, IdentityObject identityObject, IdentityObjectCredential credential) throws IdentityException
+   {
+
+      if (credential == null)
+      {
+         throw new IllegalArgumentException();
+      }
+
       HibernateIdentityObject hibernateObject = safeGet(ctx, identityObject);
 
+      Session hibernateSession = getHibernateSession(ctx);
+
+      verifiedCredentials.remove(getVerifiedCredentialKey(ctx, identityObject, credential.getType().getName()));
+
       if (supportedFeatures.isCredentialSupported(hibernateObject.getIdentityType(),credential.getType()))
       {
 
-         HibernateIdentityObjectCredential hibernateCredential = null;
+         HibernateIdentityObjectCredentialType hibernateCredentialType = getHibernateIdentityObjectCredentialType(ctx, credential.getType());
 
-         hibernateCredential = (HibernateIdentityObjectCredential)getHibernateSession(ctx)
-            .createCriteria(HibernateIdentityObjectCredential.class)
-            .createAlias("type", "t")
-            .add(Restrictions.eq("t.name", credential.getType().getName()))
-            .add(Restrictions.eq("identityObject", hibernateObject))
-            .setCacheable(true)
-            .uniqueResult();
+         if (hibernateCredentialType == null)
+         {
+            throw new IllegalStateException("Credential type not present in this store: " + credential.getType().getName());
+         }
+
+         HibernateIdentityObjectCredential hibernateCredential = hibernateObject.getCredential(credential.getType());
 
          if (hibernateCredential == null)
          {
-            return false;
+            hibernateCredential = new HibernateIdentityObjectCredential();
+            hibernateCredential.setType(hibernateCredentialType);
+            hibernateObject.addCredential(hibernateCredential);
          }
 
-         // Handle generic impl
 
          Object value = null;
 
+         // Handle generic impl
+
          if (credential.getEncodedValue() != null)
          {
             value = credential.getEncodedValue();
@@ -2341,18 +3604,27 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
             value = credential.getValue();
          }
 
-         if (value instanceof String && hibernateCredential.getTextValue() != null)
+         if (value instanceof String)
          {
-            return value.toString().equals(hibernateCredential.getTextValue());
+            hibernateCredential.setTextValue(value.toString());
          }
-         else if (value instanceof byte[] && hibernateCredential.getBinaryValue() != null)
+         else if (value instanceof byte[])
          {
-            return Arrays.equals((byte[])value, hibernateCredential.getBinaryValue().getValue());
+            HibernateIdentityObjectCredentialBinaryValue bv = new HibernateIdentityObjectCredentialBinaryValue((byte[])value);
+            getHibernateSession(ctx).persist(bv);
+            hibernateCredential.setBinaryValue(bv);
          }
          else
          {
             throw new IdentityException("Not supported credential value: " + value.getClass());
          }
+
+         hibernateSession.persist(hibernateCredential);
+
+         hibernateObject.addCredential(hibernateCredential);
+
+         hibernateSession.flush();
+
       }
       else
       {
@@ -2361,89 +3633,439 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
    }
 
 
-   public void updateCredential(IdentityStoreInvocationContext ctx, IdentityObject identityObject, IdentityObjectCredential credential) throws IdentityException
+
+
+
+
+   // Bulk operations
+
+   /**
+    * Objects are written in chunks of batchSize. For each chunk names already present in the store are resolved
+    * with a single query per identity object type. After the chunk is flushed only the entities created by the import
+    * are evicted from the session so memory usage doesn't grow with the size of the import and entities loaded by the
+    * caller stay attached. To get the inserts batched on JDBC level configure 'hibernate.jdbc.batch_size' with a value
+    * matching batchSize. Parents must be present in the store or be imported in the same or an earlier chunk.
+    */
+   public int importIdentityObjects(IdentityStoreInvocationContext ctx,
+                                    Iterator<IdentityObjectImport> objects,
+                                    int batchSize,
+                                    IdentityObjectImportListener listener) throws IdentityException
    {
+      if (objects == null)
+      {
+         throw new IllegalArgumentException("objects are null");
+      }
+      if (batchSize <= 0)
+      {
+         throw new IllegalArgumentException("Batch size must be greater than 0: " + batchSize);
+      }
 
-      if (credential == null)
+      Session session = getHibernateSession(ctx);
+
+      int processed = 0;
+      int imported = 0;
+
+      List<IdentityObjectImport> chunk = new LinkedList<IdentityObjectImport>();
+      List<Object> created = new LinkedList<Object>();
+
+      while (objects.hasNext())
       {
-         throw new IllegalArgumentException();
+         chunk.clear();
+         created.clear();
+
+         while (objects.hasNext() && chunk.size() < batchSize)
+         {
+            IdentityObjectImport entry = objects.next();
+
+            if (entry.getName() == null)
+            {
+               throw new IllegalArgumentException("IdentityObject name is null");
+            }
+            checkIOType(entry.getIdentityType());
+
+            chunk.add(entry);
+         }
+
+         try
+         {
+            imported += importChunk(ctx, session, chunk, created);
+
+            session.flush();
+
+            for (Object entity : created)
+            {
+               session.evict(entity);
+            }
+         }
+         catch (HibernateException e)
+         {
+            if (log.isLoggable(Level.FINER))
+            {
+               log.log(Level.FINER, "Exception occurred: ", e);
+            }
+
+            throw new IdentityException("Cannot import identity objects: ", e);
+         }
+
+         processed += chunk.size();
+
+         if (listener != null)
+         {
+            listener.importProgress(processed, imported);
+         }
       }
 
-      HibernateIdentityObject hibernateObject = safeGet(ctx, identityObject);
+      return imported;
+   }
 
-      Session hibernateSession = getHibernateSession(ctx);
+   private int importChunk(IdentityStoreInvocationContext ctx,
+                           Session session,
+                           List<IdentityObjectImport> chunk,
+                           List<Object> created) throws IdentityException
+   {
+      HibernateRealm realm = getRealm(session, ctx);
 
-      if (supportedFeatures.isCredentialSupported(hibernateObject.getIdentityType(),credential.getType()))
+      // Names are compared case insensitive same as in createIdentityObject
+
+      Map<String, Set<String>> namesByType = new HashMap<String, Set<String>>();
+
+      for (IdentityObjectImport entry : chunk)
       {
+         addToGroup(namesByType, entry.getIdentityType().getName(), entry.getName().toLowerCase());
+      }
 
-         HibernateIdentityObjectCredentialType hibernateCredentialType = getHibernateIdentityObjectCredentialType(ctx, credential.getType());
+      Set<String> present = new HashSet<String>();
+
+      for (Map.Entry<String, Set<String>> group : namesByType.entrySet())
+      {
+         List names = session.createQuery("select lower(io.name) from HibernateIdentityObject io " +
+            "where io.realm = :realm and io.identityType = :type and lower(io.name) in (:names)")
+            .setParameter("realm", realm)
+            .setParameter("type", getHibernateIdentityObjectType(ctx, new SimpleIdentityObjectType(group.getKey())))
+            .setParameterList("names", group.getValue())
+            .list();
+
+         for (Object name : names)
+         {
+            present.add(group.getKey() + "/" + name);
+         }
+      }
+
+      List<IdentityObjectImport> toImport = new LinkedList<IdentityObjectImport>();
+
+      for (IdentityObjectImport entry : chunk)
+      {
+         // Also skips duplicates inside of the chunk
+         if (present.add(entry.getIdentityType().getName() + "/" + entry.getName().toLowerCase()))
+         {
+            toImport.add(entry);
+         }
+      }
+
+      checkImportedAttributes(ctx, session, realm, toImport);
+
+      // Objects of the chunk are created first so they can be parents of other objects from the same chunk
+
+      Map<String, HibernateIdentityObject> objects = new HashMap<String, HibernateIdentityObject>();
+
+      for (IdentityObjectImport entry : toImport)
+      {
+         IdentityObjectType type = entry.getIdentityType();
+
+         HibernateIdentityObject io = new HibernateIdentityObject(entry.getName(),
+            getHibernateIdentityObjectType(ctx, type), realm);
+
+         if (entry.getAttributes() != null)
+         {
+            for (Map.Entry<String, String[]> attribute : entry.getAttributes().entrySet())
+            {
+               io.addTextAttribute(resolveAttributeStoreMapping(type, attribute.getKey()), attribute.getValue());
+            }
+         }
+
+         session.persist(io);
+         created.add(io);
+
+         if (entry.getCredentials() != null)
+         {
+            for (IdentityObjectCredential credential : entry.getCredentials())
+            {
+               HibernateIdentityObjectCredential hibernateCredential =
+                  createImportedCredential(ctx, session, io, credential, created);
+               session.persist(hibernateCredential);
+               created.add(hibernateCredential);
+            }
+         }
+
+         objects.put(type.getName() + "/" + entry.getName().toLowerCase(), io);
+      }
+
+      Map<String, Set<String>> parentNamesByType = new HashMap<String, Set<String>>();
+
+      for (IdentityObjectImport entry : toImport)
+      {
+         if (entry.getParents() != null)
+         {
+            for (IdentityObject parent : entry.getParents())
+            {
+               String key = parent.getIdentityType().getName() + "/" + parent.getName().toLowerCase();
+
+               if (!objects.containsKey(key))
+               {
+                  addToGroup(parentNamesByType, parent.getIdentityType().getName(), parent.getName().toLowerCase());
+               }
+            }
+         }
+      }
+
+      Map<String, HibernateIdentityObject> parents = new HashMap<String, HibernateIdentityObject>(objects);
+
+      for (Map.Entry<String, Set<String>> group : parentNamesByType.entrySet())
+      {
+         Query query = session.createQuery("select io from HibernateIdentityObject io " +
+            "where io.realm = :realm and io.identityType = :type and lower(io.name) in (:names)");
+
+         List results = query
+            .setParameter("realm", realm)
+            .setParameter("type", getHibernateIdentityObjectType(ctx, new SimpleIdentityObjectType(group.getKey())))
+            .setParameterList("names", group.getValue())
+            .list();
+
+         for (Object result : results)
+         {
+            HibernateIdentityObject parent = (HibernateIdentityObject)result;
+            parents.put(group.getKey() + "/" + parent.getName().toLowerCase(), parent);
+         }
+      }
+
+      for (IdentityObjectImport entry : toImport)
+      {
+         if (entry.getParents() == null)
+         {
+            continue;
+         }
+
+         HibernateIdentityObject io = objects.get(entry.getIdentityType().getName() + "/" + entry.getName().toLowerCase());
+
+         HibernateIdentityObjectRelationshipType relationshipType =
+            getHibernateIdentityObjectRelationshipType(ctx, entry.getRelationshipType());
+
+         for (IdentityObject parent : entry.getParents())
+         {
+            HibernateIdentityObject parentIO =
+               parents.get(parent.getIdentityType().getName() + "/" + parent.getName().toLowerCase());
+
+            if (parentIO == null)
+            {
+               throw new IdentityException("Parent identity object not present in the store: " + parent);
+            }
+
+            if (!getSupportedFeatures().isRelationshipTypeSupported(parentIO.getIdentityType(), io.getIdentityType(),
+               entry.getRelationshipType()) && !isAllowNotDefinedIdentityObjectTypes())
+            {
+               throw new IdentityException("Relationship not supported. RelationshipType[ " +
+                  entry.getRelationshipType().getName() + " ] beetween: [ " + parentIO.getIdentityType().getName() +
+                  " ] and [ " + io.getIdentityType().getName() + " ]");
+            }
+
+            // Setters used instead of the constructor to not load parent relationships collection
+            HibernateIdentityObjectRelationship relationship = new HibernateIdentityObjectRelationship();
+            relationship.setType(relationshipType);
+            relationship.setFromIdentityObject(parentIO);
+            relationship.setToIdentityObject(io);
+
+            session.persist(relationship);
+            created.add(relationship);
+
+            if (isRelationshipClosureMaintained(relationshipType))
+            {
+               updateRelationshipClosure(session, parentIO, io, relationshipType, true, created);
+            }
+         }
+      }
+
+      return toImport.size();
+   }
+
+   /**
+    * Validates attributes of imported objects against the metadata. Values of unique attributes are checked with
+    * a single query per identity object type and attribute name.
+    */
+   private void checkImportedAttributes(IdentityStoreInvocationContext ctx,
+                                        Session session,
+                                        HibernateRealm realm,
+                                        List<IdentityObjectImport> entries) throws IdentityException
+   {
+      Map<String, Set<String>> uniqueValues = new HashMap<String, Set<String>>();
 
-         if (hibernateCredentialType == null)
+      for (IdentityObjectImport entry : entries)
+      {
+         if (entry.getAttributes() == null)
          {
-            throw new IllegalStateException("Credential type not present in this store: " + credential.getType().getName());
+            continue;
          }
 
-         HibernateIdentityObjectCredential hibernateCredential = hibernateObject.getCredential(credential.getType());
+         IdentityObjectType type = entry.getIdentityType();
 
-         if (hibernateCredential == null)
+         for (Map.Entry<String, String[]> attribute : entry.getAttributes().entrySet())
          {
-            hibernateCredential = new HibernateIdentityObjectCredential();
-            hibernateCredential.setType(hibernateCredentialType);
-            hibernateObject.addCredential(hibernateCredential);
-         }
+            String name = attribute.getKey();
+            String[] values = attribute.getValue();
 
+            if (!checkImportedAttribute(type, name, values))
+            {
+               continue;
+            }
 
-         Object value = null;
+            Set<String> group = uniqueValues.get(type.getName() + "/" + name);
 
-         // Handle generic impl
+            if (group == null)
+            {
+               group = new HashSet<String>();
+               uniqueValues.put(type.getName() + "/" + name, group);
+            }
 
-         if (credential.getEncodedValue() != null)
-         {
-            value = credential.getEncodedValue();
-         }
-         else
-         {
-            //TODO: support for empty password should be configurable
-            value = credential.getValue();
+            for (String value : values)
+            {
+               // Duplicates inside of the import
+               if (!group.add(value))
+               {
+                  throw new IdentityException("Unique attribute '" + name + " value already set: " + value);
+               }
+            }
          }
+      }
 
-         if (value instanceof String)
+      for (Map.Entry<String, Set<String>> group : uniqueValues.entrySet())
+      {
+         if (group.getValue().isEmpty())
          {
-            hibernateCredential.setTextValue(value.toString());
+            continue;
          }
-         else if (value instanceof byte[])
+
+         String key = group.getKey();
+         IdentityObjectType type = new SimpleIdentityObjectType(key.substring(0, key.indexOf('/')));
+         String name = key.substring(key.indexOf('/') + 1);
+
+         Query query = session.createQuery("select v from HibernateIdentityObjectAttribute a join a.textValues v " +
+            "where a.identityObject.identityType = :identityType and a.name = :attributeName " +
+            "and a.identityObject.realm = :realm and v in (:values)");
+
+         List values = query
+            .setParameter("identityType", getHibernateIdentityObjectType(ctx, type))
+            .setParameter("attributeName", resolveAttributeStoreMapping(type, name))
+            .setParameter("realm", realm)
+            .setParameterList("values", group.getValue())
+            .setMaxResults(1)
+            .list();
+
+         if (!values.isEmpty())
          {
-            HibernateIdentityObjectCredentialBinaryValue bv = new HibernateIdentityObjectCredentialBinaryValue((byte[])value);
-            getHibernateSession(ctx).persist(bv);
-            hibernateCredential.setBinaryValue(bv);
+            throw new IdentityException("Unique attribute '" + name + " value already set: " + values.get(0));
          }
-         else
+      }
+   }
+
+   /**
+    * @return true if the attribute is unique
+    */
+   private boolean checkImportedAttribute(IdentityObjectType type, String name, String[] values) throws IdentityException
+   {
+      Map<String, IdentityObjectAttributeMetaData> mdMap = attributesMetaData.get(type.getName());
+
+      IdentityObjectAttributeMetaData amd = mdMap != null ? mdMap.get(name) : null;
+
+      if (amd == null)
+      {
+         if (!isAllowNotDefinedAttributes)
          {
-            throw new IdentityException("Not supported credential value: " + value.getClass());
+            throw new IdentityException("Cannot add not defined attribute. Use '" + ALLOW_NOT_DEFINED_ATTRIBUTES +
+               "' option if needed. Attribute name: " + name);
          }
+         return false;
+      }
 
-         hibernateSession.persist(hibernateCredential);
+      if (!amd.isMultivalued() && values.length > 1)
+      {
+         throw new IdentityException("Cannot add multiply values to single valued attribute: " + name);
+      }
+      if (amd.isReadonly())
+      {
+         throw new IdentityException("Cannot add readonly attribute: " + name);
+      }
+      if (!amd.getType().equals(IdentityObjectAttributeMetaData.TEXT_TYPE))
+      {
+         throw new IdentityException("Only text attributes can be imported: " + name);
+      }
 
-         hibernateObject.addCredential(hibernateCredential);
+      return amd.isUnique();
+   }
 
-         hibernateSession.flush();
+   private HibernateIdentityObjectCredential createImportedCredential(IdentityStoreInvocationContext ctx,
+                                                                      Session session,
+                                                                      HibernateIdentityObject io,
+                                                                      IdentityObjectCredential credential,
+                                                                      List<Object> created) throws IdentityException
+   {
+      if (!supportedFeatures.isCredentialSupported(io.getIdentityType(), credential.getType()))
+      {
+         throw new IdentityException("CredentialType not supported for a given IdentityObjectType");
+      }
+
+      HibernateIdentityObjectCredentialType hibernateCredentialType =
+         getHibernateIdentityObjectCredentialType(ctx, credential.getType());
+
+      if (hibernateCredentialType == null)
+      {
+         throw new IllegalStateException("Credential type not present in this store: " + credential.getType().getName());
+      }
 
+      HibernateIdentityObjectCredential hibernateCredential = new HibernateIdentityObjectCredential();
+      hibernateCredential.setType(hibernateCredentialType);
+
+      Object value = credential.getEncodedValue() != null ? credential.getEncodedValue() : credential.getValue();
+
+      if (value instanceof String)
+      {
+         hibernateCredential.setTextValue(value.toString());
+      }
+      else if (value instanceof byte[])
+      {
+         HibernateIdentityObjectCredentialBinaryValue bv = new HibernateIdentityObjectCredentialBinaryValue((byte[])value);
+         session.persist(bv);
+         created.add(bv);
+         hibernateCredential.setBinaryValue(bv);
       }
       else
       {
-         throw new IdentityException("CredentialType not supported for a given IdentityObjectType");
+         throw new IdentityException("Not supported credential value: " + value.getClass());
       }
-   }
 
+      io.addCredential(hibernateCredential);
+
+      return hibernateCredential;
+   }
 
+   private static void addToGroup(Map<String, Set<String>> groups, String key, String value)
+   {
+      Set<String> group = groups.get(key);
 
+      if (group == null)
+      {
+         group = new HashSet<String>();
+         groups.put(key, group);
+      }
 
+      group.add(value);
+   }
 
 
    // Internal
 
    public void addIdentityObjectType(IdentityStoreInvocationContext ctx, IdentityObjectType type) throws IdentityException
    {
+      identityObjectTypeIds.remove(type.getName());
+
       HibernateIdentityObjectType hibernateType = new HibernateIdentityObjectType(type);
       getHibernateSession(ctx).persist(hibernateType);
       getHibernateSession(ctx).flush();
@@ -2453,6 +4075,8 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
 
    public void addIdentityObjectRelationshipType(IdentityStoreInvocationContext ctx, IdentityObjectRelationshipType type) throws IdentityException
    {
+      relationshipTypeIds.remove(type.getName());
+
       HibernateIdentityObjectRelationshipType hibernateType = new HibernateIdentityObjectRelationshipType(type);
       getHibernateSession(ctx).persist(hibernateType);
       getHibernateSession(ctx).flush();
@@ -2495,6 +4119,18 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
          return (HibernateIdentityObject)io;
       }
 
+      // Entity for search result is loaded on demand by primary key
+      if (io instanceof HibernateIdentityObjectProjection)
+      {
+         HibernateIdentityObject hibernateObject = (HibernateIdentityObject)getHibernateSession(ctx)
+            .get(HibernateIdentityObject.class, ((HibernateIdentityObjectProjection)io).getEntityId());
+
+         if (hibernateObject != null)
+         {
+            return hibernateObject;
+         }
+      }
+
       return getHibernateIdentityObject(ctx, io);
 
    }
@@ -2522,10 +4158,16 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
 
       checkIOType(type);
 
-      HibernateIdentityObjectType hibernateType = null;
-
       Session hibernateSession = getHibernateSession(ctx);
 
+      HibernateIdentityObjectType hibernateType =
+         getCachedReference(hibernateSession, HibernateIdentityObjectType.class, identityObjectTypeIds, type.getName());
+
+      if (hibernateType != null)
+      {
+         return hibernateType;
+      }
+
       try
       {
 
@@ -2562,7 +4204,9 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
       {
          throw new IdentityException("IdentityObjectType[" + type.getName() + "] not present in the store.");
       }
-                                                             
+
+      identityObjectTypeIds.put(type.getName(), hibernateType.getId());
+
       return hibernateType;
    }
 
@@ -2578,10 +4222,8 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
 
          hibernateObject = (HibernateIdentityObject)hibernateSession.createCriteria(HibernateIdentityObject.class)
             .add(Restrictions.eq("name", io.getName()).ignoreCase())
-            .createAlias("identityType", "type")
-            .add(Restrictions.eq("type.name", io.getIdentityType().getName()))
-            .createAlias("realm", "rm")
-            .add(Restrictions.eq("rm.name", getRealmName(ctx)))
+            .add(Restrictions.eq("identityType", getHibernateIdentityObjectType(ctx, io.getIdentityType())))
+            .add(Restrictions.eq("realm", getRealm(hibernateSession, ctx)))
             .setCacheable(true)
             .uniqueResult();
 
@@ -2602,10 +4244,16 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
    private HibernateIdentityObjectRelationshipType getHibernateIdentityObjectRelationshipType(IdentityStoreInvocationContext ctx, IdentityObjectRelationshipType iot) throws IdentityException
    {
 
-      HibernateIdentityObjectRelationshipType relationshipType = null;
-
       Session hibernateSession = getHibernateSession(ctx);
 
+      HibernateIdentityObjectRelationshipType relationshipType =
+         getCachedReference(hibernateSession, HibernateIdentityObjectRelationshipType.class, relationshipTypeIds, iot.getName());
+
+      if (relationshipType != null)
+      {
+         return relationshipType;
+      }
+
       try
       {
 
@@ -2625,6 +4273,11 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
          throw new IdentityException("IdentityObjectRelationshipType[ " + iot.getName() + "] not present in the store.");
       }
 
+      if (relationshipType != null)
+      {
+         relationshipTypeIds.put(iot.getName(), relationshipType.getId());
+      }
+
       return relationshipType;
    }
 
@@ -2632,7 +4285,13 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
    {
       Session session = getHibernateSession(ctx);
 
-      HibernateIdentityObjectCredentialType hibernateType = null;
+      HibernateIdentityObjectCredentialType hibernateType =
+         getCachedReference(session, HibernateIdentityObjectCredentialType.class, credentialTypeIds, credentialType.getName());
+
+      if (hibernateType != null)
+      {
+         return hibernateType;
+      }
 
       try
       {
@@ -2652,6 +4311,11 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
          throw new IdentityException("IdentityObjectCredentialType[ " + credentialType.getName() + "] not present in the store.");
       }
 
+      if (hibernateType != null)
+      {
+         credentialTypeIds.put(credentialType.getName(), hibernateType.getId());
+      }
+
       return hibernateType;
 
    }
@@ -2663,6 +4327,7 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
 
       for (String typeName : typeNames)
       {
+         identityObjectTypeIds.remove(typeName);
 
          //Check if present
 
@@ -2684,6 +4349,8 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
 
       for (String typeName : typeNames)
       {
+         relationshipTypeIds.remove(typeName);
+
          HibernateIdentityObjectRelationshipType hibernateType = (HibernateIdentityObjectRelationshipType)hibernateSession.
             createCriteria(HibernateIdentityObjectRelationshipType.class).add(Restrictions.eq("name", typeName)).uniqueResult();
 
@@ -2703,6 +4370,8 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
 
       for (String typeName : typeNames)
       {
+         credentialTypeIds.remove(typeName);
+
          HibernateIdentityObjectCredentialType hibernateType = (HibernateIdentityObjectCredentialType)hibernateSession.
             createCriteria(HibernateIdentityObjectCredentialType.class)
             .add(Restrictions.eq("name", typeName))
@@ -2722,6 +4391,7 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
 
    public void addRealm(Session hibernateSession, String realmName) throws IdentityException
    {
+      realmIds.remove(realmName);
 
       try
       {
@@ -2750,7 +4420,12 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
          throw new IllegalStateException("Realm Id not present");
       }
 
-      HibernateRealm realm = null;
+      HibernateRealm realm = getCachedReference(hibernateSession, HibernateRealm.class, realmIds, getRealmName(ctx));
+
+      if (realm != null)
+      {
+         return realm;
+      }
 
       // If store is not realm aware return null to create/get objects accessible from other realms 
       if (!isRealmAware())
@@ -2784,10 +4459,33 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
          }
       }
 
-      
+      realmIds.put(realm.getName(), realm.getId());
 
       return realm;
    }
+
+   /**
+    * Obtain reference entity using cached id. If the row is gone (for example transaction which created it was
+    * rolled back) cached id is dropped and null returned so it is resolved by name again.
+    */
+   private <T> T getCachedReference(Session hibernateSession, Class<T> entityClass, Map<String, Long> ids, String name)
+   {
+      Long id = ids.get(name);
+
+      if (id == null)
+      {
+         return null;
+      }
+
+      T entity = entityClass.cast(hibernateSession.get(entityClass, id));
+
+      if (entity == null)
+      {
+         ids.remove(name);
+      }
+
+      return entity;
+   }
    
    private String getRealmName(IdentityStoreInvocationContext ctx)
    {
@@ -2819,12 +4517,17 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
     * @return
     */
    private String resolveAttributeStoreMapping(IdentityObjectType type, String name) throws IdentityException
+   {
+      return resolveAttributeStoreMapping(type.getName(), name);
+   }
+
+   private String resolveAttributeStoreMapping(String typeName, String name) throws IdentityException
    {
       String mapping = null;
 
-      if (attributesMetaData.containsKey(type.getName()))
+      if (attributesMetaData.containsKey(typeName))
       {
-         IdentityObjectAttributeMetaData amd = attributesMetaData.get(type.getName()).get(name);
+         IdentityObjectAttributeMetaData amd = attributesMetaData.get(typeName).get(name);
 
          if (amd != null)
          {
@@ -2862,104 +4565,261 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
       return null;
    }
 
-   //TODO: this kills performance and is present here only as "quick" hack to have the feature present and let to add test cases
-   //TODO: needs to be redone at the hibernate query level
-   private void filterByAttributesValues(Collection<IdentityObject> objects, Map<String, String[]> attrs)
+   /**
+    * Appends HQL joins of the text values of the attribute used to sort results. Joined values are available
+    * with the "sv" alias.
+    *
+    * @param hqlString query to append joins to
+    * @param ioAlias HQL path of sorted identity object
+    * @param typeNames possible types of sorted identity object
+    * @param otherTypes if true objects of types not present in typeNames are sorted using not mapped attribute
+    * name when store allows not defined attributes
+    * @param name attribute name
+    * @param parameters query parameters to set
+    * @return false if attribute is not mapped for any type and results cannot be sorted by the database
+    */
+   private boolean appendSortAttributeJoin(StringBuilder hqlString,
+                                           String ioAlias,
+                                           Collection<String> typeNames,
+                                           boolean otherTypes,
+                                           String name,
+                                           Map<String, Object> parameters)
+   {
+      Set<String> mappings = new HashSet<String>();
+
+      for (String typeName : typeNames)
+      {
+         try
+         {
+            mappings.add(resolveAttributeStoreMapping(typeName, name));
+         }
+         catch (IdentityException e)
+         {
+            //Nothing
+         }
+      }
+
+      if (otherTypes && isAllowNotDefinedAttributes())
+      {
+         mappings.add(name);
+      }
+
+      if (mappings.isEmpty())
+      {
+         return false;
+      }
+
+      StringBuilder nameCondition = new StringBuilder();
+
+      int index = 0;
+
+      for (String mapping : mappings)
+      {
+         if (nameCondition.length() > 0)
+         {
+            nameCondition.append(" or ");
+         }
+         nameCondition.append("sa.name = :sortAttrName").append(index);
+         parameters.put("sortAttrName" + index++, mapping);
+      }
+
+      hqlString.append(" left join ").append(ioAlias).append(".attributes sa with (").append(nameCondition)
+         .append(") left join sa.textValues sv");
+
+      return true;
+   }
+
+   /**
+    * Appends HQL grouping and ordering by the lowest value of the attribute joined with appendSortAttributeJoin.
+    * Objects without the attribute are ordered as if the value was empty. Objects with the same value are ordered
+    * by name.
+    */
+   private void appendSortAttributeOrder(StringBuilder hqlString, String groupBy, boolean ascending)
+   {
+      String order = ascending ? " asc" : " desc";
+
+      hqlString.append(" group by ").append(groupBy)
+         .append(" order by coalesce(min(sv), '')").append(order)
+         .append(", io.name").append(order);
+   }
+
+   /**
+    * Appends HQL conditions requiring identity object to have all given attribute values. Values are compared
+    * case insensitive and can contain '*' and '?' wildcards. Attribute name is resolved using store mapping
+    * of the identity object type.
+    *
+    * @param hqlString query to append conditions to
+    * @param ioAlias HQL path of filtered identity object
+    * @param typeNames possible types of filtered identity object
+    * @param otherTypes if true objects of types not present in typeNames are matched using not mapped attribute
+    * names when store allows not defined attributes
+    * @param attrs attribute names and values
+    * @param parameters query parameters to set
+    * @return false if none of the objects can match as attribute is not mapped for any type
+    */
+   private boolean appendAttributeFilters(StringBuilder hqlString,
+                                          String ioAlias,
+                                          Collection<String> typeNames,
+                                          boolean otherTypes,
+                                          Map<String, String[]> attrs,
+                                          Map<String, Object> parameters)
    {
-      Set<IdentityObject> toRemove = new HashSet<IdentityObject>();
+      int attrIndex = 0;
 
-      for (IdentityObject object : objects)
+      for (Map.Entry<String, String[]> entry : attrs.entrySet())
       {
-         Map<String, Collection> presentAttrs = ((HibernateIdentityObject)object).getAttributesAsMap();
-         for (Map.Entry<String, String[]> entry : attrs.entrySet())
+         // Store attribute name for each type
+         Map<String, String> mappings = new HashMap<String, String>();
+
+         for (String typeName : typeNames)
          {
-            // Resolve attribute name from the store attribute mapping
-            String mappedAttributeName = null;
             try
             {
-               mappedAttributeName = resolveAttributeStoreMapping(object.getIdentityType(), entry.getKey());
+               mappings.put(typeName, resolveAttributeStoreMapping(typeName, entry.getKey()));
             }
             catch (IdentityException e)
             {
                //Nothing
             }
+         }
 
-            if (mappedAttributeName == null)
-            {
-               toRemove.add(object);
-               break;
-            }
+         boolean matchOtherTypes = otherTypes && isAllowNotDefinedAttributes();
 
-            if (presentAttrs.containsKey(mappedAttributeName))
-            {
-               Set<String> given = new HashSet<String>(Arrays.asList(entry.getValue()));
+         if (mappings.isEmpty() && !matchOtherTypes)
+         {
+            return false;
+         }
 
-               Collection present = presentAttrs.get(mappedAttributeName);
+         StringBuilder nameCondition = new StringBuilder();
 
-               for (String s : given)
-               {
-                  String regex = Tools.wildcardToRegex(s.toLowerCase());
+         if (!matchOtherTypes && typeNames.size() == 1)
+         {
+            nameCondition.append("a.name = :attrName").append(attrIndex);
+            parameters.put("attrName" + attrIndex, mappings.values().iterator().next());
+         }
+         else
+         {
+            int typeIndex = 0;
 
-                  boolean matches = false;
+            nameCondition.append("(");
 
-                  for (Object o : present)
-                  {
-                     if (o.toString().toLowerCase().matches(regex))
-                     {
-                        matches = true;
-                     }
-                  }
-                  
-                  if (!matches)
-                  {
-                     toRemove.add(object);
-                     break;
-                  }
+            for (Map.Entry<String, String> mapping : mappings.entrySet())
+            {
+               String suffix = attrIndex + "_" + typeIndex++;
+
+               if (nameCondition.length() > 1)
+               {
+                  nameCondition.append(" or ");
                }
+               nameCondition.append("(").append(ioAlias).append(".identityType.name = :attrType").append(suffix)
+                  .append(" and a.name = :attrName").append(suffix).append(")");
 
+               parameters.put("attrType" + suffix, mapping.getKey());
+               parameters.put("attrName" + suffix, mapping.getValue());
             }
-            else
+
+            if (matchOtherTypes)
             {
-               toRemove.add(object);
-               break;
+               if (nameCondition.length() > 1)
+               {
+                  nameCondition.append(" or ");
+               }
+
+               nameCondition.append("(");
+
+               // Types without configuration use attribute name as it is
+               for (String typeName : typeNames)
+               {
+                  String suffix = attrIndex + "_" + typeIndex++;
+                  nameCondition.append(ioAlias).append(".identityType.name <> :attrType").append(suffix).append(" and ");
+                  parameters.put("attrType" + suffix, typeName);
+               }
 
+               nameCondition.append("a.name = :attrName").append(attrIndex).append(")");
+               parameters.put("attrName" + attrIndex, entry.getKey());
             }
+
+            nameCondition.append(")");
          }
-      }
 
-      for (IdentityObject identityObject : toRemove)
-      {
-         objects.remove(identityObject);
+         // Each given value must match one of the present values
+         Set<String> given = new HashSet<String>(Arrays.asList(entry.getValue()));
+
+         int valueIndex = 0;
+
+         for (String value : given)
+         {
+            String suffix = attrIndex + "_" + valueIndex++;
+
+            hqlString.append(" and exists (select a.id from HibernateIdentityObjectAttribute a join a.textValues v where ")
+               .append("a.identityObject = ").append(ioAlias).append(" and ").append(nameCondition)
+               .append(" and lower(v) like :attrValue").append(suffix).append(" escape '!')");
+
+            parameters.put("attrValue" + suffix, wildcardToLike(value.toLowerCase()));
+         }
+
+         attrIndex++;
       }
+
+      return true;
    }
 
-   //TODO: need to be implemented at HQL level
-   private <T> List<T> cutPageFromResults(List<T> objects, IdentityObjectSearchCriteria criteria)
+   /**
+    * Converts '*' and '?' wildcards to SQL LIKE pattern using '!' as escape character.
+    *
+    * @param wildcard
+    * @return
+    */
+   private String wildcardToLike(String wildcard)
    {
+      StringBuilder like = new StringBuilder(wildcard.length());
 
-      List<T> results = new LinkedList<T>();
-
-      if (criteria.getMaxResults() == 0)
+      for (int i = 0; i < wildcard.length(); i++)
       {
-         for (int i = criteria.getFirstResult(); i < objects.size(); i++)
+         char c = wildcard.charAt(i);
+
+         switch (c)
          {
-            if (i < objects.size())
-            {
-               results.add(objects.get(i));
-            }
+            case '*':
+               like.append('%');
+               break;
+            case '?':
+               like.append('_');
+               break;
+            case '%':
+            case '_':
+            case '!':
+               like.append('!').append(c);
+               break;
+            default:
+               like.append(c);
          }
       }
-      else
+
+      return like.toString();
+   }
+
+   /**
+    * Choose recursive query syntax supported by the database used by SessionFactory. Only databases supporting
+    * UNION in recursive queries are detected. 'with' syntax follows every path separately so with diamonds or cycles
+    * in the hierarchy it can return exponentially many rows - it is used only when configured explicitly. Otherwise
+    * transitive relationships are resolved level by level.
+    */
+   private String detectRecursiveQuerySyntax()
+   {
+      if (!(sessionFactory instanceof SessionFactoryImplementor))
       {
-         for (int i = criteria.getFirstResult(); i < criteria.getFirstResult() + criteria.getMaxResults(); i++)
-         {
-            if (i < objects.size())
-            {
-               results.add(objects.get(i));
-            }
-         }
+         return RECURSIVE_QUERY_SYNTAX_NONE;
       }
-      return results;
+
+      String dialect = ((SessionFactoryImplementor)sessionFactory).getDialect().getClass().getName();
+
+      if (dialect.contains("PostgreSQL"))
+      {
+         return RECURSIVE_QUERY_SYNTAX_WITH_RECURSIVE;
+      }
+
+      return RECURSIVE_QUERY_SYNTAX_NONE;
    }
 
    protected boolean isAllowNotDefinedIdentityObjectTypes()
@@ -2971,4 +4831,19 @@ public class HibernateIdentityStoreImpl implements IdentityStore, Serializable
    {
       return isManageTransactionDuringBootstrap;
    }
+
+   private static class VerifiedCredential implements Serializable
+   {
+      private static final long serialVersionUID = 2745263470156390412L;
+
+      private final byte[] digest;
+
+      private final long expires;
+
+      private VerifiedCredential(byte[] digest, long expires)
+      {
+         this.digest = digest;
+         this.expires = expires;
+      }
+   }
 }
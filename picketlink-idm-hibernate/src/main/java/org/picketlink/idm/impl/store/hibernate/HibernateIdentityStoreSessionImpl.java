@@ -24,10 +24,14 @@ package org.picketlink.idm.impl.store.hibernate;
 
 import org.picketlink.idm.spi.store.IdentityStoreSession;
 import org.picketlink.idm.common.exception.IdentityException;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 
 /**
- * Wrapper around HibernateEntityManager
+ * Wrapper around HibernateEntityManager. In read-only mode current session is switched to manual flush so neither
+ * queries nor transaction commit trigger dirty checking of loaded entities. Flush mode of the session is restored
+ * when read-only mode is switched off.
  *
  * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
  * @version : 0.1 $
@@ -37,6 +41,12 @@ public class HibernateIdentityStoreSessionImpl implements IdentityStoreSession
 
    private final SessionFactory sessionFactory;
 
+   private boolean readOnly = false;
+
+   private Session readOnlySession;
+
+   private FlushMode previousFlushMode;
+
    public HibernateIdentityStoreSessionImpl(SessionFactory sessionFactory)
    {
       this.sessionFactory = sessionFactory;
@@ -44,7 +54,16 @@ public class HibernateIdentityStoreSessionImpl implements IdentityStoreSession
 
    public Object getSessionContext()
    {
-      return sessionFactory.getCurrentSession();
+      Session session = sessionFactory.getCurrentSession();
+
+      if (readOnly && session != readOnlySession)
+      {
+         readOnlySession = session;
+         previousFlushMode = session.getFlushMode();
+         session.setFlushMode(FlushMode.MANUAL);
+      }
+
+      return session;
    }
 
    public void close() throws IdentityException
@@ -67,6 +86,28 @@ public class HibernateIdentityStoreSessionImpl implements IdentityStoreSession
       return sessionFactory.getCurrentSession().isOpen();
    }
 
+   public void setReadOnly(boolean readOnly)
+   {
+      this.readOnly = readOnly;
+
+      if (!readOnly && readOnlySession != null)
+      {
+         // Mode changed by the application in the meantime is kept
+         if (readOnlySession.isOpen() && readOnlySession.getFlushMode() == FlushMode.MANUAL)
+         {
+            readOnlySession.setFlushMode(previousFlushMode);
+         }
+
+         readOnlySession = null;
+         previousFlushMode = null;
+      }
+   }
+
+   public boolean isReadOnly()
+   {
+      return readOnly;
+   }
+
    public boolean isTransactionSupported()
    {
       return true;
@@ -0,0 +1,258 @@
+/*
+* JBoss, a division of Red Hat
+* Copyright 2006, Red Hat Middleware, LLC, and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+
+package org.picketlink.idm.impl.store.ldap;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.picketlink.idm.impl.store.SimpleIdentityStoreInvocationContext;
+import org.picketlink.idm.spi.model.IdentityObject;
+import org.picketlink.idm.spi.model.IdentityObjectAttribute;
+import org.picketlink.idm.spi.model.IdentityObjectCredential;
+import org.picketlink.idm.spi.model.IdentityObjectRelationship;
+import org.picketlink.idm.spi.model.IdentityObjectRelationshipType;
+import org.picketlink.idm.spi.model.IdentityObjectType;
+import org.picketlink.idm.spi.search.IdentityObjectSearchCriteria;
+import org.picketlink.idm.spi.store.IdentityStoreInvocationContext;
+
+/**
+ * Asynchronous variant of the most common read operations of {@link LDAPIdentityStoreImpl}. Operations are executed
+ * by a bounded pool of threads - each one uses its own LDAP connection (taken from the connection pool if it is
+ * configured), so independent lookups can be performed concurrently. When all threads are busy and the queue is full
+ * operation is executed in the caller thread. Operations submitted after shutdown are rejected with
+ * RejectedExecutionException.
+ *
+ * Invocation context passed by the caller is not used by the operation - it is bound to the caller thread and its
+ * transaction. Each operation gets new invocation context with its own store session and the same realm and session
+ * ids. The context is used only by the thread executing the operation.
+ *
+ * IdentityException thrown by the operation is available as a cause of ExecutionException thrown from Future.get().
+ *
+ * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
+ * @version : 0.1 $
+ */
+public class AsyncLDAPIdentityStore
+{
+   private final LDAPIdentityStoreImpl store;
+
+   private final ThreadPoolExecutor executor;
+
+   /**
+    * Store operation executed with invocation context created for it
+    */
+   private interface Operation<T>
+   {
+      T execute(IdentityStoreInvocationContext ctx) throws Exception;
+   }
+
+   public AsyncLDAPIdentityStore(final LDAPIdentityStoreImpl store, int threads, int queueSize)
+   {
+      if (store == null)
+      {
+         throw new IllegalArgumentException("LDAPIdentityStoreImpl is null");
+      }
+      if (threads <= 0)
+      {
+         throw new IllegalArgumentException("Number of threads must be greater than 0: " + threads);
+      }
+
+      this.store = store;
+
+      this.executor = new ThreadPoolExecutor(threads,
+         threads,
+         60,
+         TimeUnit.SECONDS,
+         new ArrayBlockingQueue<Runnable>(Math.max(queueSize, 1)),
+         new ThreadFactory()
+         {
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            public Thread newThread(Runnable r)
+            {
+               Thread thread = new Thread(r, "LDAP async [" + store.getId() + "] " + threadNumber.incrementAndGet());
+               thread.setDaemon(true);
+               return thread;
+            }
+         },
+         new RejectedExecutionHandler()
+         {
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor)
+            {
+               // CallerRunsPolicy silently discards operations after shutdown leaving their futures never completed
+               if (executor.isShutdown())
+               {
+                  throw new RejectedExecutionException("Asynchronous LDAP store is shut down: " + store.getId());
+               }
+
+               r.run();
+            }
+         });
+   }
+
+   public Future<IdentityObject> findIdentityObject(final IdentityStoreInvocationContext ctx,
+                                                    final String name,
+                                                    final IdentityObjectType type)
+   {
+      return submit(ctx, new Operation<IdentityObject>()
+      {
+         public IdentityObject execute(IdentityStoreInvocationContext taskCtx) throws Exception
+         {
+            return store.findIdentityObject(taskCtx, name, type);
+         }
+      });
+   }
+
+   public Future<IdentityObject> findIdentityObject(final IdentityStoreInvocationContext ctx, final String id)
+   {
+      return submit(ctx, new Operation<IdentityObject>()
+      {
+         public IdentityObject execute(IdentityStoreInvocationContext taskCtx) throws Exception
+         {
+            return store.findIdentityObject(taskCtx, id);
+         }
+      });
+   }
+
+   public Future<Collection<IdentityObject>> findIdentityObject(final IdentityStoreInvocationContext ctx,
+                                                                final IdentityObjectType type,
+                                                                final IdentityObjectSearchCriteria criteria)
+   {
+      return submit(ctx, new Operation<Collection<IdentityObject>>()
+      {
+         public Collection<IdentityObject> execute(IdentityStoreInvocationContext taskCtx) throws Exception
+         {
+            return store.findIdentityObject(taskCtx, type, criteria);
+         }
+      });
+   }
+
+   public Future<Collection<IdentityObject>> findIdentityObject(final IdentityStoreInvocationContext ctx,
+                                                                final IdentityObject identity,
+                                                                final IdentityObjectRelationshipType relationshipType,
+                                                                final boolean parent,
+                                                                final IdentityObjectSearchCriteria criteria)
+   {
+      return submit(ctx, new Operation<Collection<IdentityObject>>()
+      {
+         public Collection<IdentityObject> execute(IdentityStoreInvocationContext taskCtx) throws Exception
+         {
+            return store.findIdentityObject(taskCtx, identity, relationshipType, parent, criteria);
+         }
+      });
+   }
+
+   public Future<Map<String, IdentityObjectAttribute>> getAttributes(final IdentityStoreInvocationContext ctx,
+                                                                     final IdentityObject identity)
+   {
+      return submit(ctx, new Operation<Map<String, IdentityObjectAttribute>>()
+      {
+         public Map<String, IdentityObjectAttribute> execute(IdentityStoreInvocationContext taskCtx) throws Exception
+         {
+            return store.getAttributes(taskCtx, identity);
+         }
+      });
+   }
+
+   public Future<Set<IdentityObjectRelationship>> resolveRelationships(final IdentityStoreInvocationContext ctx,
+                                                                       final IdentityObject identity,
+                                                                       final IdentityObjectRelationshipType type,
+                                                                       final boolean parent,
+                                                                       final boolean named,
+                                                                       final String name)
+   {
+      return submit(ctx, new Operation<Set<IdentityObjectRelationship>>()
+      {
+         public Set<IdentityObjectRelationship> execute(IdentityStoreInvocationContext taskCtx) throws Exception
+         {
+            return store.resolveRelationships(taskCtx, identity, type, parent, named, name);
+         }
+      });
+   }
+
+   public Future<Boolean> validateCredential(final IdentityStoreInvocationContext ctx,
+                                             final IdentityObject identityObject,
+                                             final IdentityObjectCredential credential)
+   {
+      return submit(ctx, new Operation<Boolean>()
+      {
+         public Boolean execute(IdentityStoreInvocationContext taskCtx) throws Exception
+         {
+            return store.validateCredential(taskCtx, identityObject, credential);
+         }
+      });
+   }
+
+   private <T> Future<T> submit(IdentityStoreInvocationContext ctx, final Operation<T> operation)
+   {
+      // Realm and session ids are read in the caller thread
+      final String realmId = ctx.getRealmId();
+      final String sessionId = ctx.getSessionId();
+
+      return executor.submit(new Callable<T>()
+      {
+         public T call() throws Exception
+         {
+            IdentityStoreInvocationContext taskCtx =
+               new SimpleIdentityStoreInvocationContext(store.createIdentityStoreSession(), realmId, sessionId);
+
+            try
+            {
+               return operation.execute(taskCtx);
+            }
+            finally
+            {
+               taskCtx.getIdentityStoreSession().close();
+            }
+         }
+      });
+   }
+
+   /**
+    * Stops accepting new operations. Already submitted operations are completed.
+    */
+   public void shutdown()
+   {
+      executor.shutdown();
+   }
+
+   public int getActiveCount()
+   {
+      return executor.getActiveCount();
+   }
+
+   public int getQueueSize()
+   {
+      return executor.getQueue().size();
+   }
+}
@@ -0,0 +1,56 @@
+/*
+* JBoss, a division of Red Hat
+* Copyright 2006, Red Hat Middleware, LLC, and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+
+package org.picketlink.idm.impl.store.ldap;
+
+import javax.naming.ldap.Control;
+
+/**
+ * Active Directory LDAP_SERVER_FAST_BIND_OID connection control. When sent with a bind request the server only
+ * verifies credentials and doesn't build security token for the connection - making binds used to validate
+ * passwords cheaper.
+ *
+ * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
+ * @version : 0.1 $
+ */
+public class FastBindConnectionControl implements Control
+{
+   private static final long serialVersionUID = 5263745221962151683L;
+
+   public static final String OID = "1.2.840.113556.1.4.1781";
+
+   public String getID()
+   {
+      return OID;
+   }
+
+   public boolean isCritical()
+   {
+      return Control.CRITICAL;
+   }
+
+   public byte[] getEncodedValue()
+   {
+      return null;
+   }
+}
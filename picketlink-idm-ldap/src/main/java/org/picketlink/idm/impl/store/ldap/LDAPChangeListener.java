@@ -0,0 +1,482 @@
+/*
+* JBoss, a division of Red Hat
+* Copyright 2006, Red Hat Middleware, LLC, and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+
+package org.picketlink.idm.impl.store.ldap;
+
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.OperationNotSupportedException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.HasControls;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+
+/**
+ * Listens for changes made in LDAP outside of the store and invalidates cached data of changed entries. For each
+ * LDAP context containing identity objects a separate thread runs persistent search. When server doesn't support
+ * persistent search or polling is configured, entries with modifyTimestamp or createTimestamp newer than the last
+ * seen value are searched periodically. Polling cannot detect removed entries. Timestamps are always taken from the
+ * server - polling starts from the server current time (currentTime attribute of the root DSE) or from the newest
+ * timestamp of the base entry when the server doesn't expose it.
+ *
+ * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
+ * @version : 0.1 $
+ */
+public class LDAPChangeListener
+{
+   private static Logger log = Logger.getLogger(LDAPChangeListener.class.getName());
+
+   private static final String[] TIMESTAMP_ATTRIBUTES = new String[]{"modifyTimestamp", "createTimestamp"};
+
+   private static final String POLL_FILTER = "(|(modifyTimestamp>={0})(createTimestamp>={0}))";
+
+   private static final String CURRENT_TIME_ATTRIBUTE = "currentTime";
+
+   private final LDAPIdentityStoreImpl store;
+
+   private final LDAPIdentityStoreConfiguration configuration;
+
+   private final boolean persistentSearch;
+
+   private final long pollInterval;
+
+   private final List<Worker> workers = new LinkedList<Worker>();
+
+   private volatile boolean running = false;
+
+   private final AtomicLong changeCount = new AtomicLong();
+
+   public LDAPChangeListener(LDAPIdentityStoreImpl store,
+                             LDAPIdentityStoreConfiguration configuration,
+                             boolean persistentSearch,
+                             long pollInterval)
+   {
+      if (pollInterval <= 0)
+      {
+         throw new IllegalArgumentException("Poll interval must be greater than 0: " + pollInterval);
+      }
+
+      this.store = store;
+      this.configuration = configuration;
+      this.persistentSearch = persistentSearch;
+      this.pollInterval = pollInterval;
+   }
+
+   public synchronized void start()
+   {
+      if (running)
+      {
+         return;
+      }
+
+      running = true;
+
+      for (String baseDN : getBaseDNs())
+      {
+         Worker worker = new Worker(baseDN);
+         workers.add(worker);
+
+         Thread thread = new Thread(worker, "LDAP change listener [" + store.getId() + "] " + baseDN);
+         thread.setDaemon(true);
+         worker.thread = thread;
+         thread.start();
+      }
+   }
+
+   /**
+    * Stops all listener threads. Called when the store is closed.
+    */
+   public synchronized void stop()
+   {
+      running = false;
+
+      for (Worker worker : workers)
+      {
+         worker.close();
+         worker.thread.interrupt();
+      }
+
+      workers.clear();
+   }
+
+   public boolean isRunning()
+   {
+      return running;
+   }
+
+   /**
+    * @return number of changed entries processed since the listener was started
+    */
+   public long getChangeCount()
+   {
+      return changeCount.get();
+   }
+
+   /**
+    * Collects contexts of all configured identity object types and relationship names. Contexts nested in other
+    * contexts are skipped as changes in them are reported by search performed in the parent context.
+    *
+    * @return
+    */
+   List<String> getBaseDNs()
+   {
+      List<String> dns = new ArrayList<String>();
+
+      for (LDAPIdentityObjectTypeConfiguration typeCfg : configuration.getTypesConfiguration().values())
+      {
+         for (String dn : typeCfg.getCtxDNs())
+         {
+            dns.add(dn);
+         }
+      }
+
+      if (configuration.getRelationshipNamesCtxDNs() != null)
+      {
+         for (String dn : configuration.getRelationshipNamesCtxDNs())
+         {
+            dns.add(dn);
+         }
+      }
+
+      List<String> baseDNs = new ArrayList<String>();
+
+      for (String dn : dns)
+      {
+         boolean nested = false;
+
+         for (String other : dns)
+         {
+            if (dn.length() > other.length() && dn.toLowerCase().endsWith("," + other.toLowerCase()))
+            {
+               nested = true;
+               break;
+            }
+         }
+
+         boolean duplicate = false;
+
+         for (String baseDN : baseDNs)
+         {
+            if (baseDN.equalsIgnoreCase(dn))
+            {
+               duplicate = true;
+               break;
+            }
+         }
+
+         if (!nested && !duplicate)
+         {
+            baseDNs.add(dn);
+         }
+      }
+
+      return baseDNs;
+   }
+
+   private void entriesChanged(String[] dns)
+   {
+      changeCount.addAndGet(dns.length);
+
+      if (log.isLoggable(Level.FINER))
+      {
+         for (String dn : dns)
+         {
+            log.finer(toString() + " entry changed: " + dn);
+         }
+      }
+
+      store.invalidateEntries(dns);
+   }
+
+   private LdapContext createContext() throws NamingException
+   {
+      Hashtable<String, String> env = LDAPIdentityStoreSessionImpl.createEnvironment(configuration);
+
+      // Persistent search blocks until the next change
+      env.remove("com.sun.jndi.ldap.read.timeout");
+
+      return new InitialLdapContext(env, null);
+   }
+
+   public String toString()
+   {
+      return getClass().getName() + "[" + store.getId() + "]";
+   }
+
+   private class Worker implements Runnable
+   {
+      private final String baseDN;
+
+      private Thread thread;
+
+      private volatile LdapContext ldapContext;
+
+      private boolean persistentSearchSupported = persistentSearch;
+
+      // Highest timestamp returned by the server - server clock is used to avoid problems with clock skew.
+      // Read from the server before the first poll
+      private String lastTimestamp;
+
+      Worker(String baseDN)
+      {
+         this.baseDN = baseDN;
+      }
+
+      public void run()
+      {
+         while (running)
+         {
+            try
+            {
+               if (persistentSearchSupported)
+               {
+                  persistentSearch();
+               }
+               else
+               {
+                  poll();
+               }
+            }
+            catch (OperationNotSupportedException e)
+            {
+               log.warning("Persistent search is not supported by LDAP server - falling back to polling of " + baseDN);
+
+               persistentSearchSupported = false;
+               continue;
+            }
+            catch (Exception e)
+            {
+               if (!running)
+               {
+                  break;
+               }
+
+               if (log.isLoggable(Level.FINER))
+               {
+                  log.log(Level.FINER, "Exception occurred: ", e);
+               }
+
+               // Changes could be missed while connection was broken
+               if (persistentSearchSupported)
+               {
+                  store.invalidateEntries(new String[]{baseDN});
+               }
+            }
+            finally
+            {
+               close();
+            }
+
+            if (!running)
+            {
+               break;
+            }
+
+            try
+            {
+               Thread.sleep(pollInterval);
+            }
+            catch (InterruptedException e)
+            {
+               break;
+            }
+         }
+      }
+
+      private void persistentSearch() throws NamingException
+      {
+         ldapContext = createContext();
+         ldapContext.setRequestControls(new Control[]{new PersistentSearchControl()});
+
+         SearchControls controls = new SearchControls();
+         controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+         controls.setReturningAttributes(new String[]{"1.1"});
+         controls.setReturningObjFlag(false);
+
+         NamingEnumeration<SearchResult> results = ldapContext.search(new LdapName(baseDN), "(objectClass=*)", controls);
+
+         try
+         {
+            while (running && results.hasMore())
+            {
+               SearchResult result = results.next();
+
+               String dn = result.getNameInNamespace();
+               String previousDN = null;
+
+               if (result instanceof HasControls)
+               {
+                  previousDN = PersistentSearchControl.getPreviousDN(((HasControls)result).getControls());
+               }
+
+               if (previousDN != null)
+               {
+                  entriesChanged(new String[]{dn, previousDN});
+               }
+               else
+               {
+                  entriesChanged(new String[]{dn});
+               }
+            }
+         }
+         finally
+         {
+            results.close();
+         }
+
+         // Search was terminated by the server - changes made before it is restarted would be missed
+         if (running)
+         {
+            store.invalidateEntries(new String[]{baseDN});
+         }
+      }
+
+      private void poll() throws NamingException
+      {
+         ldapContext = createContext();
+
+         if (lastTimestamp == null)
+         {
+            lastTimestamp = readServerTimestamp();
+
+            // Changes are looked for starting with the next poll
+            return;
+         }
+
+         SearchControls controls = new SearchControls();
+         controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+         controls.setReturningAttributes(TIMESTAMP_ATTRIBUTES);
+         controls.setReturningObjFlag(false);
+
+         NamingEnumeration<SearchResult> results =
+            ldapContext.search(new LdapName(baseDN), POLL_FILTER, new Object[]{lastTimestamp}, controls);
+
+         List<String> dns = new LinkedList<String>();
+         String maxTimestamp = lastTimestamp;
+
+         try
+         {
+            while (results.hasMore())
+            {
+               SearchResult result = results.next();
+
+               dns.add(result.getNameInNamespace());
+
+               for (String attributeName : TIMESTAMP_ATTRIBUTES)
+               {
+                  Attribute attribute = result.getAttributes().get(attributeName);
+                  if (attribute != null && attribute.get() != null)
+                  {
+                     String timestamp = attribute.get().toString();
+                     if (timestamp.compareTo(maxTimestamp) > 0)
+                     {
+                        maxTimestamp = timestamp;
+                     }
+                  }
+               }
+            }
+         }
+         finally
+         {
+            results.close();
+         }
+
+         // Entries with the last timestamp are returned again in the next poll - invalidation is idempotent
+         lastTimestamp = maxTimestamp;
+
+         if (dns.size() > 0)
+         {
+            entriesChanged(dns.toArray(new String[dns.size()]));
+         }
+      }
+
+      /**
+       * @return current time of the server or the newest timestamp of the base entry if server doesn't expose it
+       */
+      private String readServerTimestamp() throws NamingException
+      {
+         Attribute currentTime = ldapContext.getAttributes("", new String[]{CURRENT_TIME_ATTRIBUTE})
+            .get(CURRENT_TIME_ATTRIBUTE);
+
+         if (currentTime != null && currentTime.get() != null)
+         {
+            return currentTime.get().toString();
+         }
+
+         Attributes attributes = ldapContext.getAttributes(new LdapName(baseDN), TIMESTAMP_ATTRIBUTES);
+
+         String timestamp = null;
+
+         for (String attributeName : TIMESTAMP_ATTRIBUTES)
+         {
+            Attribute attribute = attributes.get(attributeName);
+            if (attribute != null && attribute.get() != null &&
+               (timestamp == null || attribute.get().toString().compareTo(timestamp) > 0))
+            {
+               timestamp = attribute.get().toString();
+            }
+         }
+
+         if (timestamp == null)
+         {
+            throw new NamingException("Cannot read current time nor timestamps of " + baseDN + " from LDAP server");
+         }
+
+         // Changes made after the base entry was modified are reported once more - invalidation is idempotent
+         return timestamp;
+      }
+
+      private void close()
+      {
+         LdapContext ctx = ldapContext;
+         ldapContext = null;
+
+         if (ctx != null)
+         {
+            try
+            {
+               ctx.close();
+            }
+            catch (NamingException e)
+            {
+               if (log.isLoggable(Level.FINER))
+               {
+                  log.log(Level.FINER, "Exception occurred: ", e);
+               }
+            }
+         }
+      }
+   }
+}
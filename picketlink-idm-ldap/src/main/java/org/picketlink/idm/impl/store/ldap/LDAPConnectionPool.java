@@ -0,0 +1,703 @@
+/*
+* JBoss, a division of Red Hat
+* Copyright 2006, Red Hat Middleware, LLC, and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.picketlink.idm.impl.store.ldap;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Hashtable;
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.naming.CommunicationException;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+
+/**
+ * Simple pool of LDAP connections (LdapContext instances) created with a fixed JNDI environment. Contexts handed out
+ * by the pool are proxies - calling close() on them returns underlying connection to the pool instead of closing it.
+ * Child contexts obtained from a pooled context (lookup, SearchResult.getObject()) are not pooled and should be closed
+ * as usual.
+ *
+ * Thread that already holds a connection doesn't wait for another one - nested borrows get a new context instance
+ * (LdapContext.newInstance()) sharing the connection it holds. Connection is returned to the pool when all contexts
+ * borrowed by the thread are closed. This way a thread never holds one connection while waiting for another.
+ *
+ * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
+ * @version : 0.1 $
+ */
+public class LDAPConnectionPool
+{
+   private static Logger log = Logger.getLogger(LDAPConnectionPool.class.getName());
+
+   private static final String[] VALIDATION_ATTRIBUTES = new String[]{"1.1"};
+
+   private final String name;
+
+   private final Hashtable<String, String> environment;
+
+   private final Control[] connectionControls;
+
+   private final int minSize;
+
+   private final int maxSize;
+
+   private final long idleTimeout;
+
+   private final boolean validateOnBorrow;
+
+   private final long borrowTimeout;
+
+   private final Semaphore permits;
+
+   // Most recently returned connections are kept at the head
+   private final LinkedList<PooledConnection> idle = new LinkedList<PooledConnection>();
+
+   // Connection held by the current thread
+   private final ThreadLocal<PooledConnection> heldConnection = new ThreadLocal<PooledConnection>();
+
+   private volatile boolean closed = false;
+
+   // Metrics
+
+   private final AtomicLong createdCount = new AtomicLong();
+
+   private final AtomicLong destroyedCount = new AtomicLong();
+
+   private final AtomicLong borrowedCount = new AtomicLong();
+
+   private final AtomicLong returnedCount = new AtomicLong();
+
+   private final AtomicLong borrowTimeoutCount = new AtomicLong();
+
+   private final AtomicLong validationFailureCount = new AtomicLong();
+
+   private final AtomicLong evictedCount = new AtomicLong();
+
+   private final AtomicLong totalBorrowWaitTime = new AtomicLong();
+
+   public LDAPConnectionPool(String name,
+                             Hashtable<String, String> environment,
+                             int minSize,
+                             int maxSize,
+                             long idleTimeout,
+                             boolean validateOnBorrow,
+                             long borrowTimeout)
+   {
+      this(name, environment, null, minSize, maxSize, idleTimeout, validateOnBorrow, borrowTimeout);
+   }
+
+   public LDAPConnectionPool(String name,
+                             Hashtable<String, String> environment,
+                             Control[] connectionControls,
+                             int minSize,
+                             int maxSize,
+                             long idleTimeout,
+                             boolean validateOnBorrow,
+                             long borrowTimeout)
+   {
+      if (environment == null)
+      {
+         throw new IllegalArgumentException("JNDI environment is null");
+      }
+      if (maxSize <= 0)
+      {
+         throw new IllegalArgumentException("Pool max size must be greater than 0: " + maxSize);
+      }
+      if (minSize < 0 || minSize > maxSize)
+      {
+         throw new IllegalArgumentException("Pool min size must be between 0 and max size: " + minSize);
+      }
+
+      this.name = name;
+      this.environment = new Hashtable<String, String>(environment);
+      this.connectionControls = connectionControls;
+      this.minSize = minSize;
+      this.maxSize = maxSize;
+      this.idleTimeout = idleTimeout;
+      this.validateOnBorrow = validateOnBorrow;
+      this.borrowTimeout = borrowTimeout;
+      this.permits = new Semaphore(maxSize, true);
+   }
+
+   /**
+    * Opens minSize connections upfront.
+    *
+    * @throws NamingException
+    */
+   public void prefill() throws NamingException
+   {
+      synchronized (idle)
+      {
+         while (idle.size() < minSize)
+         {
+            idle.addLast(new PooledConnection(createContext()));
+         }
+      }
+   }
+
+   /**
+    * Borrow connection from the pool. Waits up to borrowTimeout miliseconds if all connections are in use. If current
+    * thread already holds a connection, new context instance sharing it is returned without waiting.
+    *
+    * @return pooled LdapContext. Calling close() on it returns connection to the pool
+    * @throws NamingException CommunicationException if connection held by the current thread is broken
+    */
+   public LdapContext borrow() throws NamingException
+   {
+      if (closed)
+      {
+         throw new ServiceUnavailableException("LDAP connection pool is closed: " + name);
+      }
+
+      PooledConnection held = heldConnection.get();
+
+      // Connection held by this thread can only fail to be shared when it is broken. Waiting for another one while
+      // still holding it could deadlock the pool
+      if (held != null && !held.share())
+      {
+         throw new CommunicationException("LDAP connection held by the current thread is broken. Close contexts " +
+            "borrowed from pool " + name + " before borrowing again");
+      }
+
+      if (held != null)
+      {
+         try
+         {
+            LdapContext instance = held.context.newInstance(null);
+
+            borrowedCount.incrementAndGet();
+
+            return held.createProxy(instance);
+         }
+         catch (NamingException e)
+         {
+            release(held);
+            throw e;
+         }
+         catch (RuntimeException e)
+         {
+            release(held);
+            throw e;
+         }
+      }
+
+      long start = System.currentTimeMillis();
+
+      try
+      {
+         boolean acquired;
+
+         if (borrowTimeout > 0)
+         {
+            acquired = permits.tryAcquire(borrowTimeout, TimeUnit.MILLISECONDS);
+         }
+         else
+         {
+            permits.acquire();
+            acquired = true;
+         }
+
+         if (!acquired)
+         {
+            borrowTimeoutCount.incrementAndGet();
+            throw new ServiceUnavailableException("Timeout while waiting for LDAP connection from pool: " + name
+               + "; maxSize=" + maxSize + "; borrowTimeout=" + borrowTimeout);
+         }
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new ServiceUnavailableException("Interrupted while waiting for LDAP connection from pool: " + name);
+      }
+
+      totalBorrowWaitTime.addAndGet(System.currentTimeMillis() - start);
+
+      try
+      {
+         PooledConnection connection = null;
+
+         while (connection == null)
+         {
+            PooledConnection candidate;
+
+            synchronized (idle)
+            {
+               candidate = idle.isEmpty() ? null : idle.removeFirst();
+            }
+
+            // Pool is empty - open new connection
+            if (candidate == null)
+            {
+               connection = new PooledConnection(createContext());
+               break;
+            }
+
+            if (isExpired(candidate))
+            {
+               evictedCount.incrementAndGet();
+               destroy(candidate);
+               continue;
+            }
+
+            if (validateOnBorrow && !validate(candidate))
+            {
+               validationFailureCount.incrementAndGet();
+               destroy(candidate);
+               continue;
+            }
+
+            connection = candidate;
+         }
+
+         borrowedCount.incrementAndGet();
+
+         connection.acquire();
+         heldConnection.set(connection);
+
+         return connection.createProxy(null);
+      }
+      catch (NamingException e)
+      {
+         permits.release();
+         throw e;
+      }
+      catch (RuntimeException e)
+      {
+         permits.release();
+         throw e;
+      }
+   }
+
+   /**
+    * Close all idle connections. Connections in use will be closed when returned.
+    */
+   public void close()
+   {
+      closed = true;
+
+      synchronized (idle)
+      {
+         for (PooledConnection connection : idle)
+         {
+            destroy(connection);
+         }
+         idle.clear();
+      }
+   }
+
+   /**
+    * Remove connections that were idle for longer than idleTimeout while keeping at least minSize connections open.
+    */
+   public void evictIdleConnections()
+   {
+      if (idleTimeout <= 0)
+      {
+         return;
+      }
+
+      LinkedList<PooledConnection> toDestroy = new LinkedList<PooledConnection>();
+
+      synchronized (idle)
+      {
+         // Oldest connections are at the tail
+         ListIterator<PooledConnection> iterator = idle.listIterator(idle.size());
+
+         while (iterator.hasPrevious() && idle.size() > minSize)
+         {
+            PooledConnection connection = iterator.previous();
+
+            if (isExpired(connection))
+            {
+               iterator.remove();
+               toDestroy.add(connection);
+            }
+            else
+            {
+               break;
+            }
+         }
+      }
+
+      for (PooledConnection connection : toDestroy)
+      {
+         evictedCount.incrementAndGet();
+         destroy(connection);
+      }
+   }
+
+   void release(PooledConnection connection)
+   {
+      returnedCount.incrementAndGet();
+
+      // Other contexts borrowed by the same thread still use the connection
+      if (!connection.unshare())
+      {
+         return;
+      }
+
+      if (heldConnection.get() == connection)
+      {
+         heldConnection.remove();
+      }
+
+      try
+      {
+         if (closed || connection.broken)
+         {
+            destroy(connection);
+            return;
+         }
+
+         // Don't leak per operation state to the next user
+         try
+         {
+            connection.context.setRequestControls(null);
+         }
+         catch (NamingException e)
+         {
+            destroy(connection);
+            return;
+         }
+
+         connection.lastUsed = System.currentTimeMillis();
+
+         synchronized (idle)
+         {
+            idle.addFirst(connection);
+         }
+      }
+      finally
+      {
+         permits.release();
+      }
+
+      evictIdleConnections();
+   }
+
+   private LdapContext createContext() throws NamingException
+   {
+      LdapContext ctx = new InitialLdapContext(environment, connectionControls);
+      createdCount.incrementAndGet();
+
+      if (log.isLoggable(Level.FINER))
+      {
+         log.finer("Created new LDAP connection in pool: " + name + "; " + getStatistics());
+      }
+
+      return ctx;
+   }
+
+   private boolean isExpired(PooledConnection connection)
+   {
+      return idleTimeout > 0 && System.currentTimeMillis() - connection.lastUsed > idleTimeout;
+   }
+
+   private boolean validate(PooledConnection connection)
+   {
+      try
+      {
+         // Cheapest possible operation - read entry with no attributes ("1.1" as described in RFC 4511)
+         connection.context.getAttributes("", VALIDATION_ATTRIBUTES);
+         return true;
+      }
+      catch (NamingException e)
+      {
+         if (log.isLoggable(Level.FINER))
+         {
+            log.log(Level.FINER, "LDAP connection validation failed: ", e);
+         }
+         return false;
+      }
+   }
+
+   private void destroy(PooledConnection connection)
+   {
+      destroyedCount.incrementAndGet();
+
+      try
+      {
+         connection.context.close();
+      }
+      catch (NamingException e)
+      {
+         if (log.isLoggable(Level.FINER))
+         {
+            log.log(Level.FINER, "Exception occurred: ", e);
+         }
+      }
+   }
+
+   // Metrics
+
+   public Control[] getConnectionControls()
+   {
+      return connectionControls;
+   }
+
+   public String getName()
+   {
+      return name;
+   }
+
+   public int getMinSize()
+   {
+      return minSize;
+   }
+
+   public int getMaxSize()
+   {
+      return maxSize;
+   }
+
+   public int getActiveCount()
+   {
+      return maxSize - permits.availablePermits();
+   }
+
+   public boolean isClosed()
+   {
+      return closed;
+   }
+
+   public int getIdleCount()
+   {
+      synchronized (idle)
+      {
+         return idle.size();
+      }
+   }
+
+   public long getCreatedCount()
+   {
+      return createdCount.get();
+   }
+
+   public long getDestroyedCount()
+   {
+      return destroyedCount.get();
+   }
+
+   public long getBorrowedCount()
+   {
+      return borrowedCount.get();
+   }
+
+   public long getReturnedCount()
+   {
+      return returnedCount.get();
+   }
+
+   public long getBorrowTimeoutCount()
+   {
+      return borrowTimeoutCount.get();
+   }
+
+   public long getValidationFailureCount()
+   {
+      return validationFailureCount.get();
+   }
+
+   public long getEvictedCount()
+   {
+      return evictedCount.get();
+   }
+
+   public long getTotalBorrowWaitTime()
+   {
+      return totalBorrowWaitTime.get();
+   }
+
+   public String getStatistics()
+   {
+      return "active=" + getActiveCount()
+         + "; idle=" + getIdleCount()
+         + "; created=" + getCreatedCount()
+         + "; destroyed=" + getDestroyedCount()
+         + "; borrowed=" + getBorrowedCount()
+         + "; borrowTimeouts=" + getBorrowTimeoutCount()
+         + "; validationFailures=" + getValidationFailureCount()
+         + "; evicted=" + getEvictedCount();
+   }
+
+   @Override
+   public String toString()
+   {
+      return "LDAPConnectionPool[" + name + "; " + getStatistics() + "]";
+   }
+
+   /**
+    * Physical connection kept in the pool
+    */
+   class PooledConnection
+   {
+      final LdapContext context;
+
+      volatile long lastUsed = System.currentTimeMillis();
+
+      volatile boolean broken = false;
+
+      // Thread that borrowed the connection and number of its contexts not closed yet
+      private Thread owner;
+
+      private int holds = 0;
+
+      PooledConnection(LdapContext context)
+      {
+         this.context = context;
+      }
+
+      synchronized void acquire()
+      {
+         owner = Thread.currentThread();
+         holds = 1;
+      }
+
+      /**
+       * @return true if connection is held by the current thread and can be shared with its nested borrow
+       */
+      synchronized boolean share()
+      {
+         if (owner != Thread.currentThread() || holds == 0 || broken)
+         {
+            return false;
+         }
+
+         holds++;
+         return true;
+      }
+
+      /**
+       * @return true if last context using this connection was closed
+       */
+      synchronized boolean unshare()
+      {
+         if (--holds > 0)
+         {
+            return false;
+         }
+
+         owner = null;
+         return true;
+      }
+
+      /**
+       * @param instance context instance sharing this connection or null to use the pooled context directly
+       */
+      LdapContext createProxy(LdapContext instance)
+      {
+         return (LdapContext)Proxy.newProxyInstance(LdapContext.class.getClassLoader(),
+            new Class[]{LdapContext.class},
+            new PooledContextHandler(this, instance));
+      }
+   }
+
+   /**
+    * Delegates all calls to the pooled context (or to its instance created for nested borrow) and returns connection
+    * to the pool on close(). Each borrow creates new handler so closing the same proxy twice is harmless.
+    */
+   private class PooledContextHandler implements InvocationHandler
+   {
+      private final PooledConnection connection;
+
+      private final LdapContext instance;
+
+      private boolean released = false;
+
+      PooledContextHandler(PooledConnection connection, LdapContext instance)
+      {
+         this.connection = connection;
+         this.instance = instance;
+      }
+
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+      {
+         String methodName = method.getName();
+
+         if (methodName.equals("close") && method.getParameterTypes().length == 0)
+         {
+            synchronized (this)
+            {
+               if (!released)
+               {
+                  released = true;
+
+                  try
+                  {
+                     if (instance != null)
+                     {
+                        instance.close();
+                     }
+                  }
+                  finally
+                  {
+                     release(connection);
+                  }
+               }
+            }
+            return null;
+         }
+
+         if (methodName.equals("equals") && args != null && args.length == 1)
+         {
+            return proxy == args[0];
+         }
+
+         if (methodName.equals("hashCode") && method.getParameterTypes().length == 0)
+         {
+            return System.identityHashCode(proxy);
+         }
+
+         if (released)
+         {
+            throw new IllegalStateException("LDAP connection was already returned to the pool");
+         }
+
+         try
+         {
+            return method.invoke(instance != null ? instance : connection.context, args);
+         }
+         catch (InvocationTargetException e)
+         {
+            Throwable cause = e.getCause();
+
+            // Connection is not usable anymore - don't return it to the pool
+            if (cause instanceof CommunicationException || cause instanceof ServiceUnavailableException)
+            {
+               connection.broken = true;
+            }
+
+            throw cause;
+         }
+      }
+   }
+}
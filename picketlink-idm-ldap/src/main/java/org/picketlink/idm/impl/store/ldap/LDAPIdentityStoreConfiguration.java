@@ -86,4 +86,46 @@ public interface LDAPIdentityStoreConfiguration
 
    boolean isCreateMissingContexts();
 
+   boolean isConnectionPool();
+
+   int getConnectionPoolMinSize();
+
+   int getConnectionPoolMaxSize();
+
+   long getConnectionPoolIdleTimeout();
+
+   boolean isConnectionPoolValidateOnBorrow();
+
+   long getConnectionPoolBorrowTimeout();
+
+   boolean isAuthConnectionPool();
+
+   int getAuthConnectionPoolMinSize();
+
+   int getAuthConnectionPoolMaxSize();
+
+   boolean isFastBind();
+
+   boolean isSearchFanOut();
+
+   int getSearchFanOutThreads();
+
+   long getSearchFanOutTimeLimit();
+
+   String getCountStrategy();
+
+   String getCountAttributeName();
+
+   int getMembershipResolveBatchSize();
+
+   int getSearchCacheSize();
+
+   int getAsyncThreads();
+
+   int getAsyncQueueSize();
+
+   String getChangeListener();
+
+   long getChangeListenerPollInterval();
+
 }
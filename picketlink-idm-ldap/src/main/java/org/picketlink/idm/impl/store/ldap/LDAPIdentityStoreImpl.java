@@ -26,10 +26,16 @@ import org.picketlink.idm.api.cfg.IdentityConfigurationRegistry;
 import org.picketlink.idm.common.exception.IdentityException;
 import org.picketlink.idm.impl.NotYetImplementedException;
 import org.picketlink.idm.impl.api.SimpleAttribute;
+import org.picketlink.idm.impl.helper.IdentityObjectAttributes;
+import org.picketlink.idm.impl.helper.IdentityObjectImporter;
+import org.picketlink.idm.impl.helper.ResultsPage;
+import org.picketlink.idm.impl.helper.IdentityObjectTraversal;
 import org.picketlink.idm.impl.helper.Tools;
 import org.picketlink.idm.impl.model.ldap.LDAPIdentityObjectImpl;
 import org.picketlink.idm.impl.model.ldap.LDAPIdentityObjectRelationshipImpl;
 import org.picketlink.idm.impl.store.FeaturesMetaDataImpl;
+import org.picketlink.idm.impl.store.IdentityStoreChangeListener;
+import org.picketlink.idm.impl.store.IdentityStoreChangeSource;
 import org.picketlink.idm.impl.types.SimpleIdentityObject;
 import org.picketlink.idm.spi.cache.IdentityStoreCacheProvider;
 import org.picketlink.idm.spi.configuration.IdentityStoreConfigurationContext;
@@ -40,31 +46,47 @@ import org.picketlink.idm.spi.exception.OperationNotSupportedException;
 import org.picketlink.idm.spi.model.IdentityObject;
 import org.picketlink.idm.spi.model.IdentityObjectAttribute;
 import org.picketlink.idm.spi.model.IdentityObjectCredential;
+import org.picketlink.idm.spi.model.IdentityObjectImport;
 import org.picketlink.idm.spi.model.IdentityObjectRelationship;
 import org.picketlink.idm.spi.model.IdentityObjectRelationshipType;
 import org.picketlink.idm.spi.model.IdentityObjectType;
 import org.picketlink.idm.spi.search.IdentityObjectSearchCriteria;
 import org.picketlink.idm.spi.store.FeaturesMetaData;
+import org.picketlink.idm.spi.store.IdentityObjectImportListener;
 import org.picketlink.idm.spi.store.IdentityObjectSearchCriteriaType;
 import org.picketlink.idm.spi.store.IdentityStore;
 import org.picketlink.idm.spi.store.IdentityStoreInvocationContext;
 import org.picketlink.idm.spi.store.IdentityStoreSession;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
+import javax.naming.CommunicationException;
 import javax.naming.CompositeName;
 import javax.naming.Context;
 import javax.naming.InitialContext;
+import javax.naming.InvalidNameException;
 import javax.naming.Name;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
+import javax.naming.TimeLimitExceededException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.BasicAttribute;
@@ -74,6 +96,9 @@ import javax.naming.directory.SearchControls;
 import javax.naming.directory.SearchResult;
 import javax.naming.ldap.*;
 
+import static org.picketlink.idm.impl.store.ldap.SimpleLDAPIdentityStoreConfiguration.COUNT_STRATEGY;
+import static org.picketlink.idm.impl.store.ldap.SimpleLDAPIdentityStoreConfiguration.COUNT_STRATEGY_ATTRIBUTE;
+import static org.picketlink.idm.impl.store.ldap.SimpleLDAPIdentityStoreConfiguration.COUNT_STRATEGY_VLV;
 import static org.picketlink.idm.impl.store.ldap.SimpleLDAPIdentityStoreConfiguration.MAX_SEARCH_RESULTS;
 import static org.picketlink.idm.impl.store.ldap.SimpleLDAPIdentityStoreConfiguration.MAX_SEARCH_RESULTS_DEFAULT;
 
@@ -81,7 +106,7 @@ import static org.picketlink.idm.impl.store.ldap.SimpleLDAPIdentityStoreConfigur
  * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
  * @version : 0.1 $
  */
-public class LDAPIdentityStoreImpl implements IdentityStore
+public class LDAPIdentityStoreImpl implements IdentityStore, Closeable, IdentityStoreChangeSource
 {
 
    //TODO: JNDI connection credentials encoding (pluggable?)
@@ -94,6 +119,9 @@ public class LDAPIdentityStoreImpl implements IdentityStore
 
    public static final String MEMBERSHIP_TYPE = "JBOSS_IDENTITY_MEMBERSHIP";
 
+   // Special attribute name meaning that no attributes should be returned (RFC 4511)
+   private static final String[] NO_ATTRIBUTES = new String[]{"1.1"};
+
    private FeaturesMetaData supportedFeatures;
 
    private int maxResults = 0;
@@ -102,6 +130,21 @@ public class LDAPIdentityStoreImpl implements IdentityStore
 
    IdentityStoreConfigurationMetaData configurationMD;
 
+   private LDAPConnectionPool connectionPool;
+
+   private LDAPConnectionPool authConnectionPool;
+
+   private ExecutorService searchExecutor;
+
+   private LDAPSearchCache searchCache;
+
+   private AsyncLDAPIdentityStore asyncStore;
+
+   private LDAPChangeListener changeListener;
+
+   // Notified about changes detected by changeListener
+   private final List<IdentityStoreChangeListener> changeListeners = new CopyOnWriteArrayList<IdentityStoreChangeListener>();
+
    private final Set<IdentityObjectSearchCriteriaType> supportedSearchCriteriaTypes =
       new HashSet<IdentityObjectSearchCriteriaType>();
 
@@ -145,6 +188,90 @@ public class LDAPIdentityStoreImpl implements IdentityStore
 
       supportedFeatures = new FeaturesMetaDataImpl(configurationMD, supportedSearchCriteriaTypes, false, false, readOnlyObjectTypes);
 
+      // Connection pool - not used when connections are obtained from external JNDI context
+
+      if (configuration.isConnectionPool() && configuration.getExternalJNDIContext() == null)
+      {
+         connectionPool = new LDAPConnectionPool(getId(),
+            LDAPIdentityStoreSessionImpl.createEnvironment(configuration),
+            configuration.getConnectionPoolMinSize(),
+            configuration.getConnectionPoolMaxSize(),
+            configuration.getConnectionPoolIdleTimeout(),
+            configuration.isConnectionPoolValidateOnBorrow(),
+            configuration.getConnectionPoolBorrowTimeout());
+
+         try
+         {
+            connectionPool.prefill();
+         }
+         catch (NamingException e)
+         {
+            if (log.isLoggable(Level.FINER))
+            {
+               log.log(Level.FINER, "Exception occurred: ", e);
+            }
+
+            throw new IdentityException("Cannot initialize LDAP connection pool", e);
+         }
+      }
+
+      // Separate pool used only to re-bind as users when validating passwords
+
+      if (configuration.isAuthConnectionPool() && configuration.getExternalJNDIContext() == null)
+      {
+         // Initial bind uses admin credentials. Fast bind connections cannot be used for search so validation
+         // on borrow is not possible - broken connections are handled in validateCredential
+         authConnectionPool = new LDAPConnectionPool(getId() + "-auth",
+            LDAPIdentityStoreSessionImpl.createEnvironment(configuration),
+            getBindConnectionControls(),
+            configuration.getAuthConnectionPoolMinSize(),
+            configuration.getAuthConnectionPoolMaxSize(),
+            configuration.getConnectionPoolIdleTimeout(),
+            false,
+            configuration.getConnectionPoolBorrowTimeout());
+
+         try
+         {
+            authConnectionPool.prefill();
+         }
+         catch (NamingException e)
+         {
+            if (log.isLoggable(Level.FINER))
+            {
+               log.log(Level.FINER, "Exception occurred: ", e);
+            }
+
+            throw new IdentityException("Cannot initialize LDAP authentication connection pool", e);
+         }
+      }
+
+      if (configuration.getSearchCacheSize() > 0)
+      {
+         searchCache = new LDAPSearchCache(configuration.getSearchCacheSize());
+      }
+
+      if (configuration.getAsyncThreads() > 0)
+      {
+         asyncStore = new AsyncLDAPIdentityStore(this, configuration.getAsyncThreads(), configuration.getAsyncQueueSize());
+      }
+
+      // Threads used to search several entry contexts concurrently
+
+      if (configuration.isSearchFanOut())
+      {
+         searchExecutor = Executors.newFixedThreadPool(configuration.getSearchFanOutThreads(), new ThreadFactory()
+         {
+            private final AtomicInteger threadNumber = new AtomicInteger();
+
+            public Thread newThread(Runnable r)
+            {
+               Thread thread = new Thread(r, "LDAP search fan-out [" + getId() + "] " + threadNumber.incrementAndGet());
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+      }
+
       // Attribute mappings - helper structures
 
       for (IdentityObjectTypeMetaData identityObjectTypeMetaData : configurationMD.getSupportedIdentityTypes())
@@ -285,11 +412,86 @@ public class LDAPIdentityStoreImpl implements IdentityStore
 
       cache = provider;
 
+      // Invalidation of cached data changed directly in LDAP
+
+      if (configuration.getChangeListener() != null)
+      {
+         changeListener = new LDAPChangeListener(this,
+            configuration,
+            configuration.getChangeListener().equals(SimpleLDAPIdentityStoreConfiguration.CHANGE_LISTENER_PSEARCH),
+            configuration.getChangeListenerPollInterval());
+
+         changeListener.start();
+      }
+
+   }
+
+   /**
+    * Stops threads used by this store and closes its connection pools. Store cannot be used after it is closed.
+    */
+   public void close()
+   {
+      if (changeListener != null)
+      {
+         changeListener.stop();
+      }
+
+      if (searchExecutor != null)
+      {
+         searchExecutor.shutdownNow();
+      }
+
+      if (asyncStore != null)
+      {
+         asyncStore.shutdown();
+      }
+
+      if (connectionPool != null)
+      {
+         connectionPool.close();
+      }
+
+      if (authConnectionPool != null)
+      {
+         authConnectionPool.close();
+      }
    }
 
    public IdentityStoreSession createIdentityStoreSession()
    {
-      return new LDAPIdentityStoreSessionImpl(configuration);
+      return new LDAPIdentityStoreSessionImpl(configuration, connectionPool);
+   }
+
+   /**
+    * @return connection pool used by this store or null if pooling is not enabled
+    */
+   public LDAPConnectionPool getConnectionPool()
+   {
+      return connectionPool;
+   }
+
+   /**
+    * @return listener of changes made directly in LDAP or null if changeListener option is not set
+    */
+   public LDAPChangeListener getChangeListener()
+   {
+      return changeListener;
+   }
+
+   /**
+    * @return asynchronous variant of read operations or null if asyncThreads option is not set
+    */
+   public AsyncLDAPIdentityStore getAsyncStore()
+   {
+      return asyncStore;
+   }
+
+   /**
+    * @return connection pool used to validate credentials or null if it is not enabled
+    */
+   public LDAPConnectionPool getAuthConnectionPool()
+   {
+      return authConnectionPool;
    }
 
    public String getId()
@@ -398,7 +600,7 @@ public class LDAPIdentityStoreImpl implements IdentityStore
          }
          DirContext entry = ctx.createSubcontext(validLDAPName, attrs);
 
-         invalidateCache();
+         invalidateCache(invocationCtx, type);
 
          if (entry != null)
          {
@@ -520,15 +722,20 @@ public class LDAPIdentityStoreImpl implements IdentityStore
          String scope = getTypeConfiguration(ctx, identityType).getEntrySearchScope();
 
          //log.debug("Search filter: " + filter);
-         List sr = searchIdentityObjects(ctx,
-            entryCtxs,
-            filter,
-            null,
-            new String[]{getTypeConfiguration(ctx, identityType).getIdAttributeName()},
-            scope,
-            null);
+         if (COUNT_STRATEGY_VLV.equals(configuration.getCountStrategy()))
+         {
+            return countWithVirtualListView(ctx,
+               entryCtxs,
+               filter,
+               scope,
+               getTypeConfiguration(ctx, identityType).getIdAttributeName());
+         }
+         else if (COUNT_STRATEGY_ATTRIBUTE.equals(configuration.getCountStrategy()))
+         {
+            return countWithCounterAttribute(ctx, entryCtxs);
+         }
 
-         return sr.size();
+         return countEntries(ctx, entryCtxs, filter, scope);
 
       }
       catch (NoSuchElementException e)
@@ -546,6 +753,58 @@ public class LDAPIdentityStoreImpl implements IdentityStore
       return 0;
    }
 
+   public boolean isIdentityObjectPresent(IdentityStoreInvocationContext invocationCtx, IdentityObject identity) throws IdentityException
+   {
+      checkIOType(identity.getIdentityType());
+
+      if (identity.getName() == null)
+      {
+         throw new IdentityException("Identity object name canot be null");
+      }
+
+      LDAPIdentityObjectTypeConfiguration typeConfiguration = getTypeConfiguration(invocationCtx, identity.getIdentityType());
+
+      String filter = typeConfiguration.getEntrySearchFilter();
+
+      if (filter == null || filter.length() == 0)
+      {
+         filter = "(" + typeConfiguration.getIdAttributeName() + "={0})";
+      }
+
+      try
+      {
+         // Only the id attribute is returned - entry data is not needed
+         List<SearchResult> sr = searchIdentityObjects(invocationCtx,
+            typeConfiguration.getCtxDNs(),
+            filter,
+            new Object[]{identity.getName()},
+            new String[]{typeConfiguration.getIdAttributeName()},
+            typeConfiguration.getEntrySearchScope(),
+            null);
+
+         for (SearchResult result : sr)
+         {
+            Object ctx = result.getObject();
+
+            if (ctx instanceof Context)
+            {
+               ((Context)ctx).close();
+            }
+         }
+
+         return !sr.isEmpty();
+      }
+      catch (NamingException e)
+      {
+         if (log.isLoggable(Level.FINER))
+         {
+            log.log(Level.FINER, "Exception occurred: ", e);
+         }
+
+         throw new IdentityException("IdentityObject search failed.", e);
+      }
+   }
+
    public IdentityObject findIdentityObject(IdentityStoreInvocationContext invocationCtx, String name, IdentityObjectType type) throws IdentityException
    {
 
@@ -554,6 +813,26 @@ public class LDAPIdentityStoreImpl implements IdentityStore
          log.finer(toString() + ".findIdentityObject with name: " + name + "; and type: " + type);
       }
 
+      return findIdentityObject(invocationCtx, name, type, null);
+   }
+
+   /**
+    * Finds identity object by name. If attributes map is provided mapped attributes are read together with the entry
+    * and put into it. They are never kept with the returned instance.
+    *
+    * @param invocationCtx
+    * @param name
+    * @param type
+    * @param attributes map to fill with identity object attributes or null
+    * @return
+    * @throws IdentityException
+    */
+   private LDAPIdentityObjectImpl findIdentityObject(IdentityStoreInvocationContext invocationCtx,
+                                                     String name,
+                                                     IdentityObjectType type,
+                                                     Map<String, IdentityObjectAttribute> attributes) throws IdentityException
+   {
+
       Context ctx = null;
       checkIOType(type);
       try
@@ -573,6 +852,18 @@ public class LDAPIdentityStoreImpl implements IdentityStore
          String scope = getTypeConfiguration(invocationCtx, type).getEntrySearchScope();
 
 
+         String[] returningAttributes = null;
+
+         if (attributes != null)
+         {
+            // Mapped attributes are fetched together with the entry so they don't need to be read again
+            returningAttributes = getEntryAttributeNames(invocationCtx, type);
+         }
+         else
+         {
+            returningAttributes = new String[]{getTypeConfiguration(invocationCtx, type).getIdAttributeName()};
+         }
+
          if (filter != null && filter.length() > 0)
          {
             Object[] filterArgs = {name};
@@ -580,7 +871,7 @@ public class LDAPIdentityStoreImpl implements IdentityStore
                entryCtxs,
                filter,
                filterArgs,
-               new String[]{getTypeConfiguration(invocationCtx, type).getIdAttributeName()},
+               returningAttributes,
                scope,
                null);
          }
@@ -592,7 +883,7 @@ public class LDAPIdentityStoreImpl implements IdentityStore
                entryCtxs,
                filter,
                null,
-               new String[]{getTypeConfiguration(invocationCtx, type).getIdAttributeName()},
+               returningAttributes,
                scope,
                null);
          }
@@ -607,7 +898,11 @@ public class LDAPIdentityStoreImpl implements IdentityStore
          SearchResult res = (SearchResult)sr.iterator().next();
          ctx = (Context)res.getObject();
          String dn = ctx.getNameInNamespace();
-         IdentityObject io = createIdentityObjectInstance(invocationCtx, type, res.getAttributes(), dn);
+         LDAPIdentityObjectImpl io = createIdentityObjectInstance(invocationCtx, type, res.getAttributes(), dn);
+         if (attributes != null)
+         {
+            attributes.putAll(createAttributesMap(invocationCtx, type, res.getAttributes(), dn));
+         }
          ctx.close();
          return io;
 
@@ -670,22 +965,7 @@ public class LDAPIdentityStoreImpl implements IdentityStore
 
          //Recognize the type by ctx DN
 
-         IdentityObjectType[] possibleTypes = getConfiguration(ctx).getConfiguredTypes();
-         Set<IdentityObjectType> matches = new HashSet<IdentityObjectType>();
-
-         for (IdentityObjectType possibleType : possibleTypes)
-         {
-            String[] typeCtxs = getTypeConfiguration(ctx, possibleType).getCtxDNs();
-
-            for (String typeCtx : typeCtxs)
-            {
-               if (dn.toLowerCase().endsWith(typeCtx.toLowerCase()))
-               {
-                  matches.add(possibleType);
-                  break;
-               }
-            }
-         }
+         Set<IdentityObjectType> matches = getTypesForDN(ctx, dn);
 
          if (matches.size() == 1)
          {
@@ -719,7 +999,7 @@ public class LDAPIdentityStoreImpl implements IdentityStore
          // Grab entry
 
          Name jndiName = new CompositeName().add(dn);
-         Attributes attrs = ldapContext.getAttributes(jndiName);
+         Attributes attrs = ldapContext.getAttributes(jndiName, new String[]{getTypeConfiguration(ctx, type).getIdAttributeName()});
 
          if (attrs == null)
          {
@@ -788,16 +1068,39 @@ public class LDAPIdentityStoreImpl implements IdentityStore
 
       LDAPIdentityObjectTypeConfiguration typeConfiguration = getTypeConfiguration(invocationCtx, type);
 
+      boolean pageCut = false;
+
+      // Results are sorted by id attribute unless sort attribute is mapped to LDAP attribute
+      String sortAttributeName = typeConfiguration.getIdAttributeName();
+
+      if (criteria != null && criteria.isSorted() && criteria.getSortAttributeName() != null &&
+         typeConfiguration.getAttributeMapping(criteria.getSortAttributeName()) != null)
+      {
+         sortAttributeName = typeConfiguration.getAttributeMapping(criteria.getSortAttributeName());
+      }
+
+      // Sort attribute values returned with the search. Results are sorted here also when sort control was sent -
+      // server can ignore it
+      Map<IdentityObject, String> sortValues = null;
+
+      if (!sortAttributeName.equals(typeConfiguration.getIdAttributeName()))
+      {
+         sortValues = new HashMap<IdentityObject, String>();
+      }
+
+      String[] returningAttributes = sortAttributeName.equals(typeConfiguration.getIdAttributeName()) ?
+         new String[]{typeConfiguration.getIdAttributeName()} :
+         new String[]{typeConfiguration.getIdAttributeName(), sortAttributeName};
+
       try
       {
          Control[] requestControls = null;
 
-         // Sort control
+         // Sort control. Server that cannot sort by the attribute returns results unsorted
          if (criteria != null && criteria.isSorted() && configuration.isSortExtensionSupported())
          {
-            //TODO sort by attribute name
             requestControls = new Control[]{
-               new SortControl(typeConfiguration.getIdAttributeName(), Control.CRITICAL)
+               new SortControl(sortAttributeName, Control.NONCRITICAL)
             };
          }
 
@@ -831,7 +1134,6 @@ public class LDAPIdentityStoreImpl implements IdentityStore
          }
 
          String filter = getTypeConfiguration(invocationCtx, type).getEntrySearchFilter();
-         List<SearchResult> sr = null;
 
          String[] entryCtxs = getTypeConfiguration(invocationCtx, type).getCtxDNs();
          String scope = getTypeConfiguration(invocationCtx, type).getEntrySearchScope();
@@ -841,49 +1143,128 @@ public class LDAPIdentityStoreImpl implements IdentityStore
 
             // Wildcards will be escabed by filterArgs
             filter = filter.replaceAll("\\{0\\}", nameFilter);
-
-            sr = searchIdentityObjects(invocationCtx,
-               entryCtxs,
-               "(&(" + filter + ")" + af.toString() + ")",
-               null,
-               new String[]{typeConfiguration.getIdAttributeName()},
-               scope,
-               requestControls);
          }
          else
          {
             filter = "(".concat(typeConfiguration.getIdAttributeName()).concat("=").concat(nameFilter).concat(")");
-            sr = searchIdentityObjects(invocationCtx,
+         }
+
+         filter = "(&(" + filter + ")" + af.toString() + ")";
+
+         // Page can be read directly from the server results when they don't need to be reordered
+         if (criteria != null && criteria.isPaged() && criteria.getMaxResults() > 0 &&
+            criteria.getPageAfterName() == null &&
+            (!criteria.isSorted() ||
+               (configuration.isSortExtensionSupported() && criteria.isAscending() && entryCtxs.length == 1)))
+         {
+            // Page taken directly from server results requires them to be sorted by the server
+            Control[] pageControls = null;
+
+            if (criteria.isSorted())
+            {
+               pageControls = new Control[]{
+                  new SortControl(sortAttributeName, Control.CRITICAL)
+               };
+            }
+
+            LDAPSearchCursor cursor = streamIdentityObjects(invocationCtx,
                entryCtxs,
-               "(&(" + filter + ")" + af.toString() + ")",
+               filter,
                null,
-               new String[]{typeConfiguration.getIdAttributeName()},
+               returningAttributes,
                scope,
-               requestControls);
-         }
+               pageControls);
 
+            try
+            {
+               int index = 0;
 
-         for (SearchResult res : sr)
+               // Stop reading results once the page is complete
+               while (objects.size() < criteria.getMaxResults() && cursor.hasMore())
+               {
+                  SearchResult res = cursor.next();
+
+                  if (index++ < criteria.getFirstResult())
+                  {
+                     continue;
+                  }
+
+                  Context resCtx = (Context)res.getObject();
+                  String dn = resCtx.getNameInNamespace();
+                  resCtx.close();
+                  objects.add(createIdentityObjectInstance(invocationCtx, type, res.getAttributes(), dn));
+               }
+
+               pageCut = true;
+            }
+            catch (javax.naming.OperationNotSupportedException e)
+            {
+               // Server cannot sort by the attribute - all results are read and sorted here
+               if (log.isLoggable(Level.FINER))
+               {
+                  log.log(Level.FINER, "Exception occurred: ", e);
+               }
+
+               objects.clear();
+            }
+            finally
+            {
+               cursor.close();
+            }
+         }
+
+         if (!pageCut)
          {
-            ctx = (LdapContext)res.getObject();
-            String dn = ctx.getNameInNamespace();
+            String mergeAttributeName = null;
+
+            // Results sorted in each context need to be merged
             if (criteria != null && criteria.isSorted() && configuration.isSortExtensionSupported())
             {
-               // It seams that the sort order is not configurable and
-               // sort control returns entries in descending order by default...
-               if (!criteria.isAscending())
+               mergeAttributeName = sortAttributeName;
+            }
+
+            List<SearchResult> sr = searchIdentityObjects(invocationCtx,
+               entryCtxs,
+               filter,
+               null,
+               returningAttributes,
+               scope,
+               requestControls,
+               mergeAttributeName);
+
+
+            for (SearchResult res : sr)
+            {
+               Context resCtx = (Context)res.getObject();
+               String dn = resCtx.getNameInNamespace();
+               resCtx.close();
+               IdentityObject identityObject = createIdentityObjectInstance(invocationCtx, type, res.getAttributes(), dn);
+
+               if (sortValues != null)
+               {
+                  Attribute attribute = res.getAttributes().get(sortAttributeName);
+                  Object value = attribute != null ? attribute.get() : null;
+                  sortValues.put(identityObject, value != null ? value.toString() : "");
+               }
+
+               if (criteria != null && criteria.isSorted() && configuration.isSortExtensionSupported())
                {
-                  objects.addFirst(createIdentityObjectInstance(invocationCtx, type, res.getAttributes(), dn));
+                  // It seams that the sort order is not configurable and
+                  // sort control returns entries in descending order by default...
+                  if (!criteria.isAscending())
+                  {
+                     objects.addFirst(identityObject);
+                  }
+                  else
+                  {
+                     objects.addLast(identityObject);
+                  }
                }
                else
                {
-                  objects.addLast(createIdentityObjectInstance(invocationCtx, type, res.getAttributes(), dn));
+                  objects.add(identityObject);
                }
             }
-            else
-            {
-               objects.add(createIdentityObjectInstance(invocationCtx, type, res.getAttributes(), dn));
-            }
          }
 
          ctx.close();
@@ -923,15 +1304,29 @@ public class LDAPIdentityStoreImpl implements IdentityStore
          }
       }
 
-      // In case sort extension is not supported
-      if (criteria != null && criteria.isSorted() && !configuration.isSortExtensionSupported())
+      // In case sort extension is not supported or sort control was ignored by the server. Page read directly from
+      // the server results was sorted by the server
+      if (!pageCut && criteria != null && criteria.isSorted())
       {
-         sortByName(objects, criteria.isAscending());
+         if (sortValues != null)
+         {
+            sortByValues(objects, sortValues, criteria.isAscending());
+         }
+         else if (criteria.getPageAfterName() != null)
+         {
+            // Keyset page is cut using the same order as sortByName
+            sortByName(objects, criteria.isAscending());
+         }
+         else
+         {
+            // Same order as server sorting by name
+            sortByNameIgnoreCase(objects, criteria.isAscending());
+         }
       }
 
-      if (criteria != null && criteria.isPaged())
+      if (criteria != null && criteria.isPaged() && !pageCut)
       {
-         objects = (LinkedList)cutPageFromResults(objects, criteria);
+         return ResultsPage.cut(objects, criteria, ResultsPage.IDENTITY_OBJECT_NAMES).getObjects();
       }
 
       return objects;
@@ -974,54 +1369,43 @@ public class LDAPIdentityStoreImpl implements IdentityStore
             {
 
 
-               Name jndiName = new CompositeName().add(ldapIO.getDn());
-               Attributes attrs = ldapContext.getAttributes(jndiName);
-               Attribute member = attrs.get(typeConfig.getParentMembershipAttributeName());
+               List<String> memberRefs = new LinkedList<String>();
 
-               if (member != null)
+               for (String memberRef : getMembershipAttributeValues(ldapContext, ldapIO.getDn(), typeConfig.getParentMembershipAttributeName()))
                {
-                  NamingEnumeration memberValues = member.getAll();
-                  while (memberValues.hasMoreElements())
+                  // Ignore placeholder value in memberships
+                  String placeholder = typeConfig.getParentMembershipAttributePlaceholder();
+                  if (placeholder != null && memberRef.equalsIgnoreCase(placeholder))
                   {
-                     String memberRef = memberValues.nextElement().toString();
-
-                     // Ignore placeholder value in memberships
-                     String placeholder = typeConfig.getParentMembershipAttributePlaceholder();
-                     if (placeholder != null && memberRef.equalsIgnoreCase(placeholder))
-                     {
-                        continue;
-                     }
+                     continue;
+                  }
 
-                     if (typeConfig.isParentMembershipAttributeDN())
+                  if (typeConfig.isParentMembershipAttributeDN())
+                  {
+                     if (criteria != null && criteria.getFilter() != null)
                      {
-                        //TODO: use direct LDAP query instead of other find method and add attributesFilter
-
-                        if (criteria != null && criteria.getFilter() != null)
-                        {
-                           String name = Tools.stripDnToName(memberRef);
-                           String regex = Tools.wildcardToRegex(criteria.getFilter());
+                        String name = Tools.stripDnToName(memberRef);
+                        String regex = Tools.wildcardToRegex(criteria.getFilter());
 
-                           if (Pattern.matches(regex, name))
-                           {
-                              objects.add(findIdentityObject(ctx, memberRef));
-                           }
-                        }
-                        else
+                        if (!Pattern.matches(regex, name))
                         {
-                           objects.add(findIdentityObject(ctx, memberRef));
+                           continue;
                         }
                      }
-                     else
-                     {
-                        //TODO: if relationships are not refered with DNs and only names its not possible to map
-                        //TODO: them to proper IdentityType and keep name uniqnes per type. Workaround needed
-                        throw new NotYetImplementedException("LDAP limitation. If relationship targets are not refered with FQDNs " +
-                           "and only names, it's not possible to map them to proper IdentityType and keep name uniqnes per type. " +
-                           "Workaround needed");
-                     }
-                     //break;
+
+                     memberRefs.add(memberRef);
+                  }
+                  else
+                  {
+                     //TODO: if relationships are not refered with DNs and only names its not possible to map
+                     //TODO: them to proper IdentityType and keep name uniqnes per type. Workaround needed
+                     throw new NotYetImplementedException("LDAP limitation. If relationship targets are not refered with FQDNs " +
+                        "and only names, it's not possible to map them to proper IdentityType and keep name uniqnes per type. " +
+                        "Workaround needed");
                   }
                }
+
+               objects.addAll(resolveIdentityObjects(ctx, memberRefs).values());
             }
             else
             {
@@ -1041,48 +1425,36 @@ public class LDAPIdentityStoreImpl implements IdentityStore
             }
             else
             {
-               // Escape JNDI special characters
-               Name jndiName = new CompositeName().add(ldapIO.getDn());
-               Attributes attrs = ldapContext.getAttributes(jndiName);
-               Attribute member = attrs.get(typeConfig.getChildMembershipAttributeName());
+               List<String> memberRefs = new LinkedList<String>();
 
-               if (member != null)
+               for (String memberRef : getMembershipAttributeValues(ldapContext, ldapIO.getDn(), typeConfig.getChildMembershipAttributeName()))
                {
-                  NamingEnumeration memberValues = member.getAll();
-                  while (memberValues.hasMoreElements())
+                  if (typeConfig.isChildMembershipAttributeDN())
                   {
-                     String memberRef = memberValues.nextElement().toString();
-
-                     if (typeConfig.isChildMembershipAttributeDN())
+                     if (criteria != null && criteria.getFilter() != null)
                      {
-                        //TODO: use direct LDAP query instead of other find method and add attributesFilter
-
-                        if (criteria != null && criteria.getFilter() != null)
-                        {
-                           String name = Tools.stripDnToName(memberRef);
-                           String regex = Tools.wildcardToRegex(criteria.getFilter());
+                        String name = Tools.stripDnToName(memberRef);
+                        String regex = Tools.wildcardToRegex(criteria.getFilter());
 
-                           if (Pattern.matches(regex, name))
-                           {
-                              objects.add(findIdentityObject(ctx, memberRef));
-                           }
-                        }
-                        else
+                        if (!Pattern.matches(regex, name))
                         {
-                           objects.add(findIdentityObject(ctx, memberRef));
+                           continue;
                         }
                      }
-                     else
-                     {
-                        //TODO: if relationships are not refered with DNs and only names its not possible to map
-                        //TODO: them to proper IdentityType and keep name uniqnes per type. Workaround needed
-                        throw new NotYetImplementedException("LDAP limitation. If relationship targets are not refered with FQDNs " +
-                           "and only names, it's not possible to map them to proper IdentityType and keep name uniqnes per type. " +
-                           "Workaround needed");
-                     }
-                     //break;
+
+                     memberRefs.add(memberRef);
+                  }
+                  else
+                  {
+                     //TODO: if relationships are not refered with DNs and only names its not possible to map
+                     //TODO: them to proper IdentityType and keep name uniqnes per type. Workaround needed
+                     throw new NotYetImplementedException("LDAP limitation. If relationship targets are not refered with FQDNs " +
+                        "and only names, it's not possible to map them to proper IdentityType and keep name uniqnes per type. " +
+                        "Workaround needed");
                   }
                }
+
+               objects.addAll(resolveIdentityObjects(ctx, memberRefs).values());
             }
 
 
@@ -1117,19 +1489,244 @@ public class LDAPIdentityStoreImpl implements IdentityStore
          }
       }
 
-      if (criteria != null && criteria.isPaged())
-      {
-         objects = cutPageFromResults(objects, criteria);
-      }
+      // Page needs to be cut from sorted results
 
       if (criteria != null && criteria.isSorted())
       {
          sortByName(objects, criteria.isAscending());
       }
 
+      if (criteria != null && criteria.isPaged())
+      {
+         objects = ResultsPage.cut(objects, criteria, ResultsPage.IDENTITY_OBJECT_NAMES).getObjects();
+      }
+
       return objects;
    }
 
+   /**
+    * Identity object types configured with entry context that contains a given DN
+    */
+   private Set<IdentityObjectType> getTypesForDN(IdentityStoreInvocationContext ctx, String dn) throws IdentityException
+   {
+      IdentityObjectType[] possibleTypes = getConfiguration(ctx).getConfiguredTypes();
+      Set<IdentityObjectType> matches = new HashSet<IdentityObjectType>();
+
+      for (IdentityObjectType possibleType : possibleTypes)
+      {
+         String[] typeCtxs = getTypeConfiguration(ctx, possibleType).getCtxDNs();
+
+         for (String typeCtx : typeCtxs)
+         {
+            if (dn.toLowerCase().endsWith(typeCtx.toLowerCase()))
+            {
+               matches.add(possibleType);
+               break;
+            }
+         }
+      }
+
+      return matches;
+   }
+
+   /**
+    * Reads all values of membership attribute. Supports ranged attribute retrieval - servers like Active Directory
+    * return values of big multivalued attributes in chunks (member;range=0-1499) that need to be requested one by one.
+    *
+    * @param ldapContext
+    * @param dn
+    * @param attributeName
+    * @return
+    * @throws NamingException
+    */
+   private List<String> getMembershipAttributeValues(LdapContext ldapContext, String dn, String attributeName) throws NamingException
+   {
+      List<String> values = new LinkedList<String>();
+
+      // Escape JNDI special characters
+      Name jndiName = new CompositeName().add(dn);
+
+      String rangePrefix = attributeName.toLowerCase() + ";range=";
+      String requestedAttribute = attributeName;
+
+      while (requestedAttribute != null)
+      {
+         Attributes attrs = ldapContext.getAttributes(jndiName, new String[]{requestedAttribute});
+
+         requestedAttribute = null;
+
+         Attribute member = null;
+
+         NamingEnumeration<? extends Attribute> attributes = attrs.getAll();
+         while (attributes.hasMore())
+         {
+            Attribute attribute = attributes.next();
+            String id = attribute.getID().toLowerCase();
+
+            if (id.startsWith(rangePrefix))
+            {
+               member = attribute;
+
+               // Range is "first-last" or "first-*" for the last chunk
+               String range = id.substring(rangePrefix.length());
+               String last = range.substring(range.indexOf('-') + 1);
+
+               if (!last.equals("*"))
+               {
+                  requestedAttribute = attributeName + ";range=" + (Integer.parseInt(last) + 1) + "-*";
+               }
+            }
+            else if (member == null && id.equals(attributeName.toLowerCase()))
+            {
+               member = attribute;
+            }
+         }
+
+         if (member != null)
+         {
+            NamingEnumeration memberValues = member.getAll();
+            while (memberValues.hasMore())
+            {
+               values.add(memberValues.next().toString());
+            }
+         }
+      }
+
+      return values;
+   }
+
+   /**
+    * Resolves identity objects referenced with DNs. DNs are grouped by identity object type and resolved with single
+    * search per chunk of membershipResolveBatchSize entries - (|(id=name1)(id=name2)...) filter. DNs that cannot be
+    * resolved this way are looked up one by one.
+    *
+    * @param ctx
+    * @param dns
+    * @return resolved objects keyed by DN in the same order as provided DNs
+    * @throws IdentityException
+    * @throws NamingException
+    */
+   private Map<String, IdentityObject> resolveIdentityObjects(IdentityStoreInvocationContext ctx, List<String> dns) throws IdentityException, NamingException
+   {
+      Map<LdapName, IdentityObject> resolved = new HashMap<LdapName, IdentityObject>();
+
+      int batchSize = configuration.getMembershipResolveBatchSize();
+
+      if (batchSize > 1 && dns.size() > 1)
+      {
+         // <type name, DNs>
+         Map<String, List<String>> dnsByType = new HashMap<String, List<String>>();
+         Map<String, IdentityObjectType> types = new HashMap<String, IdentityObjectType>();
+
+         for (String dn : dns)
+         {
+            Set<IdentityObjectType> matches = getTypesForDN(ctx, dn);
+
+            // Ambiguous types are handled by single lookup
+            if (matches.size() == 1)
+            {
+               IdentityObjectType type = matches.iterator().next();
+
+               if (!dnsByType.containsKey(type.getName()))
+               {
+                  dnsByType.put(type.getName(), new ArrayList<String>());
+                  types.put(type.getName(), type);
+               }
+
+               dnsByType.get(type.getName()).add(dn);
+            }
+         }
+
+         for (Map.Entry<String, List<String>> entry : dnsByType.entrySet())
+         {
+            List<String> typeDns = entry.getValue();
+
+            for (int i = 0; i < typeDns.size(); i += batchSize)
+            {
+               resolveIdentityObjectsChunk(ctx,
+                  types.get(entry.getKey()),
+                  typeDns.subList(i, Math.min(i + batchSize, typeDns.size())),
+                  resolved);
+            }
+         }
+      }
+
+      Map<String, IdentityObject> results = new LinkedHashMap<String, IdentityObject>();
+
+      for (String dn : dns)
+      {
+         IdentityObject io = resolved.get(new LdapName(dn));
+
+         if (io == null)
+         {
+            io = findIdentityObject(ctx, dn);
+         }
+
+         results.put(dn, io);
+      }
+
+      return results;
+   }
+
+   private void resolveIdentityObjectsChunk(IdentityStoreInvocationContext ctx,
+                                            IdentityObjectType type,
+                                            List<String> dns,
+                                            Map<LdapName, IdentityObject> resolved) throws IdentityException, NamingException
+   {
+      LDAPIdentityObjectTypeConfiguration typeConfiguration = getTypeConfiguration(ctx, type);
+
+      String idAttributeName = typeConfiguration.getIdAttributeName();
+
+      Set<LdapName> requested = new HashSet<LdapName>();
+
+      // Values are escaped by filterArgs
+      StringBuilder af = new StringBuilder("(|");
+      Object[] filterArgs = new Object[dns.size()];
+
+      for (int i = 0; i < dns.size(); i++)
+      {
+         requested.add(new LdapName(dns.get(i)));
+
+         af.append("(").append(idAttributeName).append("={").append(i).append("})");
+         filterArgs[i] = Tools.stripDnToName(dns.get(i));
+      }
+
+      af.append(")");
+
+      String filter = typeConfiguration.getEntrySearchFilter();
+
+      if (filter != null && filter.length() > 0)
+      {
+         filter = "(&(" + filter.replaceAll("\\{0\\}", "*") + ")" + af.toString() + ")";
+      }
+      else
+      {
+         filter = af.toString();
+      }
+
+      List<SearchResult> sr = searchIdentityObjects(ctx,
+         typeConfiguration.getCtxDNs(),
+         filter,
+         filterArgs,
+         new String[]{idAttributeName},
+         typeConfiguration.getEntrySearchScope(),
+         null);
+
+      for (SearchResult res : sr)
+      {
+         Context resCtx = (Context)res.getObject();
+         String dn = resCtx.getNameInNamespace();
+         resCtx.close();
+
+         // Same name can exist in other subtree of the context
+         LdapName ldapName = new LdapName(dn);
+         if (requested.contains(ldapName))
+         {
+            resolved.put(ldapName, createIdentityObjectInstance(ctx, type, res.getAttributes(), dn));
+         }
+      }
+   }
+
    public List<IdentityObject> findRelatedIdentityObjects(IdentityStoreInvocationContext ctx,
                                                           IdentityObject identity,
                                                           LDAPIdentityObjectImpl ldapIO,
@@ -1330,47 +1927,37 @@ public class LDAPIdentityStoreImpl implements IdentityStore
          // If parent simply look for all its members
          if (parent)
          {
-            // Escape JNDI special characters
-            Name jndiName = new CompositeName().add(ldapIO.getDn());
-            Attributes attrs = ldapContext.getAttributes(jndiName);
-
             if (typeConfig.getParentMembershipAttributeName() != null )
             {
-               Attribute member = attrs.get(typeConfig.getParentMembershipAttributeName());
-
+               List<String> memberRefs = new LinkedList<String>();
 
-               if (member != null)
+               for (String memberRef : getMembershipAttributeValues(ldapContext, ldapIO.getDn(), typeConfig.getParentMembershipAttributeName()))
                {
-                  NamingEnumeration memberValues = member.getAll();
-                  while (memberValues.hasMoreElements())
+                  // Ignore placeholder value in memberships
+                  String placeholder = typeConfig.getParentMembershipAttributePlaceholder();
+                  if (placeholder != null && memberRef.equalsIgnoreCase(placeholder))
                   {
-                     String memberRef = memberValues.nextElement().toString();
-
-                     // Ignore placeholder value in memberships
-                     String placeholder = typeConfig.getParentMembershipAttributePlaceholder();
-                     if (placeholder != null && memberRef.equalsIgnoreCase(placeholder))
-                     {
-                        continue;
-                     }
-
-                     if (typeConfig.isParentMembershipAttributeDN())
-                     {
-                        //TODO: use direct LDAP query instaed of other find method and add attributesFilter
-
-                        relationships.add(new LDAPIdentityObjectRelationshipImpl(MEMBERSHIP_TYPE, ldapIO, findIdentityObject(ctx, memberRef)));
+                     continue;
+                  }
 
-                     }
-                     else
-                     {
-                        //TODO: if relationships are not refered with DNs and only names its not possible to map
-                        //TODO: them to proper IdentityType and keep name uniqnes per type. Workaround needed
-                        throw new NotYetImplementedException("LDAP limitation. If relationship targets are not refered with FQDNs " +
-                           "and only names, it's not possible to map them to proper IdentityType and keep name uniqnes per type. " +
-                           "Workaround needed");
-                     }
-                     //break;
+                  if (typeConfig.isParentMembershipAttributeDN())
+                  {
+                     memberRefs.add(memberRef);
+                  }
+                  else
+                  {
+                     //TODO: if relationships are not refered with DNs and only names its not possible to map
+                     //TODO: them to proper IdentityType and keep name uniqnes per type. Workaround needed
+                     throw new NotYetImplementedException("LDAP limitation. If relationship targets are not refered with FQDNs " +
+                        "and only names, it's not possible to map them to proper IdentityType and keep name uniqnes per type. " +
+                        "Workaround needed");
                   }
                }
+
+               for (IdentityObject member : resolveIdentityObjects(ctx, memberRefs).values())
+               {
+                  relationships.add(new LDAPIdentityObjectRelationshipImpl(MEMBERSHIP_TYPE, ldapIO, member));
+               }
             }
             else
             {
@@ -1383,42 +1970,31 @@ public class LDAPIdentityStoreImpl implements IdentityStore
          // if not parent then all parent entries need to be found
          else
          {
-            // Escape JNDI special characters
-            Name jndiName = new CompositeName().add(ldapIO.getDn());
-            Attributes attrs = ldapContext.getAttributes(jndiName);
-
             if (typeConfig.getChildMembershipAttributeName() != null)
             {
-               Attribute member = attrs.get(typeConfig.getChildMembershipAttributeName());
+               List<String> memberRefs = new LinkedList<String>();
 
-               if (member != null)
+               for (String memberRef : getMembershipAttributeValues(ldapContext, ldapIO.getDn(), typeConfig.getChildMembershipAttributeName()))
                {
-                  NamingEnumeration memberValues = member.getAll();
-                  while (memberValues.hasMoreElements())
+                  if (typeConfig.isChildMembershipAttributeDN())
                   {
-                     String memberRef = memberValues.nextElement().toString();
-
-                     // Ignore placeholder value in memberships
-
-                     if (typeConfig.isChildMembershipAttributeDN())
-                     {
-                        //TODO: use direct LDAP query instaed of other find method and add attributesFilter
-
-                        relationships.add(new LDAPIdentityObjectRelationshipImpl(MEMBERSHIP_TYPE, findIdentityObject(ctx, memberRef), ldapIO));
-
-                     }
-                     else
-                     {
-                        //TODO: if relationships are not refered with DNs and only names its not possible to map
-                        //TODO: them to proper IdentityType and keep name uniqnes per type. Workaround needed
-                        throw new NotYetImplementedException("LDAP limitation. If relationship targets are not refered with FQDNs " +
-                           "and only names, it's not possible to map them to proper IdentityType and keep name uniqnes per type. " +
-                           "Workaround needed");
-                     }
-                     //break;
+                     memberRefs.add(memberRef);
+                  }
+                  else
+                  {
+                     //TODO: if relationships are not refered with DNs and only names its not possible to map
+                     //TODO: them to proper IdentityType and keep name uniqnes per type. Workaround needed
+                     throw new NotYetImplementedException("LDAP limitation. If relationship targets are not refered with FQDNs " +
+                        "and only names, it's not possible to map them to proper IdentityType and keep name uniqnes per type. " +
+                        "Workaround needed");
                   }
                }
 
+               for (IdentityObject member : resolveIdentityObjects(ctx, memberRefs).values())
+               {
+                  relationships.add(new LDAPIdentityObjectRelationshipImpl(MEMBERSHIP_TYPE, member, ldapIO));
+               }
+
             }
             else
             {
@@ -1683,7 +2259,7 @@ public class LDAPIdentityStoreImpl implements IdentityStore
             Name jndiName = new CompositeName().add(ldapFromIO.getDn());
             ldapContext.modifyAttributes(jndiName, DirContext.ADD_ATTRIBUTE, attrs);
 
-            invalidateCache();
+            invalidateCache(new String[]{ldapFromIO.getDn()});
          }
 
          if (toTypeConfig.getChildMembershipAttributeName() != null && !toTypeConfig.isChildMembershipAttributeVirtual())
@@ -1706,7 +2282,7 @@ public class LDAPIdentityStoreImpl implements IdentityStore
             Name jndiName = new CompositeName().add(ldapToIO.getDn());
             ldapContext.modifyAttributes(jndiName, DirContext.ADD_ATTRIBUTE, attrs);
 
-            invalidateCache();
+            invalidateCache(new String[]{ldapToIO.getDn()});
          }
 
          relationship = new LDAPIdentityObjectRelationshipImpl(name, ldapFromIO, ldapToIO);
@@ -1804,7 +2380,7 @@ public class LDAPIdentityStoreImpl implements IdentityStore
             Name jndiName = new CompositeName().add(ldapFromIO.getDn());
             ldapContext.modifyAttributes(jndiName, DirContext.REMOVE_ATTRIBUTE, attrs);
 
-            invalidateCache();
+            invalidateCache(new String[]{ldapFromIO.getDn()});
          }
 
          if (toTypeConfig.getChildMembershipAttributeName() != null && !toTypeConfig.isChildMembershipAttributeVirtual())
@@ -1826,7 +2402,7 @@ public class LDAPIdentityStoreImpl implements IdentityStore
             Name jndiName = new CompositeName().add(ldapToIO.getDn());
             ldapContext.modifyAttributes(jndiName, DirContext.REMOVE_ATTRIBUTE, attrs);
 
-            invalidateCache();
+            invalidateCache(new String[]{ldapToIO.getDn()});
          }
 
       }
@@ -2244,8 +2820,9 @@ public class LDAPIdentityStoreImpl implements IdentityStore
 
          for (SearchResult res : sr)
          {
-            ctx = (LdapContext)res.getObject();
-            String dn = ctx.getNameInNamespace();
+            Context resCtx = (Context)res.getObject();
+            String dn = resCtx.getNameInNamespace();
+            resCtx.close();
             String[] parts = dn.split("=");
 
             names.add(parts[1]);
@@ -2384,6 +2961,11 @@ public class LDAPIdentityStoreImpl implements IdentityStore
             passwordString = "";
          }
 
+         if (authConnectionPool != null)
+         {
+            return bindWithAuthConnectionPool(ldapIO.getDn(), passwordString);
+         }
+
          LdapContext ldapContext = getLDAPContext(ctx);
 
          try
@@ -2394,7 +2976,7 @@ public class LDAPIdentityStoreImpl implements IdentityStore
             env.put(Context.SECURITY_PRINCIPAL, ldapIO.getDn());
             env.put(Context.SECURITY_CREDENTIALS, passwordString);
 
-            InitialContext initialCtx = new InitialLdapContext(env, null);
+            InitialContext initialCtx = new InitialLdapContext(env, getBindConnectionControls());
 
             if (initialCtx != null)
             {
@@ -2542,7 +3124,7 @@ public class LDAPIdentityStoreImpl implements IdentityStore
             Name jndiName = new CompositeName().add(ldapIO.getDn());
             ldapContext.modifyAttributes(jndiName, DirContext.REPLACE_ATTRIBUTE, attrs);
 
-            invalidateCache();
+            invalidateCache(new String[]{ldapIO.getDn()});
          }
          catch (NamingException e)
          {
@@ -2600,6 +3182,14 @@ public class LDAPIdentityStoreImpl implements IdentityStore
    }
 
 
+   public Map<IdentityObject, Map<String, IdentityObjectAttribute>> getAttributes(IdentityStoreInvocationContext ctx,
+                                                                                  Collection<IdentityObject> identities,
+                                                                                  String[] attributeNames) throws IdentityException
+   {
+      // Each entry is read by its DN anyway
+      return IdentityObjectAttributes.getAttributes(this, ctx, identities, attributeNames);
+   }
+
    public IdentityObjectAttribute getAttribute(IdentityStoreInvocationContext invocationContext, IdentityObject identity, String name) throws IdentityException
    {
       //TODO: dummy temporary implementation
@@ -2629,50 +3219,42 @@ public class LDAPIdentityStoreImpl implements IdentityStore
          }
       }
 
-      Map<String, IdentityObjectAttribute> attrsMap = new HashMap<String, IdentityObjectAttribute>();
+      Map<String, IdentityObjectAttribute> attrsMap = null;
 
-      LDAPIdentityObjectImpl ldapIdentity = getSafeLDAPIO(ctx, identity);
+      if (identity != null && !(identity instanceof LDAPIdentityObjectImpl))
+      {
+         // Entry needs to be looked up anyway so attributes are read with it within this call
+
+         attrsMap = new HashMap<String, IdentityObjectAttribute>();
+
+         if (findIdentityObject(ctx, identity.getName(), identity.getIdentityType(), attrsMap) == null)
+         {
+            throw new IdentityException("Provided IdentityObject is not present in the store. Cannot operate on not stored objects.");
+         }
+
+         if (getCache() != null)
+         {
+            getCache().putIdentityObjectAttributes(getNamespace(), identity, attrsMap);
+         }
 
+         return attrsMap;
+      }
+
+      LDAPIdentityObjectImpl ldapIdentity = getSafeLDAPIO(ctx, identity);
 
       LdapContext ldapContext = getLDAPContext(ctx);
 
       try
       {
-         Set<String> mappedNames = getTypeConfiguration(ctx, identity.getIdentityType()).getMappedAttributesNames();
-
          // as this is valid LDAPIdentityObjectImpl DN is obtained from the Id
 
          String dn = ldapIdentity.getDn();
 
          // Escape JNDI special characters
          Name jndiName = new CompositeName().add(dn);
-         Attributes attrs = ldapContext.getAttributes(jndiName);
-
-         for (Iterator iterator = mappedNames.iterator(); iterator.hasNext();)
-         {
-            String name = (String)iterator.next();
-            String attrName = getTypeConfiguration(ctx, identity.getIdentityType()).getAttributeMapping(name);
-            Attribute attr = attrs.get(attrName);
-
-            if (attr != null)
-            {
-
-               IdentityObjectAttribute identityObjectAttribute = new SimpleAttribute(name);
-
-               NamingEnumeration values = attr.getAll();
-
-               while (values.hasMoreElements())
-               {
-                  identityObjectAttribute.addValue(values.nextElement().toString());
-               }
+         Attributes attrs = ldapContext.getAttributes(jndiName, getMappedAttributeNames(ctx, identity.getIdentityType()));
 
-               attrsMap.put(name, identityObjectAttribute);
-            }
-            else
-            {
-               log.fine("No such attribute ('" + attrName + "') in entry: " + dn);
-            }
-         }
+         attrsMap = createAttributesMap(ctx, identity.getIdentityType(), attrs, dn);
       }
       catch (NamingException e)
       {
@@ -2806,7 +3388,7 @@ public class LDAPIdentityStoreImpl implements IdentityStore
                   Name jndiName = new CompositeName().add(dn);
                   ldapContext.modifyAttributes(jndiName, DirContext.REPLACE_ATTRIBUTE, attrs);
 
-                  invalidateCache();
+                  invalidateCache(new String[]{dn});
                }
                catch (NamingException e)
                {
@@ -2942,7 +3524,7 @@ public class LDAPIdentityStoreImpl implements IdentityStore
                   Name jndiName = new CompositeName().add(dn);
                   ldapContext.modifyAttributes(jndiName, DirContext.ADD_ATTRIBUTE, attrs);
 
-                  invalidateCache();
+                  invalidateCache(new String[]{dn});
                }
                catch (NamingException e)
                {
@@ -3046,7 +3628,7 @@ public class LDAPIdentityStoreImpl implements IdentityStore
                Name jndiName = new CompositeName().add(dn);
                ldapContext.modifyAttributes(jndiName, DirContext.REMOVE_ATTRIBUTE, attrs);
 
-               invalidateCache();
+               invalidateCache(new String[]{dn});
             }
             catch (NamingException e)
             {
@@ -3147,8 +3729,9 @@ public class LDAPIdentityStoreImpl implements IdentityStore
 
          for (SearchResult res : sr)
          {
-            ctx = (LdapContext)res.getObject();
-            String dn = ctx.getNameInNamespace();
+            Context resCtx = (Context)res.getObject();
+            String dn = resCtx.getNameInNamespace();
+            resCtx.close();
             objects.add(createIdentityObjectInstance(invocationCtx, type, res.getAttributes(), dn));
          }
 
@@ -3202,6 +3785,26 @@ public class LDAPIdentityStoreImpl implements IdentityStore
       return objects.get(0);
    }
 
+   public Collection<IdentityObject> findIdentityObjectCascaded(IdentityStoreInvocationContext invocationCxt,
+                                                                IdentityObject identity,
+                                                                IdentityObjectRelationshipType relationshipType,
+                                                                IdentityObjectType identityType,
+                                                                boolean parent) throws IdentityException
+   {
+      // Membership attributes are read entry by entry - walk the hierarchy level by level
+      return IdentityObjectTraversal.findIdentityObjectCascaded(this, invocationCxt, identity, relationshipType,
+         identityType, parent);
+   }
+
+   public int importIdentityObjects(IdentityStoreInvocationContext ctx,
+                                    Iterator<IdentityObjectImport> objects,
+                                    int batchSize,
+                                    IdentityObjectImportListener listener) throws IdentityException
+   {
+      // LDAP has no batch write operation - each entry is added separately
+      return IdentityObjectImporter.importIdentityObjects(this, ctx, objects, batchSize, listener);
+   }
+
    //Internal
 
    public LDAPIdentityObjectImpl createIdentityObjectInstance(IdentityStoreInvocationContext ctx, IdentityObjectType type, Attributes attrs, String dn) throws IdentityException
@@ -3235,62 +3838,246 @@ public class LDAPIdentityStoreImpl implements IdentityStore
       return ldapio;
    }
 
-   public List<SearchResult> searchIdentityObjects(IdentityStoreInvocationContext ctx,
-                                                   String[] entryCtxs,
-                                                   String filter,
-                                                   Object[] filterArgs,
-                                                   String[] returningAttributes,
-                                                   String searchScope,
-                                                   Control[] requestControls) throws NamingException, IdentityException
+   /**
+    * Converts LDAP attributes of an entry to identity object attributes using configured mappings.
+    *
+    * @param ctx
+    * @param type
+    * @param attrs
+    * @param dn
+    * @return
+    * @throws NamingException
+    * @throws IdentityException
+    */
+   private Map<String, IdentityObjectAttribute> createAttributesMap(IdentityStoreInvocationContext ctx,
+                                                                    IdentityObjectType type,
+                                                                    Attributes attrs,
+                                                                    String dn) throws NamingException, IdentityException
    {
+      Map<String, IdentityObjectAttribute> attrsMap = new HashMap<String, IdentityObjectAttribute>();
 
-       // Set max results for query. Try to get from configuration file, first. Use {@link MAX_SEARCH_RESULTS_DEFAULT}, alternatively.
-       try
-       {
-           List<Control> controlList = new ArrayList<Control>();
-           if (requestControls != null)
-           {
-               controlList.addAll(Arrays.asList(requestControls));
-           }
+      Set<String> mappedNames = getTypeConfiguration(ctx, type).getMappedAttributesNames();
 
-           if (maxResults <= 0) // lazily load maxResults from configuration
-           {
-               maxResults = MAX_SEARCH_RESULTS_DEFAULT; // default value
-               try
-               {
-                   maxResults = Integer.valueOf(getConfiguration(ctx).getConfigurationMetaData().getOptions().get(MAX_SEARCH_RESULTS).get(0));
-               }
-               catch (Exception e)
-               {
-                   log.finer("Could not load configuration value for maxResults from options of identity store context: " + ctx);
-               }
-           }
+      for (Iterator iterator = mappedNames.iterator(); iterator.hasNext();)
+      {
+         String name = (String)iterator.next();
+         String attrName = getTypeConfiguration(ctx, type).getAttributeMapping(name);
+         Attribute attr = attrs.get(attrName);
 
-           controlList.add(new PagedResultsControl(maxResults, Control.CRITICAL));
-           requestControls = new Control[controlList.size()];
-           requestControls = controlList.toArray(requestControls);
-       }
-       catch (IOException e)
-       {
-           if (log.isLoggable(Level.FINER))
+         if (attr != null)
          {
-            log.log(Level.FINER, "Exception occurred: ", e);
-         }
 
-         throw new IdentityException("IdentityObject search failed.", e);
-       }
+            IdentityObjectAttribute identityObjectAttribute = new SimpleAttribute(name);
 
+            NamingEnumeration values = attr.getAll();
 
-       //Debug
-      if (log.isLoggable(Level.FINER))
-      {
-         StringBuffer sb = new StringBuffer();
-         sb.append("Prepared LDAP Search ");
-         if (entryCtxs != null)
-         {
-            sb.append("; contexts: ").append(Arrays.toString(entryCtxs));
-         }
-         if (filter != null)
+            while (values.hasMoreElements())
+            {
+               identityObjectAttribute.addValue(values.nextElement().toString());
+            }
+
+            attrsMap.put(name, identityObjectAttribute);
+         }
+         else
+         {
+            log.fine("No such attribute ('" + attrName + "') in entry: " + dn);
+         }
+      }
+
+      return attrsMap;
+   }
+
+   /**
+    * @param ctx
+    * @param type
+    * @return names of LDAP attributes mapped to identity object attributes of a given type
+    * @throws IdentityException
+    */
+   private String[] getMappedAttributeNames(IdentityStoreInvocationContext ctx, IdentityObjectType type) throws IdentityException
+   {
+      LDAPIdentityObjectTypeConfiguration typeConfiguration = getTypeConfiguration(ctx, type);
+
+      Set<String> names = new LinkedHashSet<String>();
+
+      for (String name : typeConfiguration.getMappedAttributesNames())
+      {
+         String attrName = typeConfiguration.getAttributeMapping(name);
+         if (attrName != null)
+         {
+            names.add(attrName);
+         }
+      }
+
+      if (names.isEmpty())
+      {
+         return NO_ATTRIBUTES;
+      }
+
+      return names.toArray(new String[names.size()]);
+   }
+
+   /**
+    * @param ctx
+    * @param type
+    * @return names of LDAP attributes needed to create identity object of a given type together with its attributes
+    * @throws IdentityException
+    */
+   private String[] getEntryAttributeNames(IdentityStoreInvocationContext ctx, IdentityObjectType type) throws IdentityException
+   {
+      String[] mappedNames = getMappedAttributeNames(ctx, type);
+      String idAttributeName = getTypeConfiguration(ctx, type).getIdAttributeName();
+
+      if (mappedNames == NO_ATTRIBUTES)
+      {
+         return new String[]{idAttributeName};
+      }
+
+      for (String mappedName : mappedNames)
+      {
+         if (mappedName.equalsIgnoreCase(idAttributeName))
+         {
+            return mappedNames;
+         }
+      }
+
+      String[] names = new String[mappedNames.length + 1];
+      names[0] = idAttributeName;
+      System.arraycopy(mappedNames, 0, names, 1, mappedNames.length);
+
+      return names;
+   }
+
+   public List<SearchResult> searchIdentityObjects(IdentityStoreInvocationContext ctx,
+                                                   String[] entryCtxs,
+                                                   String filter,
+                                                   Object[] filterArgs,
+                                                   String[] returningAttributes,
+                                                   String searchScope,
+                                                   Control[] requestControls) throws NamingException, IdentityException
+   {
+      return searchIdentityObjects(ctx, entryCtxs, filter, filterArgs, returningAttributes, searchScope, requestControls, null);
+   }
+
+   /**
+    * @param sortAttributeName if not null results from each entry context are expected to be sorted by this attribute
+    * (server side sort control) and are merged preserving the order
+    */
+   public List<SearchResult> searchIdentityObjects(IdentityStoreInvocationContext ctx,
+                                                   String[] entryCtxs,
+                                                   String filter,
+                                                   Object[] filterArgs,
+                                                   String[] returningAttributes,
+                                                   String searchScope,
+                                                   Control[] requestControls,
+                                                   String sortAttributeName) throws NamingException, IdentityException
+   {
+
+      LDAPSearch search = null;
+
+      if (searchCache != null || getCache() != null)
+      {
+         search = new LDAPSearch(entryCtxs, filter, filterArgs, returningAttributes, searchScope, requestControls);
+
+         List<SearchResult> results = getCachedSearchResults(search);
+
+         if (results != null)
+         {
+
+            //Debug
+            if (log.isLoggable(Level.FINER))
+            {
+               log.finer("LDAP search results found in cache. size=" + results.size());
+            }
+
+            return results;
+
+         }
+      }
+
+      List<SearchResult> finalResults;
+
+      if (entryCtxs != null && entryCtxs.length > 1 && (searchExecutor != null || sortAttributeName != null))
+      {
+         List<List<SearchResult>> partialResults =
+            searchEntryContexts(ctx, entryCtxs, filter, filterArgs, returningAttributes, searchScope, requestControls);
+
+         if (sortAttributeName != null)
+         {
+            finalResults = mergeSortedResults(partialResults, sortAttributeName);
+         }
+         else
+         {
+            finalResults = new ArrayList<SearchResult>();
+
+            for (List<SearchResult> partialResult : partialResults)
+            {
+               finalResults.addAll(partialResult);
+            }
+         }
+      }
+      else
+      {
+         finalResults = streamIdentityObjects(ctx,
+            entryCtxs,
+            filter,
+            filterArgs,
+            returningAttributes,
+            searchScope,
+            requestControls).toList();
+      }
+
+      if (log.isLoggable(Level.FINER))
+      {
+         log.finer("Search in " + Arrays.toString(entryCtxs) + " returned " + finalResults.size() + " entries");
+      }
+
+      if (search != null)
+      {
+         putCachedSearchResults(search, finalResults);
+
+         if (log.isLoggable(Level.FINER))
+         {
+            log.finer("LDAP search results stored in cache. size=" + finalResults.size());
+         }
+      }
+
+      return finalResults;
+   }
+
+   /**
+    * Performs search without reading all the results into memory. Results are requested from the server page by page
+    * (maxSearchResults entries each) following paged results cookie. Returned cursor must be closed.
+    * Results are not cached.
+    *
+    * @param ctx
+    * @param entryCtxs
+    * @param filter
+    * @param filterArgs
+    * @param returningAttributes
+    * @param searchScope
+    * @param requestControls
+    * @return
+    * @throws NamingException
+    * @throws IdentityException
+    */
+   public LDAPSearchCursor streamIdentityObjects(IdentityStoreInvocationContext ctx,
+                                                 String[] entryCtxs,
+                                                 String filter,
+                                                 Object[] filterArgs,
+                                                 String[] returningAttributes,
+                                                 String searchScope,
+                                                 Control[] requestControls) throws NamingException, IdentityException
+   {
+       //Debug
+      if (log.isLoggable(Level.FINER))
+      {
+         StringBuffer sb = new StringBuffer();
+         sb.append("Prepared LDAP Search ");
+         if (entryCtxs != null)
+         {
+            sb.append("; contexts: ").append(Arrays.toString(entryCtxs));
+         }
+         if (filter != null)
          {
             sb.append("; filter: ").append(filter);
          }
@@ -3310,146 +4097,390 @@ public class LDAPIdentityStoreImpl implements IdentityStore
          log.finer(sb.toString());
       }
 
-      if (getCache() != null)
+      return new LDAPSearchCursor(getLDAPContext(ctx),
+         entryCtxs,
+         filter,
+         filterArgs,
+         createSearchControls(ctx, returningAttributes, searchScope, true),
+         requestControls,
+         getSearchPageSize(ctx));
+   }
+
+   private SearchControls createSearchControls(IdentityStoreInvocationContext ctx,
+                                               String[] returningAttributes,
+                                               String searchScope,
+                                               boolean returningObj) throws IdentityException
+   {
+      SearchControls searchControls = new SearchControls();
+      if (searchScope != null)
       {
-         LDAPSearch search =
-            new LDAPSearch(entryCtxs, filter, filterArgs, returningAttributes, searchScope, requestControls);
+         if (searchScope.equalsIgnoreCase("subtree"))
+         {
+            searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+         }
+         else if (searchScope.equalsIgnoreCase("object"))
+         {
+            searchControls.setSearchScope(SearchControls.OBJECT_SCOPE);
+         }
+      }
+      searchControls.setReturningObjFlag(returningObj);
+      searchControls.setTimeLimit(getConfiguration(ctx).getSearchTimeLimit());
+
+
+      if (returningAttributes != null)
+      {
+         searchControls.setReturningAttributes(returningAttributes);
+      }
+
+      return searchControls;
+   }
+
+   /**
+    * Counts entries by reading all search results page by page. Entries are not kept in memory and no attributes
+    * are transferred.
+    */
+   private int countEntries(IdentityStoreInvocationContext ctx,
+                            String[] entryCtxs,
+                            String filter,
+                            String searchScope) throws NamingException, IdentityException
+   {
+      LDAPSearchCursor cursor = new LDAPSearchCursor(getLDAPContext(ctx),
+         entryCtxs,
+         filter,
+         null,
+         createSearchControls(ctx, NO_ATTRIBUTES, searchScope, false),
+         null,
+         getSearchPageSize(ctx));
+
+      return cursor.count();
+   }
+
+   /**
+    * Counts entries using content count returned by the server in virtual list view response control. Only single
+    * entry is transferred for each entry context.
+    */
+   private int countWithVirtualListView(IdentityStoreInvocationContext ctx,
+                                        String[] entryCtxs,
+                                        String filter,
+                                        String searchScope,
+                                        String sortAttributeName) throws NamingException, IOException, IdentityException
+   {
+      SearchControls searchControls = createSearchControls(ctx, NO_ATTRIBUTES, searchScope, false);
+
+      LdapContext ldapContext = getLDAPContext(ctx);
 
-         Object results = getCache().getObject(getNamespace(), search.hashCode());
+      int count = 0;
 
-         if (results != null && results instanceof List)
+      try
+      {
+         for (String entryCtx : entryCtxs)
          {
+            // VLV requires sort control
+            ldapContext.setRequestControls(new Control[]{
+               new SortControl(sortAttributeName, Control.CRITICAL),
+               new VirtualListViewControl(0, 0, 1, 0)
+            });
 
-            //Debug
-            if (log.isLoggable(Level.FINER))
+            // Escape JNDI special characters
+            Name jndiName = new CompositeName().add(entryCtx);
+
+            NamingEnumeration results = ldapContext.search(jndiName, filter, searchControls);
+
+            try
             {
-               log.finer("LDAP search results found in cache. size=" + ((List)results).size());
+               while (results.hasMore())
+               {
+                  results.next();
+               }
+            }
+            finally
+            {
+               results.close();
             }
 
-            return (List<SearchResult>)results;
+            int contentCount = VirtualListViewControl.getContentCount(ldapContext.getResponseControls());
 
+            if (contentCount < 0)
+            {
+               throw new IdentityException("LDAP server didn't return virtual list view response control. " +
+                  "Check if VLV is supported or change " + COUNT_STRATEGY + " option. Context: " + entryCtx);
+            }
+
+            count += contentCount;
          }
       }
-
-
-      LdapContext ldapContext = getLDAPContext(ctx);
-
-      if (ldapContext != null)
+      finally
       {
-         ldapContext.setRequestControls(requestControls);
+         ldapContext.close();
       }
 
-      NamingEnumeration results = null;
+      return count;
+   }
 
-      List<SearchResult> finalResults;
+   /**
+    * Sums values of configured counter attribute (numSubordinates by default) read from entry contexts.
+    */
+   private int countWithCounterAttribute(IdentityStoreInvocationContext ctx, String[] entryCtxs) throws NamingException, IdentityException
+   {
+      String attributeName = configuration.getCountAttributeName();
+
+      LdapContext ldapContext = getLDAPContext(ctx);
+
+      int count = 0;
 
       try
       {
-
-         SearchControls searchControls = new SearchControls();
-         if (searchScope != null)
+         for (String entryCtx : entryCtxs)
          {
-            if (searchScope.equalsIgnoreCase("subtree"))
-            {
-               searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
-            }
-            else if (searchScope.equalsIgnoreCase("object"))
+            // Escape JNDI special characters
+            Name jndiName = new CompositeName().add(entryCtx);
+
+            Attribute attribute = ldapContext.getAttributes(jndiName, new String[]{attributeName}).get(attributeName);
+
+            if (attribute == null || attribute.get() == null)
             {
-               searchControls.setSearchScope(SearchControls.OBJECT_SCOPE);
+               throw new IdentityException("Counter attribute " + attributeName + " is not present in entry: " + entryCtx);
             }
+
+            count += Integer.parseInt(attribute.get().toString());
          }
-         searchControls.setReturningObjFlag(true);
-         searchControls.setTimeLimit(getConfiguration(ctx).getSearchTimeLimit());
+      }
+      finally
+      {
+         ldapContext.close();
+      }
 
+      return count;
+   }
 
-         if (returningAttributes != null)
+   /**
+    * Searches each entry context separately. If search fan-out is enabled searches are performed concurrently and
+    * whole operation must complete within configured time limit. Concurrent searches use instances of the context
+    * held by the calling thread (requests are multiplexed over its connection) so they never wait for the connection
+    * pool, and are sent with server side time limit so searches abandoned by the caller don't keep running.
+    *
+    * @return results for each entry context in the same order as entryCtxs
+    */
+   private List<List<SearchResult>> searchEntryContexts(final IdentityStoreInvocationContext ctx,
+                                                        String[] entryCtxs,
+                                                        final String filter,
+                                                        final Object[] filterArgs,
+                                                        final String[] returningAttributes,
+                                                        final String searchScope,
+                                                        final Control[] requestControls) throws NamingException, IdentityException
+   {
+      List<List<SearchResult>> results = new ArrayList<List<SearchResult>>(entryCtxs.length);
+
+      if (searchExecutor == null)
+      {
+         for (String entryCtx : entryCtxs)
          {
-            searchControls.setReturningAttributes(returningAttributes);
+            results.add(streamIdentityObjects(ctx, new String[]{entryCtx}, filter, filterArgs, returningAttributes,
+               searchScope, requestControls).toList());
          }
 
+         return results;
+      }
+
+      long timeLimit = configuration.getSearchFanOutTimeLimit();
+      long deadline = System.currentTimeMillis() + timeLimit;
+
+      SearchControls searchControls = createSearchControls(ctx, returningAttributes, searchScope, true);
+
+      if (timeLimit > 0 && (searchControls.getTimeLimit() == 0 || searchControls.getTimeLimit() > timeLimit))
+      {
+         searchControls.setTimeLimit((int)timeLimit);
+      }
+
+      List<LDAPSearchCursor> cursors = new ArrayList<LDAPSearchCursor>(entryCtxs.length);
+      List<Future<List<SearchResult>>> futures = new ArrayList<Future<List<SearchResult>>>(entryCtxs.length);
+
+      LdapContext ldapContext = getLDAPContext(ctx);
 
-         if (entryCtxs.length == 1)
+      try
+      {
+         for (String entryCtx : entryCtxs)
          {
-            // Escape JNDI special characters
-            Name jndiName = new CompositeName().add(entryCtxs[0]);
+            final LDAPSearchCursor cursor = new LDAPSearchCursor(ldapContext.newInstance(null),
+               new String[]{entryCtx},
+               filter,
+               filterArgs,
+               searchControls,
+               requestControls,
+               getSearchPageSize(ctx));
 
-            if (filterArgs == null)
+            cursors.add(cursor);
+
+            futures.add(searchExecutor.submit(new Callable<List<SearchResult>>()
             {
-               results = ldapContext.search(jndiName, filter, searchControls);
-            }
-            else
+               public List<SearchResult> call() throws Exception
+               {
+                  return cursor.toList();
+               }
+            }));
+         }
+
+         for (Future<List<SearchResult>> future : futures)
+         {
+            if (timeLimit > 0)
             {
-               results = ldapContext.search(jndiName, filter, filterArgs, searchControls);
+               results.add(future.get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS));
             }
-
-            List toReturn = Tools.toList(results);
-
-            if (log.isLoggable(Level.FINER) && toReturn != null)
+            else
             {
-               log.finer("Search in " + entryCtxs[0] + " returned " + toReturn.size() + " entries");
+               results.add(future.get());
             }
+         }
+      }
+      catch (TimeoutException e)
+      {
+         throw new TimeLimitExceededException("LDAP search in " + Arrays.toString(entryCtxs) +
+            " didn't complete within " + timeLimit + "ms");
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
 
-            finalResults = toReturn;
+         throw new IdentityException("Interrupted while waiting for LDAP search results", e);
+      }
+      catch (ExecutionException e)
+      {
+         Throwable cause = e.getCause();
 
+         if (log.isLoggable(Level.FINER))
+         {
+            log.log(Level.FINER, "Exception occurred: ", cause);
+         }
 
+         if (cause instanceof NamingException)
+         {
+            throw (NamingException)cause;
          }
-         else
+         if (cause instanceof IdentityException)
          {
-            List<SearchResult> merged = new LinkedList();
+            throw (IdentityException)cause;
+         }
 
-            for (String entryCtx : entryCtxs)
+         throw new IdentityException("LDAP search failed", cause);
+      }
+      finally
+      {
+         // Searches that didn't complete are not needed anymore. Closing the cursor abandons the search - interrupt
+         // doesn't stop blocking LDAP reads
+         for (int i = 0; i < cursors.size(); i++)
+         {
+            if (i >= futures.size() || !futures.get(i).isDone())
             {
-
-               // Escape JNDI special characters
-               Name jndiName = new CompositeName().add(entryCtx);
-
-               if (filterArgs == null)
+               if (i < futures.size())
                {
-                  results = ldapContext.search(jndiName, filter, searchControls);
+                  futures.get(i).cancel(false);
                }
-               else
+
+               try
                {
-                  results = ldapContext.search(jndiName, filter, filterArgs, searchControls);
+                  cursors.get(i).close();
                }
-               List singleResult = Tools.toList(results);
-
-               if (log.isLoggable(Level.FINER) && merged != null)
+               catch (Exception e)
                {
-                  log.finer("Search in " + entryCtx + " returned " + merged.size() + " entries");
+                  if (log.isLoggable(Level.FINER))
+                  {
+                     log.log(Level.FINER, "Exception occurred: ", e);
+                  }
                }
-
-               merged.addAll(singleResult);
-               results.close();
             }
+         }
+
+         ldapContext.close();
+      }
+
+      return results;
+   }
 
+   /**
+    * k-way merge of results that are already sorted by a given attribute.
+    */
+   private List<SearchResult> mergeSortedResults(List<List<SearchResult>> partialResults, String attributeName) throws NamingException
+   {
+      List<SearchResult> merged = new ArrayList<SearchResult>();
 
+      PriorityQueue<MergeHead> heads = new PriorityQueue<MergeHead>(Math.max(partialResults.size(), 1));
 
-            finalResults = merged;
+      for (int i = 0; i < partialResults.size(); i++)
+      {
+         Iterator<SearchResult> iterator = partialResults.get(i).iterator();
+
+         if (iterator.hasNext())
+         {
+            heads.add(new MergeHead(i, iterator, attributeName));
          }
       }
-      finally
+
+      while (!heads.isEmpty())
       {
-         if (results != null)
+         MergeHead head = heads.poll();
+
+         merged.add(head.result);
+
+         if (head.advance())
          {
-            results.close();
+            heads.add(head);
          }
-         ldapContext.close();
       }
 
-      if (getCache() != null && finalResults != null)
+      return merged;
+   }
+
+   /**
+    * Current entry of single sorted result list used during merge
+    */
+   private static class MergeHead implements Comparable<MergeHead>
+   {
+      private final int index;
+
+      private final Iterator<SearchResult> iterator;
+
+      private final String attributeName;
+
+      private SearchResult result;
+
+      private String key;
+
+      MergeHead(int index, Iterator<SearchResult> iterator, String attributeName) throws NamingException
+      {
+         this.index = index;
+         this.iterator = iterator;
+         this.attributeName = attributeName;
+         advance();
+      }
+
+      boolean advance() throws NamingException
+      {
+         if (!iterator.hasNext())
+         {
+            return false;
+         }
+
+         result = iterator.next();
+
+         Attribute attribute = result.getAttributes() != null ? result.getAttributes().get(attributeName) : null;
+         Object value = attribute != null ? attribute.get() : null;
+         key = value != null ? value.toString() : "";
+
+         return true;
+      }
+
+      public int compareTo(MergeHead other)
       {
-         LDAPSearch search =
-            new LDAPSearch(entryCtxs, filter, filterArgs, returningAttributes, searchScope, requestControls);
+         // LDAP ordering of names is usually case insensitive
+         int result = key.compareToIgnoreCase(other.key);
 
-         getCache().putObject(getNamespace(), search.hashCode(), finalResults);
-
-         if (log.isLoggable(Level.FINER))
+         if (result == 0)
          {
-            log.finer("LDAP search results stored in cache. size=" + finalResults.size());
+            return index - other.index;
          }
-      }
 
-      return finalResults;
+         return result;
+      }
    }
 
    // HELPER
@@ -3498,6 +4529,130 @@ public class LDAPIdentityStoreImpl implements IdentityStore
    }
 
 
+   /**
+    * Validates password by re-binding pooled connection as a given entry. Connection stays open and is returned to
+    * the pool so no new connection is opened per check.
+    *
+    * @param dn
+    * @param password
+    * @return
+    * @throws IdentityException
+    */
+   private boolean bindWithAuthConnectionPool(String dn, String password) throws IdentityException
+   {
+      // Retry once - idle connection could have been closed by the server
+      for (int attempt = 0; attempt < 2; attempt++)
+      {
+         LdapContext authCtx = null;
+
+         try
+         {
+            authCtx = authConnectionPool.borrow();
+         }
+         catch (NamingException e)
+         {
+            if (log.isLoggable(Level.FINER))
+            {
+               log.log(Level.FINER, "Exception occurred: ", e);
+            }
+
+            throw new IdentityException("Could not obtain LDAP connection from authentication pool", e);
+         }
+
+         try
+         {
+            authCtx.addToEnvironment(Context.SECURITY_PRINCIPAL, dn);
+            authCtx.addToEnvironment(Context.SECURITY_CREDENTIALS, password);
+
+            // LDAP bind on the existing connection
+            authCtx.reconnect(authConnectionPool.getConnectionControls());
+
+            return true;
+         }
+         catch (CommunicationException e)
+         {
+            // Broken connection is discarded by the pool
+            if (log.isLoggable(Level.FINER))
+            {
+               log.log(Level.FINER, "Exception occurred: ", e);
+            }
+         }
+         catch (NamingException e)
+         {
+            return false;
+         }
+         finally
+         {
+            try
+            {
+               // Don't keep user password in the pooled connection
+               authCtx.removeFromEnvironment(Context.SECURITY_CREDENTIALS);
+            }
+            catch (NamingException e)
+            {
+               if (log.isLoggable(Level.FINER))
+               {
+                  log.log(Level.FINER, "Exception occurred: ", e);
+               }
+            }
+
+            try
+            {
+               authCtx.close();
+            }
+            catch (NamingException e)
+            {
+               if (log.isLoggable(Level.FINER))
+               {
+                  log.log(Level.FINER, "Exception occurred: ", e);
+               }
+            }
+         }
+      }
+
+      return false;
+   }
+
+   /**
+    * @return connection controls used when binding to validate credentials
+    */
+   private Control[] getBindConnectionControls()
+   {
+      if (configuration.isFastBind())
+      {
+         return new Control[]{new FastBindConnectionControl()};
+      }
+
+      return null;
+   }
+
+   /**
+    * Number of entries requested in one page of LDAP search results. Loaded lazily from configuration -
+    * {@link SimpleLDAPIdentityStoreConfiguration#MAX_SEARCH_RESULTS} option or
+    * {@link SimpleLDAPIdentityStoreConfiguration#MAX_SEARCH_RESULTS_DEFAULT} if it is not set.
+    *
+    * @param ctx
+    * @return
+    */
+   private int getSearchPageSize(IdentityStoreInvocationContext ctx)
+   {
+      if (maxResults <= 0) // lazily load maxResults from configuration
+      {
+         int pageSize = MAX_SEARCH_RESULTS_DEFAULT; // default value
+         try
+         {
+            pageSize = Integer.valueOf(getConfiguration(ctx).getConfigurationMetaData().getOptions().get(MAX_SEARCH_RESULTS).get(0));
+         }
+         catch (Exception e)
+         {
+            log.finer("Could not load configuration value for maxResults from options of identity store context: " + ctx);
+         }
+         maxResults = pageSize;
+      }
+
+      return maxResults;
+   }
+
    private LdapContext getLDAPContext(IdentityStoreInvocationContext ctx) throws IdentityException
    {
 
@@ -3550,45 +4705,57 @@ public class LDAPIdentityStoreImpl implements IdentityStore
       Collections.sort(objects, new Comparator<IdentityObject>(){
          public int compare(IdentityObject o1, IdentityObject o2)
          {
+            // Same named objects are ordered by type - same as keyset pages
             if (ascending)
             {
-               return o1.getName().compareTo(o2.getName());
+               return ResultsPage.compareKeys(o1.getName(), o1.getIdentityType().getName(),
+                  o2.getName(), o2.getIdentityType().getName());
             }
             else
             {
-               return o2.getName().compareTo(o1.getName());
+               return ResultsPage.compareKeys(o2.getName(), o2.getIdentityType().getName(),
+                  o1.getName(), o1.getIdentityType().getName());
             }
          }
       });
    }
 
-   //TODO: dummy and inefficient temporary workaround. Need to be implemented with ldap request control
-   private <T> List<T> cutPageFromResults(List<T> objects, IdentityObjectSearchCriteria criteria)
+   private void sortByNameIgnoreCase(List<IdentityObject> objects, final boolean ascending)
    {
-
-      List<T> results = new LinkedList<T>();
-
-      if (criteria.getMaxResults() == 0)
-      {
-         for (int i = criteria.getFirstResult(); i < objects.size(); i++)
+      Collections.sort(objects, new Comparator<IdentityObject>(){
+         public int compare(IdentityObject o1, IdentityObject o2)
          {
-            if (i < objects.size())
+            int result = String.CASE_INSENSITIVE_ORDER.compare(o1.getName(), o2.getName());
+
+            if (result == 0)
             {
-               results.add(objects.get(i));
+               result = ResultsPage.compareKeys(o1.getName(), o1.getIdentityType().getName(),
+                  o2.getName(), o2.getIdentityType().getName());
             }
+
+            return ascending ? result : -result;
          }
-      }
-      else
-      {
-         for (int i = criteria.getFirstResult(); i < criteria.getFirstResult() + criteria.getMaxResults(); i++)
+      });
+   }
+
+   /**
+    * Sorts by attribute values ignoring case - same as LDAP servers using case ignoring ordering matching rules
+    */
+   private void sortByValues(List<IdentityObject> objects, final Map<IdentityObject, String> values, final boolean ascending)
+   {
+      Collections.sort(objects, new Comparator<IdentityObject>(){
+         public int compare(IdentityObject o1, IdentityObject o2)
          {
-            if (i < objects.size())
+            int result = String.CASE_INSENSITIVE_ORDER.compare(values.get(o1), values.get(o2));
+
+            if (result == 0)
             {
-               results.add(objects.get(i));
+               result = String.CASE_INSENSITIVE_ORDER.compare(o1.getName(), o2.getName());
             }
+
+            return ascending ? result : -result;
          }
-      }
-      return results;
+      });
    }
 
    protected void checkCtx(DirContext ctx, String dn) throws Exception
@@ -3770,6 +4937,56 @@ public class LDAPIdentityStoreImpl implements IdentityStore
       return cache;
    }
 
+   /**
+    * @return cache of search results or null if searchCacheSize option is not set
+    */
+   public LDAPSearchCache getSearchCache()
+   {
+      return searchCache;
+   }
+
+   private List<SearchResult> getCachedSearchResults(LDAPSearch search)
+   {
+      if (searchCache != null)
+      {
+         return searchCache.get(search);
+      }
+
+      Object cached = getCache().getObject(getNamespace(), search.hashCode());
+
+      // Provider is keyed by hash only - make sure it is not a different search with colliding hash
+      if (cached instanceof CachedSearchResults && ((CachedSearchResults)cached).search.equals(search))
+      {
+         return ((CachedSearchResults)cached).results;
+      }
+
+      return null;
+   }
+
+   private void putCachedSearchResults(LDAPSearch search, List<SearchResult> results)
+   {
+      if (searchCache != null)
+      {
+         searchCache.put(search, results);
+      }
+      else
+      {
+         getCache().putObject(getNamespace(), search.hashCode(), new CachedSearchResults(search, results));
+      }
+   }
+
+   /**
+    * Invalidates cached searches performed in LDAP contexts of a given identity object type.
+    *
+    * @param ctx
+    * @param type
+    * @throws IdentityException
+    */
+   public void invalidateCache(IdentityStoreInvocationContext ctx, IdentityObjectType type) throws IdentityException
+   {
+      invalidateCache(getTypeConfiguration(ctx, type).getCtxDNs());
+   }
+
    String getNamespace()
    {
       return getId();
@@ -3777,10 +4994,178 @@ public class LDAPIdentityStoreImpl implements IdentityStore
 
    void invalidateCache()
    {
+      if (searchCache != null)
+      {
+         searchCache.invalidateAll();
+      }
+
+      if (getCache() != null)
+      {
+         getCache().invalidate(getNamespace());
+      }
+   }
+
+   /**
+    * Invalidates only searches that could contain given entries. Other cached data is invalidated completely.
+    *
+    * @param dns
+    */
+   void invalidateCache(String[] dns)
+   {
+      if (searchCache != null)
+      {
+         searchCache.invalidate(dns);
+      }
+
       if (getCache() != null)
       {
          getCache().invalidate(getNamespace());
       }
    }
 
+   /**
+    * Invalidates cached data of given entries only. Used when changes are made directly in LDAP. When DN of an
+    * LDAP context (or its parent) is passed, data of all entries in this context are invalidated. Registered change
+    * listeners are notified so caches kept outside of the store are invalidated as well.
+    *
+    * @param dns
+    */
+   void invalidateEntries(String[] dns)
+   {
+      if (searchCache != null)
+      {
+         searchCache.invalidate(dns);
+      }
+
+      Map<IdentityObjectType, String[]> typeCtxDNs = new LinkedHashMap<IdentityObjectType, String[]>();
+
+      for (IdentityObjectType type : configuration.getConfiguredTypes())
+      {
+         typeCtxDNs.put(type, configuration.getTypeConfiguration(type.getName()).getCtxDNs());
+      }
+
+      List<IdentityObject> changed = resolveChangedEntries(dns, typeCtxDNs);
+
+      if (getCache() != null)
+      {
+         // Provider is keyed by search hash only - searches containing given entries cannot be found
+         if (searchCache == null)
+         {
+            getCache().invalidateObjects(getNamespace());
+         }
+
+         if (changed == null)
+         {
+            getCache().invalidateIdentityObjectAttriubtes(getNamespace());
+         }
+         else
+         {
+            for (IdentityObject identityObject : changed)
+            {
+               getCache().invalidateIdentityObjectAttriubtes(getNamespace(), identityObject);
+            }
+         }
+      }
+
+      for (IdentityStoreChangeListener listener : changeListeners)
+      {
+         try
+         {
+            listener.identityObjectsChanged(getId(), changed);
+         }
+         catch (RuntimeException e)
+         {
+            if (log.isLoggable(Level.FINER))
+            {
+               log.log(Level.FINER, "Exception occurred: ", e);
+            }
+         }
+      }
+   }
+
+   /**
+    * Maps DNs of changed entries to identity objects. DNs are compared as LDAP names - RDN by RDN, ignoring case.
+    *
+    * @param dns
+    * @param typeCtxDNs DNs of contexts in which each type is stored
+    * @return changed identity objects or null if DN of a context (or its parent) was passed and any entry could change
+    */
+   static List<IdentityObject> resolveChangedEntries(String[] dns, Map<IdentityObjectType, String[]> typeCtxDNs)
+   {
+      List<IdentityObject> changed = new LinkedList<IdentityObject>();
+
+      try
+      {
+         for (String dn : dns)
+         {
+            LdapName ldapName = new LdapName(dn);
+
+            IdentityObject identityObject = null;
+
+            for (Map.Entry<IdentityObjectType, String[]> entry : typeCtxDNs.entrySet())
+            {
+               for (String typeCtx : entry.getValue())
+               {
+                  LdapName ctxName = new LdapName(typeCtx);
+
+                  // Context itself or one of its parents
+                  if (ctxName.startsWith(ldapName))
+                  {
+                     return null;
+                  }
+
+                  // Entry in the context
+                  if (ldapName.size() > ctxName.size() && ldapName.startsWith(ctxName))
+                  {
+                     identityObject = new LDAPIdentityObjectImpl(dn, Tools.stripDnToName(dn), entry.getKey());
+                     break;
+                  }
+               }
+
+               if (identityObject != null)
+               {
+                  changed.add(identityObject);
+                  break;
+               }
+            }
+         }
+      }
+      catch (InvalidNameException e)
+      {
+         return null;
+      }
+      catch (IllegalArgumentException e)
+      {
+         return null;
+      }
+
+      return changed;
+   }
+
+   public void addChangeListener(IdentityStoreChangeListener listener)
+   {
+      changeListeners.add(listener);
+   }
+
+   public void removeChangeListener(IdentityStoreChangeListener listener)
+   {
+      changeListeners.remove(listener);
+   }
+
+   /**
+    * Search results stored in the cache provider together with the search they belong to
+    */
+   private static class CachedSearchResults
+   {
+      private final LDAPSearch search;
+
+      private final List<SearchResult> results;
+
+      CachedSearchResults(LDAPSearch search, List<SearchResult> results)
+      {
+         this.search = search;
+         this.results = results;
+      }
+   }
+
 }
@@ -47,10 +47,19 @@ public class LDAPIdentityStoreSessionImpl implements IdentityStoreSession
 
    private final LDAPIdentityStoreConfiguration storeConfig;
 
+   private final LDAPConnectionPool connectionPool;
+
+   private boolean readOnly = false;
+
    public LDAPIdentityStoreSessionImpl(LDAPIdentityStoreConfiguration storeConfig)
    {
-      this.storeConfig = storeConfig;
+      this(storeConfig, null);
+   }
 
+   public LDAPIdentityStoreSessionImpl(LDAPIdentityStoreConfiguration storeConfig, LDAPConnectionPool connectionPool)
+   {
+      this.storeConfig = storeConfig;
+      this.connectionPool = connectionPool;
    }
 
 
@@ -63,6 +72,23 @@ public class LDAPIdentityStoreSessionImpl implements IdentityStoreSession
          return (LdapContext)iniCtx.lookup(storeConfig.getExternalJNDIContext());
       }
 
+      // Pooled context is returned to the pool when closed
+      if (connectionPool != null)
+      {
+         return connectionPool.borrow();
+      }
+
+      return new InitialLdapContext(createEnvironment(storeConfig), null);
+   }
+
+   /**
+    * Creates JNDI environment used to obtain LDAP connection with a given configuration.
+    *
+    * @param storeConfig
+    * @return
+    */
+   public static Hashtable<String, String> createEnvironment(LDAPIdentityStoreConfiguration storeConfig)
+   {
       if (storeConfig.getCustomSystemProperties() != null &&
          storeConfig.getCustomSystemProperties().size() > 0)
       {
@@ -117,8 +143,7 @@ public class LDAPIdentityStoreSessionImpl implements IdentityStoreSession
          }
       }
 
-
-      return new InitialLdapContext(env, null);
+      return env;
    }
 
    public Object getSessionContext() throws IdentityException
@@ -159,6 +184,16 @@ public class LDAPIdentityStoreSessionImpl implements IdentityStoreSession
       return false;
    }
 
+   public void setReadOnly(boolean readOnly)
+   {
+      this.readOnly = readOnly;
+   }
+
+   public boolean isReadOnly()
+   {
+      return readOnly;
+   }
+
    public boolean isTransactionSupported()
    {
       return false;
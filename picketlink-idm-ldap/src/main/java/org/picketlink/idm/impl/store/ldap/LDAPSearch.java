@@ -24,10 +24,13 @@ package org.picketlink.idm.impl.store.ldap;
 
 import java.util.Arrays;
 
+import javax.naming.InvalidNameException;
 import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapName;
 
 /**
- * Helper class to cache LDAP queries
+ * Helper class to cache LDAP queries. Immutable value object - can be used directly as a cache key. Request controls
+ * are compared by their OID, criticality and encoded value as Control implementations don't implement equals().
  *
  * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
  * @version : 0.1 $
@@ -46,6 +49,8 @@ public class LDAPSearch
 
    private final Control[] requestControls;
 
+   private final int hashCode;
+
    public LDAPSearch(String[] entryCtxs,
                      String filter,
                      Object[] filterArgs,
@@ -53,12 +58,64 @@ public class LDAPSearch
                      String searchScope,
                      Control[] requestControls)
    {
-      this.entryCtxs = entryCtxs;
+      this.entryCtxs = entryCtxs != null ? entryCtxs.clone() : null;
       this.filter = filter;
-      this.filterArgs = filterArgs;
-      this.returningAttributes = returningAttributes;
+      this.filterArgs = filterArgs != null ? filterArgs.clone() : null;
+      this.returningAttributes = returningAttributes != null ? returningAttributes.clone() : null;
       this.searchScope = searchScope;
-      this.requestControls = requestControls;
+      this.requestControls = requestControls != null ? requestControls.clone() : null;
+      this.hashCode = computeHashCode();
+   }
+
+   public String[] getEntryCtxs()
+   {
+      return entryCtxs != null ? entryCtxs.clone() : null;
+   }
+
+   /**
+    * @param dns
+    * @return true if any of searched contexts is the same, a parent or a child of any of given DNs
+    */
+   public boolean overlaps(String[] dns)
+   {
+      if (entryCtxs == null || dns == null)
+      {
+         return false;
+      }
+
+      for (String entryCtx : entryCtxs)
+      {
+         for (String dn : dns)
+         {
+            if (isSameOrDescendant(dn, entryCtx) || isSameOrDescendant(entryCtx, dn))
+            {
+               return true;
+            }
+         }
+      }
+
+      return false;
+   }
+
+   /**
+    * @return true if dn is the same as ancestor or is located in its subtree. DNs are compared RDN by RDN so
+    * "ou=xa,dc=x" is not located under "a,dc=x"
+    */
+   static boolean isSameOrDescendant(String dn, String ancestor)
+   {
+      try
+      {
+         return new LdapName(dn).startsWith(new LdapName(ancestor));
+      }
+      catch (InvalidNameException e)
+      {
+         // Not a valid DN - compare as text on RDN boundary
+         String lowerDn = dn.toLowerCase();
+         String lowerAncestor = ancestor.toLowerCase();
+
+         return lowerDn.equals(lowerAncestor) || lowerAncestor.length() == 0 ||
+            lowerDn.endsWith("," + lowerAncestor);
+      }
    }
 
    @Override
@@ -75,6 +132,10 @@ public class LDAPSearch
 
       LDAPSearch that = (LDAPSearch) o;
 
+      if (hashCode != that.hashCode)
+      {
+         return false;
+      }
       if (!Arrays.equals(entryCtxs, that.entryCtxs))
       {
          return false;
@@ -83,12 +144,11 @@ public class LDAPSearch
       {
          return false;
       }
-      // Probably incorrect - comparing Object[] arrays with Arrays.equals
-      if (!Arrays.equals(filterArgs, that.filterArgs))
+      if (!Arrays.deepEquals(filterArgs, that.filterArgs))
       {
          return false;
       }
-      if (!Arrays.equals(requestControls, that.requestControls))
+      if (!controlsEqual(requestControls, that.requestControls))
       {
          return false;
       }
@@ -106,13 +166,80 @@ public class LDAPSearch
 
    @Override
    public int hashCode()
+   {
+      return hashCode;
+   }
+
+   private int computeHashCode()
    {
       int result = entryCtxs != null ? Arrays.hashCode(entryCtxs) : 0;
       result = 31 * result + (filter != null ? filter.hashCode() : 0);
-      result = 31 * result + (filterArgs != null ? Arrays.hashCode(filterArgs) : 0);
+      result = 31 * result + (filterArgs != null ? Arrays.deepHashCode(filterArgs) : 0);
       result = 31 * result + (returningAttributes != null ? Arrays.hashCode(returningAttributes) : 0);
       result = 31 * result + (searchScope != null ? searchScope.hashCode() : 0);
-      result = 31 * result + (requestControls != null ? Arrays.hashCode(requestControls) : 0);
+
+      if (requestControls != null)
+      {
+         for (Control control : requestControls)
+         {
+            result = 31 * result + controlHashCode(control);
+         }
+      }
+
+      return result;
+   }
+
+   private static int controlHashCode(Control control)
+   {
+      if (control == null)
+      {
+         return 0;
+      }
+
+      int result = control.getID() != null ? control.getID().hashCode() : 0;
+      result = 31 * result + (control.isCritical() ? 1 : 0);
+      result = 31 * result + Arrays.hashCode(control.getEncodedValue());
       return result;
    }
+
+   private static boolean controlsEqual(Control[] controls, Control[] otherControls)
+   {
+      if (controls == otherControls)
+      {
+         return true;
+      }
+      if (controls == null || otherControls == null || controls.length != otherControls.length)
+      {
+         return false;
+      }
+
+      for (int i = 0; i < controls.length; i++)
+      {
+         Control control = controls[i];
+         Control other = otherControls[i];
+
+         if (control == other)
+         {
+            continue;
+         }
+         if (control == null || other == null)
+         {
+            return false;
+         }
+         if (control.getID() != null ? !control.getID().equals(other.getID()) : other.getID() != null)
+         {
+            return false;
+         }
+         if (control.isCritical() != other.isCritical())
+         {
+            return false;
+         }
+         if (!Arrays.equals(control.getEncodedValue(), other.getEncodedValue()))
+         {
+            return false;
+         }
+      }
+
+      return true;
+   }
 }
@@ -0,0 +1,160 @@
+/*
+* JBoss, a division of Red Hat
+* Copyright 2006, Red Hat Middleware, LLC, and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+
+package org.picketlink.idm.impl.store.ldap;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+import javax.naming.directory.SearchResult;
+
+/**
+ * Size bounded cache of LDAP search results keyed by {@link LDAPSearch}. Least recently used searches are evicted
+ * first. Entries can be invalidated selectively for searches performed in given LDAP contexts.
+ *
+ * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
+ * @version : 0.1 $
+ */
+public class LDAPSearchCache
+{
+   private static Logger log = Logger.getLogger(LDAPSearchCache.class.getName());
+
+   private final int maxEntries;
+
+   private final Map<LDAPSearch, List<SearchResult>> entries;
+
+   private long hits = 0;
+
+   private long misses = 0;
+
+   private long evictions = 0;
+
+   public LDAPSearchCache(int maxEntries)
+   {
+      if (maxEntries <= 0)
+      {
+         throw new IllegalArgumentException("Cache size must be greater than 0: " + maxEntries);
+      }
+
+      this.maxEntries = maxEntries;
+
+      // Access ordered - least recently used entry is the eldest one
+      this.entries = new LinkedHashMap<LDAPSearch, List<SearchResult>>(16, 0.75f, true)
+      {
+         protected boolean removeEldestEntry(Map.Entry<LDAPSearch, List<SearchResult>> eldest)
+         {
+            if (size() > LDAPSearchCache.this.maxEntries)
+            {
+               evictions++;
+               return true;
+            }
+            return false;
+         }
+      };
+   }
+
+   public synchronized List<SearchResult> get(LDAPSearch search)
+   {
+      List<SearchResult> results = entries.get(search);
+
+      if (results != null)
+      {
+         hits++;
+      }
+      else
+      {
+         misses++;
+      }
+
+      return results;
+   }
+
+   public synchronized void put(LDAPSearch search, List<SearchResult> results)
+   {
+      entries.put(search, results);
+   }
+
+   /**
+    * Removes results of searches performed in contexts that overlap with given DNs.
+    *
+    * @param dns
+    */
+   public synchronized void invalidate(String[] dns)
+   {
+      int removed = 0;
+
+      for (Iterator<LDAPSearch> iterator = entries.keySet().iterator(); iterator.hasNext();)
+      {
+         if (iterator.next().overlaps(dns))
+         {
+            iterator.remove();
+            removed++;
+         }
+      }
+
+      if (log.isLoggable(Level.FINER))
+      {
+         log.finer("Invalidated " + removed + " LDAP searches in cache");
+      }
+   }
+
+   public synchronized void invalidateAll()
+   {
+      entries.clear();
+   }
+
+   public synchronized int size()
+   {
+      return entries.size();
+   }
+
+   public int getMaxEntries()
+   {
+      return maxEntries;
+   }
+
+   public synchronized long getHitCount()
+   {
+      return hits;
+   }
+
+   public synchronized long getMissCount()
+   {
+      return misses;
+   }
+
+   public synchronized long getEvictionCount()
+   {
+      return evictions;
+   }
+
+   @Override
+   public synchronized String toString()
+   {
+      return "LDAPSearchCache[size=" + entries.size() + "; maxEntries=" + maxEntries + "; hits=" + hits
+         + "; misses=" + misses + "; evictions=" + evictions + "]";
+   }
+}
@@ -0,0 +1,384 @@
+/*
+* JBoss, a division of Red Hat
+* Copyright 2006, Red Hat Middleware, LLC, and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+
+package org.picketlink.idm.impl.store.ldap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.naming.CompositeName;
+import javax.naming.Name;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+
+/**
+ * Lazily iterates over results of LDAP search performed in several contexts. Results are requested page by page
+ * using simple paged results control (RFC 2696) - next page is requested with the cookie returned by the server
+ * only when previous one was consumed, so only single page is kept in memory at a time.
+ *
+ * Cursor owns the LdapContext it was created with and closes it when all results were read or when close() is called.
+ *
+ * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
+ * @version : 0.1 $
+ */
+public class LDAPSearchCursor implements NamingEnumeration<SearchResult>
+{
+   private static Logger log = Logger.getLogger(LDAPSearchCursor.class.getName());
+
+   private final LdapContext ldapContext;
+
+   private final String[] entryCtxs;
+
+   private final String filter;
+
+   private final Object[] filterArgs;
+
+   private final SearchControls searchControls;
+
+   private final Control[] requestControls;
+
+   private final int pageSize;
+
+   private int ctxIndex = 0;
+
+   private NamingEnumeration<SearchResult> page;
+
+   private byte[] cookie;
+
+   private SearchResult next;
+
+   // Cursor can be closed by another thread to abandon the search
+   private volatile boolean closed = false;
+
+   private int pageCount = 0;
+
+   private int resultCount = 0;
+
+   /**
+    * @param ldapContext context used to perform search. It will be closed together with the cursor
+    * @param entryCtxs DNs of contexts to search in
+    * @param filter
+    * @param filterArgs
+    * @param searchControls
+    * @param requestControls additional request controls sent with each page request. Can be null
+    * @param pageSize number of entries requested in one page
+    */
+   public LDAPSearchCursor(LdapContext ldapContext,
+                           String[] entryCtxs,
+                           String filter,
+                           Object[] filterArgs,
+                           SearchControls searchControls,
+                           Control[] requestControls,
+                           int pageSize)
+   {
+      if (ldapContext == null)
+      {
+         throw new IllegalArgumentException("LdapContext is null");
+      }
+      if (pageSize <= 0)
+      {
+         throw new IllegalArgumentException("Page size must be greater than 0: " + pageSize);
+      }
+
+      this.ldapContext = ldapContext;
+      this.entryCtxs = entryCtxs != null ? entryCtxs : new String[0];
+      this.filter = filter;
+      this.filterArgs = filterArgs;
+      this.searchControls = searchControls;
+      this.requestControls = requestControls;
+      this.pageSize = pageSize;
+   }
+
+   public boolean hasMore() throws NamingException
+   {
+      if (next != null)
+      {
+         return true;
+      }
+
+      if (closed)
+      {
+         return false;
+      }
+
+      try
+      {
+         next = fetchNext();
+      }
+      catch (NamingException e)
+      {
+         close();
+         throw e;
+      }
+
+      return next != null;
+   }
+
+   public SearchResult next() throws NamingException
+   {
+      if (!hasMore())
+      {
+         throw new NoSuchElementException();
+      }
+
+      SearchResult result = next;
+      next = null;
+      return result;
+   }
+
+   public boolean hasMoreElements()
+   {
+      try
+      {
+         return hasMore();
+      }
+      catch (NamingException e)
+      {
+         if (log.isLoggable(Level.FINER))
+         {
+            log.log(Level.FINER, "Exception occurred: ", e);
+         }
+
+         return false;
+      }
+   }
+
+   public SearchResult nextElement()
+   {
+      try
+      {
+         return next();
+      }
+      catch (NamingException e)
+      {
+         if (log.isLoggable(Level.FINER))
+         {
+            log.log(Level.FINER, "Exception occurred: ", e);
+         }
+
+         throw new NoSuchElementException(e.toString());
+      }
+   }
+
+   public void close() throws NamingException
+   {
+      if (closed)
+      {
+         return;
+      }
+
+      closed = true;
+      next = null;
+
+      NamingEnumeration<SearchResult> currentPage = page;
+      page = null;
+
+      try
+      {
+         if (currentPage != null)
+         {
+            currentPage.close();
+         }
+      }
+      finally
+      {
+         ldapContext.close();
+      }
+
+      if (log.isLoggable(Level.FINER))
+      {
+         log.finer("LDAP search cursor closed. pages=" + pageCount + "; results=" + resultCount);
+      }
+   }
+
+   /**
+    * Reads all remaining results into a list and closes the cursor.
+    *
+    * @return
+    * @throws NamingException
+    */
+   public List<SearchResult> toList() throws NamingException
+   {
+      List<SearchResult> results = new ArrayList<SearchResult>();
+
+      try
+      {
+         while (hasMore())
+         {
+            results.add(next());
+         }
+      }
+      finally
+      {
+         close();
+      }
+
+      return results;
+   }
+
+   /**
+    * Consumes all remaining results without keeping them and closes the cursor.
+    *
+    * @return number of results
+    * @throws NamingException
+    */
+   public int count() throws NamingException
+   {
+      int count = 0;
+
+      try
+      {
+         while (hasMore())
+         {
+            next();
+            count++;
+         }
+      }
+      finally
+      {
+         close();
+      }
+
+      return count;
+   }
+
+   public int getPageCount()
+   {
+      return pageCount;
+   }
+
+   private SearchResult fetchNext() throws NamingException
+   {
+      while (true)
+      {
+         if (closed)
+         {
+            return null;
+         }
+
+         if (page != null)
+         {
+            if (page.hasMore())
+            {
+               resultCount++;
+               return page.next();
+            }
+
+            page.close();
+            page = null;
+
+            // Response controls are available after whole page was read
+            cookie = getResponseCookie();
+
+            if (cookie == null)
+            {
+               if (log.isLoggable(Level.FINER))
+               {
+                  log.finer("Search in " + entryCtxs[ctxIndex] + " completed. Results so far: " + resultCount);
+               }
+
+               ctxIndex++;
+            }
+         }
+
+         if (ctxIndex >= entryCtxs.length)
+         {
+            close();
+            return null;
+         }
+
+         page = searchPage(entryCtxs[ctxIndex]);
+      }
+   }
+
+   private NamingEnumeration<SearchResult> searchPage(String entryCtx) throws NamingException
+   {
+      List<Control> controls = new ArrayList<Control>();
+
+      if (requestControls != null)
+      {
+         controls.addAll(Arrays.asList(requestControls));
+      }
+
+      try
+      {
+         controls.add(new PagedResultsControl(pageSize, cookie, Control.CRITICAL));
+      }
+      catch (IOException e)
+      {
+         NamingException ne = new NamingException("Cannot create paged results control");
+         ne.setRootCause(e);
+         throw ne;
+      }
+
+      ldapContext.setRequestControls(controls.toArray(new Control[controls.size()]));
+
+      pageCount++;
+
+      // Escape JNDI special characters
+      Name jndiName = new CompositeName().add(entryCtx);
+
+      if (filterArgs == null)
+      {
+         return ldapContext.search(jndiName, filter, searchControls);
+      }
+      else
+      {
+         return ldapContext.search(jndiName, filter, filterArgs, searchControls);
+      }
+   }
+
+   private byte[] getResponseCookie() throws NamingException
+   {
+      Control[] responseControls = ldapContext.getResponseControls();
+
+      if (responseControls != null)
+      {
+         for (Control control : responseControls)
+         {
+            if (control instanceof PagedResultsResponseControl)
+            {
+               byte[] responseCookie = ((PagedResultsResponseControl)control).getCookie();
+
+               // Empty cookie means there are no more results
+               if (responseCookie != null && responseCookie.length > 0)
+               {
+                  return responseCookie;
+               }
+            }
+         }
+      }
+
+      return null;
+   }
+}
@@ -0,0 +1,232 @@
+/*
+* JBoss, a division of Red Hat
+* Copyright 2006, Red Hat Middleware, LLC, and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+
+package org.picketlink.idm.impl.store.ldap;
+
+import java.io.UnsupportedEncodingException;
+import javax.naming.ldap.Control;
+
+/**
+ * Persistent search request control (draft-ietf-ldapext-psearch). Search sent with this control doesn't complete -
+ * server keeps returning entries as they are added, modified, deleted or renamed. Each returned entry carries entry
+ * change notification control describing the change.
+ *
+ * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
+ * @version : 0.1 $
+ */
+public class PersistentSearchControl implements Control
+{
+   private static final long serialVersionUID = 6153946752851893467L;
+
+   public static final String OID = "2.16.840.1.113730.3.4.3";
+
+   public static final String ENTRY_CHANGE_OID = "2.16.840.1.113730.3.4.7";
+
+   public static final int CHANGE_ADD = 1;
+
+   public static final int CHANGE_DELETE = 2;
+
+   public static final int CHANGE_MODIFY = 4;
+
+   public static final int CHANGE_MODDN = 8;
+
+   public static final int CHANGE_ANY = CHANGE_ADD | CHANGE_DELETE | CHANGE_MODIFY | CHANGE_MODDN;
+
+   private static final int TAG_SEQUENCE = 0x30;
+
+   private static final int TAG_INTEGER = 0x02;
+
+   private static final int TAG_BOOLEAN = 0x01;
+
+   private static final int TAG_ENUMERATED = 0x0A;
+
+   private static final int TAG_OCTET_STRING = 0x04;
+
+   private final byte[] encodedValue;
+
+   /**
+    * Requests notifications about all changes without returning existing entries.
+    */
+   public PersistentSearchControl()
+   {
+      this(CHANGE_ANY, true, true);
+   }
+
+   /**
+    * @param changeTypes combination of CHANGE_* flags
+    * @param changesOnly if false existing entries are returned first
+    * @param returnEntryChanges if true entry change notification control is attached to returned entries
+    */
+   public PersistentSearchControl(int changeTypes, boolean changesOnly, boolean returnEntryChanges)
+   {
+      if (changeTypes < 1 || changeTypes > CHANGE_ANY)
+      {
+         throw new IllegalArgumentException("Invalid change types: " + changeTypes);
+      }
+
+      // PersistentSearch ::= SEQUENCE { changeTypes INTEGER, changesOnly BOOLEAN, returnECs BOOLEAN }
+      this.encodedValue = new byte[]{
+         TAG_SEQUENCE, 9,
+         TAG_INTEGER, 1, (byte)changeTypes,
+         TAG_BOOLEAN, 1, (byte)(changesOnly ? 0xFF : 0),
+         TAG_BOOLEAN, 1, (byte)(returnEntryChanges ? 0xFF : 0)
+      };
+   }
+
+   public String getID()
+   {
+      return OID;
+   }
+
+   public boolean isCritical()
+   {
+      return Control.CRITICAL;
+   }
+
+   public byte[] getEncodedValue()
+   {
+      return encodedValue.clone();
+   }
+
+   /**
+    * Finds entry change notification control and returns type of the change.
+    *
+    * @param responseControls
+    * @return one of CHANGE_* values or -1 if entry change notification control is not present
+    */
+   public static int getChangeType(Control[] responseControls)
+   {
+      byte[] encoded = getEntryChange(responseControls);
+
+      if (encoded == null)
+      {
+         return -1;
+      }
+
+      int[] position = new int[]{0};
+
+      readHeader(encoded, position, TAG_SEQUENCE);
+
+      int length = readHeader(encoded, position, TAG_ENUMERATED);
+
+      return readValue(encoded, position, length);
+   }
+
+   /**
+    * Finds entry change notification control and returns previous DN of renamed entry.
+    *
+    * @param responseControls
+    * @return previous DN or null if it is not present
+    */
+   public static String getPreviousDN(Control[] responseControls)
+   {
+      byte[] encoded = getEntryChange(responseControls);
+
+      if (encoded == null)
+      {
+         return null;
+      }
+
+      // EntryChangeNotification ::= SEQUENCE { changeType ENUMERATED, previousDN LDAPDN OPTIONAL,
+      // changeNumber INTEGER OPTIONAL }
+      int[] position = new int[]{0};
+
+      readHeader(encoded, position, TAG_SEQUENCE);
+
+      int length = readHeader(encoded, position, TAG_ENUMERATED);
+      position[0] += length;
+
+      if (position[0] >= encoded.length || (encoded[position[0]] & 0xFF) != TAG_OCTET_STRING)
+      {
+         return null;
+      }
+
+      length = readHeader(encoded, position, TAG_OCTET_STRING);
+
+      try
+      {
+         return new String(encoded, position[0], length, "UTF-8");
+      }
+      catch (UnsupportedEncodingException e)
+      {
+         throw new IllegalStateException(e);
+      }
+   }
+
+   private static byte[] getEntryChange(Control[] responseControls)
+   {
+      if (responseControls == null)
+      {
+         return null;
+      }
+
+      for (Control control : responseControls)
+      {
+         if (ENTRY_CHANGE_OID.equals(control.getID()))
+         {
+            return control.getEncodedValue();
+         }
+      }
+
+      return null;
+   }
+
+   private static int readHeader(byte[] encoded, int[] position, int expectedTag)
+   {
+      if (position[0] + 2 > encoded.length || (encoded[position[0]] & 0xFF) != expectedTag)
+      {
+         throw new IllegalArgumentException("Malformed entry change notification control");
+      }
+      position[0]++;
+
+      int length = encoded[position[0]++] & 0xFF;
+
+      if ((length & 0x80) != 0)
+      {
+         int lengthBytes = length & 0x7F;
+         if (lengthBytes > 4 || position[0] + lengthBytes > encoded.length)
+         {
+            throw new IllegalArgumentException("Malformed entry change notification control");
+         }
+
+         length = readValue(encoded, position, lengthBytes);
+      }
+
+      if (length < 0 || position[0] + length > encoded.length)
+      {
+         throw new IllegalArgumentException("Malformed entry change notification control");
+      }
+
+      return length;
+   }
+
+   private static int readValue(byte[] encoded, int[] position, int length)
+   {
+      int value = 0;
+      for (int i = 0; i < length; i++)
+      {
+         value = (value << 8) | (encoded[position[0]++] & 0xFF);
+      }
+      return value;
+   }
+}
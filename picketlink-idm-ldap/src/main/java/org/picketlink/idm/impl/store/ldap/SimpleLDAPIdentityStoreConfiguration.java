@@ -87,6 +87,48 @@ public class SimpleLDAPIdentityStoreConfiguration
 
    private final boolean createMissingContexts;
 
+   private final boolean connectionPool;
+
+   private final int connectionPoolMinSize;
+
+   private final int connectionPoolMaxSize;
+
+   private final long connectionPoolIdleTimeout;
+
+   private final boolean connectionPoolValidateOnBorrow;
+
+   private final long connectionPoolBorrowTimeout;
+
+   private final boolean authConnectionPool;
+
+   private final int authConnectionPoolMinSize;
+
+   private final int authConnectionPoolMaxSize;
+
+   private final boolean fastBind;
+
+   private final boolean searchFanOut;
+
+   private final int searchFanOutThreads;
+
+   private final long searchFanOutTimeLimit;
+
+   private final String countStrategy;
+
+   private final String countAttributeName;
+
+   private final int membershipResolveBatchSize;
+
+   private final int searchCacheSize;
+
+   private final int asyncThreads;
+
+   private final int asyncQueueSize;
+
+   private final String changeListener;
+
+   private final long changeListenerPollInterval;
+
 
    // Consts
 
@@ -138,6 +180,76 @@ public class SimpleLDAPIdentityStoreConfiguration
 
    public static final String CREATE_MISSING_CONTEXTS = "createMissingContexts";
 
+   public static final String CONNECTION_POOL = "connectionPool";
+
+   public static final String CONNECTION_POOL_MIN_SIZE = "connectionPoolMinSize";
+
+   public static final int CONNECTION_POOL_MIN_SIZE_DEFAULT = 0;
+
+   public static final String CONNECTION_POOL_MAX_SIZE = "connectionPoolMaxSize";
+
+   public static final int CONNECTION_POOL_MAX_SIZE_DEFAULT = 10;
+
+   public static final String CONNECTION_POOL_IDLE_TIMEOUT = "connectionPoolIdleTimeout";
+
+   public static final long CONNECTION_POOL_IDLE_TIMEOUT_DEFAULT = 300000;
+
+   public static final String CONNECTION_POOL_VALIDATE_ON_BORROW = "connectionPoolValidateOnBorrow";
+
+   public static final String CONNECTION_POOL_BORROW_TIMEOUT = "connectionPoolBorrowTimeout";
+
+   public static final long CONNECTION_POOL_BORROW_TIMEOUT_DEFAULT = 10000;
+
+   public static final String AUTH_CONNECTION_POOL = "authConnectionPool";
+
+   public static final String AUTH_CONNECTION_POOL_MIN_SIZE = "authConnectionPoolMinSize";
+
+   public static final String AUTH_CONNECTION_POOL_MAX_SIZE = "authConnectionPoolMaxSize";
+
+   public static final String FAST_BIND = "fastBind";
+
+   public static final String SEARCH_FAN_OUT = "searchFanOut";
+
+   public static final String SEARCH_FAN_OUT_THREADS = "searchFanOutThreads";
+
+   public static final int SEARCH_FAN_OUT_THREADS_DEFAULT = 5;
+
+   public static final String SEARCH_FAN_OUT_TIME_LIMIT = "searchFanOutTimeLimit";
+
+   public static final String COUNT_STRATEGY = "countStrategy";
+
+   public static final String COUNT_STRATEGY_SEARCH = "search";
+
+   public static final String COUNT_STRATEGY_VLV = "vlv";
+
+   public static final String COUNT_STRATEGY_ATTRIBUTE = "attribute";
+
+   public static final String COUNT_ATTRIBUTE_NAME = "countAttributeName";
+
+   public static final String COUNT_ATTRIBUTE_NAME_DEFAULT = "numSubordinates";
+
+   public static final String MEMBERSHIP_RESOLVE_BATCH_SIZE = "membershipResolveBatchSize";
+
+   public static final int MEMBERSHIP_RESOLVE_BATCH_SIZE_DEFAULT = 100;
+
+   public static final String SEARCH_CACHE_SIZE = "searchCacheSize";
+
+   public static final String ASYNC_THREADS = "asyncThreads";
+
+   public static final String ASYNC_QUEUE_SIZE = "asyncQueueSize";
+
+   public static final int ASYNC_QUEUE_SIZE_DEFAULT = 100;
+
+   public static final String CHANGE_LISTENER = "changeListener";
+
+   public static final String CHANGE_LISTENER_PSEARCH = "psearch";
+
+   public static final String CHANGE_LISTENER_POLL = "poll";
+
+   public static final String CHANGE_LISTENER_POLL_INTERVAL = "changeListenerPollInterval";
+
+   public static final long CHANGE_LISTENER_POLL_INTERVAL_DEFAULT = 60000;
+
    public SimpleLDAPIdentityStoreConfiguration(IdentityStoreConfigurationMetaData storeMD)
    {
       if (storeMD == null)
@@ -200,6 +312,228 @@ public class SimpleLDAPIdentityStoreConfiguration
          this.createMissingContexts = false;
       }
 
+      String connectionPool = storeMD.getOptionSingleValue(CONNECTION_POOL);
+      if (connectionPool != null && connectionPool.equalsIgnoreCase("true"))
+      {
+         this.connectionPool = true;
+      }
+      else
+      {
+         this.connectionPool = false;
+      }
+
+      String poolMinSize = storeMD.getOptionSingleValue(CONNECTION_POOL_MIN_SIZE);
+      if (poolMinSize != null)
+      {
+         this.connectionPoolMinSize = Integer.valueOf(poolMinSize);
+      }
+      else
+      {
+         this.connectionPoolMinSize = CONNECTION_POOL_MIN_SIZE_DEFAULT;
+      }
+
+      String poolMaxSize = storeMD.getOptionSingleValue(CONNECTION_POOL_MAX_SIZE);
+      if (poolMaxSize != null)
+      {
+         this.connectionPoolMaxSize = Integer.valueOf(poolMaxSize);
+      }
+      else
+      {
+         this.connectionPoolMaxSize = CONNECTION_POOL_MAX_SIZE_DEFAULT;
+      }
+
+      String poolIdleTimeout = storeMD.getOptionSingleValue(CONNECTION_POOL_IDLE_TIMEOUT);
+      if (poolIdleTimeout != null)
+      {
+         this.connectionPoolIdleTimeout = Long.valueOf(poolIdleTimeout);
+      }
+      else
+      {
+         this.connectionPoolIdleTimeout = CONNECTION_POOL_IDLE_TIMEOUT_DEFAULT;
+      }
+
+      String poolValidate = storeMD.getOptionSingleValue(CONNECTION_POOL_VALIDATE_ON_BORROW);
+      if (poolValidate != null && poolValidate.equalsIgnoreCase("false"))
+      {
+         this.connectionPoolValidateOnBorrow = false;
+      }
+      else
+      {
+         this.connectionPoolValidateOnBorrow = true;
+      }
+
+      String poolBorrowTimeout = storeMD.getOptionSingleValue(CONNECTION_POOL_BORROW_TIMEOUT);
+      if (poolBorrowTimeout != null)
+      {
+         this.connectionPoolBorrowTimeout = Long.valueOf(poolBorrowTimeout);
+      }
+      else
+      {
+         this.connectionPoolBorrowTimeout = CONNECTION_POOL_BORROW_TIMEOUT_DEFAULT;
+      }
+
+      String authConnectionPool = storeMD.getOptionSingleValue(AUTH_CONNECTION_POOL);
+      if (authConnectionPool != null && authConnectionPool.equalsIgnoreCase("true"))
+      {
+         this.authConnectionPool = true;
+      }
+      else
+      {
+         this.authConnectionPool = false;
+      }
+
+      String authPoolMinSize = storeMD.getOptionSingleValue(AUTH_CONNECTION_POOL_MIN_SIZE);
+      if (authPoolMinSize != null)
+      {
+         this.authConnectionPoolMinSize = Integer.valueOf(authPoolMinSize);
+      }
+      else
+      {
+         this.authConnectionPoolMinSize = CONNECTION_POOL_MIN_SIZE_DEFAULT;
+      }
+
+      String authPoolMaxSize = storeMD.getOptionSingleValue(AUTH_CONNECTION_POOL_MAX_SIZE);
+      if (authPoolMaxSize != null)
+      {
+         this.authConnectionPoolMaxSize = Integer.valueOf(authPoolMaxSize);
+      }
+      else
+      {
+         this.authConnectionPoolMaxSize = CONNECTION_POOL_MAX_SIZE_DEFAULT;
+      }
+
+      String fastBind = storeMD.getOptionSingleValue(FAST_BIND);
+      if (fastBind != null && fastBind.equalsIgnoreCase("true"))
+      {
+         this.fastBind = true;
+      }
+      else
+      {
+         this.fastBind = false;
+      }
+
+      String searchFanOut = storeMD.getOptionSingleValue(SEARCH_FAN_OUT);
+      if (searchFanOut != null && searchFanOut.equalsIgnoreCase("true"))
+      {
+         this.searchFanOut = true;
+      }
+      else
+      {
+         this.searchFanOut = false;
+      }
+
+      String fanOutThreads = storeMD.getOptionSingleValue(SEARCH_FAN_OUT_THREADS);
+      if (fanOutThreads != null)
+      {
+         this.searchFanOutThreads = Integer.valueOf(fanOutThreads);
+      }
+      else
+      {
+         this.searchFanOutThreads = SEARCH_FAN_OUT_THREADS_DEFAULT;
+      }
+
+      // Whole fan-out search shouldn't take longer than a single search by default
+      String fanOutTL = storeMD.getOptionSingleValue(SEARCH_FAN_OUT_TIME_LIMIT);
+      if (fanOutTL != null)
+      {
+         this.searchFanOutTimeLimit = Long.valueOf(fanOutTL);
+      }
+      else
+      {
+         this.searchFanOutTimeLimit = searchTimeLimit;
+      }
+
+      String countStrategy = storeMD.getOptionSingleValue(COUNT_STRATEGY);
+      if (countStrategy != null)
+      {
+         if (!countStrategy.equalsIgnoreCase(COUNT_STRATEGY_SEARCH) &&
+            !countStrategy.equalsIgnoreCase(COUNT_STRATEGY_VLV) &&
+            !countStrategy.equalsIgnoreCase(COUNT_STRATEGY_ATTRIBUTE))
+         {
+            throw new IllegalArgumentException("Unsupported " + COUNT_STRATEGY + " option value: " + countStrategy);
+         }
+         this.countStrategy = countStrategy.toLowerCase();
+      }
+      else
+      {
+         this.countStrategy = COUNT_STRATEGY_SEARCH;
+      }
+
+      String countAttributeName = storeMD.getOptionSingleValue(COUNT_ATTRIBUTE_NAME);
+      if (countAttributeName != null)
+      {
+         this.countAttributeName = countAttributeName;
+      }
+      else
+      {
+         this.countAttributeName = COUNT_ATTRIBUTE_NAME_DEFAULT;
+      }
+
+      String resolveBatchSize = storeMD.getOptionSingleValue(MEMBERSHIP_RESOLVE_BATCH_SIZE);
+      if (resolveBatchSize != null)
+      {
+         this.membershipResolveBatchSize = Integer.valueOf(resolveBatchSize);
+      }
+      else
+      {
+         this.membershipResolveBatchSize = MEMBERSHIP_RESOLVE_BATCH_SIZE_DEFAULT;
+      }
+
+      String searchCacheSize = storeMD.getOptionSingleValue(SEARCH_CACHE_SIZE);
+      if (searchCacheSize != null)
+      {
+         this.searchCacheSize = Integer.valueOf(searchCacheSize);
+      }
+      else
+      {
+         this.searchCacheSize = 0;
+      }
+
+      String asyncThreads = storeMD.getOptionSingleValue(ASYNC_THREADS);
+      if (asyncThreads != null)
+      {
+         this.asyncThreads = Integer.valueOf(asyncThreads);
+      }
+      else
+      {
+         this.asyncThreads = 0;
+      }
+
+      String asyncQueueSize = storeMD.getOptionSingleValue(ASYNC_QUEUE_SIZE);
+      if (asyncQueueSize != null)
+      {
+         this.asyncQueueSize = Integer.valueOf(asyncQueueSize);
+      }
+      else
+      {
+         this.asyncQueueSize = ASYNC_QUEUE_SIZE_DEFAULT;
+      }
+
+      String changeListener = storeMD.getOptionSingleValue(CHANGE_LISTENER);
+      if (changeListener != null)
+      {
+         if (!changeListener.equalsIgnoreCase(CHANGE_LISTENER_PSEARCH) &&
+            !changeListener.equalsIgnoreCase(CHANGE_LISTENER_POLL))
+         {
+            throw new IllegalArgumentException("Unsupported " + CHANGE_LISTENER + " option value: " + changeListener);
+         }
+         this.changeListener = changeListener.toLowerCase();
+      }
+      else
+      {
+         this.changeListener = null;
+      }
+
+      String changeListenerPollInterval = storeMD.getOptionSingleValue(CHANGE_LISTENER_POLL_INTERVAL);
+      if (changeListenerPollInterval != null)
+      {
+         this.changeListenerPollInterval = Long.valueOf(changeListenerPollInterval);
+      }
+      else
+      {
+         this.changeListenerPollInterval = CHANGE_LISTENER_POLL_INTERVAL_DEFAULT;
+      }
+
       Map<String, LDAPIdentityObjectTypeConfiguration> types = new HashMap<String, LDAPIdentityObjectTypeConfiguration>();
 
       for (IdentityObjectTypeMetaData identityObjectTypeMetaData : storeMD.getSupportedIdentityTypes())
@@ -502,4 +836,109 @@ public class SimpleLDAPIdentityStoreConfiguration
    {
       return createMissingContexts;
    }
+
+   public boolean isConnectionPool()
+   {
+      return connectionPool;
+   }
+
+   public int getConnectionPoolMinSize()
+   {
+      return connectionPoolMinSize;
+   }
+
+   public int getConnectionPoolMaxSize()
+   {
+      return connectionPoolMaxSize;
+   }
+
+   public long getConnectionPoolIdleTimeout()
+   {
+      return connectionPoolIdleTimeout;
+   }
+
+   public boolean isConnectionPoolValidateOnBorrow()
+   {
+      return connectionPoolValidateOnBorrow;
+   }
+
+   public long getConnectionPoolBorrowTimeout()
+   {
+      return connectionPoolBorrowTimeout;
+   }
+
+   public boolean isAuthConnectionPool()
+   {
+      return authConnectionPool;
+   }
+
+   public int getAuthConnectionPoolMinSize()
+   {
+      return authConnectionPoolMinSize;
+   }
+
+   public int getAuthConnectionPoolMaxSize()
+   {
+      return authConnectionPoolMaxSize;
+   }
+
+   public boolean isFastBind()
+   {
+      return fastBind;
+   }
+
+   public boolean isSearchFanOut()
+   {
+      return searchFanOut;
+   }
+
+   public int getSearchFanOutThreads()
+   {
+      return searchFanOutThreads;
+   }
+
+   public long getSearchFanOutTimeLimit()
+   {
+      return searchFanOutTimeLimit;
+   }
+
+   public String getCountStrategy()
+   {
+      return countStrategy;
+   }
+
+   public String getCountAttributeName()
+   {
+      return countAttributeName;
+   }
+
+   public int getMembershipResolveBatchSize()
+   {
+      return membershipResolveBatchSize;
+   }
+
+   public int getSearchCacheSize()
+   {
+      return searchCacheSize;
+   }
+
+   public int getAsyncThreads()
+   {
+      return asyncThreads;
+   }
+
+   public int getAsyncQueueSize()
+   {
+      return asyncQueueSize;
+   }
+
+   public String getChangeListener()
+   {
+      return changeListener;
+   }
+
+   public long getChangeListenerPollInterval()
+   {
+      return changeListenerPollInterval;
+   }
 }
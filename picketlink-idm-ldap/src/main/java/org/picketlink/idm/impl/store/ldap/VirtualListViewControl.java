@@ -0,0 +1,229 @@
+/*
+* JBoss, a division of Red Hat
+* Copyright 2006, Red Hat Middleware, LLC, and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+
+package org.picketlink.idm.impl.store.ldap;
+
+import java.io.ByteArrayOutputStream;
+import javax.naming.ldap.Control;
+
+/**
+ * Virtual list view request control (draft-ietf-ldapext-ldapv3-vlv) selecting target entry by offset. Used to obtain
+ * number of entries matching a search (content count) without transferring them. Server requires sort control to be
+ * sent together with this control.
+ *
+ * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
+ * @version : 0.1 $
+ */
+public class VirtualListViewControl implements Control
+{
+   private static final long serialVersionUID = -4214839473409472150L;
+
+   public static final String OID = "2.16.840.1.113730.3.4.9";
+
+   public static final String RESPONSE_OID = "2.16.840.1.113730.3.4.10";
+
+   private static final int TAG_INTEGER = 0x02;
+
+   private static final int TAG_SEQUENCE = 0x30;
+
+   private static final int TAG_BY_OFFSET = 0xA0;
+
+   private final byte[] encodedValue;
+
+   /**
+    * @param beforeCount number of entries to return before target entry
+    * @param afterCount number of entries to return after target entry
+    * @param offset position of target entry - starting from 1
+    * @param contentCount client estimate of content count - 0 if unknown
+    */
+   public VirtualListViewControl(int beforeCount, int afterCount, int offset, int contentCount)
+   {
+      ByteArrayOutputStream byOffset = new ByteArrayOutputStream();
+      writeInteger(byOffset, offset);
+      writeInteger(byOffset, contentCount);
+
+      ByteArrayOutputStream request = new ByteArrayOutputStream();
+      writeInteger(request, beforeCount);
+      writeInteger(request, afterCount);
+      writeElement(request, TAG_BY_OFFSET, byOffset.toByteArray());
+
+      ByteArrayOutputStream value = new ByteArrayOutputStream();
+      writeElement(value, TAG_SEQUENCE, request.toByteArray());
+
+      this.encodedValue = value.toByteArray();
+   }
+
+   public String getID()
+   {
+      return OID;
+   }
+
+   public boolean isCritical()
+   {
+      return Control.CRITICAL;
+   }
+
+   public byte[] getEncodedValue()
+   {
+      return encodedValue.clone();
+   }
+
+   /**
+    * Finds virtual list view response control and returns content count reported by the server.
+    *
+    * @param responseControls
+    * @return content count or -1 if response control is not present
+    */
+   public static int getContentCount(Control[] responseControls)
+   {
+      if (responseControls == null)
+      {
+         return -1;
+      }
+
+      for (Control control : responseControls)
+      {
+         if (RESPONSE_OID.equals(control.getID()))
+         {
+            return parseContentCount(control.getEncodedValue());
+         }
+      }
+
+      return -1;
+   }
+
+   /**
+    * Decodes contentCount from VirtualListViewResponse ::= SEQUENCE { targetPosition INTEGER,
+    * contentCount INTEGER, virtualListViewResult ENUMERATED, contextID OCTET STRING OPTIONAL }
+    *
+    * @param encoded
+    * @return
+    */
+   static int parseContentCount(byte[] encoded)
+   {
+      if (encoded == null)
+      {
+         throw new IllegalArgumentException("Empty virtual list view response control");
+      }
+
+      int[] position = new int[]{0};
+
+      readHeader(encoded, position, TAG_SEQUENCE);
+
+      // targetPosition
+      readInteger(encoded, position);
+
+      return readInteger(encoded, position);
+   }
+
+   private static void writeInteger(ByteArrayOutputStream out, int value)
+   {
+      // Minimal two's complement representation
+      int length = 4;
+      while (length > 1)
+      {
+         int firstNine = (value >> ((length - 1) * 8 - 1)) & 0x1FF;
+         if (firstNine != 0 && firstNine != 0x1FF)
+         {
+            break;
+         }
+         length--;
+      }
+
+      byte[] bytes = new byte[length];
+      for (int i = 0; i < length; i++)
+      {
+         bytes[i] = (byte)(value >> ((length - 1 - i) * 8));
+      }
+
+      writeElement(out, TAG_INTEGER, bytes);
+   }
+
+   private static void writeElement(ByteArrayOutputStream out, int tag, byte[] content)
+   {
+      out.write(tag);
+
+      if (content.length < 0x80)
+      {
+         out.write(content.length);
+      }
+      else
+      {
+         int lengthBytes = content.length > 0xFFFF ? (content.length > 0xFFFFFF ? 4 : 3) : (content.length > 0xFF ? 2 : 1);
+         out.write(0x80 | lengthBytes);
+         for (int i = lengthBytes - 1; i >= 0; i--)
+         {
+            out.write(content.length >> (i * 8));
+         }
+      }
+
+      out.write(content, 0, content.length);
+   }
+
+   private static int readHeader(byte[] encoded, int[] position, int expectedTag)
+   {
+      if (position[0] + 2 > encoded.length || (encoded[position[0]] & 0xFF) != expectedTag)
+      {
+         throw new IllegalArgumentException("Malformed virtual list view response control");
+      }
+      position[0]++;
+
+      int length = encoded[position[0]++] & 0xFF;
+
+      if ((length & 0x80) != 0)
+      {
+         int lengthBytes = length & 0x7F;
+         if (lengthBytes > 4 || position[0] + lengthBytes > encoded.length)
+         {
+            throw new IllegalArgumentException("Malformed virtual list view response control");
+         }
+
+         length = 0;
+         for (int i = 0; i < lengthBytes; i++)
+         {
+            length = (length << 8) | (encoded[position[0]++] & 0xFF);
+         }
+      }
+
+      return length;
+   }
+
+   private static int readInteger(byte[] encoded, int[] position)
+   {
+      int length = readHeader(encoded, position, TAG_INTEGER);
+
+      if (length < 1 || length > 4 || position[0] + length > encoded.length)
+      {
+         throw new IllegalArgumentException("Malformed virtual list view response control");
+      }
+
+      // Sign extend first byte
+      int value = encoded[position[0]++];
+      for (int i = 1; i < length; i++)
+      {
+         value = (value << 8) | (encoded[position[0]++] & 0xFF);
+      }
+
+      return value;
+   }
+}
@@ -0,0 +1,280 @@
+/*
+* JBoss, a division of Red Hat
+* Copyright 2006, Red Hat Middleware, LLC, and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.picketlink.idm.impl.store.ldap;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.picketlink.idm.common.exception.IdentityException;
+import org.picketlink.idm.impl.store.SimpleIdentityStoreInvocationContext;
+import org.picketlink.idm.impl.types.SimpleIdentityObject;
+import org.picketlink.idm.impl.types.SimpleIdentityObjectType;
+import org.picketlink.idm.spi.model.IdentityObject;
+import org.picketlink.idm.spi.model.IdentityObjectType;
+import org.picketlink.idm.spi.store.IdentityStoreInvocationContext;
+import org.picketlink.idm.spi.store.IdentityStoreSession;
+
+/**
+ * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
+ * @version : 0.1 $
+ */
+public class AsyncLDAPIdentityStoreTestCase extends TestCase
+{
+   private static final IdentityObjectType USER = new SimpleIdentityObjectType("USER");
+
+   private TestStore store;
+
+   private AsyncLDAPIdentityStore asyncStore;
+
+   private IdentityStoreInvocationContext ctx;
+
+   public void setUp() throws Exception
+   {
+      store = new TestStore();
+      ctx = new SimpleIdentityStoreInvocationContext(new TestSession(), "realm", "session");
+   }
+
+   public void tearDown() throws Exception
+   {
+      store.release.countDown();
+
+      if (asyncStore != null)
+      {
+         asyncStore.shutdown();
+      }
+   }
+
+   public void testEachOperationGetsOwnSession() throws Exception
+   {
+      asyncStore = new AsyncLDAPIdentityStore(store, 2, 10);
+
+      IdentityObject first = asyncStore.findIdentityObject(ctx, "first", USER).get(10, TimeUnit.SECONDS);
+      IdentityObject second = asyncStore.findIdentityObject(ctx, "second", USER).get(10, TimeUnit.SECONDS);
+
+      assertEquals("first", first.getName());
+      assertEquals("second", second.getName());
+
+      // Caller context is not used - each operation creates and closes its own session
+      assertEquals(2, store.sessions.size());
+      assertNotSame(store.sessions.get(0), store.sessions.get(1));
+
+      for (TestSession session : store.sessions)
+      {
+         assertTrue(session.closed);
+      }
+
+      assertFalse(((TestSession)ctx.getIdentityStoreSession()).closed);
+
+      for (IdentityStoreInvocationContext taskCtx : store.contexts)
+      {
+         assertNotSame(ctx, taskCtx);
+         assertEquals("realm", taskCtx.getRealmId());
+         assertEquals("session", taskCtx.getSessionId());
+      }
+   }
+
+   public void testIdentityExceptionIsExecutionExceptionCause() throws Exception
+   {
+      asyncStore = new AsyncLDAPIdentityStore(store, 1, 10);
+
+      Future<IdentityObject> future = asyncStore.findIdentityObject(ctx, "fail", USER);
+
+      try
+      {
+         future.get(10, TimeUnit.SECONDS);
+         fail();
+      }
+      catch (ExecutionException e)
+      {
+         assertTrue(e.getCause() instanceof IdentityException);
+      }
+
+      // Session is closed also when operation fails
+      assertEquals(1, store.sessions.size());
+      assertTrue(store.sessions.get(0).closed);
+   }
+
+   public void testCallerRunsWhenQueueIsFull() throws Exception
+   {
+      asyncStore = new AsyncLDAPIdentityStore(store, 1, 1);
+
+      // Occupies the only thread
+      Future<IdentityObject> blocked = asyncStore.findIdentityObject(ctx, "block", USER);
+      assertTrue(store.started.await(10, TimeUnit.SECONDS));
+
+      // Fills the queue
+      Future<IdentityObject> queued = asyncStore.findIdentityObject(ctx, "queued", USER);
+
+      Future<IdentityObject> callerRuns = asyncStore.findIdentityObject(ctx, "caller", USER);
+
+      assertTrue(callerRuns.isDone());
+      assertEquals("caller", callerRuns.get().getName());
+      assertSame(Thread.currentThread(), store.threads.get(1));
+
+      store.release.countDown();
+
+      assertEquals("block", blocked.get(10, TimeUnit.SECONDS).getName());
+      assertEquals("queued", queued.get(10, TimeUnit.SECONDS).getName());
+   }
+
+   public void testOperationRejectedAfterShutdown() throws Exception
+   {
+      asyncStore = new AsyncLDAPIdentityStore(store, 1, 1);
+      asyncStore.shutdown();
+
+      try
+      {
+         asyncStore.findIdentityObject(ctx, "late", USER);
+         fail();
+      }
+      catch (RejectedExecutionException e)
+      {
+         // Expected
+      }
+
+      assertTrue(store.sessions.isEmpty());
+   }
+
+   /**
+    * Store that doesn't connect anywhere. Name of the searched object controls the behaviour
+    */
+   private static class TestStore extends LDAPIdentityStoreImpl
+   {
+      final List<TestSession> sessions = new CopyOnWriteArrayList<TestSession>();
+
+      final List<IdentityStoreInvocationContext> contexts = new CopyOnWriteArrayList<IdentityStoreInvocationContext>();
+
+      final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+
+      final CountDownLatch started = new CountDownLatch(1);
+
+      final CountDownLatch release = new CountDownLatch(1);
+
+      TestStore()
+      {
+         super("test");
+      }
+
+      public IdentityStoreSession createIdentityStoreSession()
+      {
+         TestSession session = new TestSession();
+         sessions.add(session);
+         return session;
+      }
+
+      public IdentityObject findIdentityObject(IdentityStoreInvocationContext invocationCtx,
+                                               String name,
+                                               IdentityObjectType type) throws IdentityException
+      {
+         contexts.add(invocationCtx);
+         threads.add(Thread.currentThread());
+
+         if (name.equals("fail"))
+         {
+            throw new IdentityException("Search failed");
+         }
+
+         if (name.equals("block"))
+         {
+            started.countDown();
+
+            try
+            {
+               release.await(10, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e)
+            {
+               Thread.currentThread().interrupt();
+            }
+         }
+
+         return new SimpleIdentityObject(name, type);
+      }
+   }
+
+   private static class TestSession implements IdentityStoreSession
+   {
+      volatile boolean closed = false;
+
+      public Object getSessionContext() throws IdentityException
+      {
+         return null;
+      }
+
+      public void close() throws IdentityException
+      {
+         closed = true;
+      }
+
+      public void save() throws IdentityException
+      {
+      }
+
+      public void clear() throws IdentityException
+      {
+      }
+
+      public boolean isOpen()
+      {
+         return !closed;
+      }
+
+      public void setReadOnly(boolean readOnly)
+      {
+      }
+
+      public boolean isReadOnly()
+      {
+         return true;
+      }
+
+      public boolean isTransactionSupported()
+      {
+         return false;
+      }
+
+      public void startTransaction()
+      {
+      }
+
+      public void commitTransaction()
+      {
+      }
+
+      public void rollbackTransaction()
+      {
+      }
+
+      public boolean isTransactionActive()
+      {
+         return false;
+      }
+   }
+}
@@ -0,0 +1,100 @@
+/*
+* JBoss, a division of Red Hat
+* Copyright 2006, Red Hat Middleware, LLC, and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.picketlink.idm.impl.store.ldap;
+
+import junit.framework.TestCase;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.picketlink.idm.impl.types.SimpleIdentityObjectType;
+import org.picketlink.idm.spi.model.IdentityObject;
+import org.picketlink.idm.spi.model.IdentityObjectType;
+
+/**
+ * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
+ * @version : 0.1 $
+ */
+public class LDAPChangedEntriesTestCase extends TestCase
+{
+   private static final IdentityObjectType USER = new SimpleIdentityObjectType("USER");
+
+   private static final IdentityObjectType GROUP = new SimpleIdentityObjectType("GROUP");
+
+   private Map<IdentityObjectType, String[]> typeCtxDNs;
+
+   public void setUp()
+   {
+      typeCtxDNs = new LinkedHashMap<IdentityObjectType, String[]>();
+      typeCtxDNs.put(USER, new String[]{"ou=People,o=test,dc=example,dc=com"});
+      typeCtxDNs.put(GROUP, new String[]{"ou=Groups,o=test,dc=example,dc=com"});
+   }
+
+   public void testEntryMappedToType()
+   {
+      List<IdentityObject> changed = LDAPIdentityStoreImpl.resolveChangedEntries(
+         new String[]{"uid=jdoe,ou=People,o=test,dc=example,dc=com", "cn=Admins,OU=groups,o=test,dc=example,dc=com"},
+         typeCtxDNs);
+
+      assertEquals(2, changed.size());
+      assertEquals("jdoe", changed.get(0).getName());
+      assertEquals(USER, changed.get(0).getIdentityType());
+
+      // Names are compared ignoring case
+      assertEquals("Admins", changed.get(1).getName());
+      assertEquals(GROUP, changed.get(1).getIdentityType());
+   }
+
+   public void testContextOrParentChangesAllEntries()
+   {
+      assertNull(LDAPIdentityStoreImpl.resolveChangedEntries(new String[]{"ou=People,o=test,dc=example,dc=com"}, typeCtxDNs));
+      assertNull(LDAPIdentityStoreImpl.resolveChangedEntries(new String[]{"o=test,dc=example,dc=com"}, typeCtxDNs));
+   }
+
+   public void testSuffixWithoutRDNBoundaryIsNotParent()
+   {
+      // "ou=People,o=test,dc=example,dc=com" ends with "u=People,o=test,dc=example,dc=com" as a string but it is
+      // not its parent
+      List<IdentityObject> changed = LDAPIdentityStoreImpl.resolveChangedEntries(
+         new String[]{"u=People,o=test,dc=example,dc=com", "uid=jdoe,ou=OtherPeople,o=test,dc=example,dc=com"}, typeCtxDNs);
+
+      assertNotNull(changed);
+      assertTrue(changed.isEmpty());
+   }
+
+   public void testNestedEntryIsNotMistakenForContext()
+   {
+      // Entry below a user entry still belongs to the user context - not its parent
+      List<IdentityObject> changed = LDAPIdentityStoreImpl.resolveChangedEntries(
+         new String[]{"cn=device,uid=jdoe,ou=People,o=test,dc=example,dc=com"}, typeCtxDNs);
+
+      assertNotNull(changed);
+      assertEquals(1, changed.size());
+   }
+
+   public void testInvalidNameChangesAllEntries()
+   {
+      assertNull(LDAPIdentityStoreImpl.resolveChangedEntries(new String[]{"not a dn"}, typeCtxDNs));
+   }
+}
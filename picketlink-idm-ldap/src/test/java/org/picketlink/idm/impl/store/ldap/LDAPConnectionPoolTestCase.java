@@ -0,0 +1,315 @@
+/*
+* JBoss, a division of Red Hat
+* Copyright 2006, Red Hat Middleware, LLC, and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.picketlink.idm.impl.store.ldap;
+
+import junit.framework.TestCase;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.CommunicationException;
+import javax.naming.Context;
+import javax.naming.NamingException;
+import javax.naming.ldap.LdapContext;
+import javax.naming.spi.InitialContextFactory;
+
+/**
+ * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
+ * @version : 0.1 $
+ */
+public class LDAPConnectionPoolTestCase extends TestCase
+{
+   private static final AtomicInteger openContexts = new AtomicInteger();
+
+   private LDAPConnectionPool pool;
+
+   private Hashtable<String, String> env;
+
+   public void setUp() throws Exception
+   {
+      openContexts.set(0);
+
+      env = new Hashtable<String, String>();
+      env.put(Context.INITIAL_CONTEXT_FACTORY, TestContextFactory.class.getName());
+
+      pool = new LDAPConnectionPool("test", env, 0, 2, 0, false, 2000);
+   }
+
+   public void tearDown() throws Exception
+   {
+      pool.close();
+   }
+
+   public void testNestedBorrowSharesConnection() throws Exception
+   {
+      LdapContext outer = pool.borrow();
+      LdapContext inner = pool.borrow();
+
+      assertNotSame(outer, inner);
+      assertEquals(1, pool.getActiveCount());
+      assertEquals(1, pool.getCreatedCount());
+
+      inner.close();
+      assertEquals(1, pool.getActiveCount());
+
+      outer.close();
+      assertEquals(0, pool.getActiveCount());
+      assertEquals(1, pool.getIdleCount());
+   }
+
+   public void testConnectionNotSharedWithOtherThread() throws Exception
+   {
+      final LdapContext outer = pool.borrow();
+
+      final List<LdapContext> borrowed = new CopyOnWriteArrayList<LdapContext>();
+
+      Thread thread = new Thread()
+      {
+         public void run()
+         {
+            try
+            {
+               borrowed.add(pool.borrow());
+            }
+            catch (NamingException e)
+            {
+               // Checked below
+            }
+         }
+      };
+      thread.start();
+      thread.join();
+
+      assertEquals(1, borrowed.size());
+      assertEquals(2, pool.getActiveCount());
+      assertEquals(2, pool.getCreatedCount());
+
+      borrowed.get(0).close();
+      outer.close();
+
+      assertEquals(0, pool.getActiveCount());
+   }
+
+   public void testConcurrentNestedBorrowsDontStarvePool() throws Exception
+   {
+      final int threadCount = 8;
+      final int iterations = 50;
+
+      final CountDownLatch start = new CountDownLatch(1);
+      final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+
+      Thread[] threads = new Thread[threadCount];
+
+      for (int i = 0; i < threadCount; i++)
+      {
+         threads[i] = new Thread()
+         {
+            public void run()
+            {
+               try
+               {
+                  start.await();
+
+                  for (int j = 0; j < iterations; j++)
+                  {
+                     // Same pattern as store methods that search while holding a context
+                     LdapContext outer = pool.borrow();
+                     try
+                     {
+                        LdapContext inner = pool.borrow();
+                        inner.getEnvironment();
+                        inner.close();
+                     }
+                     finally
+                     {
+                        outer.close();
+                     }
+                  }
+               }
+               catch (Throwable e)
+               {
+                  failures.add(e);
+               }
+            }
+         };
+         threads[i].start();
+      }
+
+      start.countDown();
+
+      for (Thread thread : threads)
+      {
+         thread.join(30000);
+      }
+
+      assertTrue("Borrow failures: " + failures, failures.isEmpty());
+      assertEquals(0, pool.getBorrowTimeoutCount());
+      assertEquals(0, pool.getActiveCount());
+      assertTrue(pool.getCreatedCount() <= 2);
+   }
+
+   public void testClosedContextCannotBeUsed() throws Exception
+   {
+      LdapContext context = pool.borrow();
+      context.close();
+
+      // Closing twice is harmless
+      context.close();
+
+      try
+      {
+         context.getEnvironment();
+         fail();
+      }
+      catch (IllegalStateException e)
+      {
+         // Expected
+      }
+   }
+
+   public void testBorrowFailsWhenHeldConnectionIsBroken() throws Exception
+   {
+      // Single connection and no borrow timeout
+      pool.close();
+      pool = new LDAPConnectionPool("test", env, 0, 1, 0, false, 0);
+
+      LdapContext outer = pool.borrow();
+
+      try
+      {
+         outer.getNameInNamespace();
+         fail();
+      }
+      catch (CommunicationException e)
+      {
+         // Expected - connection is broken now
+      }
+
+      // Doesn't wait for the only permit held by this thread
+      try
+      {
+         pool.borrow();
+         fail();
+      }
+      catch (CommunicationException e)
+      {
+         // Expected
+      }
+
+      assertEquals(1, pool.getActiveCount());
+
+      outer.close();
+
+      assertEquals(0, pool.getActiveCount());
+      assertEquals(0, pool.getIdleCount());
+
+      // Broken connection was destroyed - new one is opened
+      LdapContext context = pool.borrow();
+      context.close();
+
+      assertEquals(2, pool.getCreatedCount());
+   }
+
+   public void testCloseDestroysIdleConnections() throws Exception
+   {
+      LdapContext context = pool.borrow();
+      context.close();
+
+      assertEquals(1, openContexts.get());
+
+      pool.close();
+
+      assertEquals(0, openContexts.get());
+      assertTrue(pool.isClosed());
+
+      try
+      {
+         pool.borrow();
+         fail();
+      }
+      catch (NamingException e)
+      {
+         // Expected
+      }
+   }
+
+   /**
+    * Creates LdapContext proxies that don't connect anywhere
+    */
+   public static class TestContextFactory implements InitialContextFactory
+   {
+      public Context getInitialContext(Hashtable<?, ?> environment) throws NamingException
+      {
+         return createContext(environment);
+      }
+
+      static LdapContext createContext(final Hashtable<?, ?> environment)
+      {
+         openContexts.incrementAndGet();
+
+         return (LdapContext)Proxy.newProxyInstance(LdapContext.class.getClassLoader(),
+            new Class[]{LdapContext.class},
+            new InvocationHandler()
+            {
+               public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+               {
+                  String name = method.getName();
+
+                  if (name.equals("newInstance"))
+                  {
+                     return createContext(environment);
+                  }
+                  if (name.equals("close"))
+                  {
+                     openContexts.decrementAndGet();
+                     return null;
+                  }
+                  if (name.equals("getEnvironment"))
+                  {
+                     return environment;
+                  }
+                  if (name.equals("getNameInNamespace"))
+                  {
+                     throw new CommunicationException("Connection lost");
+                  }
+                  if (name.equals("equals"))
+                  {
+                     return proxy == args[0];
+                  }
+                  if (name.equals("hashCode"))
+                  {
+                     return System.identityHashCode(proxy);
+                  }
+
+                  return null;
+               }
+            });
+      }
+   }
+}
@@ -0,0 +1,143 @@
+/*
+* JBoss, a division of Red Hat
+* Copyright 2006, Red Hat Middleware, LLC, and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.picketlink.idm.impl.store.ldap;
+
+import junit.framework.TestCase;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.SortControl;
+
+/**
+ * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
+ * @version : 0.1 $
+ */
+public class LDAPSearchCacheTestCase extends TestCase
+{
+   public void testLeastRecentlyUsedEntryIsEvicted()
+   {
+      LDAPSearchCache cache = new LDAPSearchCache(2);
+
+      LDAPSearch first = search("ou=People,dc=example,dc=com", "(uid=first)");
+      LDAPSearch second = search("ou=People,dc=example,dc=com", "(uid=second)");
+      LDAPSearch third = search("ou=People,dc=example,dc=com", "(uid=third)");
+
+      cache.put(first, results("first"));
+      cache.put(second, results("second"));
+
+      // Reading first makes second the least recently used one
+      assertNotNull(cache.get(first));
+
+      cache.put(third, results("third"));
+
+      assertEquals(2, cache.size());
+      assertEquals(1, cache.getEvictionCount());
+      assertNotNull(cache.get(first));
+      assertNull(cache.get(second));
+      assertNotNull(cache.get(third));
+
+      assertEquals(3, cache.getHitCount());
+      assertEquals(1, cache.getMissCount());
+   }
+
+   public void testSearchIsValueKey() throws Exception
+   {
+      LDAPSearchCache cache = new LDAPSearchCache(10);
+
+      cache.put(search("ou=People,dc=example,dc=com", "(uid=jdoe)"), results("jdoe"));
+
+      assertNotNull(cache.get(search("ou=People,dc=example,dc=com", "(uid=jdoe)")));
+      assertNull(cache.get(search("ou=People,dc=example,dc=com", "(uid=other)")));
+
+      // Different control instances with the same value
+      LDAPSearch sorted = new LDAPSearch(new String[]{"ou=People,dc=example,dc=com"}, "(uid=*)", null,
+         new String[]{"uid"}, "subtree", new Control[]{new SortControl("uid", Control.CRITICAL)});
+
+      cache.put(sorted, results("jdoe"));
+
+      assertNotNull(cache.get(new LDAPSearch(new String[]{"ou=People,dc=example,dc=com"}, "(uid=*)", null,
+         new String[]{"uid"}, "subtree", new Control[]{new SortControl("uid", Control.CRITICAL)})));
+      assertNull(cache.get(new LDAPSearch(new String[]{"ou=People,dc=example,dc=com"}, "(uid=*)", null,
+         new String[]{"uid"}, "subtree", new Control[]{new SortControl("cn", Control.CRITICAL)})));
+   }
+
+   public void testInvalidateOverlappingSearches()
+   {
+      LDAPSearchCache cache = new LDAPSearchCache(10);
+
+      LDAPSearch people = search("ou=People,dc=example,dc=com", "(uid=*)");
+      LDAPSearch groups = search("ou=Groups,dc=example,dc=com", "(cn=*)");
+
+      cache.put(people, results("jdoe"));
+      cache.put(groups, results("admins"));
+
+      cache.invalidate(new String[]{"uid=jdoe,ou=People,dc=example,dc=com"});
+
+      assertNull(cache.get(people));
+      assertNotNull(cache.get(groups));
+
+      cache.invalidateAll();
+
+      assertEquals(0, cache.size());
+   }
+
+   public void testOverlapsSameParentAndChild()
+   {
+      LDAPSearch search = search("ou=People,dc=example,dc=com", "(uid=*)");
+
+      assertTrue(search.overlaps(new String[]{"ou=People,dc=example,dc=com"}));
+      assertTrue(search.overlaps(new String[]{"uid=jdoe,ou=People,dc=example,dc=com"}));
+      assertTrue(search.overlaps(new String[]{"dc=example,dc=com"}));
+
+      // RDNs are compared case insensitive and without insignificant spaces
+      assertTrue(search.overlaps(new String[]{"UID=jdoe, OU=people, DC=Example, DC=com"}));
+   }
+
+   public void testOverlapsRequiresRdnBoundary()
+   {
+      LDAPSearch search = search("a,dc=x", "(uid=*)");
+
+      assertFalse(search.overlaps(new String[]{"ou=xa,dc=x"}));
+      assertFalse(search("ou=xa,dc=x", "(uid=*)").overlaps(new String[]{"a,dc=x"}));
+
+      search = search("ou=People,dc=example,dc=com", "(uid=*)");
+
+      assertFalse(search.overlaps(new String[]{"uid=jdoe,ou=OtherPeople,dc=example,dc=com"}));
+      assertFalse(search.overlaps(new String[]{"ou=Groups,dc=example,dc=com"}));
+      assertFalse(search.overlaps(null));
+   }
+
+   private static LDAPSearch search(String entryCtx, String filter)
+   {
+      return new LDAPSearch(new String[]{entryCtx}, filter, null, new String[]{"uid"}, "subtree", null);
+   }
+
+   private static List<SearchResult> results(String name)
+   {
+      return Collections.singletonList(new SearchResult("uid=" + name, null, new BasicAttributes()));
+   }
+}
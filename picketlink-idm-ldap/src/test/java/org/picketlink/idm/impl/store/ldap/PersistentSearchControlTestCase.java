@@ -0,0 +1,176 @@
+/*
+* JBoss, a division of Red Hat
+* Copyright 2006, Red Hat Middleware, LLC, and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.picketlink.idm.impl.store.ldap;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+import javax.naming.ldap.Control;
+
+/**
+ * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
+ * @version : 0.1 $
+ */
+public class PersistentSearchControlTestCase extends TestCase
+{
+   public void testEncodeDefaultRequest()
+   {
+      PersistentSearchControl control = new PersistentSearchControl();
+
+      assertEquals(PersistentSearchControl.OID, control.getID());
+      assertTrue(control.isCritical());
+      assertEquals(Arrays.toString(bytes(new int[]{
+         0x30, 0x09,
+         0x02, 0x01, 0x0F,
+         0x01, 0x01, 0xFF,
+         0x01, 0x01, 0xFF})), Arrays.toString(control.getEncodedValue()));
+   }
+
+   public void testEncodeRequest()
+   {
+      PersistentSearchControl control = new PersistentSearchControl(
+         PersistentSearchControl.CHANGE_ADD | PersistentSearchControl.CHANGE_DELETE, false, true);
+
+      assertEquals(Arrays.toString(bytes(new int[]{
+         0x30, 0x09,
+         0x02, 0x01, 0x03,
+         0x01, 0x01, 0x00,
+         0x01, 0x01, 0xFF})), Arrays.toString(control.getEncodedValue()));
+   }
+
+   public void testInvalidChangeTypes()
+   {
+      try
+      {
+         new PersistentSearchControl(0, true, true);
+         fail();
+      }
+      catch (IllegalArgumentException e)
+      {
+         // Expected
+      }
+
+      try
+      {
+         new PersistentSearchControl(16, true, true);
+         fail();
+      }
+      catch (IllegalArgumentException e)
+      {
+         // Expected
+      }
+   }
+
+   public void testParseModify()
+   {
+      Control[] controls = entryChange(new int[]{0x30, 0x03, 0x0A, 0x01, 0x04});
+
+      assertEquals(PersistentSearchControl.CHANGE_MODIFY, PersistentSearchControl.getChangeType(controls));
+      assertNull(PersistentSearchControl.getPreviousDN(controls));
+   }
+
+   public void testParseRenameWithPreviousDN()
+   {
+      // "uid=old,dc=x" followed by change number
+      Control[] controls = entryChange(new int[]{
+         0x30, 0x14,
+         0x0A, 0x01, 0x08,
+         0x04, 0x0C, 'u', 'i', 'd', '=', 'o', 'l', 'd', ',', 'd', 'c', '=', 'x',
+         0x02, 0x01, 0x07});
+
+      assertEquals(PersistentSearchControl.CHANGE_MODDN, PersistentSearchControl.getChangeType(controls));
+      assertEquals("uid=old,dc=x", PersistentSearchControl.getPreviousDN(controls));
+   }
+
+   public void testParseLongFormLength()
+   {
+      char[] dn = new char[200];
+      Arrays.fill(dn, 'a');
+      dn[0] = 'o';
+      dn[1] = '=';
+
+      int[] encoded = new int[3 + 3 + 3 + dn.length];
+      int i = 0;
+      encoded[i++] = 0x30;
+      encoded[i++] = 0x81;
+      encoded[i++] = 3 + 3 + dn.length;
+      encoded[i++] = 0x0A;
+      encoded[i++] = 0x01;
+      encoded[i++] = 0x08;
+      encoded[i++] = 0x04;
+      encoded[i++] = 0x81;
+      encoded[i++] = dn.length;
+      for (char c : dn)
+      {
+         encoded[i++] = c;
+      }
+
+      assertEquals(new String(dn), PersistentSearchControl.getPreviousDN(entryChange(encoded)));
+   }
+
+   public void testMissingEntryChangeControl()
+   {
+      Control other = new VirtualListViewControlTestCase.TestControl("1.2.3", new byte[0]);
+
+      assertEquals(-1, PersistentSearchControl.getChangeType(new Control[]{other}));
+      assertEquals(-1, PersistentSearchControl.getChangeType(null));
+      assertNull(PersistentSearchControl.getPreviousDN(new Control[]{other}));
+   }
+
+   public void testParseMalformed()
+   {
+      // Wrong tag
+      assertMalformed(new int[]{0x31, 0x03, 0x0A, 0x01, 0x04});
+
+      // Length exceeds value
+      assertMalformed(new int[]{0x30, 0x03, 0x0A, 0x05, 0x04});
+
+      // Truncated
+      assertMalformed(new int[]{0x30});
+   }
+
+   private void assertMalformed(int[] encoded)
+   {
+      try
+      {
+         PersistentSearchControl.getChangeType(entryChange(encoded));
+         fail("Malformed control parsed: " + Arrays.toString(encoded));
+      }
+      catch (IllegalArgumentException e)
+      {
+         // Expected
+      }
+   }
+
+   private static Control[] entryChange(int[] encoded)
+   {
+      return new Control[]{
+         new VirtualListViewControlTestCase.TestControl(PersistentSearchControl.ENTRY_CHANGE_OID, bytes(encoded))};
+   }
+
+   private static byte[] bytes(int[] values)
+   {
+      return VirtualListViewControlTestCase.bytes(values);
+   }
+}
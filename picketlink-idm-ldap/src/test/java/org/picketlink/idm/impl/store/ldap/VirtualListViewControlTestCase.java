@@ -0,0 +1,175 @@
+/*
+* JBoss, a division of Red Hat
+* Copyright 2006, Red Hat Middleware, LLC, and individual contributors as indicated
+* by the @authors tag. See the copyright.txt in the distribution for a
+* full listing of individual contributors.
+*
+* This is free software; you can redistribute it and/or modify it
+* under the terms of the GNU Lesser General Public License as
+* published by the Free Software Foundation; either version 2.1 of
+* the License, or (at your option) any later version.
+*
+* This software is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+* Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public
+* License along with this software; if not, write to the Free
+* Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+* 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+*/
+
+package org.picketlink.idm.impl.store.ldap;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+import javax.naming.ldap.Control;
+
+/**
+ * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
+ * @version : 0.1 $
+ */
+public class VirtualListViewControlTestCase extends TestCase
+{
+   public void testEncodeCountRequest()
+   {
+      VirtualListViewControl control = new VirtualListViewControl(0, 0, 1, 0);
+
+      assertEquals(VirtualListViewControl.OID, control.getID());
+      assertTrue(control.isCritical());
+      assertBytes(new int[]{
+         0x30, 0x0E,
+         0x02, 0x01, 0x00,
+         0x02, 0x01, 0x00,
+         0xA0, 0x06, 0x02, 0x01, 0x01, 0x02, 0x01, 0x00}, control.getEncodedValue());
+   }
+
+   public void testEncodeMinimalIntegers()
+   {
+      // 0x80 needs leading zero byte, -129 needs two bytes, MAX_VALUE four bytes
+      VirtualListViewControl control = new VirtualListViewControl(0x7F, 0x80, -129, Integer.MAX_VALUE);
+
+      assertBytes(new int[]{
+         0x30, 0x13,
+         0x02, 0x01, 0x7F,
+         0x02, 0x02, 0x00, 0x80,
+         0xA0, 0x0A, 0x02, 0x02, 0xFF, 0x7F, 0x02, 0x04, 0x7F, 0xFF, 0xFF, 0xFF}, control.getEncodedValue());
+   }
+
+   public void testEncodedValueIsCopied()
+   {
+      VirtualListViewControl control = new VirtualListViewControl(0, 0, 1, 0);
+
+      control.getEncodedValue()[0] = 0;
+
+      assertEquals(0x30, control.getEncodedValue()[0] & 0xFF);
+   }
+
+   public void testParseContentCount()
+   {
+      // targetPosition 5, contentCount 256, result success
+      byte[] response = bytes(new int[]{
+         0x30, 0x0B,
+         0x02, 0x01, 0x05,
+         0x02, 0x02, 0x01, 0x00,
+         0x0A, 0x01, 0x00});
+
+      assertEquals(256, VirtualListViewControl.parseContentCount(response));
+   }
+
+   public void testParseContentCountWithLongFormLength()
+   {
+      byte[] response = bytes(new int[]{
+         0x30, 0x81, 0x0E,
+         0x02, 0x01, 0x01,
+         0x02, 0x03, 0x01, 0x86, 0xA0,
+         0x0A, 0x01, 0x00,
+         0x04, 0x01, 0x41});
+
+      assertEquals(100000, VirtualListViewControl.parseContentCount(response));
+   }
+
+   public void testParseMalformedResponse()
+   {
+      assertMalformed(null);
+      assertMalformed(new byte[0]);
+      assertMalformed(bytes(new int[]{0x04, 0x03, 0x02, 0x01, 0x05}));
+
+      // Truncated content count
+      assertMalformed(bytes(new int[]{0x30, 0x06, 0x02, 0x01, 0x05, 0x02, 0x02, 0x01}));
+
+      // Content count longer than int
+      assertMalformed(bytes(new int[]{0x30, 0x08, 0x02, 0x01, 0x05, 0x02, 0x05, 0x01, 0x00, 0x00, 0x00, 0x00}));
+   }
+
+   public void testGetContentCount()
+   {
+      final byte[] response = bytes(new int[]{0x30, 0x09, 0x02, 0x01, 0x01, 0x02, 0x01, 0x2A, 0x0A, 0x01, 0x00});
+
+      Control other = new TestControl("1.2.840.113556.1.4.474", new byte[]{0x30, 0x00});
+      Control vlv = new TestControl(VirtualListViewControl.RESPONSE_OID, response);
+
+      assertEquals(42, VirtualListViewControl.getContentCount(new Control[]{other, vlv}));
+      assertEquals(-1, VirtualListViewControl.getContentCount(new Control[]{other}));
+      assertEquals(-1, VirtualListViewControl.getContentCount(null));
+   }
+
+   private void assertMalformed(byte[] response)
+   {
+      try
+      {
+         VirtualListViewControl.parseContentCount(response);
+         fail("Malformed response parsed: " + Arrays.toString(response));
+      }
+      catch (IllegalArgumentException e)
+      {
+         // Expected
+      }
+   }
+
+   private static void assertBytes(int[] expected, byte[] actual)
+   {
+      assertEquals(Arrays.toString(bytes(expected)), Arrays.toString(actual));
+   }
+
+   static byte[] bytes(int[] values)
+   {
+      byte[] bytes = new byte[values.length];
+      for (int i = 0; i < values.length; i++)
+      {
+         bytes[i] = (byte)values[i];
+      }
+      return bytes;
+   }
+
+   static class TestControl implements Control
+   {
+      private final String id;
+
+      private final byte[] value;
+
+      TestControl(String id, byte[] value)
+      {
+         this.id = id;
+         this.value = value;
+      }
+
+      public String getID()
+      {
+         return id;
+      }
+
+      public boolean isCritical()
+      {
+         return false;
+      }
+
+      public byte[] getEncodedValue()
+      {
+         return value;
+      }
+   }
+}
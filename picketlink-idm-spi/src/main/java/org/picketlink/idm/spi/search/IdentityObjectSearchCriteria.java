@@ -42,6 +42,13 @@ public interface IdentityObjectSearchCriteria
 
    int getMaxResults();
 
+   String getPageAfterName();
+
+   /**
+    * @return name of the identity object type of the object with pageAfterName or null if only the name is compared
+    */
+   String getPageAfterType();
+
    boolean isFiltered();
 
    String getFilter();
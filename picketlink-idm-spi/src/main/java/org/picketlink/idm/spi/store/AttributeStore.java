@@ -28,6 +28,7 @@ import org.picketlink.idm.spi.model.IdentityObjectAttribute;
 import org.picketlink.idm.spi.configuration.metadata.IdentityObjectAttributeMetaData;
 import org.picketlink.idm.common.exception.IdentityException;
 
+import java.util.Collection;
 import java.util.Set;
 import java.util.Map;
 
@@ -69,6 +70,20 @@ public interface AttributeStore extends IdentityStoreSessionFactory
     */
    Map<String, IdentityObjectAttribute> getAttributes(IdentityStoreInvocationContext invocationContext, IdentityObject identity) throws IdentityException;
 
+   /**
+    * Get attributes for many identities at once. Stores should resolve them with as few queries as possible.
+    * Every given identity is present in the returned map - identities without attributes are mapped to an empty map.
+    *
+    * @param invocationContext
+    * @param identities
+    * @param attributeNames names of attributes to return or null to return all attributes
+    * @return attributes keyed by given identity objects
+    * @throws IdentityException
+    */
+   Map<IdentityObject, Map<String, IdentityObjectAttribute>> getAttributes(IdentityStoreInvocationContext invocationContext,
+                                                                           Collection<IdentityObject> identities,
+                                                                           String[] attributeNames) throws IdentityException;
+
    /**
     * Get attribute for the given identity
     *
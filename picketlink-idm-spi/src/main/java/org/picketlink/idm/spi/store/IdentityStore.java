@@ -23,6 +23,7 @@ package org.picketlink.idm.spi.store;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.Set;
 import java.util.Map;
 
@@ -33,6 +34,7 @@ import org.picketlink.idm.spi.model.IdentityObjectRelationship;
 import org.picketlink.idm.spi.exception.OperationNotSupportedException;
 import org.picketlink.idm.spi.configuration.IdentityStoreConfigurationContext;
 import org.picketlink.idm.spi.model.IdentityObjectCredential;
+import org.picketlink.idm.spi.model.IdentityObjectImport;
 import org.picketlink.idm.spi.search.IdentityObjectSearchCriteria;
 import org.picketlink.idm.common.exception.IdentityException;
 
@@ -138,6 +140,17 @@ public interface IdentityStore extends AttributeStore
     */
    IdentityObject findIdentityObject(IdentityStoreInvocationContext invocationContext, String id) throws IdentityException;
 
+   /**
+    * Check if identity with a given name and type is present in the store. Cheaper than findIdentityObject as
+    * stores don't need to read any identity data.
+    *
+    * @param invocationContext
+    * @param identity
+    * @return
+    * @throws IdentityException
+    */
+   boolean isIdentityObjectPresent(IdentityStoreInvocationContext invocationContext, IdentityObject identity) throws IdentityException;
+
 
    /**
     * Find identities with a given type
@@ -168,6 +181,24 @@ public interface IdentityStore extends AttributeStore
                                                     boolean parent,
                                                     IdentityObjectSearchCriteria criteria) throws IdentityException;
 
+   /**
+    * Find identities transitively related with given identity - all descendants if identity is parent side or all
+    * ancestors otherwise. Cycles in relationships are detected and each identity is returned once.
+    *
+    * @param invocationCxt
+    * @param identity
+    * @param relationshipType relationship type to follow - if null all types are followed
+    * @param identityType if not null only identities of this type are followed and returned
+    * @param parent defines if given identity is parent or child side in the relationships
+    * @return
+    * @throws IdentityException
+    */
+   Collection<IdentityObject> findIdentityObjectCascaded(IdentityStoreInvocationContext invocationCxt,
+                                                         IdentityObject identity,
+                                                         IdentityObjectRelationshipType relationshipType,
+                                                         IdentityObjectType identityType,
+                                                         boolean parent) throws IdentityException;
+
 
 
    /**
@@ -385,4 +416,22 @@ public interface IdentityStore extends AttributeStore
     */
    void updateCredential(IdentityStoreInvocationContext ctx, IdentityObject identityObject, IdentityObjectCredential credential) throws IdentityException;
 
+   // Bulk operations
+
+   /**
+    * Create identity objects together with their attributes, credentials and relationships. Objects are read from
+    * the iterator lazily and written in batches. Objects already present in the store are skipped.
+    *
+    * @param ctx
+    * @param objects
+    * @param batchSize number of objects written at once
+    * @param listener notified after each batch - may be null
+    * @return number of created identity objects
+    * @throws IdentityException
+    */
+   int importIdentityObjects(IdentityStoreInvocationContext ctx,
+                             Iterator<IdentityObjectImport> objects,
+                             int batchSize,
+                             IdentityObjectImportListener listener) throws IdentityException;
+
 }
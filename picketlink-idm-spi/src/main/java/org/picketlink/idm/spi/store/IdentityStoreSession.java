@@ -63,6 +63,18 @@ public interface IdentityStoreSession
     */
    boolean isOpen();
 
+   /**
+    * Declare that no changes will be made with this session so store can skip change tracking
+    * @param readOnly
+    */
+   void setReadOnly(boolean readOnly);
+
+   /**
+    * Check if this session is read-only
+    * @return
+    */
+   boolean isReadOnly();
+
 
    boolean isTransactionSupported();
 
@@ -110,6 +110,7 @@ public class IdentityTestPOJO extends TestCase
       mappings.add(prefix + "HibernateIdentityObjectCredentialType.hbm.xml");
       mappings.add(prefix + "HibernateIdentityObjectRelationship.hbm.xml");
       mappings.add(prefix + "HibernateIdentityObjectRelationshipName.hbm.xml");
+      mappings.add(prefix + "HibernateIdentityObjectRelationshipClosure.hbm.xml");
       mappings.add(prefix + "HibernateIdentityObjectRelationshipType.hbm.xml");
       mappings.add(prefix + "HibernateIdentityObjectType.hbm.xml");
       mappings.add(prefix + "HibernateRealm.hbm.xml");
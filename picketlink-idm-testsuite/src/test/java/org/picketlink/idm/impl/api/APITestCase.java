@@ -81,6 +81,11 @@ public class APITestCase extends IdentityTestPOJO implements APITestContext
       persistenceManagerTest.testMethods(getRealmName());
    }
 
+   public void testPersistenceManagerImportUsers() throws Exception
+   {
+      persistenceManagerTest.testImportUsers(getRealmName());
+   }
+
    public void testRelationshipManager() throws Exception
    {
       relationshipManagerTest.testMethods(getRealmName());
@@ -106,11 +111,21 @@ public class APITestCase extends IdentityTestPOJO implements APITestContext
       userQueryTest.testQuery(getRealmName());
    }
 
+   public void testUserQueryAttributeFilters() throws Exception
+   {
+      userQueryTest.testAttributeFilters(getRealmName());
+   }
+
    public void testGroupQuery() throws Exception
    {
       groupQueryTest.testQuery(getRealmName());
    }
 
+   public void testGroupQueryKeysetPages() throws Exception
+   {
+      groupQueryTest.testKeysetPages(getRealmName());
+   }
+
    public void testRoleQuery() throws Exception
    {
       roleQueryTest.testQuery(getRealmName());
@@ -27,9 +27,17 @@ import org.picketlink.idm.api.User;
 import org.picketlink.idm.api.Group;
 import org.picketlink.idm.api.RoleType;
 import org.picketlink.idm.api.Role;
+import org.picketlink.idm.api.IdentitySearchCriteria;
+import org.picketlink.idm.api.SortOrder;
 import org.picketlink.idm.api.query.GroupQueryBuilder;
 import junit.framework.Assert;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 /**
  * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
  * @version : 0.1 $
@@ -125,4 +133,71 @@ public class GroupQueryTest extends Assert
 
       ctx.commit();
    }
+
+   public void testKeysetPages(String realmName) throws Exception
+   {
+      ctx.begin();
+
+      IdentitySession ids = ctx.getIdentitySessionFactory().getCurrentIdentitySession(realmName);
+
+      User user1 = ids.getPersistenceManager().createUser("user1");
+
+      // Groups of different types share names so page boundaries fall between same-named groups
+
+      for (int i = 1; i <= 6; i++)
+      {
+         Group unit = ids.getPersistenceManager().createGroup("team" + i, ORGANIZATION_UNIT);
+         Group department = ids.getPersistenceManager().createGroup("team" + i, DEPARTMENT);
+
+         ids.getRelationshipManager().associateUser(unit, user1);
+         ids.getRelationshipManager().associateUser(department, user1);
+      }
+
+      assertKeysetPages(ids, user1, SortOrder.ASCENDING, 5);
+      assertKeysetPages(ids, user1, SortOrder.DESCENDING, 5);
+      assertKeysetPages(ids, user1, SortOrder.ASCENDING, 1);
+
+      ctx.commit();
+   }
+
+   private void assertKeysetPages(IdentitySession ids, User user, SortOrder order, int pageSize) throws Exception
+   {
+      List<Group> groups = new ArrayList<Group>();
+      Set<String> keys = new HashSet<String>();
+
+      IdentitySearchCriteria criteria = ids.getRelationshipManager().createIdentitySearchCriteria();
+      criteria.sort(order).page(0, pageSize);
+
+      Collection<Group> page = ids.getRelationshipManager().findAssociatedGroups(user, criteria);
+
+      while (!page.isEmpty())
+      {
+         assertTrue(page.size() <= pageSize);
+
+         Group last = null;
+
+         for (Group group : page)
+         {
+            assertTrue(keys.add(group.getName() + "/" + group.getGroupType()));
+            groups.add(group);
+            last = group;
+         }
+
+         criteria = ids.getRelationshipManager().createIdentitySearchCriteria();
+         criteria.sort(order).pageAfter(last.getName(), last.getGroupType(), pageSize);
+
+         page = ids.getRelationshipManager().findAssociatedGroups(user, criteria);
+      }
+
+      // No group is skipped or repeated at page boundaries
+
+      assertEquals(12, groups.size());
+
+      for (int i = 1; i < groups.size(); i++)
+      {
+         int compare = groups.get(i - 1).getName().compareTo(groups.get(i).getName());
+
+         assertTrue(order == SortOrder.ASCENDING ? compare <= 0 : compare >= 0);
+      }
+   }
 }
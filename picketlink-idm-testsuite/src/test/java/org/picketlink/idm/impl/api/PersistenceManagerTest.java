@@ -27,10 +27,20 @@ import org.picketlink.idm.api.Group;
 import org.picketlink.idm.api.User;
 import org.picketlink.idm.api.IdentitySessionFactory;
 import org.picketlink.idm.api.IdentitySearchCriteria;
+import org.picketlink.idm.api.Attribute;
+import org.picketlink.idm.api.Credential;
+import org.picketlink.idm.api.ImportProgressListener;
+import org.picketlink.idm.api.UserImport;
+import org.picketlink.idm.common.exception.IdentityException;
 
 import junit.framework.Assert;
 import org.picketlink.idm.impl.api.model.GroupKey;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
 /**
  *
  * @author <a href="mailto:boleslaw.dawidowicz at redhat.com">Boleslaw Dawidowicz</a>
@@ -182,4 +192,132 @@ public class PersistenceManagerTest extends Assert
 
 
 
+   public void testImportUsers(String realmName) throws Exception
+   {
+      IdentitySessionFactory factory = ctx.getIdentitySessionFactory();
+
+      IdentitySession session = factory.createIdentitySession(realmName);
+
+      ctx.begin();
+
+      Group group1 = session.getPersistenceManager().createGroup("importGroup1", ORGANIZATION);
+      Group group2 = session.getPersistenceManager().createGroup("importGroup2", PROJECT);
+
+      User existing = session.getPersistenceManager().createUser("existing");
+      session.getAttributesManager().addAttribute(existing, "email", "existing@localhost");
+
+      List<UserImport> users = new LinkedList<UserImport>();
+
+      // Existing user and duplicate names (compared ignoring case) are skipped
+      users.add(new TestUserImport("existing", null, null));
+      users.add(new TestUserImport("import1", "import1@localhost", group1));
+      users.add(new TestUserImport("import2", "import2@localhost", group1));
+      users.add(new TestUserImport("import3", null, group2));
+      users.add(new TestUserImport("IMPORT1", null, null));
+      users.add(new TestUserImport("import4", null, null));
+      users.add(new TestUserImport("import4", null, null));
+
+      final List<int[]> progress = new LinkedList<int[]>();
+
+      int imported = session.getPersistenceManager().importUsers(users.iterator(), 2, new ImportProgressListener()
+      {
+         public void importProgress(int processed, int imported)
+         {
+            progress.add(new int[]{processed, imported});
+         }
+      });
+
+      assertEquals(4, imported);
+      assertEquals(5, session.getPersistenceManager().getUserCount());
+
+      // Listener is notified after each batch
+      assertEquals(4, progress.size());
+      assertEquals(2, progress.get(0)[0]);
+      assertEquals(1, progress.get(0)[1]);
+      assertEquals(4, progress.get(1)[0]);
+      assertEquals(3, progress.get(1)[1]);
+      assertEquals(6, progress.get(2)[0]);
+      assertEquals(4, progress.get(2)[1]);
+      assertEquals(7, progress.get(3)[0]);
+      assertEquals(4, progress.get(3)[1]);
+
+      User import1 = session.getPersistenceManager().findUser("import1");
+
+      assertNotNull(import1);
+      assertEquals("import1@localhost", session.getAttributesManager().getAttribute(import1, "email").getValue());
+      assertTrue(session.getAttributesManager().validatePassword(import1, "import1-password"));
+      assertFalse(session.getAttributesManager().validatePassword(import1, "other-password"));
+
+      assertEquals(2, session.getRelationshipManager().findAssociatedUsers(group1, false).size());
+      assertEquals(1, session.getRelationshipManager().findAssociatedUsers(group2, false).size());
+
+      // Unique attribute values are checked against the store and within the import
+
+      users.clear();
+      users.add(new TestUserImport("import5", "existing@localhost", null));
+
+      try
+      {
+         session.getPersistenceManager().importUsers(users.iterator(), 10, null);
+         fail();
+      }
+      catch (IdentityException e)
+      {
+         // expected
+      }
+
+      users.clear();
+      users.add(new TestUserImport("import5", "import5@localhost", null));
+      users.add(new TestUserImport("import6", "import5@localhost", null));
+
+      try
+      {
+         session.getPersistenceManager().importUsers(users.iterator(), 10, null);
+         fail();
+      }
+      catch (IdentityException e)
+      {
+         // expected
+      }
+
+      assertEquals(5, session.getPersistenceManager().getUserCount());
+
+      ctx.commit();
+   }
+
+   private static class TestUserImport implements UserImport
+   {
+      private final String id;
+
+      private final String email;
+
+      private final Group group;
+
+      TestUserImport(String id, String email, Group group)
+      {
+         this.id = id;
+         this.email = email;
+         this.group = group;
+      }
+
+      public String getId()
+      {
+         return id;
+      }
+
+      public Attribute[] getAttributes()
+      {
+         return email != null ? new Attribute[]{new SimpleAttribute("email", email)} : null;
+      }
+
+      public Credential[] getCredentials()
+      {
+         return new Credential[]{new PasswordCredential(id + "-password")};
+      }
+
+      public Collection<Group> getGroups()
+      {
+         return group != null ? Collections.singleton(group) : null;
+      }
+   }
 }
\ No newline at end of file
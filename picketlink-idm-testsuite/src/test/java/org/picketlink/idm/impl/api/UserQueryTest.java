@@ -230,6 +230,90 @@ public class UserQueryTest extends Assert
       ctx.commit();
    }
 
+   public void testAttributeFilters(String realmName) throws Exception
+   {
+      ctx.begin();
+
+      IdentitySession ids = ctx.getIdentitySessionFactory().getCurrentIdentitySession(realmName);
+
+      User user1 = ids.getPersistenceManager().createUser("user1");
+      User user2 = ids.getPersistenceManager().createUser("user2");
+      User user3 = ids.getPersistenceManager().createUser("user3");
+      User user4 = ids.getPersistenceManager().createUser("user4");
+
+      ids.getAttributesManager().addAttribute(user1, "department", "Sales");
+      ids.getAttributesManager().addAttribute(user2, "department", "Sales EMEA");
+      ids.getAttributesManager().addAttribute(user3, "department", "Presales");
+      ids.getAttributesManager().addAttribute(user4, "department", "Marketing");
+
+      ids.getAttributesManager().addAttribute(user1, "discount", "50%");
+      ids.getAttributesManager().addAttribute(user2, "discount", "500");
+      ids.getAttributesManager().addAttribute(user3, "discount", "50_");
+
+      UserQueryBuilder qb = ids.createUserQueryBuilder();
+
+      // Prefix wildcard
+      qb.attributeValuesFilter("department", new String[] {"Sales*"});
+      qb.sort(SortOrder.ASCENDING);
+      List<User> results = ids.list(qb.createQuery());
+
+      assertEquals(2, results.size());
+      assertEquals(user1, results.get(0));
+      assertEquals(user2, results.get(1));
+
+      // Values are compared ignoring case
+      qb.reset();
+      qb.attributeValuesFilter("department", new String[] {"sales"});
+      results = ids.list(qb.createQuery());
+
+      assertEquals(1, results.size());
+      assertEquals(user1, results.get(0));
+
+      //
+      qb.reset();
+      qb.attributeValuesFilter("department", new String[] {"*sales*"});
+      qb.sort(SortOrder.DESCENDING);
+      qb.page(0, 2);
+      results = ids.list(qb.createQuery());
 
+      assertEquals(2, results.size());
+      assertEquals(user3, results.get(0));
+      assertEquals(user2, results.get(1));
+
+      // Literal '%' and '_' must not be treated as wildcards
+      qb.reset();
+      qb.attributeValuesFilter("discount", new String[] {"50%"});
+      results = ids.list(qb.createQuery());
+
+      assertEquals(1, results.size());
+      assertEquals(user1, results.get(0));
+
+      //
+      qb.reset();
+      qb.attributeValuesFilter("discount", new String[] {"50_"});
+      results = ids.list(qb.createQuery());
+
+      assertEquals(1, results.size());
+      assertEquals(user3, results.get(0));
+
+      //
+      qb.reset();
+      qb.attributeValuesFilter("discount", new String[] {"50?"});
+      qb.sort(SortOrder.ASCENDING);
+      results = ids.list(qb.createQuery());
+
+      assertEquals(3, results.size());
+
+      // All values must be present
+      qb.reset();
+      qb.attributeValuesFilter("department", new String[] {"Sales*"});
+      qb.attributeValuesFilter("discount", new String[] {"*%"});
+      results = ids.list(qb.createQuery());
+
+      assertEquals(1, results.size());
+      assertEquals(user1, results.get(0));
+
+      ctx.commit();
+   }
 
 }
@@ -24,6 +24,8 @@ package org.picketlink.idm.impl.store.hibernate;
 
 import org.picketlink.idm.spi.model.IdentityObject;
 import org.picketlink.idm.spi.model.IdentityObjectAttribute;
+import org.picketlink.idm.spi.model.IdentityObjectImport;
+import org.picketlink.idm.spi.store.IdentityObjectImportListener;
 import org.picketlink.idm.spi.store.IdentityStoreInvocationContext;
 import org.picketlink.idm.spi.store.IdentityStore;
 import org.picketlink.idm.spi.store.IdentityStoreSession;
@@ -33,17 +35,25 @@ import org.picketlink.idm.spi.configuration.IdentityStoreConfigurationContext;
 import org.picketlink.idm.spi.configuration.IdentityConfigurationContextRegistry;
 import org.picketlink.idm.impl.store.hibernate.HibernateIdentityStoreImpl;
 import org.picketlink.idm.impl.store.IdentityTypeEnum;
+import org.picketlink.idm.impl.store.RelationshipTypeEnum;
 import org.picketlink.idm.impl.store.CommonIdentityStoreTest;
 import org.picketlink.idm.impl.store.IdentityStoreTestContext;
 import org.picketlink.idm.impl.configuration.jaxb2.JAXB2IdentityConfiguration;
 import org.picketlink.idm.impl.configuration.IdentityStoreConfigurationContextImpl;
 import org.picketlink.idm.impl.configuration.IdentityConfigurationImpl;
 import org.picketlink.idm.impl.api.SimpleAttribute;
+import org.picketlink.idm.impl.types.SimpleIdentityObject;
+import org.picketlink.idm.impl.types.SimpleIdentityObjectImport;
 import org.picketlink.idm.impl.IdentityTestPOJO;
 import org.picketlink.idm.common.exception.IdentityException;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 
@@ -364,4 +374,313 @@ public class HibernateIdentityStoreTestCase extends IdentityTestPOJO implements
       commonTest.testCriteria();
    }
 
+   public void testImportIdentityObjects() throws Exception
+   {
+      begin();
+
+      store.createIdentityObject(ctx, "existing", IdentityTypeEnum.USER);
+
+      flush();
+
+      IdentityObject org1 = new SimpleIdentityObject("importOrg1", IdentityTypeEnum.ORGANIZATION);
+      IdentityObject org2 = new SimpleIdentityObject("importOrg2", IdentityTypeEnum.ORGANIZATION);
+
+      Map<String, String[]> attributes = new HashMap<String, String[]>();
+      attributes.put("key1", new String[]{"val1", "val2"});
+
+      List<IdentityObjectImport> objects = new LinkedList<IdentityObjectImport>();
+
+      // Parents can be imported earlier in the same chunk or in one of previous chunks
+      objects.add(createImport("importOrg1", IdentityTypeEnum.ORGANIZATION, null, null));
+      objects.add(createImport("importUser1", IdentityTypeEnum.USER, attributes, org1));
+      objects.add(createImport("existing", IdentityTypeEnum.USER, null, null));
+      objects.add(createImport("IMPORTUSER1", IdentityTypeEnum.USER, null, null));
+      objects.add(createImport("importOrg2", IdentityTypeEnum.ORGANIZATION, null, org1));
+      objects.add(createImport("importUser2", IdentityTypeEnum.USER, null, org2));
+      objects.add(createImport("importUser2", IdentityTypeEnum.USER, null, org2));
+
+      final List<int[]> progress = new LinkedList<int[]>();
+
+      int imported = store.importIdentityObjects(ctx, objects.iterator(), 5, new IdentityObjectImportListener()
+      {
+         public void importProgress(int processed, int imported)
+         {
+            progress.add(new int[]{processed, imported});
+         }
+      });
+
+      flush();
+
+      assertEquals(4, imported);
+
+      assertEquals(2, progress.size());
+      assertEquals(5, progress.get(0)[0]);
+      assertEquals(3, progress.get(0)[1]);
+      assertEquals(7, progress.get(1)[0]);
+      assertEquals(4, progress.get(1)[1]);
+
+      assertEquals(3, store.getIdentityObjectsCount(ctx, IdentityTypeEnum.USER));
+      assertEquals(2, store.getIdentityObjectsCount(ctx, IdentityTypeEnum.ORGANIZATION));
+
+      IdentityObject user1 = store.findIdentityObject(ctx, "importUser1", IdentityTypeEnum.USER);
+
+      assertNotNull(user1);
+      assertEquals(2, store.getAttributes(ctx, user1).get("key1").getSize());
+
+      IdentityObject persistedOrg1 = store.findIdentityObject(ctx, "importOrg1", IdentityTypeEnum.ORGANIZATION);
+      IdentityObject persistedOrg2 = store.findIdentityObject(ctx, "importOrg2", IdentityTypeEnum.ORGANIZATION);
+
+      assertEquals(2, store.findIdentityObject(ctx, persistedOrg1, RelationshipTypeEnum.JBOSS_IDENTITY_MEMBERSHIP, true, null).size());
+      assertEquals(1, store.findIdentityObject(ctx, persistedOrg2, RelationshipTypeEnum.JBOSS_IDENTITY_MEMBERSHIP, true, null).size());
+      assertEquals(1, store.findIdentityObject(ctx, user1, RelationshipTypeEnum.JBOSS_IDENTITY_MEMBERSHIP, false, null).size());
+
+      // Parents need to be present in the store
+
+      objects.clear();
+      objects.add(createImport("importUser3", IdentityTypeEnum.USER, null,
+         new SimpleIdentityObject("missingOrg", IdentityTypeEnum.ORGANIZATION)));
+
+      try
+      {
+         store.importIdentityObjects(ctx, objects.iterator(), 5, null);
+         fail();
+      }
+      catch (IdentityException e)
+      {
+         // expected
+      }
+
+      commit();
+   }
+
+   public void testRelationshipClosureDiamond() throws Exception
+   {
+      begin();
+
+      IdentityObject top = store.createIdentityObject(ctx, "top", IdentityTypeEnum.ORGANIZATION);
+      IdentityObject left = store.createIdentityObject(ctx, "left", IdentityTypeEnum.ORGANIZATION);
+      IdentityObject right = store.createIdentityObject(ctx, "right", IdentityTypeEnum.ORGANIZATION);
+      IdentityObject bottom = store.createIdentityObject(ctx, "bottom", IdentityTypeEnum.ORGANIZATION);
+      IdentityObject user = store.createIdentityObject(ctx, "Adam", IdentityTypeEnum.USER);
+
+      flush();
+
+      createDiamond(top, left, right, bottom, user);
+
+      Map<String, Long> closure = getRelationshipClosure();
+
+      assertEquals(9, closure.size());
+      assertEquals(new Long(1), closure.get("top/left/1"));
+      assertEquals(new Long(1), closure.get("top/right/1"));
+      assertEquals(new Long(1), closure.get("left/bottom/1"));
+      assertEquals(new Long(1), closure.get("right/bottom/1"));
+      assertEquals(new Long(1), closure.get("bottom/Adam/1"));
+      assertEquals(new Long(2), closure.get("top/bottom/2"));
+      assertEquals(new Long(1), closure.get("left/Adam/2"));
+      assertEquals(new Long(1), closure.get("right/Adam/2"));
+      assertEquals(new Long(2), closure.get("top/Adam/3"));
+
+      assertEquals(4, store.findIdentityObjectCascaded(ctx, top, RelationshipTypeEnum.JBOSS_IDENTITY_MEMBERSHIP, null, true).size());
+      assertEquals(4, store.findIdentityObjectCascaded(ctx, user, RelationshipTypeEnum.JBOSS_IDENTITY_MEMBERSHIP, null, false).size());
+
+      // Removing one side of the diamond keeps paths going through the other one
+
+      store.removeRelationship(ctx, left, bottom, RelationshipTypeEnum.JBOSS_IDENTITY_MEMBERSHIP, null);
+
+      flush();
+
+      closure = getRelationshipClosure();
+
+      assertEquals(7, closure.size());
+      assertEquals(new Long(1), closure.get("top/bottom/2"));
+      assertEquals(new Long(1), closure.get("top/Adam/3"));
+      assertNull(closure.get("left/bottom/1"));
+      assertNull(closure.get("left/Adam/2"));
+
+      assertEquals(4, store.findIdentityObjectCascaded(ctx, top, RelationshipTypeEnum.JBOSS_IDENTITY_MEMBERSHIP, null, true).size());
+      assertEquals(0, store.findIdentityObjectCascaded(ctx, left, RelationshipTypeEnum.JBOSS_IDENTITY_MEMBERSHIP, null, true).size());
+      assertEquals(3, store.findIdentityObjectCascaded(ctx, user, RelationshipTypeEnum.JBOSS_IDENTITY_MEMBERSHIP, null, false).size());
+
+      // Adding it back restores path counts
+
+      store.createRelationship(ctx, left, bottom, RelationshipTypeEnum.JBOSS_IDENTITY_MEMBERSHIP, null, false);
+
+      flush();
+
+      closure = getRelationshipClosure();
+
+      assertEquals(9, closure.size());
+      assertEquals(new Long(2), closure.get("top/bottom/2"));
+      assertEquals(new Long(2), closure.get("top/Adam/3"));
+
+      store.removeRelationship(ctx, bottom, user, RelationshipTypeEnum.JBOSS_IDENTITY_MEMBERSHIP, null);
+
+      flush();
+
+      closure = getRelationshipClosure();
+
+      assertEquals(5, closure.size());
+      assertEquals(0, store.findIdentityObjectCascaded(ctx, user, RelationshipTypeEnum.JBOSS_IDENTITY_MEMBERSHIP, null, false).size());
+
+      commit();
+   }
+
+   public void testRelationshipClosureRemoveIntermediateObject() throws Exception
+   {
+      begin();
+
+      IdentityObject top = store.createIdentityObject(ctx, "top", IdentityTypeEnum.ORGANIZATION);
+      IdentityObject left = store.createIdentityObject(ctx, "left", IdentityTypeEnum.ORGANIZATION);
+      IdentityObject right = store.createIdentityObject(ctx, "right", IdentityTypeEnum.ORGANIZATION);
+      IdentityObject bottom = store.createIdentityObject(ctx, "bottom", IdentityTypeEnum.ORGANIZATION);
+      IdentityObject user = store.createIdentityObject(ctx, "Adam", IdentityTypeEnum.USER);
+
+      flush();
+
+      createDiamond(top, left, right, bottom, user);
+
+      store.removeIdentityObject(ctx, left);
+
+      flush();
+
+      Map<String, Long> closure = getRelationshipClosure();
+
+      assertEquals(6, closure.size());
+      assertEquals(new Long(1), closure.get("top/bottom/2"));
+      assertEquals(new Long(1), closure.get("top/Adam/3"));
+      assertEquals(new Long(1), closure.get("right/Adam/2"));
+
+      for (String key : closure.keySet())
+      {
+         assertFalse(key.startsWith("left/") || key.contains("/left/"));
+      }
+
+      // Object through which all paths go
+
+      store.removeIdentityObject(ctx, bottom);
+
+      flush();
+
+      closure = getRelationshipClosure();
+
+      assertEquals(1, closure.size());
+      assertEquals(new Long(1), closure.get("top/right/1"));
+
+      assertEquals(1, store.findIdentityObjectCascaded(ctx, top, RelationshipTypeEnum.JBOSS_IDENTITY_MEMBERSHIP, null, true).size());
+      assertEquals(0, store.findIdentityObjectCascaded(ctx, user, RelationshipTypeEnum.JBOSS_IDENTITY_MEMBERSHIP, null, false).size());
+
+      commit();
+   }
+
+   public void testRebuildRelationshipClosure() throws Exception
+   {
+      begin();
+
+      IdentityObject top = store.createIdentityObject(ctx, "top", IdentityTypeEnum.ORGANIZATION);
+      IdentityObject left = store.createIdentityObject(ctx, "left", IdentityTypeEnum.ORGANIZATION);
+      IdentityObject right = store.createIdentityObject(ctx, "right", IdentityTypeEnum.ORGANIZATION);
+      IdentityObject bottom = store.createIdentityObject(ctx, "bottom", IdentityTypeEnum.ORGANIZATION);
+      IdentityObject user1 = store.createIdentityObject(ctx, "Adam", IdentityTypeEnum.USER);
+      IdentityObject user2 = store.createIdentityObject(ctx, "Eva", IdentityTypeEnum.USER);
+
+      flush();
+
+      createDiamond(top, left, right, bottom, user1);
+
+      // Second diamond sharing the bottom and a shortcut making paths of different length
+
+      IdentityObject other = store.createIdentityObject(ctx, "other", IdentityTypeEnum.ORGANIZATION);
+
+      flush();
+
+      store.createRelationship(ctx, other, left, RelationshipTypeEnum.JBOSS_IDENTITY_MEMBERSHIP, null, false);
+      store.createRelationship(ctx, other, right, RelationshipTypeEnum.JBOSS_IDENTITY_MEMBERSHIP, null, false);
+      store.createRelationship(ctx, top, bottom, RelationshipTypeEnum.JBOSS_IDENTITY_MEMBERSHIP, null, false);
+      store.createRelationship(ctx, left, user2, RelationshipTypeEnum.JBOSS_IDENTITY_MEMBERSHIP, null, false);
+      store.createRelationship(ctx, bottom, user2, RelationshipTypeEnum.JBOSS_IDENTITY_MEMBERSHIP, null, false);
+
+      flush();
+
+      store.removeRelationship(ctx, right, bottom, RelationshipTypeEnum.JBOSS_IDENTITY_MEMBERSHIP, null);
+
+      flush();
+
+      Map<String, Long> incremental = getRelationshipClosure();
+
+      int created = store.rebuildRelationshipClosure(ctx, RelationshipTypeEnum.JBOSS_IDENTITY_MEMBERSHIP);
+
+      flush();
+
+      Map<String, Long> rebuilt = getRelationshipClosure();
+
+      assertEquals(incremental.size(), created);
+      assertEquals(incremental, rebuilt);
+
+      assertEquals(new Long(1), rebuilt.get("top/bottom/1"));
+      assertEquals(new Long(1), rebuilt.get("top/bottom/2"));
+      assertEquals(new Long(1), rebuilt.get("other/Eva/2"));
+      assertEquals(new Long(1), rebuilt.get("other/Eva/3"));
+
+      // Closure maintained after the rebuild is still exact
+
+      store.removeIdentityObject(ctx, bottom);
+
+      flush();
+
+      incremental = getRelationshipClosure();
+
+      store.rebuildRelationshipClosure(ctx, RelationshipTypeEnum.JBOSS_IDENTITY_MEMBERSHIP);
+
+      flush();
+
+      assertEquals(incremental, getRelationshipClosure());
+
+      commit();
+   }
+
+   /**
+    * top -> left -> bottom -> user and top -> right -> bottom
+    */
+   private void createDiamond(IdentityObject top, IdentityObject left, IdentityObject right, IdentityObject bottom,
+                              IdentityObject user) throws Exception
+   {
+      store.createRelationship(ctx, top, left, RelationshipTypeEnum.JBOSS_IDENTITY_MEMBERSHIP, null, false);
+      store.createRelationship(ctx, top, right, RelationshipTypeEnum.JBOSS_IDENTITY_MEMBERSHIP, null, false);
+      store.createRelationship(ctx, left, bottom, RelationshipTypeEnum.JBOSS_IDENTITY_MEMBERSHIP, null, false);
+      store.createRelationship(ctx, right, bottom, RelationshipTypeEnum.JBOSS_IDENTITY_MEMBERSHIP, null, false);
+      store.createRelationship(ctx, bottom, user, RelationshipTypeEnum.JBOSS_IDENTITY_MEMBERSHIP, null, false);
+
+      flush();
+   }
+
+   /**
+    * @return path counts of membership closure rows keyed by "ancestor/descendant/depth"
+    */
+   private Map<String, Long> getRelationshipClosure()
+   {
+      List rows = getHibernateSupport().getSessionFactory().getCurrentSession()
+         .createQuery("select c.ancestor.name, c.descendant.name, c.depth, c.pathCount " +
+            "from HibernateIdentityObjectRelationshipClosure c where c.type.name = :type")
+         .setParameter("type", RelationshipTypeEnum.JBOSS_IDENTITY_MEMBERSHIP.getName())
+         .list();
+
+      Map<String, Long> closure = new HashMap<String, Long>();
+
+      for (Object result : rows)
+      {
+         Object[] row = (Object[])result;
+         closure.put(row[0] + "/" + row[1] + "/" + row[2], (Long)row[3]);
+      }
+
+      return closure;
+   }
+
+   private IdentityObjectImport createImport(String name, IdentityTypeEnum type, Map<String, String[]> attributes, IdentityObject parent)
+   {
+      Collection<IdentityObject> parents = parent != null ? Collections.singleton(parent) : null;
+
+      return new SimpleIdentityObjectImport(name, type, attributes, null, parents,
+         RelationshipTypeEnum.JBOSS_IDENTITY_MEMBERSHIP);
+   }
+
 }
\ No newline at end of file